@@ -0,0 +1,852 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.siloft.networking.processor;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * Annotation processor generating a codec for every TCP protocol packet class
+ * being compiled. The processor does not require any annotation, every
+ * concrete subclass of <code>TCPProtocolPacket</code> is processed.
+ * <p>
+ * The fields of every TCP protocol packet class are validated at compile time
+ * according to the same rules <code>TCPProtocolPacket</code> applies at run
+ * time: all fields are public and not static, transient or volatile, the first
+ * field is the final <code>short opCode</code> field, and all other fields are
+ * not final and of a supported type. Any violation is reported as a compile
+ * error on the field.
+ * <p>
+ * For a valid TCP protocol packet class <code>Name</code> the class
+ * <code>NameCodec</code> is generated in the same package, and registered in
+ * <code>META-INF/services/com.siloft.networking.TCPPacketCodec</code>. At run
+ * time the codec is looked up by its name. The generated codec accesses the
+ * fields directly, therefore encoding and decoding do not use reflection. No
+ * codec is generated for private or generic classes, which keep using the run
+ * time codec.
+ *
+ * @author Sander Veldhuis
+ */
+@SupportedAnnotationTypes("*")
+public final class TCPProtocolProcessor extends AbstractProcessor {
+
+    /** The name of the TCP protocol packet class. */
+    private static final String PACKET_CLASS =
+            "com.siloft.networking.TCPProtocolPacket";
+
+    /** The name of the TCP packet codec class. */
+    private static final String CODEC_CLASS =
+            "com.siloft.networking.TCPPacketCodec";
+
+    /** The name of the chunk class. */
+    private static final String CHUNK_CLASS = "com.siloft.networking.TCPChunk";
+
+    /** The name of the list interface. */
+    private static final String LIST_CLASS = "java.util.List";
+
+    /** The service file registering the generated codecs. */
+    private static final String SERVICE_FILE =
+            "META-INF/services/" + CODEC_CLASS;
+
+    /** The op code field name. */
+    private static final String OP_CODE_NAME = "opCode";
+
+    /** The names which cannot be used for local variables. */
+    private static final Set<String> RESERVED_NAMES = new TreeSet<String>(
+            Arrays.asList("bits", "packet", "size", "source", "target"));
+
+    /** The names of the generated codecs. */
+    private final Set<String> codecs = new TreeSet<String>();
+
+    /**
+     * Returns the latest supported source version.
+     *
+     * @return the latest supported source version
+     */
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    /**
+     * Processes all TCP protocol packet classes of a round.
+     *
+     * @param annotations
+     *            the annotation types requested to be processed
+     * @param roundEnv
+     *            the environment of the current round
+     *
+     * @return always <code>false</code>, not claiming any annotation
+     */
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations,
+            RoundEnvironment roundEnv) {
+        TypeElement packetClass =
+                processingEnv.getElementUtils().getTypeElement(PACKET_CLASS);
+        if (packetClass == null) {
+            return false;
+        }
+
+        List<TypeElement> types = new ArrayList<TypeElement>();
+        collect(ElementFilter.typesIn(roundEnv.getRootElements()), types);
+        for (TypeElement type : types) {
+            if (!type.equals(packetClass)
+                    && type.getKind() == ElementKind.CLASS
+                    && !type.getModifiers().contains(Modifier.ABSTRACT)
+                    && processingEnv.getTypeUtils().isSubtype(type.asType(),
+                            packetClass.asType())) {
+                process(type);
+            }
+        }
+
+        if (roundEnv.processingOver() && !codecs.isEmpty()) {
+            writeServiceFile();
+        }
+        return false;
+    }
+
+    /**
+     * Adds the specified types and all their member types to the list.
+     *
+     * @param types
+     *            the types
+     * @param result
+     *            the list
+     */
+    private static void collect(Collection<TypeElement> types,
+            List<TypeElement> result) {
+        for (TypeElement type : types) {
+            result.add(type);
+            collect(ElementFilter.typesIn(type.getEnclosedElements()), result);
+        }
+    }
+
+    /**
+     * Validates the specified TCP protocol packet class, and generates its
+     * codec if possible.
+     *
+     * @param type
+     *            the TCP protocol packet class
+     */
+    private void process(TypeElement type) {
+        List<VariableElement> fields =
+                ElementFilter.fieldsIn(type.getEnclosedElements());
+        boolean valid = !fields.isEmpty();
+        if (!valid) {
+            error("Field opCode missing", type);
+        }
+        for (int i = 0; i < fields.size(); i++) {
+            valid &= validate(fields.get(i), i == 0);
+        }
+
+        if (valid && isGeneratable(type)) {
+            try {
+                generate(type, fields);
+            } catch (IOException e) {
+                error("Codec not generated: " + e.getMessage(), type);
+            }
+        }
+    }
+
+    /**
+     * Validates the specified field.
+     *
+     * @param field
+     *            the field
+     * @param opCodeExpected
+     *            whether the field is expected to be the op code field
+     *
+     * @return <code>true</code> if the field is valid, <code>false</code>
+     *         otherwise
+     */
+    private boolean validate(VariableElement field, boolean opCodeExpected) {
+        Set<Modifier> modifiers = field.getModifiers();
+
+        if (!modifiers.contains(Modifier.PUBLIC)) {
+            return error("Field should be public", field);
+        } else if (modifiers.contains(Modifier.STATIC)) {
+            return error("Field should not be static", field);
+        } else if (modifiers.contains(Modifier.TRANSIENT)) {
+            return error("Field should not be transient", field);
+        } else if (modifiers.contains(Modifier.VOLATILE)) {
+            return error("Field should not be volatile", field);
+        }
+
+        if (opCodeExpected) {
+            if (!modifiers.contains(Modifier.FINAL)) {
+                return error("Field opCode should be final", field);
+            } else if (field.asType().getKind() != TypeKind.SHORT) {
+                return error("Field opCode should be short", field);
+            } else if (!field.getSimpleName().contentEquals(OP_CODE_NAME)) {
+                return error("Field opCode invalid name", field);
+            }
+        } else {
+            if (modifiers.contains(Modifier.FINAL)) {
+                return error("Field should not be final", field);
+            } else if (kindOf(field) == null) {
+                return error("Field type not valid", field);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether a codec can be generated for the specified TCP protocol
+     * packet class. The class and all enclosing classes should be accessible
+     * from the same package, and the class should not be generic.
+     *
+     * @param type
+     *            the TCP protocol packet class
+     *
+     * @return <code>true</code> if a codec can be generated,
+     *         <code>false</code> otherwise
+     */
+    private static boolean isGeneratable(TypeElement type) {
+        Element element = type;
+        while (element instanceof TypeElement) {
+            TypeElement enclosing = (TypeElement) element;
+            if (enclosing.getModifiers().contains(Modifier.PRIVATE)
+                    || !enclosing.getTypeParameters().isEmpty()
+                    || (enclosing.getNestingKind() != NestingKind.TOP_LEVEL
+                            && enclosing
+                                    .getNestingKind() != NestingKind.MEMBER)) {
+                return false;
+            }
+            element = enclosing.getEnclosingElement();
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether a codec can construct the specified TCP protocol packet
+     * class, which requires a public constructor without arguments.
+     *
+     * @param type
+     *            the TCP protocol packet class
+     *
+     * @return <code>true</code> if the class can be constructed,
+     *         <code>false</code> otherwise
+     */
+    private static boolean isConstructable(TypeElement type) {
+        if (type.getNestingKind() == NestingKind.MEMBER
+                && !type.getModifiers().contains(Modifier.STATIC)) {
+            return false;
+        }
+        for (ExecutableElement constructor : ElementFilter
+                .constructorsIn(type.getEnclosedElements())) {
+            if (constructor.getParameters().isEmpty()
+                    && constructor.getModifiers().contains(Modifier.PUBLIC)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Generates the codec of the specified TCP protocol packet class.
+     *
+     * @param type
+     *            the TCP protocol packet class
+     * @param fields
+     *            the validated fields, starting with the op code field
+     *
+     * @exception IOException
+     *                if the source file cannot be written
+     */
+    private void generate(TypeElement type, List<VariableElement> fields)
+            throws IOException {
+        String packageName = processingEnv.getElementUtils()
+                .getPackageOf(type).getQualifiedName().toString();
+        String packetName = type.getQualifiedName().toString();
+        String binaryName = processingEnv.getElementUtils()
+                .getBinaryName(type).toString();
+        String codecName = binaryName.substring(packageName.isEmpty() ? 0
+                : packageName.length() + 1).replace('$', '_') + "Codec";
+        String qualifiedCodecName = (packageName.isEmpty() ? codecName
+                : packageName + "." + codecName);
+        Object opCode = fields.get(0).getConstantValue();
+
+        CodecWriter out = new CodecWriter();
+        if (!packageName.isEmpty()) {
+            out.line("package " + packageName + ";");
+            out.line("");
+        }
+        out.line("/**");
+        out.line(" * The generated codec of the <code>" + type.getSimpleName()
+                + "</code> TCP protocol packet.");
+        out.line(" */");
+        out.line("public final class " + codecName + " extends "
+                + CODEC_CLASS + "<" + packetName + "> {");
+        if (opCode instanceof Number) {
+            out.line("");
+            out.line("    /** The op code. */");
+            out.line("    private static final short OP_CODE = "
+                    + ((Number) opCode).shortValue() + ";");
+        }
+
+        out.line("");
+        out.line("    @Override");
+        out.line("    public Class<" + packetName + "> getPacketClass() {");
+        out.line("        return " + packetName + ".class;");
+        out.line("    }");
+
+        out.line("");
+        out.line("    @Override");
+        out.line("    public short getOpCode(" + packetName + " packet) {");
+        out.line("        return packet." + OP_CODE_NAME + ";");
+        out.line("    }");
+
+        int fixedLength = 2;
+        StringBuilder length = new StringBuilder();
+        for (VariableElement field : fields.subList(1, fields.size())) {
+            Kind kind = kindOf(field);
+            fixedLength += kind.length;
+            if (kind.variableLength != null) {
+                length.append(" + " + String.format(kind.variableLength,
+                        "packet." + field.getSimpleName()));
+            }
+        }
+        out.line("");
+        out.line("    @Override");
+        out.line("    public int getLength(" + packetName + " packet) {");
+        out.line("        return " + fixedLength + length + ";");
+        out.line("    }");
+
+        out.line("");
+        out.line("    @Override");
+        out.line("    protected " + packetName + " newPacket() {");
+        out.line("        return " + (isConstructable(type)
+                ? "new " + packetName + "()" : "null") + ";");
+        out.line("    }");
+
+        out.line("");
+        out.line("    @Override");
+        out.line("    protected void write(" + packetName + " packet,");
+        out.line("            java.nio.ByteBuffer target) {");
+        out.line("        target.putShort(packet." + OP_CODE_NAME + ");");
+        for (VariableElement field : fields.subList(1, fields.size())) {
+            Kind kind = kindOf(field);
+            out.line("        " + String.format(kind.writer,
+                    "packet." + field.getSimpleName()) + ";");
+        }
+        out.line("    }");
+
+        out.line("");
+        out.line("    @Override");
+        out.line("    protected boolean read(java.nio.ByteBuffer source,");
+        out.line("            " + packetName + " packet) {");
+        generateRead(out, fields, opCode instanceof Number, false);
+        out.line("    }");
+
+        out.line("");
+        out.line("    @Override");
+        out.line("    protected void writeCompact(" + packetName + " packet,");
+        out.line("            java.nio.ByteBuffer target) {");
+        out.line("        target.putShort(packet." + OP_CODE_NAME + ");");
+        List<VariableElement> booleans = booleans(fields);
+        for (int i = 0; i < booleans.size(); i += 8) {
+            List<VariableElement> group =
+                    booleans.subList(i, Math.min(i + 8, booleans.size()));
+            for (int j = 0; j < group.size(); j++) {
+                out.line((j == 0 ? "        target.put((byte) ("
+                        : "                | ") + "(packet."
+                        + group.get(j).getSimpleName() + " ? " + (1 << j)
+                        + " : 0)" + (j == group.size() - 1 ? "));" : ""));
+            }
+        }
+        for (VariableElement field : fields.subList(1, fields.size())) {
+            Kind kind = kindOf(field);
+            if (kind != Kind.BOOLEAN) {
+                out.line("        " + String.format(kind.compactWriter,
+                        "packet." + field.getSimpleName()) + ";");
+            }
+        }
+        out.line("    }");
+
+        out.line("");
+        out.line("    @Override");
+        out.line("    protected boolean readCompact("
+                + "java.nio.ByteBuffer source,");
+        out.line("            " + packetName + " packet) {");
+        generateRead(out, fields, opCode instanceof Number, true);
+        out.line("    }");
+        out.line("}");
+
+        FileObject file = processingEnv.getFiler()
+                .createSourceFile(qualifiedCodecName, type);
+        try (Writer writer = file.openWriter()) {
+            writer.write(out.toString());
+        }
+        codecs.add(qualifiedCodecName);
+    }
+
+    /**
+     * Generates the body of the read method of a codec. All fields are read
+     * into local variables, and assigned once the whole packet is read.
+     *
+     * @param out
+     *            the codec writer
+     * @param fields
+     *            the validated fields, starting with the op code field
+     * @param constantOpCode
+     *            whether the op code is a constant
+     * @param compact
+     *            whether to read the compact wire format
+     */
+    private void generateRead(CodecWriter out,
+            List<VariableElement> fields, boolean constantOpCode,
+            boolean compact) {
+        out.line("        if (source.getShort() != "
+                + (constantOpCode ? "OP_CODE" : "packet." + OP_CODE_NAME)
+                + ") {");
+        out.line("            return false;");
+        out.line("        }");
+        out.line("");
+
+        List<String> locals = new ArrayList<String>();
+        for (VariableElement field : fields.subList(1, fields.size())) {
+            String local = field.getSimpleName().toString();
+            if (RESERVED_NAMES.contains(local)) {
+                local += "Value";
+            }
+            locals.add(local);
+        }
+
+        if (compact) {
+            List<VariableElement> booleans = booleans(fields);
+            for (int i = 0; i < booleans.size(); i++) {
+                if (i % 8 == 0) {
+                    out.line("        " + (i == 0 ? "int " : "")
+                            + "bits = source.get();");
+                }
+                out.line("        boolean "
+                        + locals.get(fields.indexOf(booleans.get(i)) - 1)
+                        + " = (bits & " + (1 << (i % 8)) + ") != 0;");
+            }
+        }
+
+        boolean size = false;
+        for (int i = 1; i < fields.size(); i++) {
+            VariableElement field = fields.get(i);
+            Kind kind = kindOf(field);
+            if (compact && kind == Kind.BOOLEAN) {
+                continue;
+            }
+
+            if (kind.variable && !compact) {
+                out.line("        " + (size ? "" : "int ")
+                        + "size = getSize(source);");
+                size = true;
+            }
+            out.line("        " + field.asType() + " " + locals.get(i - 1)
+                    + " = " + String.format(compact ? kind.compactReader
+                            : kind.reader, packetTypeOf(field)) + ";");
+        }
+
+        out.line("");
+        for (int i = 1; i < fields.size(); i++) {
+            out.line("        packet." + fields.get(i).getSimpleName() + " = "
+                    + locals.get(i - 1) + ";");
+        }
+        out.line("        return true;");
+    }
+
+    /**
+     * Returns the <code>boolean</code> fields of the specified fields, which
+     * are packed into bits in the compact wire format.
+     *
+     * @param fields
+     *            the validated fields, starting with the op code field
+     *
+     * @return the <code>boolean</code> fields
+     */
+    private List<VariableElement> booleans(
+            List<VariableElement> fields) {
+        List<VariableElement> booleans = new ArrayList<VariableElement>();
+        for (VariableElement field : fields.subList(1, fields.size())) {
+            if (kindOf(field) == Kind.BOOLEAN) {
+                booleans.add(field);
+            }
+        }
+        return booleans;
+    }
+
+    /**
+     * Returns the kind of the specified field, or <code>null</code> if the
+     * field type is not supported.
+     *
+     * @param field
+     *            the field
+     *
+     * @return the kind, or <code>null</code>
+     */
+    private Kind kindOf(VariableElement field) {
+        Kind kind = Kind.of(field.asType());
+        String packetType = packetTypeOf(field);
+        if (kind == null && packetType != null) {
+            kind = (packetType.equals(field.asType().toString())
+                    ? Kind.PACKET : Kind.PACKET_LIST);
+        }
+        return kind;
+    }
+
+    /**
+     * Returns the nested TCP protocol packet class of the specified field of
+     * a nested TCP protocol packet or list type, or <code>null</code>
+     * otherwise.
+     *
+     * @param field
+     *            the field
+     *
+     * @return the qualified name of the nested TCP protocol packet class, or
+     *         <code>null</code>
+     */
+    private String packetTypeOf(VariableElement field) {
+        TypeMirror type = field.asType();
+        if (type.getKind() == TypeKind.DECLARED) {
+            DeclaredType declared = (DeclaredType) type;
+            TypeElement element = (TypeElement) declared.asElement();
+            if (element.getQualifiedName().contentEquals(LIST_CLASS)
+                    && declared.getTypeArguments().size() == 1) {
+                type = declared.getTypeArguments().get(0);
+            }
+        }
+        return (isPacketType(type) ? type.toString() : null);
+    }
+
+    /**
+     * Returns whether the specified type is a concrete TCP protocol packet
+     * class, which can be the type of a nested TCP protocol packet.
+     *
+     * @param type
+     *            the type
+     *
+     * @return <code>true</code> if the type is a concrete TCP protocol packet
+     *         class, <code>false</code> otherwise
+     */
+    private boolean isPacketType(TypeMirror type) {
+        if (type.getKind() != TypeKind.DECLARED) {
+            return false;
+        }
+        TypeElement element =
+                (TypeElement) ((DeclaredType) type).asElement();
+        TypeElement packetClass =
+                processingEnv.getElementUtils().getTypeElement(PACKET_CLASS);
+        return element.getKind() == ElementKind.CLASS
+                && !element.equals(packetClass)
+                && !element.getModifiers().contains(Modifier.ABSTRACT)
+                && element.getTypeParameters().isEmpty()
+                && processingEnv.getTypeUtils().isSubtype(type,
+                        packetClass.asType());
+    }
+
+    /**
+     * Writes the service file registering all generated codecs, including
+     * the codecs registered by a previous compilation.
+     */
+    private void writeServiceFile() {
+        Set<String> entries = new TreeSet<String>(codecs);
+        try {
+            FileObject existing = processingEnv.getFiler().getResource(
+                    StandardLocation.CLASS_OUTPUT, "", SERVICE_FILE);
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(existing.openInputStream(),
+                            StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.trim().isEmpty()) {
+                        entries.add(line.trim());
+                    }
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            // No previous compilation
+        }
+
+        try {
+            FileObject file = processingEnv.getFiler().createResource(
+                    StandardLocation.CLASS_OUTPUT, "", SERVICE_FILE);
+            try (Writer writer = file.openWriter()) {
+                for (String entry : entries) {
+                    writer.write(entry);
+                    writer.write('\n');
+                }
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Service file not written: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reports an error on the specified element.
+     *
+     * @param message
+     *            the error message
+     * @param element
+     *            the element
+     *
+     * @return always <code>false</code>
+     */
+    private boolean error(String message, Element element) {
+        Messager messager = processingEnv.getMessager();
+        messager.printMessage(Diagnostic.Kind.ERROR, message, element);
+        return false;
+    }
+
+    /**
+     * The supported field types.
+     */
+    private enum Kind {
+        BYTE(1, null, "target.put(%s)", "source.get()", "target.put(%s)",
+                "source.get()"),
+        SHORT(2, null, "target.putShort(%s)", "source.getShort()",
+                "putZigZag(target, %s)", "(short) getZigZag(source)"),
+        INT(4, null, "target.putInt(%s)", "source.getInt()",
+                "putZigZag(target, %s)", "(int) getZigZag(source)"),
+        LONG(8, null, "target.putLong(%s)", "source.getLong()",
+                "putZigZag(target, %s)", "getZigZag(source)"),
+        FLOAT(4, null, "target.putFloat(%s)", "source.getFloat()",
+                "target.putFloat(%s)", "source.getFloat()"),
+        DOUBLE(8, null, "target.putDouble(%s)", "source.getDouble()",
+                "target.putDouble(%s)", "source.getDouble()"),
+        BOOLEAN(1, null, "putBoolean(target, %s)", "getBoolean(source)",
+                null, null),
+        STRING(0, "encodedLength(%s)", "putString(target, %s)",
+                "getString(source, size)", "putCompactString(target, %s)",
+                "getString(source, getCompactLength(source))"),
+        BYTE_ARRAY(0, "encodedLength(%s)", "putBytes(target, %s)",
+                "getBytes(source, size)", "putCompactBytes(target, %s)",
+                "getBytes(source, getCompactLength(source))"),
+        SHORT_ARRAY(0, "encodedLength(%s)", "putShorts(target, %s)",
+                "getShorts(source, size)", "putCompactShorts(target, %s)",
+                "getCompactShorts(source)"),
+        INT_ARRAY(0, "encodedLength(%s)", "putInts(target, %s)",
+                "getInts(source, size)", "putCompactInts(target, %s)",
+                "getCompactInts(source)"),
+        LONG_ARRAY(0, "encodedLength(%s)", "putLongs(target, %s)",
+                "getLongs(source, size)", "putCompactLongs(target, %s)",
+                "getCompactLongs(source)"),
+        FLOAT_ARRAY(0, "encodedLength(%s)", "putFloats(target, %s)",
+                "getFloats(source, size)", "putCompactFloats(target, %s)",
+                "getCompactFloats(source)"),
+        DOUBLE_ARRAY(0, "encodedLength(%s)", "putDoubles(target, %s)",
+                "getDoubles(source, size)", "putCompactDoubles(target, %s)",
+                "getCompactDoubles(source)"),
+        BOOLEAN_ARRAY(0, "encodedLength(%s)", "putBooleans(target, %s)",
+                "getBooleans(source, size)", "putCompactBooleans(target, %s)",
+                "getCompactBooleans(source)"),
+        STRING_ARRAY(0, "encodedLength(%s)", "putStrings(target, %s)",
+                "getStrings(source, size)", "putCompactStrings(target, %s)",
+                "getCompactStrings(source)"),
+        PACKET(0, "encodedLength(%s)", "putPacket(target, %s)",
+                "getPacket(source, %s.class)", "putCompactPacket(target, %s)",
+                "getCompactPacket(source, %s.class)"),
+        PACKET_LIST(0, "encodedLength(%s)", "putPackets(target, %s)",
+                "getPackets(source, size, %s.class)",
+                "putCompactPackets(target, %s)",
+                "getCompactPackets(source, %s.class)"),
+        CHUNK(0, "encodedLength(%s)", "putChunk(target, %s)",
+                "getChunk(source)", "putCompactChunk(target, %s)",
+                "getCompactChunk(source)");
+
+        /** The encoded length, excluding variable data. */
+        private final int length;
+
+        /** The expression of the variable length, or null if none. */
+        private final String variableLength;
+
+        /** The statement writing a value, formatted with the value. */
+        private final String writer;
+
+        /** The expression reading a value. */
+        private final String reader;
+
+        /** The statement writing a compact value, or null if packed. */
+        private final String compactWriter;
+
+        /** The expression reading a compact value, or null if packed. */
+        private final String compactReader;
+
+        /** Whether the value is preceded by its length. */
+        private final boolean variable;
+
+        /**
+         * Constructs a new kind. The readers of nested TCP protocol packets
+         * are formatted with the nested TCP protocol packet class.
+         *
+         * @param length
+         *            the encoded length, excluding variable data
+         * @param variableLength
+         *            the expression of the variable length, formatted with
+         *            the value
+         * @param writer
+         *            the statement writing a value
+         * @param reader
+         *            the expression reading a value
+         * @param compactWriter
+         *            the statement writing a compact value
+         * @param compactReader
+         *            the expression reading a compact value
+         */
+        Kind(int length, String variableLength, String writer, String reader,
+                String compactWriter, String compactReader) {
+            this.length = length;
+            this.variableLength = variableLength;
+            this.writer = writer;
+            this.reader = reader;
+            this.compactWriter = compactWriter;
+            this.compactReader = compactReader;
+            this.variable = reader.contains("size");
+        }
+
+        /**
+         * Returns the kind of an array of the specified component type, or
+         * <code>null</code> if the array type is not supported.
+         *
+         * @param component
+         *            the component type
+         *
+         * @return the kind, or <code>null</code>
+         */
+        private static Kind ofArray(TypeMirror component) {
+            switch (component.getKind()) {
+            case BYTE:
+                return BYTE_ARRAY;
+            case SHORT:
+                return SHORT_ARRAY;
+            case INT:
+                return INT_ARRAY;
+            case LONG:
+                return LONG_ARRAY;
+            case FLOAT:
+                return FLOAT_ARRAY;
+            case DOUBLE:
+                return DOUBLE_ARRAY;
+            case BOOLEAN:
+                return BOOLEAN_ARRAY;
+            case DECLARED:
+                return (component.toString().equals("java.lang.String")
+                        ? STRING_ARRAY : null);
+            default:
+                return null;
+            }
+        }
+
+        /**
+         * Returns the kind of the specified type, or <code>null</code> if the
+         * type is not supported.
+         *
+         * @param type
+         *            the type
+         *
+         * @return the kind, or <code>null</code>
+         */
+        private static Kind of(TypeMirror type) {
+            switch (type.getKind()) {
+            case BYTE:
+                return BYTE;
+            case SHORT:
+                return SHORT;
+            case INT:
+                return INT;
+            case LONG:
+                return LONG;
+            case FLOAT:
+                return FLOAT;
+            case DOUBLE:
+                return DOUBLE;
+            case BOOLEAN:
+                return BOOLEAN;
+            case ARRAY:
+                return ofArray(((ArrayType) type).getComponentType());
+            case DECLARED:
+                if (type.toString().equals("java.lang.String")) {
+                    return STRING;
+                }
+                return (type.toString().equals(CHUNK_CLASS) ? CHUNK : null);
+            default:
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Builder of the source of a codec.
+     */
+    private static final class CodecWriter {
+
+        /** The source. */
+        private final StringBuilder source = new StringBuilder();
+
+        /**
+         * Appends a line to the source.
+         *
+         * @param line
+         *            the line
+         */
+        private void line(String line) {
+            source.append(line).append('\n');
+        }
+
+        /**
+         * Returns the source.
+         *
+         * @return the source
+         */
+        @Override
+        public String toString() {
+            return source.toString();
+        }
+    }
+}
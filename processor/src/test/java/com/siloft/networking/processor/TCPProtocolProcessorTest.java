@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.siloft.networking.processor;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.junit.Test;
+
+/**
+ * Verifies whether the <code>TCPProtocolProcessor</code> class is working
+ * properly.
+ *
+ * @author Sander Veldhuis
+ */
+public class TCPProtocolProcessorTest {
+
+    /**
+     * Test whether a codec is generated, registered and used.
+     */
+    @Test
+    public void testGenerate() throws Exception {
+        Path directory = Files.createTempDirectory("processor");
+        write(directory, "test/PingMsg.java",
+                "package test;",
+                "public class PingMsg",
+                "        extends com.siloft.networking.TCPProtocolPacket {",
+                "    public final short opCode = 3;",
+                "    public long time;",
+                "    public String text;",
+                "    public byte[] bytes;",
+                "    public boolean flag;",
+                "}");
+        write(directory, "test/Check.java",
+                "package test;",
+                "import com.siloft.networking.*;",
+                "public class Check extends TCPProtocol",
+                "        implements java.util.function.BooleanSupplier {",
+                "    public Check() { super(new PingMsg()); }",
+                "    public boolean getAsBoolean() {",
+                "        PingMsg ping = new PingMsg();",
+                "        ping.time = 42;",
+                "        ping.text = \"ping\";",
+                "        ping.flag = true;",
+                "        byte[] data = ping.getData();",
+                "        TCPPacket[] packets =",
+                "                decode(new TCPPacket(data, data.length));",
+                "        PingMsg pong = (PingMsg) packets[0];",
+                "        boolean found = false;",
+                "        for (Object codec : java.util.ServiceLoader",
+                "                .load(TCPPacketCodec.class)) {",
+                "            found |= (codec instanceof PingMsgCodec);",
+                "        }",
+                "        return found && packets.length == 1",
+                "                && pong.time == 42 && pong.flag",
+                "                && pong.text.equals(\"ping\")",
+                "                && pong.bytes.length == 0;",
+                "    }",
+                "}");
+
+        List<Diagnostic<? extends JavaFileObject>> errors = compile(directory);
+        assert errors.isEmpty();
+        assert Files.exists(directory.resolve("test/PingMsgCodec.java"));
+
+        ClassLoader previous = Thread.currentThread().getContextClassLoader();
+        try (URLClassLoader loader = new URLClassLoader(
+                new URL[] { directory.toUri().toURL() },
+                getClass().getClassLoader())) {
+            Thread.currentThread().setContextClassLoader(loader);
+            BooleanSupplier check = (BooleanSupplier) loader
+                    .loadClass("test.Check").newInstance();
+            boolean checked = check.getAsBoolean();
+            assert checked;
+        } finally {
+            Thread.currentThread().setContextClassLoader(previous);
+        }
+    }
+
+    /**
+     * Test whether invalid fields are reported at compile time.
+     */
+    @Test
+    public void testInvalidField() throws Exception {
+        Path directory = Files.createTempDirectory("processor");
+        write(directory, "test/BadMsg.java",
+                "package test;",
+                "public class BadMsg",
+                "        extends com.siloft.networking.TCPProtocolPacket {",
+                "    public final short opCode = 4;",
+                "    int hidden;",
+                "}");
+
+        List<Diagnostic<? extends JavaFileObject>> errors = compile(directory);
+        assert errors.size() == 1;
+        assert errors.get(0).getMessage(null).equals("Field should be public");
+        assert !Files.exists(directory.resolve("test/BadMsgCodec.java"));
+    }
+
+    /**
+     * Writes a source file.
+     *
+     * @param directory
+     *            the source directory
+     * @param name
+     *            the file name
+     * @param lines
+     *            the source lines
+     *
+     * @throws IOException
+     *             if the file cannot be written
+     */
+    private static void write(Path directory, String name, String... lines)
+            throws IOException {
+        Path file = directory.resolve(name);
+        Files.createDirectories(file.getParent());
+        Files.write(file, Arrays.asList(lines), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Compiles all source files in the specified directory using the
+     * processor, and returns the errors.
+     *
+     * @param directory
+     *            the source and output directory
+     *
+     * @return the errors
+     *
+     * @throws IOException
+     *             if the files cannot be read
+     */
+    private static List<Diagnostic<? extends JavaFileObject>> compile(
+            Path directory) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        DiagnosticCollector<JavaFileObject> diagnostics =
+                new DiagnosticCollector<JavaFileObject>();
+        try (StandardJavaFileManager files =
+                compiler.getStandardFileManager(null, null, null)) {
+            List<File> sources = new ArrayList<File>();
+            Files.walk(directory).filter(p -> p.toString().endsWith(".java"))
+                    .forEach(p -> sources.add(p.toFile()));
+            JavaCompiler.CompilationTask task = compiler.getTask(null, files,
+                    diagnostics,
+                    Arrays.asList("-d", directory.toString(), "-s",
+                            directory.toString(), "-classpath",
+                            System.getProperty("java.class.path")),
+                    null, files.getJavaFileObjectsFromFiles(sources));
+            task.setProcessors(
+                    Collections.singletonList(new TCPProtocolProcessor()));
+            task.call();
+        }
+
+        List<Diagnostic<? extends JavaFileObject>> errors =
+                new ArrayList<Diagnostic<? extends JavaFileObject>>();
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics
+                .getDiagnostics()) {
+            if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                errors.add(diagnostic);
+            }
+        }
+        return errors;
+    }
+}
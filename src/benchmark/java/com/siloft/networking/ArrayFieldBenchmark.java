@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.siloft.networking;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Benchmark comparing two ways of sending batches of sensor samples. The
+ * messages mode encodes one TCP protocol packet per sample, and the array mode
+ * encodes one TCP protocol packet holding all samples of a batch in an
+ * <code>int[]</code> field, which is copied in bulk. Both modes decode the
+ * samples again, and report the time and the encoded bytes per sample, after
+ * a warm up run.
+ * <p>
+ * Usage: <code>ArrayFieldBenchmark [messages|array] [samples]</code>.
+ *
+ * @author Sander Veldhuis
+ */
+public class ArrayFieldBenchmark {
+
+    /** The number of samples per batch. */
+    private static final int BATCH = 256;
+
+    /** Sink preventing the results from being optimized away. */
+    private static long sink;
+
+    /**
+     * TCP protocol packet holding a single sample.
+     */
+    public static final class SampleMsg extends TCPProtocolPacket {
+        public final short opCode = 1;
+        public int value;
+    }
+
+    /**
+     * TCP protocol packet holding a batch of samples.
+     */
+    public static final class SamplesMsg extends TCPProtocolPacket {
+        public final short opCode = 2;
+        public int[] values;
+    }
+
+    /**
+     * Entry method to start this benchmark.
+     *
+     * @param args
+     *            the mode and the number of samples
+     */
+    public static void main(String[] args) {
+        String mode = (args.length > 0 ? args[0] : null);
+        int samples = (args.length > 1 ? Integer.parseInt(args[1]) : 10000000);
+
+        for (int i = 0; i < 3; i++) {
+            boolean report = (i == 2);
+            if (mode == null || mode.equals("messages")) {
+                run("messages", samples, report);
+            }
+            if (mode == null || mode.equals("array")) {
+                run("array", samples, report);
+            }
+        }
+    }
+
+    /**
+     * Runs the benchmark for one mode.
+     *
+     * @param mode
+     *            the mode name
+     * @param samples
+     *            the number of samples
+     * @param report
+     *            whether to print the result
+     */
+    private static void run(String mode, int samples, boolean report) {
+        boolean array = mode.equals("array");
+        SampleMsg sample = new SampleMsg();
+        SamplesMsg batch = new SamplesMsg();
+        batch.values = new int[BATCH];
+        ByteBuffer buffer = ByteBuffer.allocate(BATCH * sample.getLength());
+
+        long bytes = 0;
+        long begin = System.nanoTime();
+        for (int i = 0; i < samples; i += BATCH) {
+            buffer.clear();
+            for (int j = 0; j < BATCH; j++) {
+                if (array) {
+                    batch.values[j] = i + j;
+                } else {
+                    sample.value = i + j;
+                    sample.writeTo(buffer);
+                }
+            }
+            if (array) {
+                batch.writeTo(buffer);
+            }
+            buffer.flip();
+            bytes += buffer.limit();
+
+            if (array) {
+                batch.readFrom(buffer);
+                sink += batch.values[BATCH - 1];
+            } else {
+                while (sample.readFrom(buffer)) {
+                    sink += sample.value;
+                }
+            }
+        }
+        long time = System.nanoTime() - begin;
+
+        if (report) {
+            System.out.printf("%s: %.2f ns and %.1f bytes per sample%n", mode,
+                    (double) time / samples, (double) bytes / samples);
+        }
+    }
+}
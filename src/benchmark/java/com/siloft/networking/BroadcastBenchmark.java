@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.siloft.networking;
+
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loopback benchmark comparing a broadcast of a TCP protocol packet with
+ * transmitting it to every client in a loop. For every mode the benchmark
+ * connects the requested number of clients, sends a number of rounds of a
+ * single packet to all clients, and reports the time spent by the sending
+ * thread, the bytes allocated by the sending thread, the time till every
+ * packet is written to the sockets, and the number of times the packet is
+ * encoded. The benchmark requires a Java virtual machine supporting the
+ * measurement of allocated bytes per thread, like HotSpot.
+ * <p>
+ * Usage: <code>BroadcastBenchmark [loop|broadcast] [clients] [rounds]</code>.
+ * Large client counts may require raising the open file limit of the
+ * operating system.
+ *
+ * @author Sander Veldhuis
+ */
+public class BroadcastBenchmark {
+
+    /** The number of encodings of the feed message. */
+    private static final AtomicLong ENCODINGS = new AtomicLong();
+
+    /**
+     * Entry method to start this benchmark.
+     *
+     * @param args
+     *            the mode, the number of clients, and the number of rounds
+     *
+     * @throws Exception
+     *             if the benchmark fails
+     */
+    public static void main(String[] args) throws Exception {
+        String mode = (args.length > 0 ? args[0] : null);
+        int clients = (args.length > 1 ? Integer.parseInt(args[1]) : 1000);
+        int rounds = (args.length > 2 ? Integer.parseInt(args[2]) : 50);
+
+        for (int i = 0; i < 3; i++) {
+            boolean report = (i == 2);
+            if (mode == null || mode.equals("loop")) {
+                run("loop", clients, rounds, report);
+            }
+            if (mode == null || mode.equals("broadcast")) {
+                run("broadcast", clients, rounds, report);
+            }
+        }
+    }
+
+    /**
+     * Runs the benchmark for one mode.
+     *
+     * @param mode
+     *            the mode name
+     * @param clientCount
+     *            the number of clients
+     * @param rounds
+     *            the number of rounds
+     * @param report
+     *            whether to print the result
+     *
+     * @throws Exception
+     *             if the benchmark fails
+     */
+    private static void run(String mode, int clientCount, int rounds,
+            boolean report) throws Exception {
+        TCPServer server = new TCPServer("Benchmark", 0, 0, null);
+        List<Integer> ids = new CopyOnWriteArrayList<Integer>();
+        CountDownLatch connected = new CountDownLatch(clientCount);
+        server.addConnectedListener((name, id) -> {
+            ids.add(id);
+            connected.countDown();
+        });
+        server.connect();
+
+        Socket[] clients = new Socket[clientCount];
+        for (int i = 0; i < clientCount; i++) {
+            clients[i] = new Socket("localhost", server.getPort());
+        }
+        connected.await(60, TimeUnit.SECONDS);
+
+        FeedMsg message = new FeedMsg();
+        message.symbol = "SILOFT";
+        ENCODINGS.set(0);
+
+        long allocated = allocatedBytes();
+        long begin = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            message.sequence = round;
+            message.price = 100.0 + round;
+            if (mode.equals("loop")) {
+                for (Integer id : ids) {
+                    server.transmit(id, message);
+                }
+            } else {
+                server.broadcast(message);
+            }
+        }
+        long sent = System.nanoTime() - begin;
+        allocated = allocatedBytes() - allocated;
+
+        long expected = (long) clientCount * rounds;
+        while (transmitted(server, ids) < expected) {
+            Thread.sleep(1);
+        }
+        long flushed = System.nanoTime() - begin;
+
+        if (report) {
+            System.out.printf(
+                    "%s: %.1f us and %d bytes allocated per round sending, "
+                            + "%.1f us per round till written, "
+                            + "%.1f encodings per round%n",
+                    mode, sent / 1e3 / rounds, allocated / rounds,
+                    flushed / 1e3 / rounds,
+                    (double) ENCODINGS.get() / rounds);
+        }
+
+        for (Socket client : clients) {
+            client.close();
+        }
+        server.disconnect();
+    }
+
+    /**
+     * Returns the total number of TCP packets written to the clients.
+     *
+     * @param server
+     *            the TCP server
+     * @param ids
+     *            the client identifiers
+     *
+     * @return the number of TCP packets
+     */
+    private static long transmitted(TCPServer server, List<Integer> ids) {
+        long total = 0;
+        for (Integer id : ids) {
+            TransmitStatistics statistics = server.getTransmitStatistics(id);
+            if (statistics != null) {
+                total += statistics.getPacketCount();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Returns the number of bytes allocated by the current thread.
+     *
+     * @return the number of allocated bytes
+     */
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean bean =
+                (com.sun.management.ThreadMXBean) ManagementFactory
+                        .getThreadMXBean();
+        return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * A market feed message counting how often it is encoded.
+     */
+    public static final class FeedMsg extends TCPProtocolPacket {
+
+        /** Mandatory parameter for every packet. */
+        public final short opCode = 1;
+
+        /** All other fields which defines this message. */
+        public int sequence;
+        public String symbol;
+        public double price;
+
+        @Override
+        public synchronized byte[] getData() {
+            ENCODINGS.incrementAndGet();
+            return super.getData();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.siloft.networking;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Benchmark measuring the lookup of connections by client identifier, as done
+ * for every transmitted TCP packet. The boxed mode looks up connections in a
+ * <code>HashMap</code> keyed by <code>Integer</code>, the concurrent mode in
+ * a <code>ConcurrentHashMap</code>, and the primitive mode in a
+ * <code>ConnectionMap</code>. Each mode reports the time and the bytes
+ * allocated per lookup, after a warm up run.
+ * <p>
+ * Usage: <code>ConnectionLookupBenchmark [boxed|concurrent|primitive]
+ * [connections] [lookups]</code>. The benchmark requires a Java virtual
+ * machine supporting the measurement of allocated bytes per thread, like
+ * HotSpot.
+ *
+ * @author Sander Veldhuis
+ */
+public class ConnectionLookupBenchmark {
+
+    /** Sink preventing the results from being optimized away. */
+    private static long sink;
+
+    /**
+     * Entry method to start this benchmark.
+     *
+     * @param args
+     *            the mode, the number of connections and the number of
+     *            lookups
+     */
+    public static void main(String[] args) {
+        String mode = (args.length > 0 ? args[0] : null);
+        int connections =
+                (args.length > 1 ? Integer.parseInt(args[1]) : 10000);
+        int lookups = (args.length > 2 ? Integer.parseInt(args[2]) : 50000000);
+
+        for (int i = 0; i < 3; i++) {
+            boolean report = (i == 2);
+            if (mode == null || mode.equals("boxed")) {
+                Map<Integer, int[]> map = new HashMap<Integer, int[]>();
+                fill(map, connections);
+                long allocated = allocatedBytes();
+                long begin = System.nanoTime();
+                for (int j = 0; j < lookups; j++) {
+                    sink += map.get(1000 + j % connections)[0];
+                }
+                report("boxed", begin, allocated, lookups, report);
+            }
+            if (mode == null || mode.equals("concurrent")) {
+                Map<Integer, int[]> map =
+                        new ConcurrentHashMap<Integer, int[]>();
+                fill(map, connections);
+                long allocated = allocatedBytes();
+                long begin = System.nanoTime();
+                for (int j = 0; j < lookups; j++) {
+                    sink += map.get(1000 + j % connections)[0];
+                }
+                report("concurrent", begin, allocated, lookups, report);
+            }
+            if (mode == null || mode.equals("primitive")) {
+                ConnectionMap<int[]> map = new ConnectionMap<int[]>();
+                for (int j = 0; j < connections; j++) {
+                    map.put(1000 + j, new int[] { j });
+                }
+                long allocated = allocatedBytes();
+                long begin = System.nanoTime();
+                for (int j = 0; j < lookups; j++) {
+                    sink += map.get(1000 + j % connections)[0];
+                }
+                report("primitive", begin, allocated, lookups, report);
+            }
+        }
+    }
+
+    /**
+     * Fills the specified map with connections. The identifiers start above
+     * the range of cached <code>Integer</code> instances.
+     *
+     * @param map
+     *            the map
+     * @param connections
+     *            the number of connections
+     */
+    private static void fill(Map<Integer, int[]> map, int connections) {
+        for (int i = 0; i < connections; i++) {
+            map.put(1000 + i, new int[] { i });
+        }
+    }
+
+    /**
+     * Prints the result of one mode.
+     *
+     * @param mode
+     *            the mode name
+     * @param begin
+     *            the time the lookups began
+     * @param allocated
+     *            the number of bytes allocated before the lookups
+     * @param lookups
+     *            the number of lookups
+     * @param report
+     *            whether to print the result
+     */
+    private static void report(String mode, long begin, long allocated,
+            int lookups, boolean report) {
+        long time = System.nanoTime() - begin;
+        allocated = allocatedBytes() - allocated;
+        if (report) {
+            System.out.printf("%s: %.1f ns and %.1f bytes allocated per "
+                    + "lookup%n", mode, (double) time / lookups,
+                    (double) allocated / lookups);
+        }
+    }
+
+    /**
+     * Returns the number of bytes allocated by the current thread.
+     *
+     * @return the number of allocated bytes
+     */
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean bean =
+                (com.sun.management.ThreadMXBean) ManagementFactory
+                        .getThreadMXBean();
+        return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.siloft.networking;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loopback benchmark measuring the cost of delivering a received packet by a
+ * TCP server while more and more clients are connected. The clients are idle,
+ * except for a single client bouncing small packets off the server one at a
+ * time. The time per packet should not depend on the number of connected
+ * clients.
+ * <p>
+ * Usage: <code>ConnectionScalingBenchmark [max clients] [packets]</code>.
+ * The number of clients grows by a factor of ten from 10 up to the maximum.
+ * Every client uses a receiving thread and two sockets, therefore large
+ * client counts may require raising the open file limit of the operating
+ * system.
+ *
+ * @author Sander Veldhuis
+ */
+public class ConnectionScalingBenchmark {
+
+    /** The framed data bounced by the active client. */
+    private static final byte[] DATA =
+            new byte[] { 0, 0, 0, 4, 1, 2, 3, 4 };
+
+    /**
+     * Entry method to start this benchmark.
+     *
+     * @param args
+     *            the maximum number of clients and the number of packets
+     *
+     * @throws Exception
+     *             if the benchmark fails
+     */
+    public static void main(String[] args) throws Exception {
+        int maxClients = (args.length > 0 ? Integer.parseInt(args[0]) : 10000);
+        int packets = (args.length > 1 ? Integer.parseInt(args[1]) : 20000);
+
+        TCPServer server = new TCPServer("Benchmark", 0, 1000);
+        server.addPacketListener((name, id, packet) -> {
+            server.transmit(id, packet);
+        });
+        server.connect();
+
+        Socket active = new Socket("localhost", server.getPort());
+        active.setTcpNoDelay(true);
+        bounce(active, packets);
+
+        List<Socket> clients = new ArrayList<Socket>();
+        for (int count = 10; count <= maxClients; count *= 10) {
+            while (clients.size() < count - 1) {
+                clients.add(new Socket("localhost", server.getPort()));
+            }
+            bounce(active, packets);
+
+            long start = System.nanoTime();
+            bounce(active, packets);
+            long duration = System.nanoTime() - start;
+            System.out.printf("%d clients: %.1f us per packet%n", count,
+                    duration / 1000.0 / packets);
+        }
+
+        active.close();
+        for (Socket client : clients) {
+            client.close();
+        }
+        server.disconnect();
+    }
+
+    /**
+     * Transmits the data from the client the specified number of times, each
+     * time waiting till the client received the bounced data.
+     *
+     * @param client
+     *            the client
+     * @param packets
+     *            the number of packets
+     *
+     * @throws Exception
+     *             if transmitting or receiving fails
+     */
+    private static void bounce(Socket client, int packets) throws Exception {
+        OutputStream output = client.getOutputStream();
+        InputStream input = client.getInputStream();
+        byte[] buffer = new byte[DATA.length];
+        for (int i = 0; i < packets; i++) {
+            output.write(DATA);
+            int length = 0;
+            while (length < buffer.length) {
+                length += input.read(buffer, length, buffer.length - length);
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.siloft.networking;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loopback soak test connecting and disconnecting TCP clients to a TCP server
+ * over and over. Every cycle a TCP client connects, transmits a packet which
+ * the TCP server receives, and disconnects. The number of live threads is
+ * reported ten times during the run and should stay flat, as the background
+ * services of every connection share the executors of the TCP server or TCP
+ * client, and the executor of a TCP client is shut down upon disconnecting.
+ * <p>
+ * Usage: <code>ConnectionSoakBenchmark [cycles]</code>.
+ *
+ * @author Sander Veldhuis
+ */
+public class ConnectionSoakBenchmark {
+
+    /**
+     * Entry method to start this benchmark.
+     *
+     * @param args
+     *            the number of cycles
+     *
+     * @throws Exception
+     *             if the benchmark fails
+     */
+    public static void main(String[] args) throws Exception {
+        int cycles = (args.length > 0 ? Integer.parseInt(args[0]) : 100000);
+
+        TCPServer server = new TCPServer("Benchmark", 0, 1000);
+        Semaphore received = new Semaphore(0);
+        server.addPacketListener((name, id, packet) -> {
+            received.release();
+        });
+        server.connect();
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        int initial = threads.getThreadCount();
+        int peak = initial;
+        long begin = System.nanoTime();
+        for (int i = 1; i <= cycles; i++) {
+            TCPClient client = new TCPClient("Benchmark", server.getPort());
+            client.connect();
+            client.transmit(new TCPPacket(new byte[] { 1, 2, 3 }, 3));
+            if (!received.tryAcquire(5, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("Packet not received");
+            }
+            client.disconnect();
+
+            peak = Math.max(peak, threads.getThreadCount());
+            if (i % Math.max(1, cycles / 10) == 0) {
+                System.out.printf("%d cycles: %d live threads, %d peak%n", i,
+                        threads.getThreadCount(), peak);
+            }
+        }
+        long time = System.nanoTime() - begin;
+        server.disconnect();
+
+        System.out.printf("%.1f us per cycle, %d threads before, %d peak%n",
+                time / 1000.0 / cycles, initial, peak);
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.siloft.networking;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Benchmark comparing packet listeners testing the class of every TCP
+ * protocol packet with packet handlers registered per class, which are found
+ * by op code. The benchmark generates and compiles the requested number of
+ * TCP protocol packet classes, with one listener or handler per class, and
+ * dispatches decoded TCP protocol packets of randomly chosen classes the way
+ * a TCP server does. The benchmark requires a Java development kit to
+ * compile the generated classes.
+ * <p>
+ * Usage:
+ * <code>HandlerDispatchBenchmark [listeners|handlers] [types] [packets]</code>.
+ *
+ * @author Sander Veldhuis
+ */
+public class HandlerDispatchBenchmark {
+
+    /** Sink preventing the results from being optimized away. */
+    private static long sink;
+
+    /**
+     * Entry method to start this benchmark.
+     *
+     * @param args
+     *            the mode, the number of types, and the number of
+     *            dispatched batches of TCP protocol packets
+     *
+     * @throws Exception
+     *             if the benchmark fails
+     */
+    public static void main(String[] args) throws Exception {
+        String mode = (args.length > 0 ? args[0] : null);
+        int types = (args.length > 1 ? Integer.parseInt(args[1]) : 50);
+        int batches = (args.length > 2 ? Integer.parseInt(args[2]) : 100000);
+
+        TCPProtocolPacket[] supported =
+                ProtocolDispatchBenchmark.generate(types);
+        byte[] data = ProtocolDispatchBenchmark.batch(supported);
+        TCPProtocol protocol = new TCPProtocol(supported) {
+        };
+        TCPPacket[] packets =
+                protocol.decode(new TCPPacket(data, data.length));
+        for (int i = 0; i < 3; i++) {
+            boolean report = (i == 2);
+            if (mode == null || mode.equals("listeners")) {
+                runListeners(supported, packets, batches, report);
+            }
+            if (mode == null || mode.equals("handlers")) {
+                runHandlers(supported, packets, batches, report);
+            }
+        }
+    }
+
+    /**
+     * Runs the benchmark with one listener per class, each testing the class
+     * of every TCP protocol packet.
+     *
+     * @param supported
+     *            one TCP protocol packet of every type
+     * @param packets
+     *            the batch of decoded TCP protocol packets
+     * @param batches
+     *            the number of dispatched batches
+     * @param report
+     *            whether to print the result
+     */
+    private static void runListeners(TCPProtocolPacket[] supported,
+            TCPPacket[] packets, int batches, boolean report) {
+        List<ServerPacketListener> listeners =
+                new ArrayList<ServerPacketListener>();
+        for (TCPProtocolPacket packet : supported) {
+            Class<?> type = packet.getClass();
+            listeners.add((name, id, received) -> {
+                if (type.isInstance(received)) {
+                    sink += id;
+                }
+            });
+        }
+
+        long begin = System.nanoTime();
+        for (int i = 0; i < batches; i++) {
+            for (TCPPacket packet : packets) {
+                for (ServerPacketListener listener : listeners) {
+                    listener.received("Benchmark", 1, packet);
+                }
+            }
+        }
+        report("listeners", supported.length, begin, batches, packets,
+                report);
+    }
+
+    /**
+     * Runs the benchmark with one handler per class, found by op code.
+     *
+     * @param supported
+     *            one TCP protocol packet of every type
+     * @param packets
+     *            the batch of decoded TCP protocol packets
+     * @param batches
+     *            the number of dispatched batches
+     * @param report
+     *            whether to print the result
+     */
+    @SuppressWarnings("unchecked")
+    private static void runHandlers(TCPProtocolPacket[] supported,
+            TCPPacket[] packets, int batches, boolean report) {
+        PacketHandlerTable<ServerPacketHandler<?>> handlers =
+                new PacketHandlerTable<ServerPacketHandler<?>>(
+                        ServerPacketHandler.class);
+        for (TCPProtocolPacket packet : supported) {
+            handlers.add(packet.getClass(),
+                    (ServerPacketHandler<TCPProtocolPacket>) (name, id,
+                            received) -> sink += id);
+        }
+
+        long begin = System.nanoTime();
+        for (int i = 0; i < batches; i++) {
+            for (TCPPacket packet : packets) {
+                TCPProtocolPacket protocolPacket = (TCPProtocolPacket) packet;
+                for (ServerPacketHandler<?> handler : handlers
+                        .of(protocolPacket)) {
+                    ((ServerPacketHandler<TCPProtocolPacket>) handler)
+                            .received("Benchmark", 1, protocolPacket);
+                }
+            }
+        }
+        report("handlers", supported.length, begin, batches, packets,
+                report);
+    }
+
+    /**
+     * Prints the time per dispatched TCP protocol packet.
+     *
+     * @param mode
+     *            the mode name
+     * @param types
+     *            the number of types
+     * @param begin
+     *            the start time in nanoseconds
+     * @param batches
+     *            the number of dispatched batches
+     * @param packets
+     *            the batch of decoded TCP protocol packets
+     * @param report
+     *            whether to print the result
+     */
+    private static void report(String mode, int types, long begin,
+            int batches, TCPPacket[] packets, boolean report) {
+        long time = System.nanoTime() - begin;
+        if (report) {
+            System.out.printf("%s: %d types, %.1f ns per packet%n", mode,
+                    types, (double) time / batches / packets.length);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.siloft.networking;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+/**
+ * Benchmark measuring decoding TCP protocol packets into new instances and
+ * into instances of a <code>TCPPacketRecycler</code>, which are released once
+ * handled, like a TCP server does after its packet listeners return. The TCP
+ * protocol packets hold only primitive fields, and are received in batches
+ * within one TCP packet. Each mode reports the time and the bytes allocated
+ * per TCP protocol packet, after a warm up run.
+ * <p>
+ * Usage: <code>PacketRecyclerBenchmark [new|recycled] [packets]</code>. The
+ * benchmark requires a Java virtual machine supporting the measurement of
+ * allocated bytes per thread, like HotSpot.
+ *
+ * @author Sander Veldhuis
+ */
+public class PacketRecyclerBenchmark {
+
+    /** The number of TCP protocol packets per TCP packet. */
+    private static final int BATCH = 64;
+
+    /** Sink preventing the results from being optimized away. */
+    private static long sink;
+
+    /**
+     * Quote TCP protocol packet.
+     */
+    public static final class QuoteMsg extends TCPProtocolPacket {
+        public final short opCode = 1;
+        public int instrument;
+        public long bid;
+        public long ask;
+        public int bidSize;
+        public int askSize;
+        public long time;
+    }
+
+    /**
+     * TCP protocol supporting the quote TCP protocol packet.
+     */
+    private static final class QuoteProtocol extends TCPProtocol {
+        QuoteProtocol() {
+            super(new QuoteMsg());
+        }
+    }
+
+    /**
+     * Entry method to start this benchmark.
+     *
+     * @param args
+     *            the mode and the number of packets
+     */
+    public static void main(String[] args) {
+        String mode = (args.length > 0 ? args[0] : null);
+        int packets = (args.length > 1 ? Integer.parseInt(args[1]) : 5000000);
+
+        for (int i = 0; i < 3; i++) {
+            boolean report = (i == 2);
+            if (mode == null || mode.equals("new")) {
+                run("new", false, packets, report);
+            }
+            if (mode == null || mode.equals("recycled")) {
+                run("recycled", true, packets, report);
+            }
+        }
+    }
+
+    /**
+     * Runs the benchmark for one mode.
+     *
+     * @param mode
+     *            the mode name
+     * @param recycled
+     *            whether to decode into recycled instances
+     * @param packets
+     *            the number of TCP protocol packets
+     * @param report
+     *            whether to print the result
+     */
+    private static void run(String mode, boolean recycled, int packets,
+            boolean report) {
+        TCPProtocol protocol = new QuoteProtocol();
+        if (recycled) {
+            protocol.setRecycler(
+                    new TCPPacketRecycler<QuoteMsg>(QuoteMsg.class, BATCH));
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(BATCH * 64);
+        QuoteMsg message = new QuoteMsg();
+        for (int i = 0; i < BATCH; i++) {
+            message.instrument = i;
+            message.bid = 1000 + i;
+            message.ask = 1001 + i;
+            protocol.encode(message, buffer);
+        }
+        TCPPacket packet = new TCPPacket(buffer.array(), buffer.position());
+
+        long allocated = allocatedBytes();
+        long begin = System.nanoTime();
+        for (int i = 0; i < packets; i += BATCH) {
+            for (TCPPacket decoded : protocol.decode(packet)) {
+                sink += ((QuoteMsg) decoded).ask;
+                protocol.release(decoded);
+            }
+        }
+        long time = System.nanoTime() - begin;
+        allocated = allocatedBytes() - allocated;
+
+        if (report) {
+            System.out.printf("%s: %.1f ns and %.1f bytes allocated per "
+                    + "packet%n", mode, (double) time / packets,
+                    (double) allocated / packets);
+        }
+    }
+
+    /**
+     * Returns the number of bytes allocated by the current thread.
+     *
+     * @return the number of allocated bytes
+     */
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean bean =
+                (com.sun.management.ThreadMXBean) ManagementFactory
+                        .getThreadMXBean();
+        return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.siloft.networking;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+/**
+ * Benchmark comparing routing received TCP protocol packets on their op code
+ * and two fields, by decoding them and by reading them in place with a
+ * <code>TCPPacketView</code>. The TCP protocol packets carry a destination, a
+ * topic and a payload, and are received in batches within one TCP packet.
+ * Each mode reports the time and the bytes allocated per TCP protocol packet,
+ * after a warm up run.
+ * <p>
+ * Usage: <code>PacketViewBenchmark [decode|view] [packets]</code>. The
+ * benchmark requires a Java virtual machine supporting the measurement of
+ * allocated bytes per thread, like HotSpot.
+ *
+ * @author Sander Veldhuis
+ */
+public class PacketViewBenchmark {
+
+    /** The number of TCP protocol packets per TCP packet. */
+    private static final int BATCH = 64;
+
+    /** The topic routed to the local handler. */
+    private static final String TOPIC = "sensors/temperature";
+
+    /** Sink preventing the results from being optimized away. */
+    private static long sink;
+
+    /**
+     * Routed TCP protocol packet.
+     */
+    public static final class RouteMsg extends TCPProtocolPacket {
+        public final short opCode = 1;
+        public int destination;
+        public String topic;
+        public byte[] payload;
+        public long time;
+    }
+
+    /**
+     * TCP protocol supporting the routed TCP protocol packet.
+     */
+    private static final class RouteProtocol extends TCPProtocol {
+        RouteProtocol() {
+            super(new RouteMsg());
+        }
+    }
+
+    /**
+     * Entry method to start this benchmark.
+     *
+     * @param args
+     *            the mode and the number of packets
+     */
+    public static void main(String[] args) {
+        String mode = (args.length > 0 ? args[0] : null);
+        int packets = (args.length > 1 ? Integer.parseInt(args[1]) : 2000000);
+
+        TCPProtocol protocol = new RouteProtocol();
+        ByteBuffer buffer = ByteBuffer.allocate(BATCH * 512);
+        RouteMsg message = new RouteMsg();
+        message.payload = new byte[256];
+        for (int i = 0; i < BATCH; i++) {
+            message.destination = i % 4;
+            message.topic = (i % 3 == 0 ? TOPIC : "sensors/humidity");
+            message.time = i;
+            protocol.encode(message, buffer);
+        }
+        TCPPacket packet = new TCPPacket(buffer.array(), buffer.position());
+
+        for (int i = 0; i < 3; i++) {
+            boolean report = (i == 2);
+            if (mode == null || mode.equals("decode")) {
+                run("decode", protocol, packet, packets, false, report);
+            }
+            if (mode == null || mode.equals("view")) {
+                run("view", protocol, packet, packets, true, report);
+            }
+        }
+    }
+
+    /**
+     * Runs the benchmark for one mode.
+     *
+     * @param mode
+     *            the mode name
+     * @param protocol
+     *            the TCP protocol
+     * @param packet
+     *            the TCP packet holding a batch of TCP protocol packets
+     * @param packets
+     *            the number of TCP protocol packets
+     * @param view
+     *            whether to read the TCP protocol packets in place
+     * @param report
+     *            whether to print the result
+     */
+    private static void run(String mode, TCPProtocol protocol,
+            TCPPacket packet, int packets, boolean view, boolean report) {
+        TCPPacketView packetView = new TCPPacketView(protocol);
+        long allocated = allocatedBytes();
+        long begin = System.nanoTime();
+        for (int i = 0; i < packets; i += BATCH) {
+            if (view) {
+                packetView.wrap(packet);
+                while (packetView.next()) {
+                    if (packetView.getOpCode() == 1
+                            && packetView.getInt(0) == 2
+                            && TOPIC.contentEquals(packetView.getString(1))) {
+                        sink++;
+                    }
+                }
+            } else {
+                for (TCPPacket decoded : protocol.decode(packet)) {
+                    RouteMsg message = (RouteMsg) decoded;
+                    if (message.destination == 2
+                            && message.topic.equals(TOPIC)) {
+                        sink++;
+                    }
+                }
+            }
+        }
+        long time = System.nanoTime() - begin;
+        allocated = allocatedBytes() - allocated;
+
+        if (report) {
+            System.out.printf("%s: %.1f ns and %.1f bytes allocated per "
+                    + "packet%n", mode, (double) time / packets,
+                    (double) allocated / packets);
+        }
+    }
+
+    /**
+     * Returns the number of bytes allocated by the current thread.
+     *
+     * @return the number of allocated bytes
+     */
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean bean =
+                (com.sun.management.ThreadMXBean) ManagementFactory
+                        .getThreadMXBean();
+        return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.siloft.networking;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+/**
+ * Benchmark measuring the allocations of encoding and decoding TCP protocol
+ * packets. The array mode encodes every packet with <code>getData</code>,
+ * copies it into an outbound buffer, and decodes the packets with the example
+ * protocol. The buffer mode encodes every packet directly into the outbound
+ * buffer with <code>writeTo</code>, and decodes them into a reused packet with
+ * <code>readFrom</code>. Both modes report the time and the bytes allocated
+ * per packet, after a warm up run. The benchmark requires a Java virtual
+ * machine supporting the measurement of allocated bytes per thread, like
+ * HotSpot.
+ * <p>
+ * Usage: <code>ProtocolBufferBenchmark [array|buffer] [packets]</code>.
+ *
+ * @author Sander Veldhuis
+ */
+public class ProtocolBufferBenchmark {
+
+    /** The number of packets per outbound buffer. */
+    private static final int BATCH = 100;
+
+    /** Sink preventing the results from being optimized away. */
+    private static long sink;
+
+    /**
+     * Entry method to start this benchmark.
+     *
+     * @param args
+     *            the mode and the number of packets
+     *
+     * @throws Exception
+     *             if the benchmark fails
+     */
+    public static void main(String[] args) throws Exception {
+        String mode = (args.length > 0 ? args[0] : null);
+        int packets = (args.length > 1 ? Integer.parseInt(args[1]) : 1000000);
+
+        for (int i = 0; i < 3; i++) {
+            boolean report = (i == 2);
+            if (mode == null || mode.equals("array")) {
+                run("array", packets, report);
+            }
+            if (mode == null || mode.equals("buffer")) {
+                run("buffer", packets, report);
+            }
+        }
+    }
+
+    /**
+     * Runs the benchmark for one mode.
+     *
+     * @param mode
+     *            the mode name
+     * @param packets
+     *            the number of packets
+     * @param report
+     *            whether to print the result
+     */
+    private static void run(String mode, int packets, boolean report) {
+        boolean array = mode.equals("array");
+        ExampleProtocol protocol = new ExampleProtocol();
+        Example1Msg message = new Example1Msg();
+        message.name = "Siloft";
+        message.age = 42;
+        Example1Msg decoded = new Example1Msg();
+        ByteBuffer buffer =
+                ByteBuffer.allocate(BATCH * message.getLength() * 2);
+
+        long allocated = allocatedBytes();
+        long begin = System.nanoTime();
+        for (int i = 0; i < packets; i += BATCH) {
+            buffer.clear();
+            for (int j = 0; j < BATCH; j++) {
+                message.id = i + j;
+                if (array) {
+                    buffer.put(message.getData());
+                } else {
+                    message.writeTo(buffer);
+                }
+            }
+            buffer.flip();
+
+            if (array) {
+                TCPPacket[] result = protocol.decode(
+                        new TCPPacket(buffer.array(), buffer.limit()));
+                sink += ((Example1Msg) result[BATCH - 1]).id;
+            } else {
+                while (decoded.readFrom(buffer)) {
+                    sink += decoded.id;
+                }
+            }
+        }
+        long time = System.nanoTime() - begin;
+        allocated = allocatedBytes() - allocated;
+
+        if (report) {
+            System.out.printf(
+                    "%s: %.1f ns and %.1f bytes allocated per packet%n", mode,
+                    (double) time / packets, (double) allocated / packets);
+        }
+    }
+
+    /**
+     * Returns the number of bytes allocated by the current thread.
+     *
+     * @return the number of allocated bytes
+     */
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean bean =
+                (com.sun.management.ThreadMXBean) ManagementFactory
+                        .getThreadMXBean();
+        return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.siloft.networking;
+
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Benchmark comparing the cached TCP protocol packet codecs with the former
+ * reflective encoding and decoding. The reflective mode inspects the declared
+ * fields of the packet class and compares their type names for every packet,
+ * like <code>TCPProtocolPacket</code> used to do. Both modes encode an example
+ * packet and decode it again through the example protocol, and report the
+ * time per packet after a warm up run. The cached mode uses the generated
+ * codecs when the examples are compiled with the
+ * <code>siloft-networking-processor</code> annotation processor, and the
+ * method handle codecs otherwise.
+ * <p>
+ * Usage: <code>ProtocolCodecBenchmark [reflective|cached] [packets]</code>.
+ *
+ * @author Sander Veldhuis
+ */
+public class ProtocolCodecBenchmark {
+
+    /** Sink preventing the results from being optimized away. */
+    private static long sink;
+
+    /**
+     * Entry method to start this benchmark.
+     *
+     * @param args
+     *            the mode and the number of packets
+     *
+     * @throws Exception
+     *             if the benchmark fails
+     */
+    public static void main(String[] args) throws Exception {
+        String mode = (args.length > 0 ? args[0] : null);
+        int packets = (args.length > 1 ? Integer.parseInt(args[1]) : 1000000);
+
+        for (int i = 0; i < 3; i++) {
+            boolean report = (i == 2);
+            if (mode == null || mode.equals("reflective")) {
+                run("reflective", packets, report);
+            }
+            if (mode == null || mode.equals("cached")) {
+                run("cached", packets, report);
+            }
+        }
+    }
+
+    /**
+     * Runs the benchmark for one mode.
+     *
+     * @param mode
+     *            the mode name
+     * @param packets
+     *            the number of packets
+     * @param report
+     *            whether to print the result
+     *
+     * @throws Exception
+     *             if the benchmark fails
+     */
+    private static void run(String mode, int packets, boolean report)
+            throws Exception {
+        boolean reflective = mode.equals("reflective");
+        ExampleProtocol protocol = new ExampleProtocol();
+        Example1Msg message = new Example1Msg();
+        message.name = "Siloft";
+        message.age = 42;
+
+        long encode = 0;
+        long decode = 0;
+        for (int i = 0; i < packets; i++) {
+            message.id = i;
+
+            long begin = System.nanoTime();
+            byte[] data = (reflective ? encode(message) : message.getData());
+            long encoded = System.nanoTime();
+            Example1Msg decoded;
+            if (reflective) {
+                decoded = decode(Example1Msg.class, data);
+            } else {
+                decoded = (Example1Msg) protocol
+                        .decode(new TCPPacket(data, data.length))[0];
+            }
+            long end = System.nanoTime();
+
+            encode += encoded - begin;
+            decode += end - encoded;
+            sink += decoded.id;
+        }
+
+        if (report) {
+            System.out.printf("%s: %.1f ns per encode, %.1f ns per decode%n",
+                    mode, (double) encode / packets,
+                    (double) decode / packets);
+        }
+    }
+
+    /**
+     * Encodes the specified packet by inspecting its fields.
+     *
+     * @param packet
+     *            the packet
+     *
+     * @return the encoded data
+     *
+     * @throws Exception
+     *             if a field is not accessible
+     */
+    private static byte[] encode(TCPProtocolPacket packet) throws Exception {
+        int length = 0;
+        for (Field field : packet.getClass().getDeclaredFields()) {
+            String typeName = field.getGenericType().getTypeName();
+            if (typeName.equals("short")) {
+                length += 2;
+            } else if (typeName.equals("int")) {
+                length += 4;
+            } else if (typeName.equals("byte")) {
+                length += 1;
+            } else if (typeName.equals("java.lang.String")) {
+                length += 2 + ((String) field.get(packet)).length();
+            }
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        for (Field field : packet.getClass().getDeclaredFields()) {
+            String typeName = field.getGenericType().getTypeName();
+            if (typeName.equals("short")) {
+                buffer.put(ByteBuffer.allocate(2)
+                        .putShort(field.getShort(packet)).array());
+            } else if (typeName.equals("int")) {
+                buffer.put(ByteBuffer.allocate(4).putInt(field.getInt(packet))
+                        .array());
+            } else if (typeName.equals("byte")) {
+                buffer.put(ByteBuffer.allocate(1)
+                        .put(field.getByte(packet)).array());
+            } else if (typeName.equals("java.lang.String")) {
+                byte[] bytes = ((String) field.get(packet))
+                        .getBytes(StandardCharsets.UTF_8);
+                buffer.put(ByteBuffer.allocate(2)
+                        .putShort((short) bytes.length).array());
+                buffer.put(bytes);
+            }
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Decodes a packet of the specified class by inspecting its fields.
+     *
+     * @param type
+     *            the packet class
+     * @param data
+     *            the data
+     *
+     * @return the packet
+     *
+     * @throws Exception
+     *             if the packet cannot be constructed
+     */
+    private static <T extends TCPProtocolPacket> T decode(Class<T> type,
+            byte[] data) throws Exception {
+        T packet = type.getConstructor().newInstance();
+        int i = 0;
+        for (Field field : type.getDeclaredFields()) {
+            String typeName = field.getGenericType().getTypeName();
+            if (typeName.equals("short")) {
+                short value = ByteBuffer.wrap(data, i, data.length - i)
+                        .getShort();
+                if (field.getName().equals("opCode")
+                        && field.getShort(packet) != value) {
+                    return null;
+                }
+                i += 2;
+            } else if (typeName.equals("int")) {
+                field.setInt(packet, ByteBuffer.wrap(data, i, 4).getInt());
+                i += 4;
+            } else if (typeName.equals("byte")) {
+                field.setByte(packet, data[i]);
+                i += 1;
+            } else if (typeName.equals("java.lang.String")) {
+                short len = ByteBuffer.wrap(data, i, data.length - i)
+                        .getShort();
+                i += 2;
+                field.set(packet,
+                        new String(data, i, len, StandardCharsets.UTF_8));
+                i += len;
+            }
+        }
+        return packet;
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.siloft.networking;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+/**
+ * Benchmark comparing the op code table of <code>TCPProtocol</code> with the
+ * former linear search over all TCP protocol packets of a protocol. The
+ * benchmark generates and compiles the requested number of TCP protocol packet
+ * classes, and decodes TCP packets containing a number of randomly chosen
+ * packets. The linear mode tries every TCP protocol packet on a copy of the
+ * remaining data and restarts after every decoded packet, like
+ * <code>TCPProtocol</code> used to do. The benchmark requires a Java
+ * development kit to compile the generated classes.
+ * <p>
+ * Usage:
+ * <code>ProtocolDispatchBenchmark [linear|table] [types] [packets]</code>.
+ *
+ * @author Sander Veldhuis
+ */
+public class ProtocolDispatchBenchmark {
+
+    /** The number of TCP protocol packets per decoded TCP packet. */
+    private static final int BATCH = 100;
+
+    /** Sink preventing the results from being optimized away. */
+    private static long sink;
+
+    /**
+     * Entry method to start this benchmark.
+     *
+     * @param args
+     *            the mode, the number of types, and the number of decoded
+     *            TCP packets
+     *
+     * @throws Exception
+     *             if the benchmark fails
+     */
+    public static void main(String[] args) throws Exception {
+        String mode = (args.length > 0 ? args[0] : null);
+        int types = (args.length > 1 ? Integer.parseInt(args[1]) : 200);
+        int packets = (args.length > 2 ? Integer.parseInt(args[2]) : 2000);
+
+        TCPProtocolPacket[] supported = generate(types);
+        byte[] data = batch(supported);
+        for (int i = 0; i < 3; i++) {
+            boolean report = (i == 2);
+            if (mode == null || mode.equals("linear")) {
+                run("linear", supported, data, packets, report);
+            }
+            if (mode == null || mode.equals("table")) {
+                run("table", supported, data, packets, report);
+            }
+        }
+    }
+
+    /**
+     * Runs the benchmark for one mode.
+     *
+     * @param mode
+     *            the mode name
+     * @param supported
+     *            one TCP protocol packet of every type
+     * @param data
+     *            the data containing a batch of TCP protocol packets
+     * @param packets
+     *            the number of decoded TCP packets
+     * @param report
+     *            whether to print the result
+     */
+    private static void run(String mode, TCPProtocolPacket[] supported,
+            byte[] data, int packets, boolean report) {
+        boolean linear = mode.equals("linear");
+        TCPProtocol protocol = new TCPProtocol(supported) {
+        };
+        TCPPacket packet = new TCPPacket(data, data.length);
+
+        long begin = System.nanoTime();
+        for (int i = 0; i < packets; i++) {
+            int decoded = (linear ? decodeLinear(supported, data).size()
+                    : protocol.decode(packet).length);
+            if (decoded != BATCH) {
+                throw new IllegalStateException("Decoded " + decoded);
+            }
+            sink += decoded;
+        }
+        long time = System.nanoTime() - begin;
+
+        if (report) {
+            System.out.printf("%s: %d types, %.1f ns per packet%n", mode,
+                    supported.length, (double) time / packets / BATCH);
+        }
+    }
+
+    /**
+     * Decodes the specified data by trying all TCP protocol packets in order.
+     *
+     * @param supported
+     *            one TCP protocol packet of every type
+     * @param data
+     *            the data
+     *
+     * @return the decoded TCP protocol packets
+     */
+    private static List<TCPProtocolPacket> decodeLinear(
+            TCPProtocolPacket[] supported, byte[] data) {
+        List<TCPProtocolPacket> decodedPackets =
+                new ArrayList<TCPProtocolPacket>();
+        int length = data.length;
+        int offset = 0;
+
+        for (int i = 0; i < supported.length; i++) {
+            byte[] dataPart = Arrays.copyOfRange(data, offset, length);
+            TCPProtocolPacket decodedPacket =
+                    supported[i].decode(dataPart, length - offset);
+            if (decodedPacket == null) {
+                continue;
+            }
+
+            decodedPackets.add(decodedPacket);
+            offset += decodedPacket.getLength();
+            i = -1;
+        }
+        return decodedPackets;
+    }
+
+    /**
+     * Returns the data of a batch of randomly chosen TCP protocol packets.
+     *
+     * @param supported
+     *            one TCP protocol packet of every type
+     *
+     * @return the data
+     */
+    static byte[] batch(TCPProtocolPacket[] supported) {
+        Random random = new Random(42);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < BATCH; i++) {
+            byte[] data = supported[random.nextInt(supported.length)].getData();
+            out.write(data, 0, data.length);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Generates, compiles and instantiates the specified number of TCP
+     * protocol packet classes.
+     *
+     * @param types
+     *            the number of classes
+     *
+     * @return one TCP protocol packet of every class
+     *
+     * @throws Exception
+     *             if the classes cannot be compiled or instantiated
+     */
+    static TCPProtocolPacket[] generate(int types) throws Exception {
+        Path directory = Files.createTempDirectory("dispatch");
+        List<String> files = new ArrayList<String>();
+        for (int i = 0; i < types; i++) {
+            Path file = directory.resolve("Dispatch" + i + "Msg.java");
+            String source = "public final class Dispatch" + i + "Msg"
+                    + " extends com.siloft.networking.TCPProtocolPacket {\n"
+                    + "    public final short opCode = " + (i + 1) + ";\n"
+                    + "    public int id = " + i + ";\n"
+                    + "    public long time = " + (i * 31L) + ";\n"
+                    + "    public String name = \"message " + i + "\";\n"
+                    + "}\n";
+            Files.write(file, source.getBytes(StandardCharsets.UTF_8));
+            files.add(file.toString());
+        }
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        List<String> arguments = new ArrayList<String>(Arrays.asList("-d",
+                directory.toString(), "-proc:none", "-classpath",
+                System.getProperty("java.class.path")));
+        arguments.addAll(files);
+        if (compiler == null || compiler.run(null, null, null,
+                arguments.toArray(new String[0])) != 0) {
+            throw new IllegalStateException("Compilation failed");
+        }
+
+        URLClassLoader loader = new URLClassLoader(
+                new URL[] { directory.toUri().toURL() },
+                ProtocolDispatchBenchmark.class.getClassLoader());
+        TCPProtocolPacket[] packets = new TCPProtocolPacket[types];
+        for (int i = 0; i < types; i++) {
+            packets[i] = (TCPProtocolPacket) loader
+                    .loadClass("Dispatch" + i + "Msg").newInstance();
+        }
+        return packets;
+    }
+}
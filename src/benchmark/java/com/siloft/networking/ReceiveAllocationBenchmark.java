@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.siloft.networking;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Benchmark measuring the bytes allocated per received packet by the receive
+ * path. A writer thread transmits small packets over a loopback connection,
+ * waiting for an acknowledgement after each packet so that every packet is
+ * received by a separate read. The reader receives them with a
+ * <code>ReceiveTask</code> backed by the buffer pool, and with the previous
+ * implementation which allocated a new buffer and a new
+ * <code>BufferedInputStream</code> for every read.
+ * <p>
+ * Usage: <code>ReceiveAllocationBenchmark [packets] [packet size]</code>. The
+ * benchmark requires a Java virtual machine supporting the measurement of
+ * allocated bytes per thread, like HotSpot.
+ *
+ * @author Sander Veldhuis
+ */
+public class ReceiveAllocationBenchmark {
+
+    /**
+     * Entry method to start this benchmark.
+     *
+     * @param args
+     *            the number of packets and the packet size
+     *
+     * @throws Exception
+     *             if the benchmark fails
+     */
+    public static void main(String[] args) throws Exception {
+        int packets = (args.length > 0 ? Integer.parseInt(args[0]) : 20000);
+        int size = (args.length > 1 ? Integer.parseInt(args[1]) : 32);
+
+        for (int i = 0; i < 3; i++) {
+            boolean report = (i == 2);
+            run("unpooled", false, packets, size, report);
+            run("pooled", true, packets, size, report);
+        }
+    }
+
+    /**
+     * Runs the benchmark for one receive implementation.
+     *
+     * @param mode
+     *            the mode name
+     * @param pooled
+     *            whether to use the buffer pool
+     * @param packets
+     *            the number of packets
+     * @param size
+     *            the packet size
+     * @param report
+     *            whether to print the result
+     *
+     * @throws Exception
+     *             if the benchmark fails
+     */
+    private static void run(String mode, boolean pooled, int packets,
+            int size, boolean report) throws Exception {
+        try (ServerSocket server = new ServerSocket(0);
+                Socket writer = new Socket("localhost", server.getLocalPort());
+                Socket reader = server.accept()) {
+            Thread thread = new Thread(() -> write(writer, packets, size));
+            thread.start();
+
+            ReceiveTask task = new ReceiveTask(reader);
+            reader.setTcpNoDelay(true);
+            OutputStream ack = reader.getOutputStream();
+            long allocated = allocatedBytes();
+            for (int i = 0; i < packets; i++) {
+                if (pooled) {
+                    TCPPacket packet = task.call();
+                    BufferPool.getDefault().release(packet.getData());
+                } else {
+                    readUnpooled(reader);
+                }
+                ack.write(0);
+            }
+            allocated = allocatedBytes() - allocated;
+            thread.join();
+
+            if (report) {
+                System.out.printf("%s: %.1f bytes allocated per packet%n",
+                        mode, (double) allocated / packets);
+            }
+        }
+    }
+
+    /**
+     * Reads once using the previous receive implementation.
+     *
+     * @param socket
+     *            the socket
+     *
+     * @return the number of bytes read
+     *
+     * @throws IOException
+     *             if reading fails
+     */
+    private static int readUnpooled(Socket socket) throws IOException {
+        byte[] buffer = new byte[socket.getReceiveBufferSize()];
+        BufferedInputStream stream =
+                new BufferedInputStream(socket.getInputStream());
+        return stream.read(buffer);
+    }
+
+    /**
+     * Writes the specified number of packets to the socket, waiting for an
+     * acknowledgement after each packet.
+     *
+     * @param socket
+     *            the socket
+     * @param packets
+     *            the number of packets
+     * @param size
+     *            the packet size
+     */
+    private static void write(Socket socket, int packets, int size) {
+        byte[] packet = new byte[size];
+        try {
+            socket.setTcpNoDelay(true);
+            OutputStream output = socket.getOutputStream();
+            InputStream input = socket.getInputStream();
+            for (int i = 0; i < packets; i++) {
+                output.write(packet);
+                input.read();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Returns the number of bytes allocated by the current thread.
+     *
+     * @return the number of allocated bytes
+     */
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean bean =
+                (com.sun.management.ThreadMXBean) ManagementFactory
+                        .getThreadMXBean();
+        return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
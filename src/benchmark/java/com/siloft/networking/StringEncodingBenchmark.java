@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.siloft.networking;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Benchmark comparing the single pass UTF-8 encoding of string fields with
+ * encoding every string into an intermediate byte array first, as the codecs
+ * used to do. The strings are mostly ASCII, with some accented and symbol
+ * characters. Both modes encode the strings into a heap buffer, and report the
+ * time and the bytes allocated per string after a warm up run. The benchmark
+ * requires a Java virtual machine supporting the measurement of allocated
+ * bytes per thread, like HotSpot.
+ * <p>
+ * Usage: <code>StringEncodingBenchmark [array|single] [strings]</code>.
+ *
+ * @author Sander Veldhuis
+ */
+public class StringEncodingBenchmark {
+
+    /** The encoded strings. */
+    private static final String[] VALUES = { "Siloft",
+            "GET /index.html HTTP/1.1", "user@example.com",
+            "The quick brown fox jumps over the lazy dog",
+            "Caf\u00E9 de Flore, Paris", "Price: \u20AC 12.50",
+            "order-2018-000123", "{\"id\":42,\"name\":\"networking\"}" };
+
+    /**
+     * Entry method to start this benchmark.
+     *
+     * @param args
+     *            the mode and the number of strings
+     *
+     * @throws Exception
+     *             if the benchmark fails
+     */
+    public static void main(String[] args) throws Exception {
+        String mode = (args.length > 0 ? args[0] : null);
+        int strings = (args.length > 1 ? Integer.parseInt(args[1]) : 10000000);
+
+        for (int i = 0; i < 3; i++) {
+            boolean report = (i == 2);
+            if (mode == null || mode.equals("array")) {
+                run("array", strings, report);
+            }
+            if (mode == null || mode.equals("single")) {
+                run("single", strings, report);
+            }
+        }
+    }
+
+    /**
+     * Runs the benchmark for one mode.
+     *
+     * @param mode
+     *            the mode name
+     * @param strings
+     *            the number of strings
+     * @param report
+     *            whether to print the result
+     */
+    private static void run(String mode, int strings, boolean report) {
+        boolean array = mode.equals("array");
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+
+        long allocated = allocatedBytes();
+        long begin = System.nanoTime();
+        for (int i = 0; i < strings; i++) {
+            if (buffer.remaining() < 256) {
+                buffer.clear();
+            }
+            String value = VALUES[i & 7];
+            if (array) {
+                TCPPacketCodec.putBytes(buffer,
+                        value.getBytes(StandardCharsets.UTF_8));
+            } else {
+                TCPPacketCodec.putString(buffer, value);
+            }
+        }
+        long time = System.nanoTime() - begin;
+        allocated = allocatedBytes() - allocated;
+
+        if (report) {
+            System.out.printf(
+                    "%s: %.1f ns and %.1f bytes allocated per string%n", mode,
+                    (double) time / strings, (double) allocated / strings);
+        }
+    }
+
+    /**
+     * Returns the number of bytes allocated by the current thread.
+     *
+     * @return the number of allocated bytes
+     */
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean bean =
+                (com.sun.management.ThreadMXBean) ManagementFactory
+                        .getThreadMXBean();
+        return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.siloft.networking;
+
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Loopback benchmark measuring the throughput of a TCP server whose packet
+ * listener is slow, like a handler waiting on a database. Every client
+ * transmits its packets at once; the listener blocks for a fixed time per
+ * packet. The serial mode notifies the listener one packet at a time, the
+ * striped mode notifies it on a <code>StripedDispatcher</code> with a stripe
+ * per client. Each mode reports the time per packet and the maximum queue
+ * depth of the stripes, after a warm up run.
+ * <p>
+ * Usage: <code>StripedDispatchBenchmark [serial|striped] [clients]
+ * [packets] [handler us]</code>.
+ *
+ * @author Sander Veldhuis
+ */
+public class StripedDispatchBenchmark {
+
+    /**
+     * Entry method to start this benchmark.
+     *
+     * @param args
+     *            the mode, the number of clients, the number of packets per
+     *            client, and the time the listener blocks in microseconds
+     *
+     * @throws Exception
+     *             if the benchmark fails
+     */
+    public static void main(String[] args) throws Exception {
+        String mode = (args.length > 0 ? args[0] : null);
+        int clients = (args.length > 1 ? Integer.parseInt(args[1]) : 16);
+        int packets = (args.length > 2 ? Integer.parseInt(args[2]) : 200);
+        int handler = (args.length > 3 ? Integer.parseInt(args[3]) : 100);
+
+        for (int i = 0; i < 2; i++) {
+            boolean report = (i == 1);
+            if (mode == null || mode.equals("serial")) {
+                run("serial", false, clients, packets, handler, report);
+            }
+            if (mode == null || mode.equals("striped")) {
+                run("striped", true, clients, packets, handler, report);
+            }
+        }
+    }
+
+    /**
+     * Runs the benchmark for one mode.
+     *
+     * @param mode
+     *            the mode name
+     * @param striped
+     *            whether to notify the listener on a striped dispatcher
+     * @param clientCount
+     *            the number of clients
+     * @param packets
+     *            the number of packets per client
+     * @param handler
+     *            the time the listener blocks in microseconds
+     * @param report
+     *            whether to print the result
+     *
+     * @throws Exception
+     *             if the benchmark fails
+     */
+    private static void run(String mode, boolean striped, int clientCount,
+            int packets, int handler, boolean report) throws Exception {
+        StripedDispatcher dispatcher = new StripedDispatcher(clientCount);
+        TCPServer server = new TCPServer("Benchmark", 0, 1000);
+        if (striped) {
+            server.setDispatcher(dispatcher);
+        }
+        CountDownLatch received = new CountDownLatch(clientCount * packets);
+        CountDownLatch connected = new CountDownLatch(clientCount);
+        server.addConnectedListener((name, id) -> connected.countDown());
+        server.addPacketListener((name, id, packet) -> {
+            LockSupport.parkNanos(handler * 1000L);
+            received.countDown();
+        });
+        server.connect();
+
+        Socket[] clients = new Socket[clientCount];
+        for (int i = 0; i < clients.length; i++) {
+            clients[i] = new Socket("localhost", server.getPort());
+        }
+        connected.await(10, TimeUnit.SECONDS);
+
+        byte[] data = new byte[packets * 8];
+        for (int i = 0; i < packets; i++) {
+            data[i * 8 + 3] = 4;
+        }
+        long begin = System.nanoTime();
+        for (Socket client : clients) {
+            OutputStream output = client.getOutputStream();
+            output.write(data);
+            output.flush();
+        }
+        if (!received.await(10, TimeUnit.MINUTES)) {
+            throw new IllegalStateException("Packets not received");
+        }
+        long time = System.nanoTime() - begin;
+
+        int maxDepth = 0;
+        for (int i = 0; i < dispatcher.getStripeCount(); i++) {
+            maxDepth = Math.max(maxDepth, dispatcher.getMaxQueueDepth(i));
+        }
+        if (report) {
+            System.out.printf("%s: %.1f us per packet, max queue depth %d%n",
+                    mode, time / 1000.0 / (clientCount * packets), maxDepth);
+        }
+
+        for (Socket client : clients) {
+            client.close();
+        }
+        server.disconnect();
+        dispatcher.shutdown();
+    }
+}
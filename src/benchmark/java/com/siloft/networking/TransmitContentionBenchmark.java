@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.siloft.networking;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Contention benchmark with many producer threads transmitting small packets
+ * to a single connection. It compares the lock-free transmit service with the
+ * previous design, which appended to a locked list and scheduled a new
+ * transmit task for every packet. For every mode the benchmark reports the
+ * average time a producer spends per transmission and the throughput until
+ * all packets are received by the other end of the connection.
+ * <p>
+ * Usage: <code>TransmitContentionBenchmark [locked|lockfree] [producers]
+ * [packets per producer]</code>.
+ *
+ * @author Sander Veldhuis
+ */
+public class TransmitContentionBenchmark {
+
+    /** The size of every transmitted packet. */
+    private static final int PACKET_SIZE = 16;
+
+    /**
+     * Entry method to start this benchmark.
+     *
+     * @param args
+     *            the mode, the number of producers, and the number of packets
+     *            per producer
+     *
+     * @throws Exception
+     *             if the benchmark fails
+     */
+    public static void main(String[] args) throws Exception {
+        String mode = (args.length > 0 ? args[0] : null);
+        int producers = (args.length > 1 ? Integer.parseInt(args[1]) : 16);
+        int packets = (args.length > 2 ? Integer.parseInt(args[2]) : 100000);
+
+        for (int i = 0; i < 3; i++) {
+            boolean report = (i == 2);
+            if (mode == null || mode.equals("locked")) {
+                run("locked", producers, packets, report);
+            }
+            if (mode == null || mode.equals("lockfree")) {
+                run("lockfree", producers, packets, report);
+            }
+        }
+    }
+
+    /**
+     * Runs the benchmark for one mode.
+     *
+     * @param mode
+     *            the mode name
+     * @param producerCount
+     *            the number of producers
+     * @param packets
+     *            the number of packets per producer
+     * @param report
+     *            whether to print the result
+     *
+     * @throws Exception
+     *             if the benchmark fails
+     */
+    private static void run(String mode, int producerCount, int packets,
+            boolean report) throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (ServerSocket server = new ServerSocket(0);
+                Socket client = new Socket("localhost", server.getLocalPort());
+                Socket socket = server.accept()) {
+            Consumer<TCPPacket> transmitter;
+            if (mode.equals("locked")) {
+                transmitter = new LockedTransmitter(socket, executor);
+            } else {
+                TransmitService service = new TransmitService(socket);
+                service.setExecutor(executor);
+                transmitter = service::enqueue;
+            }
+
+            long total = (long) producerCount * packets * PACKET_SIZE;
+            Thread reader = new Thread(() -> read(client, total));
+            reader.start();
+
+            CountDownLatch start = new CountDownLatch(1);
+            long[] producerNanos = new long[producerCount];
+            Thread[] producers = new Thread[producerCount];
+            for (int i = 0; i < producerCount; i++) {
+                final int index = i;
+                producers[i] = new Thread(() -> {
+                    TCPPacket packet =
+                            new TCPPacket(new byte[PACKET_SIZE], PACKET_SIZE);
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    long begin = System.nanoTime();
+                    for (int j = 0; j < packets; j++) {
+                        transmitter.accept(packet);
+                    }
+                    producerNanos[index] = System.nanoTime() - begin;
+                });
+                producers[i].start();
+            }
+
+            long begin = System.nanoTime();
+            start.countDown();
+            for (Thread producer : producers) {
+                producer.join();
+            }
+            reader.join();
+            long elapsed = System.nanoTime() - begin;
+
+            long nanos = 0;
+            for (long producer : producerNanos) {
+                nanos += producer;
+            }
+            if (report) {
+                System.out.printf(
+                        "%s: %.1f ns per transmit, %.0f packets/s%n", mode,
+                        (double) nanos / ((long) producerCount * packets),
+                        producerCount * packets / (elapsed / 1e9));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Reads the specified number of bytes from the socket.
+     *
+     * @param socket
+     *            the socket
+     * @param total
+     *            the number of bytes
+     */
+    private static void read(Socket socket, long total) {
+        byte[] buffer = new byte[65536];
+        try {
+            InputStream input = socket.getInputStream();
+            long received = 0;
+            while (received < total) {
+                int length = input.read(buffer);
+                if (length < 0) {
+                    break;
+                }
+                received += length;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * The previous transmit design: packets are appended to a locked list and
+     * every packet schedules a task which drains the list.
+     */
+    private static final class LockedTransmitter
+            implements Consumer<TCPPacket> {
+
+        /** The socket holding the connection. */
+        private final Socket socket;
+
+        /** The executor running the tasks. */
+        private final ExecutorService executor;
+
+        /** The queue holding the packets to be transmitted. */
+        private final List<TCPPacket> queue = new LinkedList<TCPPacket>();
+
+        /**
+         * Constructs a new locked transmitter.
+         *
+         * @param socket
+         *            the socket
+         * @param executor
+         *            the executor running the tasks
+         */
+        LockedTransmitter(Socket socket, ExecutorService executor) {
+            this.socket = socket;
+            this.executor = executor;
+        }
+
+        @Override
+        public void accept(TCPPacket packet) {
+            synchronized (queue) {
+                queue.add(packet);
+            }
+            executor.execute(() -> {
+                List<TCPPacket> packets;
+                synchronized (queue) {
+                    packets = new ArrayList<TCPPacket>(queue);
+                    queue.clear();
+                }
+                try {
+                    new TransmitTask(socket, packets).call();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+        }
+    }
+}
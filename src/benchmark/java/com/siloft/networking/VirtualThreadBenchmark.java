@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.siloft.networking;
+
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+
+/**
+ * Loopback benchmark comparing a TCP server running its background services on
+ * platform threads with a TCP server running on virtual threads. For every
+ * mode the benchmark connects the requested number of clients, bounces a small
+ * packet per client for a number of rounds, and reports the platform thread
+ * count, the used heap memory, and the throughput.
+ * <p>
+ * Usage: <code>VirtualThreadBenchmark [platform|virtual] [clients]
+ * [rounds]</code>. Each mode should be measured in a fresh Java virtual
+ * machine, because the threads of a disconnected server terminate
+ * asynchronously. Virtual threads require Java 21 or higher. Large client
+ * counts may require raising the open file limit of the operating system.
+ *
+ * @author Sander Veldhuis
+ */
+public class VirtualThreadBenchmark {
+
+    /** The data bounced by every client. */
+    private static final byte[] DATA = new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 };
+
+    /**
+     * Entry method to start this benchmark.
+     *
+     * @param args
+     *            the mode, the number of clients, and the number of rounds
+     *
+     * @throws Exception
+     *             if the benchmark fails
+     */
+    public static void main(String[] args) throws Exception {
+        String mode = (args.length > 0 ? args[0] : "platform");
+        int clients = (args.length > 1 ? Integer.parseInt(args[1]) : 1000);
+        int rounds = (args.length > 2 ? Integer.parseInt(args[2]) : 20);
+
+        if (mode.equals("virtual") && !Threads.isVirtualSupported()) {
+            System.out.println("virtual: not supported by this Java version");
+            return;
+        }
+        run(mode, mode.equals("virtual"), clients, rounds);
+    }
+
+    /**
+     * Runs the benchmark for one mode.
+     *
+     * @param mode
+     *            the mode name
+     * @param virtual
+     *            whether to use virtual threads
+     * @param clientCount
+     *            the number of clients
+     * @param rounds
+     *            the number of rounds
+     *
+     * @throws Exception
+     *             if the benchmark fails
+     */
+    private static void run(String mode, boolean virtual, int clientCount,
+            int rounds) throws Exception {
+        TCPServer server = new TCPServer("Benchmark", 0, clientCount);
+        server.setVirtualThreads(virtual);
+        server.addPacketListener((name, id, packet) -> {
+            server.transmit(id, packet);
+        });
+        server.connect();
+
+        Socket[] clients = new Socket[clientCount];
+        for (int i = 0; i < clients.length; i++) {
+            clients[i] = new Socket("localhost", server.getPort());
+            clients[i].setTcpNoDelay(true);
+        }
+
+        // Warm up and ensure all clients are accepted
+        bounce(clients, 1);
+
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        long memory = runtime.totalMemory() - runtime.freeMemory();
+        int threads = ManagementFactory.getThreadMXBean().getThreadCount();
+
+        long start = System.nanoTime();
+        bounce(clients, rounds);
+        long duration = System.nanoTime() - start;
+
+        long packets = (long) clientCount * rounds;
+        System.out.printf(
+                "%s: %d clients, %d platform threads, %d KB heap, "
+                        + "%.0f packets/s%n",
+                mode, clientCount, threads, memory / 1024,
+                packets * 1e9 / duration);
+
+        for (Socket client : clients) {
+            client.close();
+        }
+        server.disconnect();
+    }
+
+    /**
+     * Transmits the data from every client and waits till every client
+     * received the bounced data.
+     *
+     * @param clients
+     *            the clients
+     * @param rounds
+     *            the number of rounds
+     *
+     * @throws Exception
+     *             if transmitting or receiving fails
+     */
+    private static void bounce(Socket[] clients, int rounds) throws Exception {
+        byte[] buffer = new byte[DATA.length];
+        for (int round = 0; round < rounds; round++) {
+            for (Socket client : clients) {
+                client.getOutputStream().write(DATA);
+            }
+            for (Socket client : clients) {
+                InputStream input = client.getInputStream();
+                int length = 0;
+                while (length < buffer.length) {
+                    length += input.read(buffer, length,
+                            buffer.length - length);
+                }
+            }
+        }
+    }
+}
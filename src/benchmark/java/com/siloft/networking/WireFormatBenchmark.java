@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.siloft.networking;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Benchmark comparing the fixed and the compact wire format on telemetry like
+ * TCP protocol packets, holding small counters, a timestamp delta and a few
+ * flags. Every batch of packets is encoded into an outbound buffer with the
+ * wire format of the protocol, and decoded again with the same protocol. Each
+ * mode reports the time and the encoded bytes per packet, after a warm up run.
+ * <p>
+ * Usage: <code>WireFormatBenchmark [fixed|compact] [packets]</code>.
+ *
+ * @author Sander Veldhuis
+ */
+public class WireFormatBenchmark {
+
+    /** The number of packets per outbound buffer. */
+    private static final int BATCH = 100;
+
+    /** Sink preventing the results from being optimized away. */
+    private static long sink;
+
+    /**
+     * Telemetry TCP protocol packet.
+     */
+    public static final class TelemetryMsg extends TCPProtocolPacket {
+        public final short opCode = 1;
+        public short sensor;
+        public int sequence;
+        public long timestampDelta;
+        public int value;
+        public boolean online;
+        public boolean alarm;
+        public boolean calibrated;
+        public String unit;
+    }
+
+    /**
+     * TCP protocol supporting the telemetry TCP protocol packet.
+     */
+    private static final class TelemetryProtocol extends TCPProtocol {
+        TelemetryProtocol(TCPWireFormat format) {
+            super(format, new TelemetryMsg());
+        }
+    }
+
+    /**
+     * Entry method to start this benchmark.
+     *
+     * @param args
+     *            the mode and the number of packets
+     */
+    public static void main(String[] args) {
+        String mode = (args.length > 0 ? args[0] : null);
+        int packets = (args.length > 1 ? Integer.parseInt(args[1]) : 1000000);
+
+        for (int i = 0; i < 3; i++) {
+            boolean report = (i == 2);
+            if (mode == null || mode.equals("fixed")) {
+                run(TCPWireFormat.FIXED, packets, report);
+            }
+            if (mode == null || mode.equals("compact")) {
+                run(TCPWireFormat.COMPACT, packets, report);
+            }
+        }
+    }
+
+    /**
+     * Runs the benchmark for one wire format.
+     *
+     * @param format
+     *            the wire format
+     * @param packets
+     *            the number of packets
+     * @param report
+     *            whether to print the result
+     */
+    private static void run(TCPWireFormat format, int packets,
+            boolean report) {
+        TCPProtocol protocol = new TelemetryProtocol(format);
+        TelemetryMsg message = new TelemetryMsg();
+        message.unit = "C";
+        message.online = true;
+        ByteBuffer buffer =
+                ByteBuffer.allocate(BATCH * message.getLength() * 2);
+
+        long bytes = 0;
+        long begin = System.nanoTime();
+        for (int i = 0; i < packets; i += BATCH) {
+            buffer.clear();
+            for (int j = 0; j < BATCH; j++) {
+                message.sensor = (short) (j % 16);
+                message.sequence = i + j;
+                message.timestampDelta = 250 + j % 10;
+                message.value = (j % 2 == 0 ? -j : j) * 10;
+                message.alarm = (j % 7 == 0);
+                protocol.encode(message, buffer);
+            }
+            buffer.flip();
+            bytes += buffer.limit();
+
+            TCPPacket[] result = protocol.decode(
+                    new TCPPacket(buffer.array(), buffer.limit()));
+            sink += ((TelemetryMsg) result[BATCH - 1]).sequence;
+        }
+        long time = System.nanoTime() - begin;
+
+        if (report) {
+            System.out.printf("%s: %.1f ns and %.1f bytes per packet%n",
+                    format.name().toLowerCase(), (double) time / packets,
+                    (double) bytes / packets);
+        }
+    }
+}
@@ -66,6 +66,7 @@ public class TCPClientExample extends Application
         client = new TCPClient("Test", 12345);
 
         client.addPacketListener(this);
+        client.setListenerExecutor(new FXThreadExecutor());
 
         try {
             client.connect();
@@ -69,6 +69,7 @@ public class TCPServerExample extends Application
         server.addConnectedListener(this);
         server.addDisconnectedListener(this);
         server.addPacketListener(this);
+        server.setListenerExecutor(new FXThreadExecutor());
 
         try {
             server.connect();
@@ -22,11 +22,9 @@
 
 package com.siloft.networking;
 
-import javafx.concurrent.Service;
-import javafx.concurrent.Task;
-
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.concurrent.Callable;
 
 /**
  * A background thread which handles connecting clients asynchronously from the
@@ -34,7 +32,7 @@ import java.net.Socket;
  *
  * @author Sander Veldhuis
  */
-final class AcceptService extends Service<Socket> {
+final class AcceptService extends IOService<Socket> {
 
     /** The server socket holding the connection. */
     private final ServerSocket socket;
@@ -62,7 +60,7 @@ final class AcceptService extends Service<Socket> {
      * @return the created <code>AcceptTask</code>
      */
     @Override
-    protected Task<Socket> createTask() {
+    protected Callable<Socket> createTask() {
         return new AcceptTask(socket);
     }
 }
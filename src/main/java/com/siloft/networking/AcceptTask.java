@@ -22,19 +22,18 @@
 
 package com.siloft.networking;
 
-import javafx.concurrent.Task;
-
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.concurrent.Callable;
 
 /**
- * A cancellable asynchronous computation which will wait till a new client is
- * connecting and extracts the dedicated socket.
+ * An asynchronous computation which will wait till a new client is connecting
+ * and extracts the dedicated socket.
  *
  * @author Sander Veldhuis
  */
-final class AcceptTask extends Task<Socket> {
+final class AcceptTask implements Callable<Socket> {
 
     /** The server socket holding the connection. */
     private final ServerSocket socket;
@@ -49,7 +48,6 @@ final class AcceptTask extends Task<Socket> {
      *                if the server socket is <code>null</code>
      */
     public AcceptTask(ServerSocket socket) {
-        super();
         if (socket == null) {
             throw new NullPointerException("Socket is null");
         }
@@ -61,7 +59,7 @@ final class AcceptTask extends Task<Socket> {
      * connecting to the server socket and extracts the socket.
      */
     @Override
-    protected Socket call() throws IOException {
+    public Socket call() throws IOException {
         return socket.accept();
     }
 }
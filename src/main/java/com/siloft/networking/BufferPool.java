@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.siloft.networking;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of reusable byte buffers, to prevent allocating a new buffer for
+ * every read from a socket.
+ * <p>
+ * Buffers are grouped in size classes of powers of two. A requested size is
+ * rounded up to the nearest size class. Every thread keeps a small cache of
+ * buffers per size class in front of a shared pool, therefore a thread
+ * repeatedly acquiring and releasing buffers does not contend with other
+ * threads. Buffers larger than the largest size class are not pooled.
+ *
+ * @author Sander Veldhuis
+ */
+final class BufferPool {
+
+    /** The pool shared by all connections. */
+    private static final BufferPool DEFAULT =
+            new BufferPool(1024, 65536, 4, 16 * 1024 * 1024);
+
+    /** The binary logarithm of the smallest size class. */
+    private final int minShift;
+
+    /** The binary logarithm of the largest size class. */
+    private final int maxShift;
+
+    /** The maximum number of buffers per size class cached by a thread. */
+    private final int threadCacheSize;
+
+    /** The shared pools per size class. */
+    private final Queue<byte[]>[] shared;
+
+    /** The number of buffers in the shared pools per size class. */
+    private final AtomicInteger[] sharedCounts;
+
+    /** The maximum number of buffers in the shared pools per size class. */
+    private final int[] sharedCapacities;
+
+    /** The caches of the threads. */
+    private final ThreadLocal<ThreadCache> threadCaches;
+
+    /** The number of buffers allocated by this pool. */
+    private final AtomicLong allocations = new AtomicLong();
+
+    /**
+     * Constructs a new buffer pool.
+     *
+     * @param minSize
+     *            the size of the smallest size class, a power of two
+     * @param maxSize
+     *            the size of the largest size class, a power of two
+     * @param threadCacheSize
+     *            the maximum number of buffers per size class cached by a
+     *            thread
+     * @param sharedSize
+     *            the maximum number of bytes per size class retained by the
+     *            shared pool
+     *
+     * @exception IllegalArgumentException
+     *                if any of the sizes is invalid
+     */
+    public BufferPool(int minSize, int maxSize, int threadCacheSize,
+            int sharedSize) {
+        if (minSize < 1 || Integer.bitCount(minSize) != 1) {
+            throw new IllegalArgumentException("Invalid minimum size");
+        }
+        if (maxSize < minSize || Integer.bitCount(maxSize) != 1) {
+            throw new IllegalArgumentException("Invalid maximum size");
+        }
+        if (threadCacheSize < 0 || sharedSize < 0) {
+            throw new IllegalArgumentException("Invalid cache size");
+        }
+        this.minShift = Integer.numberOfTrailingZeros(minSize);
+        this.maxShift = Integer.numberOfTrailingZeros(maxSize);
+        this.threadCacheSize = threadCacheSize;
+
+        int classes = maxShift - minShift + 1;
+        @SuppressWarnings("unchecked")
+        Queue<byte[]>[] queues = (Queue<byte[]>[]) new Queue<?>[classes];
+        shared = queues;
+        sharedCounts = new AtomicInteger[classes];
+        sharedCapacities = new int[classes];
+        for (int i = 0; i < classes; i++) {
+            shared[i] = new ConcurrentLinkedQueue<byte[]>();
+            sharedCounts[i] = new AtomicInteger();
+            sharedCapacities[i] = sharedSize >> (minShift + i);
+        }
+        threadCaches = ThreadLocal.withInitial(() -> new ThreadCache(classes));
+    }
+
+    /**
+     * Returns the buffer pool shared by all connections. The shared buffer
+     * pool has size classes from 1 KB up to 64 KB.
+     *
+     * @return the buffer pool
+     */
+    public static BufferPool getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns the size of the largest size class of this buffer pool.
+     *
+     * @return the maximum size
+     */
+    public int getMaxSize() {
+        return 1 << maxShift;
+    }
+
+    /**
+     * Returns the number of buffers allocated by this buffer pool. Buffers
+     * taken from the pool are not counted.
+     *
+     * @return the number of allocations
+     */
+    public long getAllocationCount() {
+        return allocations.get();
+    }
+
+    /**
+     * Acquires a buffer of at least the specified size. The content of the
+     * buffer is undefined. The buffer should be released once it is no longer
+     * used.
+     *
+     * @param size
+     *            the minimum buffer size
+     *
+     * @return the buffer
+     */
+    public byte[] acquire(int size) {
+        int index = indexOf(size);
+        if (index < 0) {
+            allocations.incrementAndGet();
+            return new byte[size];
+        }
+
+        byte[] buffer = threadCaches.get().poll(index);
+        if (buffer == null) {
+            buffer = shared[index].poll();
+            if (buffer != null) {
+                sharedCounts[index].decrementAndGet();
+            }
+        }
+        if (buffer == null) {
+            allocations.incrementAndGet();
+            buffer = new byte[1 << (minShift + index)];
+        }
+        return buffer;
+    }
+
+    /**
+     * Releases the specified buffer to this buffer pool. The buffer should not
+     * be used after it is released. Buffers not matching a size class are
+     * ignored.
+     *
+     * @param buffer
+     *            the buffer, or <code>null</code>
+     */
+    public void release(byte[] buffer) {
+        if (buffer == null) {
+            return;
+        }
+        int index = indexOf(buffer.length);
+        if (index < 0 || buffer.length != 1 << (minShift + index)) {
+            return;
+        }
+
+        if (threadCaches.get().offer(index, buffer)) {
+            return;
+        }
+        if (sharedCounts[index].incrementAndGet() <= sharedCapacities[index]) {
+            shared[index].offer(buffer);
+        } else {
+            sharedCounts[index].decrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the index of the size class holding buffers of at least the
+     * specified size.
+     *
+     * @param size
+     *            the size
+     *
+     * @return the index, or <code>-1</code> if the size exceeds the largest
+     *         size class
+     */
+    private int indexOf(int size) {
+        if (size <= (1 << minShift)) {
+            return 0;
+        }
+        int shift = 32 - Integer.numberOfLeadingZeros(size - 1);
+        return (shift <= maxShift ? shift - minShift : -1);
+    }
+
+    /**
+     * The buffers cached by a single thread.
+     */
+    private final class ThreadCache {
+
+        /** The cached buffers per size class. */
+        private final byte[][][] buffers;
+
+        /** The number of cached buffers per size class. */
+        private final int[] counts;
+
+        /**
+         * Constructs a new empty thread cache.
+         *
+         * @param classes
+         *            the number of size classes
+         */
+        ThreadCache(int classes) {
+            buffers = new byte[classes][threadCacheSize][];
+            counts = new int[classes];
+        }
+
+        /**
+         * Removes a cached buffer of the specified size class.
+         *
+         * @param index
+         *            the size class index
+         *
+         * @return the buffer, or <code>null</code> if none is cached
+         */
+        byte[] poll(int index) {
+            if (counts[index] == 0) {
+                return null;
+            }
+            int count = --counts[index];
+            byte[] buffer = buffers[index][count];
+            buffers[index][count] = null;
+            return buffer;
+        }
+
+        /**
+         * Caches the specified buffer of the specified size class.
+         *
+         * @param index
+         *            the size class index
+         * @param buffer
+         *            the buffer
+         *
+         * @return <code>true</code> if cached, or <code>false</code> if the
+         *         cache is full
+         */
+        boolean offer(int index, byte[] buffer) {
+            if (counts[index] == threadCacheSize) {
+                return false;
+            }
+            buffers[index][counts[index]++] = buffer;
+            return true;
+        }
+    }
+}
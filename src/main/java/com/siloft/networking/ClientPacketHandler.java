@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.siloft.networking;
+
+import java.util.EventListener;
+
+/**
+ * Interface that receives notifications of newly received TCP protocol
+ * packets of a single class.
+ *
+ * @param <T>
+ *            the TCP protocol packet class
+ *
+ * @author Sander Veldhuis
+ */
+public interface ClientPacketHandler<T extends TCPProtocolPacket>
+        extends EventListener {
+
+    /**
+     * Invoked after receiving and decoding a new TCP protocol packet of the
+     * class the handler is registered for.
+     * <p>
+     * A TCP protocol packet of a class with a <code>TCPPacketRecycler</code>
+     * is recycled once all listeners and handlers return, unless a handler
+     * retains it.
+     *
+     * @param name
+     *            the client name
+     * @param packet
+     *            the TCP protocol packet
+     */
+    public void received(String name, T packet);
+}
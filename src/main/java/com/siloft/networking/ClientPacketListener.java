@@ -34,6 +34,10 @@ public interface ClientPacketListener extends EventListener {
     /**
      * Invoked after receiving a new TCP packet. Please note that the data of a
      * TCP packet could contain several packets.
+     * <p>
+     * A decoded TCP protocol packet of a class with a
+     * <code>TCPPacketRecycler</code> is recycled once all listeners return,
+     * unless a listener retains it.
      *
      * @param name
      *            the client name
@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.siloft.networking;
+
+import java.util.EventListener;
+
+/**
+ * Interface that receives notifications upon becoming writable or unwritable.
+ *
+ * @author Sander Veldhuis
+ */
+public interface ClientWritabilityListener extends EventListener {
+
+    /**
+     * Invoked after the writability changed. A client is unwritable once more
+     * data is queued for transmission than the high watermark of the transmit
+     * limits, and writable again once the queue is drained to the low
+     * watermark. The listener must not block.
+     *
+     * @param name
+     *            the client name
+     * @param writable
+     *            whether the client is writable
+     */
+    public void writabilityChanged(String name, boolean writable);
+}
@@ -0,0 +1,300 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.siloft.networking;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * A concurrent map from primitive client identifiers to connections, using
+ * open addressing with linear probing.
+ * <p>
+ * Lookups are lock-free and never box the identifier; insertions and
+ * removals are serialised on the map. Identifiers are allocated by the map in
+ * increasing order and are never reused while a connection holding the same
+ * identifier is still present. An identifier is placed at the slot of its
+ * value modulo the table size, so consecutive identifiers occupy consecutive
+ * slots. A removed entry leaves a marker behind, which is cleared once the
+ * table is rebuilt.
+ *
+ * @param <V>
+ *            the type of the connections
+ *
+ * @author Sander Veldhuis
+ */
+final class ConnectionMap<V> {
+
+    /** The key of a slot which never held an entry. */
+    private static final int EMPTY = 0;
+
+    /** The key of a slot which held a removed entry. */
+    private static final int REMOVED = -1;
+
+    /** The minimum number of slots of the table. */
+    private static final int MIN_CAPACITY = 16;
+
+    /** The table, replaced once it is rebuilt. */
+    private volatile Table<V> table = new Table<V>(MIN_CAPACITY);
+
+    /** The number of entries, guarded by this map. */
+    private int size;
+
+    /** The number of entries and removed markers, guarded by this map. */
+    private int used;
+
+    /** The last allocated identifier, guarded by this map. */
+    private int lastId;
+
+    /**
+     * Allocates a new identifier. Identifiers are positive and increasing; an
+     * identifier which is still present in this map is skipped once the
+     * identifiers wrap around.
+     *
+     * @return the identifier
+     */
+    public synchronized int nextId() {
+        do {
+            lastId = (lastId == Integer.MAX_VALUE ? 1 : lastId + 1);
+        } while (get(lastId) != null);
+        return lastId;
+    }
+
+    /**
+     * Returns the connection of the specified identifier. May be invoked by
+     * any thread without locking. The connection is written before its
+     * identifier is released into the slot, and the identifier is read with
+     * acquire semantics, therefore a thread which finds the identifier also
+     * finds the connection.
+     *
+     * @param id
+     *            the identifier
+     *
+     * @return the connection, or <code>null</code> if not present
+     */
+    public V get(int id) {
+        if (id <= 0) {
+            return null;
+        }
+        Table<V> current = table;
+        int mask = current.keys.length() - 1;
+        for (int i = id & mask;; i = (i + 1) & mask) {
+            int key = current.keys.get(i);
+            if (key == id) {
+                return current.values.get(i);
+            }
+            if (key == EMPTY) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Associates the specified connection with the specified identifier.
+     *
+     * @param id
+     *            the identifier
+     * @param value
+     *            the connection
+     *
+     * @return the previous connection, or <code>null</code> if not present
+     *
+     * @exception NullPointerException
+     *                if the connection is <code>null</code>
+     * @exception IllegalArgumentException
+     *                if the identifier is not positive
+     */
+    public synchronized V put(int id, V value) {
+        if (value == null) {
+            throw new NullPointerException("Connection is null");
+        }
+        if (id <= 0) {
+            throw new IllegalArgumentException("Invalid identifier");
+        }
+
+        int slot = slotOf(table, id);
+        if (table.keys.get(slot) == id) {
+            V previous = table.values.get(slot);
+            table.values.set(slot, value);
+            return previous;
+        }
+
+        if ((used + 1) * 4 > table.keys.length() * 3) {
+            rebuild(size + 1);
+            slot = slotOf(table, id);
+        }
+        // The key is released after the value, see get
+        table.values.set(slot, value);
+        table.keys.lazySet(slot, id);
+        size++;
+        used++;
+        return null;
+    }
+
+    /**
+     * Removes the connection of the specified identifier.
+     *
+     * @param id
+     *            the identifier
+     *
+     * @return the removed connection, or <code>null</code> if not present
+     */
+    public synchronized V remove(int id) {
+        if (id <= 0) {
+            return null;
+        }
+        int slot = slotOf(table, id);
+        if (table.keys.get(slot) != id) {
+            return null;
+        }
+        V previous = table.values.get(slot);
+        table.keys.lazySet(slot, REMOVED);
+        table.values.set(slot, null);
+        size--;
+        return previous;
+    }
+
+    /**
+     * Removes all connections.
+     */
+    public synchronized void clear() {
+        table = new Table<V>(MIN_CAPACITY);
+        size = 0;
+        used = 0;
+    }
+
+    /**
+     * Returns the number of connections.
+     *
+     * @return the number of connections
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Performs the specified action for every connection. May be invoked by
+     * any thread without locking; connections added or removed meanwhile may
+     * or may not be visited.
+     *
+     * @param action
+     *            the action
+     */
+    public void forEach(Consumer<? super V> action) {
+        Table<V> current = table;
+        for (int i = 0; i < current.values.length(); i++) {
+            V value = current.values.get(i);
+            if (value != null) {
+                action.accept(value);
+            }
+        }
+    }
+
+    /**
+     * Returns a snapshot of all connections.
+     *
+     * @return the connections
+     */
+    public List<V> values() {
+        List<V> values = new ArrayList<V>();
+        forEach(values::add);
+        return values;
+    }
+
+    /**
+     * Returns the slot holding the specified identifier, or the empty slot
+     * ending its probe sequence.
+     *
+     * @param table
+     *            the table
+     * @param id
+     *            the identifier
+     *
+     * @return the slot
+     */
+    private static int slotOf(Table<?> table, int id) {
+        int mask = table.keys.length() - 1;
+        int i = id & mask;
+        int key;
+        while ((key = table.keys.get(i)) != id && key != EMPTY) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /**
+     * Replaces the table with a table without removed markers, large enough
+     * to hold the specified number of entries at most half full. Lookups
+     * still probing the previous table see its unchanged contents.
+     *
+     * @param entries
+     *            the number of entries
+     */
+    private void rebuild(int entries) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < entries * 2) {
+            capacity <<= 1;
+        }
+        Table<V> previous = table;
+        Table<V> rebuilt = new Table<V>(capacity);
+        for (int i = 0; i < previous.keys.length(); i++) {
+            int key = previous.keys.get(i);
+            if (key > 0) {
+                int slot = slotOf(rebuilt, key);
+                rebuilt.values.set(slot, previous.values.get(i));
+                rebuilt.keys.lazySet(slot, key);
+            }
+        }
+        table = rebuilt;
+        used = size;
+    }
+
+    /**
+     * The slots of the map. The key of a slot is only changed from empty to
+     * an identifier, and from an identifier to removed.
+     *
+     * @param <V>
+     *            the type of the connections
+     */
+    private static final class Table<V> {
+
+        /** The identifiers of the slots, written after their connections. */
+        private final AtomicIntegerArray keys;
+
+        /** The connections of the slots. */
+        private final AtomicReferenceArray<V> values;
+
+        /**
+         * Constructs a new empty table.
+         *
+         * @param capacity
+         *            the number of slots, a power of two
+         */
+        Table(int capacity) {
+            keys = new AtomicIntegerArray(capacity);
+            values = new AtomicReferenceArray<V>(capacity);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.siloft.networking;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A single threaded event loop which multiplexes many non-blocking channels on
+ * one selector. All selection keys registered on this event loop are handled
+ * by the same thread, therefore no synchronisation is required within the
+ * handlers.
+ *
+ * @author Sander Veldhuis
+ */
+final class EventLoop implements Runnable {
+
+    /**
+     * Interface that receives notifications of ready operations on a channel
+     * registered to the event loop.
+     */
+    interface Handler {
+
+        /**
+         * Invoked on the event loop thread after one or more operations of the
+         * selection key are ready.
+         *
+         * @param key
+         *            the selection key
+         */
+        void ready(SelectionKey key);
+    }
+
+    /**
+     * Interface that receives the selection key of a newly registered channel.
+     */
+    interface KeyCallback {
+
+        /**
+         * Invoked on the event loop thread after the channel is registered.
+         *
+         * @param key
+         *            the selection key
+         */
+        void registered(SelectionKey key);
+    }
+
+    /** The selector multiplexing all channels of this event loop. */
+    private final Selector selector;
+
+    /** The thread running this event loop. */
+    private final Thread thread;
+
+    /** The buffer shared by all channels for reading data. */
+    private final ByteBuffer readBuffer;
+
+    /** The tasks to be executed on the event loop thread. */
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+    /** Whether this event loop is still running. */
+    private volatile boolean running = true;
+
+    /**
+     * Constructs a new event loop. The event loop thread is running as a daemon
+     * to ensure the thread will not block the closure of the application.
+     *
+     * @param name
+     *            the event loop thread name
+     * @param readBufferSize
+     *            the size of the shared read buffer
+     *
+     * @exception IOException
+     *                if the selector could not be opened
+     */
+    public EventLoop(String name, int readBufferSize) throws IOException {
+        selector = Selector.open();
+        readBuffer = ByteBuffer.allocate(readBufferSize);
+        thread = new Thread(this, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Registers the specified channel on this event loop. The registration is
+     * performed on the event loop thread.
+     *
+     * @param channel
+     *            the non-blocking channel
+     * @param ops
+     *            the interest set
+     * @param handler
+     *            the handler triggered upon ready operations
+     * @param registered
+     *            the callback receiving the selection key, or
+     *            <code>null</code>
+     */
+    public void register(SelectableChannel channel, int ops, Handler handler,
+            KeyCallback registered) {
+        execute(() -> {
+            try {
+                SelectionKey key = channel.register(selector, ops, handler);
+                if (registered != null) {
+                    registered.registered(key);
+                }
+            } catch (ClosedChannelException e) {
+                // Ignore, channel closed before registration
+            }
+        });
+    }
+
+    /**
+     * Executes the specified task on the event loop thread. If this method is
+     * invoked on the event loop thread the task is executed immediately.
+     *
+     * @param task
+     *            the task
+     */
+    public void execute(Runnable task) {
+        if (inEventLoop()) {
+            task.run();
+            return;
+        }
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Returns the read buffer of this event loop. The read buffer may only be
+     * used on the event loop thread and its content is only valid until the
+     * next read.
+     *
+     * @return the read buffer
+     */
+    public ByteBuffer getReadBuffer() {
+        return readBuffer;
+    }
+
+    /**
+     * Indicates whether the current thread is the event loop thread.
+     *
+     * @return <code>true</code> if running on the event loop thread, or
+     *         <code>false</code> otherwise
+     */
+    public boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Stops this event loop and closes the selector. All channels registered
+     * on this event loop are not closed.
+     */
+    public void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    /**
+     * Invoked by the event loop thread. Waits for ready operations and
+     * dispatches them to their handlers until this event loop is shut down.
+     */
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                selector.select();
+            } catch (IOException e) {
+                break;
+            }
+
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    // Ignore, keep the event loop alive
+                }
+            }
+
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                if (!key.isValid()) {
+                    continue;
+                }
+                try {
+                    ((Handler) key.attachment()).ready(key);
+                } catch (RuntimeException e) {
+                    // Ignore, keep the event loop alive
+                }
+            }
+        }
+
+        try {
+            selector.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+}
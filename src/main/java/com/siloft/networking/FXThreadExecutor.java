@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.siloft.networking;
+
+import javafx.application.Platform;
+
+import java.util.concurrent.Executor;
+
+/**
+ * An executor which runs all commands on the JavaFX Application Thread.
+ * <p>
+ * TCP servers and TCP clients notify their listeners on their own background
+ * threads. User interfaces which update JavaFX controls from within a listener
+ * can use this executor as listener executor to receive all notifications on
+ * the JavaFX Application Thread instead. The JavaFX thread is required to be
+ * initialised. If your application is not running as JavaFX application the
+ * JavaFX thread can simply be initialised by calling:
+ * <code>new JFXPanel();</code>
+ *
+ * @author Sander Veldhuis
+ */
+public final class FXThreadExecutor implements Executor {
+
+    /**
+     * Runs the specified command on the JavaFX Application Thread at some
+     * unspecified time in the future. Commands are executed in the order they
+     * are posted.
+     *
+     * @param command
+     *            the command
+     */
+    @Override
+    public void execute(Runnable command) {
+        Platform.runLater(command);
+    }
+}
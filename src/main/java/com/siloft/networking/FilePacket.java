@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.siloft.networking;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A queued transmission of a file region. It takes the place of a TCP packet
+ * in the transmit queue, therefore it is transmitted in order with the other
+ * queued TCP packets. The file itself is not held in memory; it is read while
+ * being transmitted.
+ *
+ * @author Sander Veldhuis
+ */
+final class FilePacket extends TCPPacket {
+
+    /** The file to be transmitted. */
+    private final Path path;
+
+    /** The position in the file to start transmitting from. */
+    private final long offset;
+
+    /** The number of bytes to be transmitted. */
+    private final long fileLength;
+
+    /** The future completed with the number of bytes transmitted. */
+    private final CompletableFuture<Long> future =
+            new CompletableFuture<Long>();
+
+    /**
+     * Constructs a new file packet for the specified file region.
+     *
+     * @param path
+     *            the file
+     * @param offset
+     *            the position in the file to start transmitting from
+     * @param fileLength
+     *            the number of bytes to be transmitted
+     *
+     * @exception NullPointerException
+     *                if the file is <code>null</code>
+     * @exception IllegalArgumentException
+     *                if the offset or length is invalid
+     */
+    public FilePacket(Path path, long offset, long fileLength) {
+        super(new byte[0], 0);
+        if (path == null) {
+            throw new NullPointerException("File is null");
+        }
+        if (offset < 0) {
+            throw new IllegalArgumentException("Invalid offset");
+        }
+        if (fileLength < 0) {
+            throw new IllegalArgumentException("Invalid length");
+        }
+        this.path = path;
+        this.offset = offset;
+        this.fileLength = fileLength;
+    }
+
+    /**
+     * Returns the file to be transmitted.
+     *
+     * @return the file
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Returns the position in the file to start transmitting from.
+     *
+     * @return the offset
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Returns the number of bytes to be transmitted.
+     *
+     * @return the file length
+     */
+    public long getFileLength() {
+        return fileLength;
+    }
+
+    /**
+     * Returns the future completed with the number of bytes transmitted, or
+     * completed exceptionally if the transmission failed.
+     *
+     * @return the future
+     */
+    public CompletableFuture<Long> getFuture() {
+        return future;
+    }
+
+    /**
+     * Completes the transmission exceptionally, if not already completed.
+     *
+     * @param exception
+     *            the cause
+     */
+    public void fail(Throwable exception) {
+        future.completeExceptionally(exception);
+    }
+
+    /**
+     * Fails the transmission of the specified TCP packet, if it is a file
+     * packet.
+     *
+     * @param packet
+     *            the TCP packet
+     * @param exception
+     *            the cause
+     */
+    static void fail(TCPPacket packet, Throwable exception) {
+        if (packet instanceof FilePacket) {
+            ((FilePacket) packet).fail(exception);
+        }
+    }
+
+    /**
+     * Returns a future failed because the file could not be queued.
+     *
+     * @param message
+     *            the failure message
+     *
+     * @return the failed future
+     */
+    static CompletableFuture<Long> failed(String message) {
+        CompletableFuture<Long> future = new CompletableFuture<Long>();
+        future.completeExceptionally(new IOException(message));
+        return future;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.siloft.networking;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A buffer accumulating the received data of a single connection till it
+ * contains complete TCP packets. The framer determines the boundaries of the
+ * TCP packets.
+ * <p>
+ * A frame buffer is not thread safe, it should only be used by the thread
+ * handling the received data of the connection.
+ *
+ * @author Sander Veldhuis
+ */
+final class FrameBuffer {
+
+    /** The initial capacity of the buffer. */
+    private static final int INITIAL_CAPACITY = 4096;
+
+    /** The capacity above which an empty buffer is released. */
+    private static final int RETAINED_CAPACITY = 65536;
+
+    /** The framer determining the boundaries of the TCP packets. */
+    private final TCPFramer framer;
+
+    /** The buffer holding the received data, in read mode. */
+    private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_CAPACITY);
+
+    /**
+     * Constructs a new frame buffer for the specified framer.
+     *
+     * @param framer
+     *            the framer
+     *
+     * @exception NullPointerException
+     *                if the framer is <code>null</code>
+     */
+    public FrameBuffer(TCPFramer framer) {
+        if (framer == null) {
+            throw new NullPointerException("Framer is null");
+        }
+        this.framer = framer;
+        buffer.flip();
+    }
+
+    /**
+     * Returns the framer of this frame buffer.
+     *
+     * @return the framer
+     */
+    public TCPFramer getFramer() {
+        return framer;
+    }
+
+    /**
+     * Appends the specified received data to this frame buffer.
+     *
+     * @param data
+     *            the data
+     * @param length
+     *            the data length
+     */
+    public void append(byte[] data, int length) {
+        append(ByteBuffer.wrap(data, 0, length));
+    }
+
+    /**
+     * Appends the remaining bytes of the specified buffer to this frame
+     * buffer.
+     *
+     * @param data
+     *            the data
+     */
+    public void append(ByteBuffer data) {
+        int required = buffer.remaining() + data.remaining();
+        if (required <= INITIAL_CAPACITY
+                && buffer.capacity() > RETAINED_CAPACITY) {
+            // Release the memory of a previously received large TCP packet
+            ByteBuffer shrunk = ByteBuffer.allocate(INITIAL_CAPACITY);
+            shrunk.put(buffer);
+            buffer = shrunk;
+        } else if (required > buffer.capacity()) {
+            int capacity = buffer.capacity();
+            while (capacity < required) {
+                capacity *= 2;
+            }
+            ByteBuffer grown = ByteBuffer.allocate(capacity);
+            grown.put(buffer);
+            buffer = grown;
+        } else {
+            buffer.compact();
+        }
+        buffer.put(data);
+        buffer.flip();
+    }
+
+    /**
+     * Returns the next complete TCP packet of this frame buffer.
+     *
+     * @return the TCP packet, or <code>null</code> if no complete TCP packet
+     *         is available
+     *
+     * @exception IOException
+     *                if the received data is not valid
+     */
+    public TCPPacket next() throws IOException {
+        int length = framer.readHeader(buffer);
+        if (length < 0) {
+            return null;
+        }
+
+        int offset = buffer.arrayOffset() + buffer.position();
+        byte[] data =
+                Arrays.copyOfRange(buffer.array(), offset, offset + length);
+        buffer.position(buffer.position() + length);
+        return new TCPPacket(data, length);
+    }
+}
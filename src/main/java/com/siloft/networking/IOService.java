@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.siloft.networking;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+/**
+ * A background service which executes a task on an executor and notifies its
+ * callbacks upon completion. In contrast to a JavaFX service the callbacks are
+ * not bound to the JavaFX Application Thread, but are executed on the callback
+ * executor. By default the callbacks are executed on the thread which executed
+ * the task.
+ * <p>
+ * A service can be restarted once the task has finished, typically from
+ * within a callback, to execute a newly created task. A restart from within a
+ * callback executed on the thread which executed the task runs the new task
+ * on the same thread once the callback returns, instead of scheduling it on
+ * the executor. A service which is restarted over and over therefore keeps
+ * running on one thread, even if the executor is shared.
+ *
+ * @param <V>
+ *            the type of the task result
+ *
+ * @author Sander Veldhuis
+ */
+abstract class IOService<V> {
+
+    /**
+     * The states of a service.
+     */
+    enum State {
+
+        /** The service is not started yet. */
+        READY,
+
+        /** The task is scheduled on the executor. */
+        SCHEDULED,
+
+        /** The task is running. */
+        RUNNING,
+
+        /** The task finished successfully. */
+        SUCCEEDED,
+
+        /** The task finished exceptionally. */
+        FAILED
+    }
+
+    /** The executor running the tasks. */
+    private volatile Executor executor;
+
+    /** The executor running the callbacks. */
+    private volatile Executor callbackExecutor = Runnable::run;
+
+    /** The callback triggered upon successful completion. */
+    private volatile Runnable onSucceeded;
+
+    /** The callback triggered upon failed completion. */
+    private volatile Runnable onFailed;
+
+    /** The current state. */
+    private volatile State state = State.READY;
+
+    /** The result of the last successful task. */
+    private volatile V value;
+
+    /** The exception of the last failed task. */
+    private volatile Throwable exception;
+
+    /** The thread executing the tasks, or <code>null</code> if idle. */
+    private volatile Thread runner;
+
+    /** Whether to run a new task, only accessed by the runner. */
+    private boolean rerun;
+
+    /**
+     * Returns the executor running the tasks of this service.
+     *
+     * @return the executor, or <code>null</code> if not set
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Set the executor running the tasks of this service.
+     *
+     * @param executor
+     *            the executor
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the executor running the callbacks of this service.
+     *
+     * @return the callback executor
+     */
+    public Executor getCallbackExecutor() {
+        return callbackExecutor;
+    }
+
+    /**
+     * Set the executor running the callbacks of this service. If set to
+     * <code>null</code> the callbacks are executed on the thread which executed
+     * the task.
+     *
+     * @param callbackExecutor
+     *            the callback executor, or <code>null</code>
+     */
+    public void setCallbackExecutor(Executor callbackExecutor) {
+        this.callbackExecutor =
+                (callbackExecutor != null ? callbackExecutor : Runnable::run);
+    }
+
+    /**
+     * Set the callback triggered upon successful completion of a task.
+     *
+     * @param onSucceeded
+     *            the callback
+     */
+    public void setOnSucceeded(Runnable onSucceeded) {
+        this.onSucceeded = onSucceeded;
+    }
+
+    /**
+     * Set the callback triggered upon failed completion of a task.
+     *
+     * @param onFailed
+     *            the callback
+     */
+    public void setOnFailed(Runnable onFailed) {
+        this.onFailed = onFailed;
+    }
+
+    /**
+     * Returns the current state of this service.
+     *
+     * @return the state
+     */
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Returns the result of the last successful task of this service.
+     *
+     * @return the result, or <code>null</code>
+     */
+    public V getValue() {
+        return value;
+    }
+
+    /**
+     * Returns the exception of the last failed task of this service.
+     *
+     * @return the exception, or <code>null</code>
+     */
+    public Throwable getException() {
+        return exception;
+    }
+
+    /**
+     * Starts this service by scheduling a newly created task on the executor.
+     *
+     * @exception IllegalStateException
+     *                if no executor is set
+     */
+    public void start() {
+        Executor executor = this.executor;
+        if (executor == null) {
+            throw new IllegalStateException("Executor is null");
+        }
+        state = State.SCHEDULED;
+        executor.execute(this::run);
+    }
+
+    /**
+     * Restarts this service by scheduling a newly created task on the
+     * executor. A running task is not cancelled, the new task is executed after
+     * the running task if the executor is single threaded. If invoked from a
+     * callback on the thread which executed the task, the new task is executed
+     * on that thread once the callback returns.
+     *
+     * @exception IllegalStateException
+     *                if no executor is set
+     */
+    public void restart() {
+        if (Thread.currentThread() == runner) {
+            state = State.SCHEDULED;
+            rerun = true;
+            return;
+        }
+        start();
+    }
+
+    /**
+     * Invoked after this service is started. Creates a new task to be
+     * executed.
+     *
+     * @return the created task
+     */
+    protected abstract Callable<V> createTask();
+
+    /**
+     * Invoked by the executor. Executes a newly created task and triggers the
+     * callback matching the result.
+     */
+    private void run() {
+        runner = Thread.currentThread();
+        try {
+            do {
+                rerun = false;
+                state = State.RUNNING;
+                Runnable callback;
+                try {
+                    value = createTask().call();
+                    state = State.SUCCEEDED;
+                    callback = onSucceeded;
+                } catch (Throwable e) {
+                    exception = e;
+                    state = State.FAILED;
+                    callback = onFailed;
+                }
+                if (callback != null) {
+                    callbackExecutor.execute(callback);
+                }
+            } while (rerun);
+        } finally {
+            runner = null;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.siloft.networking;
+
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * An unbounded lock-free queue for multiple producers and a single consumer.
+ * <p>
+ * Any thread can offer elements without locking; an offer costs a single
+ * atomic exchange. Only one thread at a time may poll elements. An element
+ * offered by a producer which is still linking it into the queue may not be
+ * visible to the consumer yet, therefore producers must signal the consumer
+ * after an offer completes.
+ *
+ * @param <E>
+ *            the type of the elements
+ *
+ * @author Sander Veldhuis
+ */
+final class MPSCQueue<E> {
+
+    /** The updater exchanging the tail of the queue. */
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<MPSCQueue, Node> TAIL =
+            AtomicReferenceFieldUpdater.newUpdater(MPSCQueue.class, Node.class,
+                    "tail");
+
+    /** The node before the first element, only accessed by the consumer. */
+    private Node<E> head;
+
+    /** The node holding the last element. */
+    private volatile Node<E> tail;
+
+    /**
+     * Constructs a new empty queue.
+     */
+    public MPSCQueue() {
+        head = new Node<E>(null);
+        tail = head;
+    }
+
+    /**
+     * Inserts the specified element at the tail of this queue. May be invoked
+     * by any thread.
+     *
+     * @param element
+     *            the element
+     *
+     * @exception NullPointerException
+     *                if the element is <code>null</code>
+     */
+    @SuppressWarnings("unchecked")
+    public void offer(E element) {
+        if (element == null) {
+            throw new NullPointerException("Element is null");
+        }
+        Node<E> node = new Node<E>(element);
+        Node<E> previous = TAIL.getAndSet(this, node);
+        previous.next = node;
+    }
+
+    /**
+     * Retrieves and removes the head of this queue. May only be invoked by
+     * the consumer.
+     *
+     * @return the head of this queue, or <code>null</code> if this queue is
+     *         empty
+     */
+    public E poll() {
+        Node<E> next = head.next;
+        if (next == null) {
+            return null;
+        }
+        E element = next.element;
+        next.element = null;
+        head = next;
+        return element;
+    }
+
+    /**
+     * Returns whether this queue contains no visible elements. May only be
+     * invoked by the consumer.
+     *
+     * @return <code>true</code> if this queue is empty, otherwise
+     *         <code>false</code>
+     */
+    public boolean isEmpty() {
+        return head.next == null;
+    }
+
+    /**
+     * A node of the linked queue.
+     *
+     * @param <E>
+     *            the type of the element
+     */
+    private static final class Node<E> {
+
+        /** The element, or null if consumed. */
+        private E element;
+
+        /** The next node, or null if this is the last node. */
+        private volatile Node<E> next;
+
+        /**
+         * Constructs a new node holding the specified element.
+         *
+         * @param element
+         *            the element
+         */
+        Node(E element) {
+            this.element = element;
+        }
+    }
+}
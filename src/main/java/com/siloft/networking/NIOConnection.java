@@ -0,0 +1,288 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.siloft.networking;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A non-blocking connection of a client accepted by an NIO server. All reads
+ * and writes are performed on the event loop the connection is registered to.
+ *
+ * @author Sander Veldhuis
+ */
+final class NIOConnection implements EventLoop.Handler {
+
+    /** The maximum number of buffers gathered into a single write. */
+    private static final int MAX_GATHER = 64;
+
+    /** The client identifier. */
+    private final int id;
+
+    /** The channel holding the connection. */
+    private final SocketChannel channel;
+
+    /** The event loop handling this connection. */
+    private final EventLoop eventLoop;
+
+    /** The server notified upon received data and disconnection. */
+    private final NIOServer server;
+
+    /** The framer writing the header of every TCP packet, or null. */
+    private final TCPFramer framer;
+
+    /** The buffer restoring the received TCP packets, or <code>null</code>. */
+    private final FrameBuffer frameBuffer;
+
+    /** The queue holding the data to be transmitted. */
+    private final Queue<ByteBuffer> queue =
+            new ConcurrentLinkedQueue<ByteBuffer>();
+
+    /** Whether a flush is already scheduled on the event loop. */
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    /** The selection key, only accessed on the event loop thread. */
+    private SelectionKey key;
+
+    /** The buffers gathered by a flush, only accessed on the event loop. */
+    private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+
+    /** The number of written buffers, only accessed on the event loop. */
+    private long writtenBuffers;
+
+    /** The counter recording every flush to the channel. */
+    private final TransmitCounter counter = new TransmitCounter();
+
+    /**
+     * Constructs a new NIO connection for the specified channel.
+     *
+     * @param id
+     *            the client identifier
+     * @param channel
+     *            the non-blocking channel
+     * @param eventLoop
+     *            the event loop handling this connection
+     * @param server
+     *            the server owning this connection
+     * @param framer
+     *            the framer, or <code>null</code> to not delimit the TCP
+     *            packets
+     */
+    public NIOConnection(int id, SocketChannel channel, EventLoop eventLoop,
+            NIOServer server, TCPFramer framer) {
+        this.id = id;
+        this.channel = channel;
+        this.eventLoop = eventLoop;
+        this.server = server;
+        this.framer = framer;
+        this.frameBuffer = (framer != null ? new FrameBuffer(framer) : null);
+    }
+
+    /**
+     * Registers this connection on its event loop for reading. TCP packets
+     * transmitted before the registration completes are flushed once it does.
+     */
+    public void register() {
+        eventLoop.register(channel, SelectionKey.OP_READ, this, (key) -> {
+            this.key = key;
+            if (!queue.isEmpty()) {
+                flush();
+            }
+            server.connected(id);
+        });
+    }
+
+    /**
+     * Schedules the data of the specified TCP packet for transmission. This
+     * method may be invoked from any thread.
+     *
+     * @param packet
+     *            the TCP packet
+     *
+     * @return <code>true</code> if the TCP packet is scheduled, or
+     *         <code>false</code> if it exceeds the maximum length of the
+     *         framer
+     */
+    public boolean transmit(TCPPacket packet) {
+        byte[] data = packet.getData();
+        int length = packet.getLength();
+        if (framer != null && length > framer.getMaxLength()) {
+            return false;
+        }
+        if (framer != null) {
+            ByteBuffer header =
+                    ByteBuffer.allocate(framer.getHeaderLength(length));
+            framer.writeHeader(header, length);
+            header.flip();
+            ByteBuffer payload = ByteBuffer.wrap(data, 0, length);
+            synchronized (queue) {
+                // Header and TCP packet should not be interleaved by others
+                queue.add(header);
+                queue.add(payload);
+            }
+        } else {
+            queue.add(ByteBuffer.wrap(data, 0, length));
+        }
+        if (flushScheduled.compareAndSet(false, true)) {
+            eventLoop.execute(this::flush);
+        }
+        return true;
+    }
+
+    /**
+     * Closes the channel of this connection.
+     */
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+
+    /**
+     * Invoked on the event loop thread after the channel is readable or
+     * writable.
+     *
+     * @param key
+     *            the selection key
+     */
+    @Override
+    public void ready(SelectionKey key) {
+        if (key.isReadable()) {
+            read();
+        }
+        if (key.isValid() && key.isWritable()) {
+            flush();
+        }
+    }
+
+    /**
+     * Reads the available data from the channel and notifies the server. An
+     * end-of-stream or failure disconnects this connection.
+     */
+    private void read() {
+        ByteBuffer buffer = eventLoop.getReadBuffer();
+        buffer.clear();
+
+        int length;
+        try {
+            length = channel.read(buffer);
+        } catch (IOException e) {
+            length = -1;
+        }
+
+        // End-of-stream means disconnected
+        if (length < 0) {
+            server.disconnect(id);
+            return;
+        }
+        if (length == 0) {
+            return;
+        }
+
+        buffer.flip();
+        if (frameBuffer == null) {
+            byte[] data = Arrays.copyOf(buffer.array(), length);
+            server.received(id, new TCPPacket(data, length));
+            return;
+        }
+
+        frameBuffer.append(buffer);
+        try {
+            TCPPacket packet;
+            while ((packet = frameBuffer.next()) != null) {
+                server.received(id, packet);
+            }
+        } catch (IOException e) {
+            server.disconnect(id);
+        }
+    }
+
+    /**
+     * Returns a snapshot of the transmit statistics of this connection.
+     *
+     * @return the transmit statistics
+     */
+    public TransmitStatistics getStatistics() {
+        return counter.getStatistics();
+    }
+
+    /**
+     * Writes as much queued data as the channel accepts. The queued buffers
+     * are gathered into a single write. If the channel is not able to accept
+     * all data the connection waits till it is writable again.
+     */
+    private void flush() {
+        flushScheduled.set(false);
+        if (key == null || !key.isValid()) {
+            return;
+        }
+
+        // Every TCP packet is queued as a header and data buffer if framed
+        int buffersPerPacket = (framer == null ? 1 : 2);
+        try {
+            while (true) {
+                int count = 0;
+                for (ByteBuffer buffer : queue) {
+                    gather[count++] = buffer;
+                    if (count == gather.length) {
+                        break;
+                    }
+                }
+                if (count == 0) {
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                    return;
+                }
+
+                long written = channel.write(gather, 0, count);
+                int completed = 0;
+                while (completed < count && !gather[completed].hasRemaining()) {
+                    queue.poll();
+                    completed++;
+                }
+                Arrays.fill(gather, 0, count, null);
+
+                if (written > 0) {
+                    long packets = (writtenBuffers + completed)
+                            / buffersPerPacket
+                            - writtenBuffers / buffersPerPacket;
+                    writtenBuffers += completed;
+                    counter.recordFlush(packets, written);
+                }
+                if (completed < count) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            server.disconnect(id);
+        }
+    }
+}
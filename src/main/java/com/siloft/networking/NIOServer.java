@@ -0,0 +1,671 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.siloft.networking;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class represents a TCP server for transmitting and receiving TCP
+ * packets using non-blocking I/O.
+ * <p>
+ * In contrast to the <code>TCPServer</code>, which requires dedicated threads
+ * for every accepted client, the NIO server multiplexes all clients on a small
+ * fixed number of event loops. Each event loop is running on its own thread
+ * and handles the clients assigned to it in a round-robin fashion. This allows
+ * serving many thousands of clients with a few threads.
+ * <p>
+ * The NIO server notifies the same listeners as the <code>TCPServer</code>.
+ * The listeners are invoked on the event loop thread of the client, therefore
+ * a listener should not block. The NIO server does not require the JavaFX
+ * thread to be initialised.
+ *
+ * @author Sander Veldhuis
+ */
+public class NIOServer {
+
+    /** The size of the buffer used for reading data from clients. */
+    private static final int READ_BUFFER_SIZE = 65536;
+
+    /** The server channel holding the connection. */
+    private ServerSocketChannel serverChannel;
+
+    /** The server name. */
+    private final String name;
+
+    /** The server port number. */
+    private final int port;
+
+    /** The maximum length of the queue. */
+    private final int queueLength;
+
+    /** The server bind address. */
+    private final InetAddress bindAddress;
+
+    /** The number of event loops. */
+    private final int eventLoopCount;
+
+    /** The event loops handling all clients. */
+    private EventLoop[] eventLoops;
+
+    /** The index of the event loop receiving the next accepted client. */
+    private final AtomicInteger nextEventLoop = new AtomicInteger();
+
+    /** The connections of all accepted clients. */
+    private final ConnectionMap<NIOConnection> connections =
+            new ConnectionMap<NIOConnection>();
+
+    /** The framer delimiting the TCP packets, or <code>null</code>. */
+    private volatile TCPFramer framer = new TCPLengthFramer();
+
+    /** The protocol used for decoding packets. */
+    private volatile TCPProtocol protocol;
+
+    /** List containing all listeners triggered upon newly connected clients. */
+    private final List<ServerConnectedListener> connectedListeners =
+            new CopyOnWriteArrayList<ServerConnectedListener>();
+
+    /** List containing all listeners triggered upon disconnected clients. */
+    private final List<ServerDisconnectedListener> disconnectedListeners =
+            new CopyOnWriteArrayList<ServerDisconnectedListener>();
+
+    /** List containing all listeners triggered upon newly received packets. */
+    private final List<ServerPacketListener> packetListeners =
+            new CopyOnWriteArrayList<ServerPacketListener>();
+
+    /** The handlers of TCP protocol packets, indexed by op code. */
+    private final PacketHandlerTable<ServerPacketHandler<?>> packetHandlers =
+            new PacketHandlerTable<ServerPacketHandler<?>>(
+                    ServerPacketHandler.class);
+
+    /**
+     * Constructs a new NIO server, on any free port. One event loop per
+     * available processor is used.
+     * <p>
+     * The server will accepting connections on any/all local addresses.
+     * <p>
+     * The maximum queue length for incoming connection indications (a request
+     * to connect) is set to <code>50</code>. If a connection indication arrives
+     * when the queue is full, the connection is refused.
+     *
+     * @param name
+     *            the server name
+     *
+     * @exception IllegalArgumentException
+     *                if the name is invalid
+     */
+    public NIOServer(String name) {
+        this(name, 0, 0, null, 0);
+    }
+
+    /**
+     * Constructs a new NIO server, bound to the specified port. A port of
+     * <code>0</code> constructs an NIO server on any free port. The port must
+     * be between 0 and 65535, inclusive. One event loop per available
+     * processor is used.
+     * <p>
+     * The server will accepting connections on any/all local addresses.
+     * <p>
+     * The maximum queue length for incoming connection indications (a request
+     * to connect) is set to <code>50</code>. If a connection indication arrives
+     * when the queue is full, the connection is refused.
+     *
+     * @param name
+     *            the server name
+     * @param port
+     *            the server port number
+     *
+     * @exception IllegalArgumentException
+     *                if the name or port is invalid
+     */
+    public NIOServer(String name, int port) {
+        this(name, port, 0, null, 0);
+    }
+
+    /**
+     * Constructs a new NIO server, bound to the specified port. A port of
+     * <code>0</code> constructs an NIO server on any free port. The port must
+     * be between 0 and 65535, inclusive.
+     * <p>
+     * The bind address argument can be used on a multi-homed host for an NIO
+     * server that will only accept connect requests to one of its addresses. If
+     * <code>bindAddres</code> is null, it will default accepting connections on
+     * any/all local addresses.
+     * <p>
+     * The maximum queue length for incoming connection indications (a request
+     * to connect) is set to the <code>queueLength</code> parameter. If the
+     * value passed is equal or less than 0, then the default value of
+     * <code>50</code> will be assumed.
+     * <p>
+     * The number of event loops is set to the <code>eventLoopCount</code>
+     * parameter. If the value passed is equal or less than 0, then one event
+     * loop per available processor will be assumed.
+     *
+     * @param name
+     *            the server name
+     * @param port
+     *            the server port number
+     * @param queueLength
+     *            the maximum length of the queue
+     * @param bindAddress
+     *            the local InetAddress the server will bind to
+     * @param eventLoopCount
+     *            the number of event loops
+     *
+     * @exception IllegalArgumentException
+     *                if the name or port is invalid
+     */
+    public NIOServer(String name, int port, int queueLength,
+            InetAddress bindAddress, int eventLoopCount) {
+        if (name == null) {
+            throw new IllegalArgumentException("Invalid name");
+        }
+        if (port < 0 || port > 65535) {
+            throw new IllegalArgumentException("Invalid port");
+        }
+        if (queueLength < 1) {
+            queueLength = 50;
+        }
+        if (eventLoopCount < 1) {
+            eventLoopCount = Runtime.getRuntime().availableProcessors();
+        }
+        this.name = name;
+        this.port = port;
+        this.queueLength = queueLength;
+        this.bindAddress = bindAddress;
+        this.eventLoopCount = eventLoopCount;
+    }
+
+    /**
+     * Tries to start this NIO server connection.
+     *
+     * @exception IOException
+     *                if an I/O error occurs when opening the connection
+     * @exception SecurityException
+     *                if a security manager exists and its
+     *                <code>checkListen</code> method doesn't allow the
+     *                operation
+     */
+    public synchronized void connect() throws IOException, SecurityException {
+        if (isConnected()) {
+            return;
+        }
+
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        EventLoop[] loops = new EventLoop[eventLoopCount];
+        try {
+            channel.configureBlocking(false);
+            channel.bind(new InetSocketAddress(bindAddress, port),
+                    queueLength);
+            for (int i = 0; i < loops.length; i++) {
+                loops[i] = new EventLoop(name + "-" + i, READ_BUFFER_SIZE);
+            }
+        } catch (IOException e) {
+            channel.close();
+            for (EventLoop loop : loops) {
+                if (loop != null) {
+                    loop.shutdown();
+                }
+            }
+            throw e;
+        }
+
+        serverChannel = channel;
+        eventLoops = loops;
+        eventLoops[0].register(channel, SelectionKey.OP_ACCEPT,
+                (key) -> accept(channel, loops), null);
+    }
+
+    /**
+     * Tries to stop this NIO server connection.
+     */
+    public synchronized void disconnect() {
+        connections.forEach(connection -> connection.close());
+        connections.clear();
+        try {
+            serverChannel.close();
+        } catch (Exception e) {
+            // Ignore
+        }
+        if (eventLoops != null) {
+            for (EventLoop loop : eventLoops) {
+                loop.shutdown();
+            }
+        }
+        serverChannel = null;
+        eventLoops = null;
+    }
+
+    /**
+     * Disconnects the specified client from this NIO server.
+     *
+     * @param id
+     *            the client identifier
+     */
+    public void disconnect(int id) {
+        NIOConnection connection = connections.remove(id);
+        if (connection == null) {
+            return;
+        }
+        for (ServerDisconnectedListener listener : disconnectedListeners) {
+            listener.disconnected(name, id);
+        }
+        connection.close();
+    }
+
+    /**
+     * Schedules a TCP packet for transmission to the specified client. This
+     * method may be invoked from any thread. A TCP protocol packet is encoded
+     * in the wire format of the protocol, if set.
+     *
+     * @param id
+     *            the client identifier
+     * @param packet
+     *            the TCP packet
+     *
+     * @return <code>true</code> if the TCP packet is scheduled, or
+     *         <code>false</code> if it exceeds the maximum length of the
+     *         framer or the client is not connected
+     */
+    public boolean transmit(int id, TCPPacket packet) {
+        if (packet == null) {
+            return false;
+        }
+
+        NIOConnection connection = connections.get(id);
+        return (connection != null
+                && connection.transmit(TCPPacket.snapshot(packet, protocol)));
+    }
+
+    /**
+     * Schedules a TCP packet for transmission to all connected clients. The
+     * TCP packet is encoded once and the same data is shared by all clients.
+     *
+     * @param packet
+     *            the TCP packet
+     *
+     * @return the number of clients the TCP packet is scheduled for
+     */
+    public int broadcast(TCPPacket packet) {
+        if (packet == null) {
+            return 0;
+        }
+
+        TCPPacket snapshot = TCPPacket.snapshot(packet, protocol);
+        int count = 0;
+        for (NIOConnection connection : connections.values()) {
+            if (connection.transmit(snapshot)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Schedules a TCP packet for transmission to the specified clients. The
+     * TCP packet is encoded once and the same data is shared by all clients.
+     * Identifiers of clients which are not connected are ignored.
+     *
+     * @param ids
+     *            the client identifiers
+     * @param packet
+     *            the TCP packet
+     *
+     * @return the number of clients the TCP packet is scheduled for
+     */
+    public int broadcast(Collection<Integer> ids, TCPPacket packet) {
+        if (ids == null || packet == null) {
+            return 0;
+        }
+
+        TCPPacket snapshot = TCPPacket.snapshot(packet, protocol);
+        int count = 0;
+        for (Integer id : ids) {
+            NIOConnection connection = connections.get(id);
+            if (connection != null && connection.transmit(snapshot)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns a snapshot of the transmit statistics of the specified client.
+     * The statistics show how many TCP packets are gathered into a single
+     * write to the channel.
+     *
+     * @param id
+     *            the client identifier
+     *
+     * @return the transmit statistics, or <code>null</code> if the client is
+     *         not connected
+     */
+    public TransmitStatistics getTransmitStatistics(int id) {
+        NIOConnection connection = connections.get(id);
+        return (connection == null ? null : connection.getStatistics());
+    }
+
+    /**
+     * Add a connected listener to this NIO server. The listener will be
+     * triggered upon newly connected clients.
+     *
+     * @param listener
+     *            the listener
+     */
+    public void addConnectedListener(ServerConnectedListener listener) {
+        connectedListeners.add(listener);
+    }
+
+    /**
+     * Remove a connected listener from this NIO server.
+     *
+     * @param listener
+     *            the listener
+     */
+    public void removeConnectedListener(ServerConnectedListener listener) {
+        connectedListeners.remove(listener);
+    }
+
+    /**
+     * Add a disconnected listener to this NIO server. The listener will be
+     * triggered upon disconnected clients.
+     *
+     * @param listener
+     *            the listener
+     */
+    public void addDisconnectedListener(ServerDisconnectedListener listener) {
+        disconnectedListeners.add(listener);
+    }
+
+    /**
+     * Remove a disconnected listener from this NIO server.
+     *
+     * @param listener
+     *            the listener
+     */
+    public void removeDisconnectedListener(
+            ServerDisconnectedListener listener) {
+        disconnectedListeners.remove(listener);
+    }
+
+    /**
+     * Add a packet listener to this NIO server. The listener will be triggered
+     * upon newly received packets.
+     *
+     * @param listener
+     *            the listener
+     */
+    public void addPacketListener(ServerPacketListener listener) {
+        packetListeners.add(listener);
+    }
+
+    /**
+     * Remove a packet listener from this NIO server.
+     *
+     * @param listener
+     *            the listener
+     */
+    public void removePacketListener(ServerPacketListener listener) {
+        packetListeners.remove(listener);
+    }
+
+    /**
+     * Add a handler of TCP protocol packets of the specified class to this
+     * NIO server. The handler will be triggered upon newly received and
+     * decoded TCP protocol packets of exactly that class, which are found by
+     * their op code without testing any other class.
+     *
+     * @param <T>
+     *            the TCP protocol packet class
+     * @param type
+     *            the TCP protocol packet class
+     * @param handler
+     *            the handler
+     *
+     * @exception NullPointerException
+     *                if the TCP protocol packet class or handler is
+     *                <code>null</code>
+     * @exception IllegalArgumentException
+     *                if the TCP protocol packet class is not valid
+     * @exception UnsupportedOperationException
+     *                if another TCP protocol packet class with the same op
+     *                code has handlers
+     */
+    public <T extends TCPProtocolPacket> void onPacket(Class<T> type,
+            ServerPacketHandler<? super T> handler) {
+        packetHandlers.add(type, handler);
+    }
+
+    /**
+     * Remove a handler of TCP protocol packets of the specified class from
+     * this NIO server.
+     *
+     * @param <T>
+     *            the TCP protocol packet class
+     * @param type
+     *            the TCP protocol packet class
+     * @param handler
+     *            the handler
+     */
+    public <T extends TCPProtocolPacket> void removePacketHandler(
+            Class<T> type, ServerPacketHandler<? super T> handler) {
+        packetHandlers.remove(type, handler);
+    }
+
+    /**
+     * Returns the name of this NIO server.
+     *
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the port number of this NIO server.
+     *
+     * @return the port number
+     */
+    public synchronized int getPort() {
+        return (serverChannel != null ? serverChannel.socket().getLocalPort()
+                : port);
+    }
+
+    /**
+     * Returns the maximum queue length of this NIO server.
+     *
+     * @return the maximum queue length
+     */
+    public int getQueueLength() {
+        return queueLength;
+    }
+
+    /**
+     * Returns the local bind address of this NIO server.
+     *
+     * @return the local bind address, or <code>null</code>
+     */
+    public InetAddress getBindAddress() {
+        return bindAddress;
+    }
+
+    /**
+     * Returns the number of event loops of this NIO server.
+     *
+     * @return the number of event loops
+     */
+    public int getEventLoopCount() {
+        return eventLoopCount;
+    }
+
+    /**
+     * Returns the framer delimiting the TCP packets of this NIO server.
+     *
+     * @return the framer, or <code>null</code> if TCP packets are not
+     *         delimited
+     */
+    public TCPFramer getFramer() {
+        return framer;
+    }
+
+    /**
+     * Set the framer delimiting the TCP packets of this NIO server. Both sides
+     * of a connection should use the same framer. By default a
+     * <code>TCPLengthFramer</code> is used.
+     * <p>
+     * The framer applies to clients connecting after it is set, therefore it
+     * should be set before connecting. If set to <code>null</code> the TCP
+     * packets are not delimited and every received TCP packet contains the data
+     * of a single read from the channel.
+     *
+     * @param framer
+     *            the framer, or <code>null</code>
+     */
+    public void setFramer(TCPFramer framer) {
+        this.framer = framer;
+    }
+
+    /**
+     * Returns the protocol of this NIO server.
+     *
+     * @return the protocol
+     */
+    public TCPProtocol getProtocol() {
+        return protocol;
+    }
+
+    /**
+     * Set the protocol of this NIO server.
+     *
+     * @param protocol
+     *            the protocol
+     */
+    public void setProtocol(TCPProtocol protocol) {
+        this.protocol = protocol;
+    }
+
+    /**
+     * Indicates whether this NIO server is connected.
+     *
+     * @return <code>true</code> if connected, or <code>false</code> otherwise
+     */
+    public synchronized boolean isConnected() {
+        return (serverChannel != null && serverChannel.isOpen());
+    }
+
+    /**
+     * Invoked on the event loop thread of a newly registered client. Notifies
+     * all listeners with the newly connected client.
+     *
+     * @param id
+     *            the client identifier
+     */
+    void connected(int id) {
+        for (ServerConnectedListener listener : connectedListeners) {
+            listener.connected(name, id);
+        }
+    }
+
+    /**
+     * Invoked on the event loop thread of a client after receiving data.
+     * Notifies all listeners with the newly received TCP packets. Every
+     * decoded TCP protocol packet is passed to the handlers of its class as
+     * well, and is released to the protocol once all listeners and handlers
+     * return.
+     *
+     * @param id
+     *            the client identifier
+     * @param receivedPacket
+     *            the received TCP packet
+     */
+    void received(int id, TCPPacket receivedPacket) {
+        TCPPacket[] packets = new TCPPacket[] { receivedPacket };
+        TCPProtocol protocol = this.protocol;
+        if (protocol != null) {
+            packets = protocol.decode(receivedPacket);
+        }
+        for (TCPPacket tcpPacket : packets) {
+            for (ServerPacketListener listener : packetListeners) {
+                listener.received(name, id, tcpPacket);
+            }
+            if (protocol != null) {
+                dispatch(id, (TCPProtocolPacket) tcpPacket);
+                protocol.release(tcpPacket);
+            }
+        }
+    }
+
+    /**
+     * Notifies the handlers of the class of the specified decoded TCP
+     * protocol packet.
+     *
+     * @param id
+     *            the client identifier
+     * @param packet
+     *            the decoded TCP protocol packet
+     */
+    @SuppressWarnings("unchecked")
+    private void dispatch(int id, TCPProtocolPacket packet) {
+        for (ServerPacketHandler<?> handler : packetHandlers.of(packet)) {
+            ((ServerPacketHandler<TCPProtocolPacket>) handler).received(name,
+                    id, packet);
+        }
+    }
+
+    /**
+     * Invoked on the accepting event loop thread if the server channel has
+     * pending connections. Accepts all pending clients and distributes them
+     * over the event loops.
+     *
+     * @param channel
+     *            the server channel
+     * @param loops
+     *            the event loops
+     */
+    private void accept(ServerSocketChannel channel, EventLoop[] loops) {
+        SocketChannel socketChannel;
+        try {
+            while ((socketChannel = channel.accept()) != null) {
+                socketChannel.configureBlocking(false);
+
+                int id = connections.nextId();
+                EventLoop loop = loops[Math.abs(
+                        nextEventLoop.getAndIncrement() % loops.length)];
+                NIOConnection connection = new NIOConnection(id,
+                        socketChannel, loop, this, framer);
+                connections.put(id, connection);
+                connection.register();
+            }
+        } catch (IOException e) {
+            // Ignore, retried on the next accept event
+        }
+    }
+}
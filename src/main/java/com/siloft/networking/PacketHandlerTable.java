@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.siloft.networking;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+
+/**
+ * A table of the handlers of TCP protocol packets, indexed by op code. The
+ * handlers of a decoded TCP protocol packet are found with a single lookup
+ * of its op code, regardless of the number of registered classes.
+ * <p>
+ * The table is replaced upon every change, therefore looking up handlers
+ * does not lock, and handlers can be added or removed while TCP protocol
+ * packets are dispatched.
+ *
+ * @param <H>
+ *            the handler type
+ *
+ * @author Sander Veldhuis
+ */
+final class PacketHandlerTable<H> {
+
+    /** The handler type. */
+    private final Class<?> handlerType;
+
+    /** The handlers returned for a TCP protocol packet without handlers. */
+    private final H[] none;
+
+    /** The current table. */
+    private volatile Table<H> table;
+
+    /**
+     * Constructs a new empty table of handlers.
+     *
+     * @param handlerType
+     *            the handler type
+     */
+    PacketHandlerTable(Class<?> handlerType) {
+        this.handlerType = handlerType;
+        none = newArray(0);
+        table = new Table<H>(0, new Class<?>[0], newArrays(0));
+    }
+
+    /**
+     * Adds the specified handler of TCP protocol packets of the specified
+     * class.
+     *
+     * @param type
+     *            the TCP protocol packet class
+     * @param handler
+     *            the handler
+     *
+     * @exception NullPointerException
+     *                if the TCP protocol packet class or handler is
+     *                <code>null</code>
+     * @exception IllegalArgumentException
+     *                if the TCP protocol packet class is not valid
+     * @exception UnsupportedOperationException
+     *                if another TCP protocol packet class with the same op
+     *                code has handlers
+     */
+    synchronized void add(Class<? extends TCPProtocolPacket> type,
+            H handler) {
+        if (type == null) {
+            throw new NullPointerException("Packet class is null");
+        } else if (handler == null) {
+            throw new NullPointerException("Handler is null");
+        }
+
+        int opCode = opCodeOf(type);
+        Table<H> current = table;
+        int first = opCode;
+        int last = opCode;
+        if (current.types.length > 0) {
+            first = Math.min(first, current.first);
+            last = Math.max(last, current.first + current.types.length - 1);
+        }
+
+        Class<?>[] types = new Class<?>[last - first + 1];
+        H[][] handlers = newArrays(types.length);
+        int offset = (current.types.length > 0 ? current.first - first : 0);
+        System.arraycopy(current.types, 0, types, offset,
+                current.types.length);
+        System.arraycopy(current.handlers, 0, handlers, offset,
+                current.handlers.length);
+
+        int index = opCode - first;
+        if (types[index] != null && types[index] != type) {
+            throw new UnsupportedOperationException("Duplicate op code");
+        }
+        H[] previous = (handlers[index] != null ? handlers[index] : none);
+        handlers[index] = Arrays.copyOf(previous, previous.length + 1);
+        handlers[index][previous.length] = handler;
+        types[index] = type;
+        table = new Table<H>(first, types, handlers);
+    }
+
+    /**
+     * Removes the specified handler of TCP protocol packets of the specified
+     * class.
+     *
+     * @param type
+     *            the TCP protocol packet class
+     * @param handler
+     *            the handler
+     */
+    synchronized void remove(Class<? extends TCPProtocolPacket> type,
+            H handler) {
+        Table<H> current = table;
+        int index = -1;
+        for (int i = 0; i < current.types.length; i++) {
+            if (current.types[i] == type) {
+                index = i;
+            }
+        }
+        if (index < 0) {
+            return;
+        }
+
+        H[] previous = current.handlers[index];
+        int position = Arrays.asList(previous).indexOf(handler);
+        if (position < 0) {
+            return;
+        }
+
+        Class<?>[] types = current.types.clone();
+        H[][] handlers = current.handlers.clone();
+        handlers[index] = newArray(previous.length - 1);
+        System.arraycopy(previous, 0, handlers[index], 0, position);
+        System.arraycopy(previous, position + 1, handlers[index], position,
+                previous.length - position - 1);
+        if (handlers[index].length == 0) {
+            types[index] = null;
+            handlers[index] = null;
+        }
+        table = new Table<H>(current.first, types, handlers);
+    }
+
+    /**
+     * Returns the handlers of the specified TCP protocol packet. The returned
+     * array should not be modified.
+     *
+     * @param packet
+     *            the TCP protocol packet
+     *
+     * @return the handlers, or an empty array if there are none
+     */
+    H[] of(TCPProtocolPacket packet) {
+        Table<H> current = table;
+        int index = packet.getOpCode() - current.first;
+        if (index < 0 || index >= current.types.length
+                || current.types[index] != packet.getClass()) {
+            return none;
+        }
+        return current.handlers[index];
+    }
+
+    /**
+     * Returns the op code of the specified TCP protocol packet class.
+     *
+     * @param type
+     *            the TCP protocol packet class
+     *
+     * @return the op code
+     *
+     * @exception IllegalArgumentException
+     *                if the TCP protocol packet class is not valid
+     */
+    private static int opCodeOf(Class<? extends TCPProtocolPacket> type) {
+        TCPPacketCodec<TCPProtocolPacket> codec = TCPPacketCodec.of(type);
+        TCPProtocolPacket packet = codec.newPacket();
+        if (packet == null) {
+            throw new IllegalArgumentException("Invalid packet class");
+        }
+        return codec.getOpCode(packet);
+    }
+
+    /**
+     * Returns a new array of handlers.
+     *
+     * @param length
+     *            the length
+     *
+     * @return the array
+     */
+    @SuppressWarnings("unchecked")
+    private H[] newArray(int length) {
+        return (H[]) Array.newInstance(handlerType, length);
+    }
+
+    /**
+     * Returns a new array of arrays of handlers.
+     *
+     * @param length
+     *            the length
+     *
+     * @return the array
+     */
+    @SuppressWarnings("unchecked")
+    private H[][] newArrays(int length) {
+        return (H[][]) Array.newInstance(none.getClass(), length);
+    }
+
+    /**
+     * An immutable table of handlers.
+     *
+     * @param <H>
+     *            the handler type
+     */
+    private static final class Table<H> {
+
+        /** The lowest op code of the table. */
+        private final int first;
+
+        /** The TCP protocol packet classes, indexed by op code. */
+        private final Class<?>[] types;
+
+        /** The handlers, indexed by op code. */
+        private final H[][] handlers;
+
+        /**
+         * Constructs a new table of handlers.
+         *
+         * @param first
+         *            the lowest op code of the table
+         * @param types
+         *            the TCP protocol packet classes, indexed by op code
+         * @param handlers
+         *            the handlers, indexed by op code
+         */
+        Table(int first, Class<?>[] types, H[][] handlers) {
+            this.first = first;
+            this.types = types;
+            this.handlers = handlers;
+        }
+    }
+}
@@ -22,10 +22,8 @@
 
 package com.siloft.networking;
 
-import javafx.concurrent.Service;
-import javafx.concurrent.Task;
-
 import java.net.Socket;
+import java.util.concurrent.Callable;
 
 /**
  * A background thread which handles receiving data asynchronously from the
@@ -33,13 +31,17 @@ import java.net.Socket;
  *
  * @author Sander Veldhuis
  */
-final class ReceiveService extends Service<TCPPacket> {
+final class ReceiveService extends IOService<TCPPacket> {
 
     /** The socket holding the connection. */
     private final Socket socket;
 
+    /** The buffer restoring the received TCP packets, or <code>null</code>. */
+    private final FrameBuffer frameBuffer;
+
     /**
-     * Constructs a new receive service for the specified socket.
+     * Constructs a new receive service for the specified socket, which does
+     * not restore the boundaries of the received TCP packets.
      *
      * @param socket
      *            the socket
@@ -48,10 +50,37 @@ final class ReceiveService extends Service<TCPPacket> {
      *                if the socket is <code>null</code>
      */
     public ReceiveService(Socket socket) {
+        this(socket, null);
+    }
+
+    /**
+     * Constructs a new receive service for the specified socket and framer.
+     *
+     * @param socket
+     *            the socket
+     * @param framer
+     *            the framer, or <code>null</code> to not restore the
+     *            boundaries of the received TCP packets
+     *
+     * @exception NullPointerException
+     *                if the socket is <code>null</code>
+     */
+    public ReceiveService(Socket socket, TCPFramer framer) {
         if (socket == null) {
             throw new NullPointerException("Socket is null");
         }
         this.socket = socket;
+        this.frameBuffer = (framer != null ? new FrameBuffer(framer) : null);
+    }
+
+    /**
+     * Returns the frame buffer restoring the received TCP packets. The frame
+     * buffer should only be used from the callbacks of this service.
+     *
+     * @return the frame buffer, or <code>null</code> if no framer is used
+     */
+    public FrameBuffer getFrameBuffer() {
+        return frameBuffer;
     }
 
     /**
@@ -61,7 +90,7 @@ final class ReceiveService extends Service<TCPPacket> {
      * @return the created <code>ReceiveTask</code>
      */
     @Override
-    protected Task<TCPPacket> createTask() {
+    protected Callable<TCPPacket> createTask() {
         return new ReceiveTask(socket);
     }
 }
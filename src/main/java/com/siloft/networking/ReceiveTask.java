@@ -22,25 +22,29 @@
 
 package com.siloft.networking;
 
-import javafx.concurrent.Task;
-
-import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Callable;
 
 /**
- * A cancellable asynchronous computation which will wait till new data is
- * received and extracts the dedicated TCP packet.
+ * An asynchronous computation which will wait till new data is received and
+ * extracts the dedicated TCP packet.
  *
  * @author Sander Veldhuis
  */
-final class ReceiveTask extends Task<TCPPacket> {
+final class ReceiveTask implements Callable<TCPPacket> {
 
     /** The socket holding the connection. */
     private final Socket socket;
 
+    /** The pool providing the receive buffers. */
+    private final BufferPool bufferPool;
+
     /**
-     * Constructs a new receive task for the specified socket.
+     * Constructs a new receive task for the specified socket, which uses the
+     * shared buffer pool.
      *
      * @param socket
      *            the socket
@@ -49,25 +53,55 @@ final class ReceiveTask extends Task<TCPPacket> {
      *                if the socket is <code>null</code>
      */
     public ReceiveTask(Socket socket) {
-        super();
+        this(socket, BufferPool.getDefault());
+    }
+
+    /**
+     * Constructs a new receive task for the specified socket and buffer pool.
+     *
+     * @param socket
+     *            the socket
+     * @param bufferPool
+     *            the buffer pool
+     *
+     * @exception NullPointerException
+     *                if the socket is <code>null</code>
+     */
+    ReceiveTask(Socket socket, BufferPool bufferPool) {
         if (socket == null) {
             throw new NullPointerException("Socket is null");
         }
         this.socket = socket;
+        this.bufferPool = bufferPool;
     }
 
     /**
      * Invoked after this receive task is started. Waits till new data is
      * received over the socket and extracts the TCP packet.
+     * <p>
+     * The data of the TCP packet is a buffer acquired from the buffer pool,
+     * which should be released to the buffer pool once the data is processed.
      */
     @Override
-    protected TCPPacket call() throws IOException {
-        byte[] buffer = new byte[socket.getReceiveBufferSize()];
+    public TCPPacket call() throws IOException {
+        int size = Math.min(socket.getReceiveBufferSize(),
+                bufferPool.getMaxSize());
+        byte[] buffer = bufferPool.acquire(size);
 
-        BufferedInputStream stream =
-                new BufferedInputStream(socket.getInputStream());
-        int length = stream.read(buffer);
-        // Do not close reader because causes close of socket
+        int length;
+        try {
+            SocketChannel channel = socket.getChannel();
+            if (channel != null) {
+                // Streams of channel sockets block concurrent writes
+                length = channel.read(ByteBuffer.wrap(buffer));
+            } else {
+                length = socket.getInputStream().read(buffer);
+                // Do not close stream because causes close of socket
+            }
+        } catch (IOException e) {
+            bufferPool.release(buffer);
+            throw e;
+        }
 
         return new TCPPacket(buffer, length);
     }
@@ -41,9 +41,9 @@ import javax.net.ssl.SSLSocketFactory;
  * running on hosts communicating by an IP network. Packet delivery is
  * guaranteed.
  * <p>
- * The SSL client requires the JavaFX thread to be initialised. If your
- * application is not running as JavaFX application the JavaFX thread can simply
- * be initialised by calling: <code>new JFXPanel();</code>
+ * The SSL client does not require the JavaFX thread. User interfaces can receive
+ * all notifications on the JavaFX Application Thread by setting an
+ * <code>FXThreadExecutor</code> as listener executor.
  *
  * @author Sander Veldhuis
  */
@@ -39,9 +39,9 @@ import javax.net.ssl.SSLServerSocketFactory;
  * running on hosts communicating by an IP network. Packet delivery is
  * guaranteed.
  * <p>
- * The SSL server requires the JavaFX thread to be initialised. If your
- * application is not running as JavaFX application the JavaFX thread can simply
- * be initialised by calling: <code>new JFXPanel();</code>
+ * The SSL server does not require the JavaFX thread. User interfaces can receive
+ * all notifications on the JavaFX Application Thread by setting an
+ * <code>FXThreadExecutor</code> as listener executor.
  *
  * @author Sander Veldhuis
  */
@@ -32,7 +32,8 @@ import java.util.EventListener;
 public interface ServerConnectedListener extends EventListener {
 
     /**
-     * Invoked after a new client is connected.
+     * Invoked after a new client is connected. The client identifier is not
+     * reused as long as the client is connected.
      *
      * @param name
      *            the server name
@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.siloft.networking;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A dispatcher running tasks on a fixed number of stripes, each backed by a
+ * single thread. Tasks of the same key always run on the same stripe, in the
+ * order they are dispatched, while tasks of different keys run in parallel on
+ * different stripes.
+ * <p>
+ * A TCP server with a striped dispatcher notifies its packet and disconnected
+ * listeners on the stripe of the client identifier, therefore a slow listener
+ * only delays the clients sharing its stripe. Listeners may dispatch their own
+ * work by any other key, such as a user identifier, to keep that work ordered
+ * per key.
+ * <p>
+ * The queue depth of every stripe is recorded, which shows whether the
+ * stripes keep up and whether the keys are spread evenly.
+ *
+ * @author Sander Veldhuis
+ */
+public final class StripedDispatcher {
+
+    /** The stripes. */
+    private final Stripe[] stripes;
+
+    /**
+     * Constructs a new striped dispatcher with a stripe per available
+     * processor.
+     */
+    public StripedDispatcher() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructs a new striped dispatcher with the specified number of
+     * stripes.
+     *
+     * @param stripeCount
+     *            the number of stripes
+     *
+     * @exception IllegalArgumentException
+     *                if the number of stripes is less than one
+     */
+    public StripedDispatcher(int stripeCount) {
+        if (stripeCount < 1) {
+            throw new IllegalArgumentException("Invalid stripe count");
+        }
+        stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Returns the number of stripes of this dispatcher.
+     *
+     * @return the number of stripes
+     */
+    public int getStripeCount() {
+        return stripes.length;
+    }
+
+    /**
+     * Returns the stripe running the tasks of the specified key.
+     *
+     * @param key
+     *            the key
+     *
+     * @return the stripe index
+     */
+    public int getStripe(int key) {
+        return Math.floorMod(key, stripes.length);
+    }
+
+    /**
+     * Dispatches the specified task to the stripe of the specified key. May be
+     * invoked by any thread. Tasks dispatched after this dispatcher is shut
+     * down are discarded.
+     *
+     * @param key
+     *            the key
+     * @param task
+     *            the task
+     *
+     * @exception NullPointerException
+     *                if the task is <code>null</code>
+     */
+    public void execute(int key, Runnable task) {
+        if (task == null) {
+            throw new NullPointerException("Task is null");
+        }
+        stripes[getStripe(key)].execute(task);
+    }
+
+    /**
+     * Returns the number of tasks waiting on the specified stripe.
+     *
+     * @param stripe
+     *            the stripe index
+     *
+     * @return the queue depth
+     *
+     * @exception IllegalArgumentException
+     *                if the stripe index is invalid
+     */
+    public int getQueueDepth(int stripe) {
+        return stripeAt(stripe).depth.get();
+    }
+
+    /**
+     * Returns the largest number of tasks which waited on the specified
+     * stripe at once.
+     *
+     * @param stripe
+     *            the stripe index
+     *
+     * @return the maximum queue depth
+     *
+     * @exception IllegalArgumentException
+     *                if the stripe index is invalid
+     */
+    public int getMaxQueueDepth(int stripe) {
+        return stripeAt(stripe).maxDepth.get();
+    }
+
+    /**
+     * Returns the number of tasks run by the specified stripe.
+     *
+     * @param stripe
+     *            the stripe index
+     *
+     * @return the number of executed tasks
+     *
+     * @exception IllegalArgumentException
+     *                if the stripe index is invalid
+     */
+    public long getExecutedCount(int stripe) {
+        return stripeAt(stripe).executed.get();
+    }
+
+    /**
+     * Shuts down this dispatcher. Tasks already dispatched still run, newly
+     * dispatched tasks are discarded.
+     */
+    public void shutdown() {
+        for (Stripe stripe : stripes) {
+            stripe.executor.shutdown();
+        }
+    }
+
+    /**
+     * Returns the stripe of the specified index.
+     *
+     * @param stripe
+     *            the stripe index
+     *
+     * @return the stripe
+     *
+     * @exception IllegalArgumentException
+     *                if the stripe index is invalid
+     */
+    private Stripe stripeAt(int stripe) {
+        if (stripe < 0 || stripe >= stripes.length) {
+            throw new IllegalArgumentException("Invalid stripe");
+        }
+        return stripes[stripe];
+    }
+
+    /**
+     * A stripe running its tasks in order on a single thread.
+     */
+    private static final class Stripe {
+
+        /** The executor running the tasks. */
+        private final ExecutorService executor =
+                Threads.newSingleThreadExecutor(false);
+
+        /** The number of waiting tasks. */
+        private final AtomicInteger depth = new AtomicInteger();
+
+        /** The maximum number of waiting tasks. */
+        private final AtomicInteger maxDepth = new AtomicInteger();
+
+        /** The number of executed tasks. */
+        private final AtomicLong executed = new AtomicLong();
+
+        /**
+         * Queues the specified task.
+         *
+         * @param task
+         *            the task
+         */
+        void execute(Runnable task) {
+            int waiting = depth.incrementAndGet();
+            if (waiting > maxDepth.get()) {
+                maxDepth.accumulateAndGet(waiting, Math::max);
+            }
+            try {
+                executor.execute(() -> {
+                    depth.decrementAndGet();
+                    executed.incrementAndGet();
+                    task.run();
+                });
+            } catch (RejectedExecutionException e) {
+                // Shut down, the task is discarded
+                depth.decrementAndGet();
+            }
+        }
+    }
+}
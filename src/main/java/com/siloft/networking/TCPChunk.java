@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.siloft.networking;
+
+/**
+ * This class represents a chunk of a large value, like a file, which is
+ * transmitted in a sequence of TCP protocol packets. A TCP protocol packet
+ * field of this type carries one chunk, so neither the sender nor the receiver
+ * needs the whole value in a single array. Use <code>TCPChunkWriter</code> to
+ * split a stream into chunks, and <code>TCPChunkReader</code> to write the
+ * received chunks to a stream again.
+ * <p>
+ * A chunk identifies its stream, so the chunks of several streams can be
+ * transmitted over the same connection, and holds its position within the
+ * stream. The last chunk of a stream is marked.
+ *
+ * @author Sander Veldhuis
+ */
+public final class TCPChunk {
+
+    /** The empty chunk. */
+    static final TCPChunk EMPTY = new TCPChunk(0, 0, new byte[0], 0, false);
+
+    /** The stream identifier. */
+    private final int stream;
+
+    /** The position of the first byte within the stream. */
+    private final long position;
+
+    /** The data buffer. */
+    private final byte[] data;
+
+    /** The number of bytes of the data buffer. */
+    private final int length;
+
+    /** Whether this is the last chunk of the stream. */
+    private final boolean last;
+
+    /**
+     * Constructs a new chunk. The data buffer is not copied, therefore it
+     * should not be modified until the chunk is transmitted.
+     *
+     * @param stream
+     *            the stream identifier
+     * @param position
+     *            the position of the first byte within the stream
+     * @param data
+     *            the data buffer
+     * @param length
+     *            the number of bytes of the data buffer
+     * @param last
+     *            whether this is the last chunk of the stream
+     *
+     * @exception NullPointerException
+     *                if the data buffer is <code>null</code>
+     * @exception IllegalArgumentException
+     *                if the position or length is invalid
+     */
+    public TCPChunk(int stream, long position, byte[] data, int length,
+            boolean last) {
+        if (data == null) {
+            throw new NullPointerException("Data is null");
+        }
+        if (position < 0) {
+            throw new IllegalArgumentException("Invalid position");
+        }
+        if (length < 0 || length > data.length) {
+            throw new IllegalArgumentException("Invalid length");
+        }
+        this.stream = stream;
+        this.position = position;
+        this.data = data;
+        this.length = length;
+        this.last = last;
+    }
+
+    /**
+     * Returns the stream identifier of this chunk.
+     *
+     * @return the stream identifier
+     */
+    public int getStream() {
+        return stream;
+    }
+
+    /**
+     * Returns the position of the first byte of this chunk within the stream.
+     *
+     * @return the position
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Returns the data buffer of this chunk. Only the first
+     * <code>getLength()</code> bytes belong to this chunk.
+     *
+     * @return the data buffer
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * Returns the number of bytes of this chunk.
+     *
+     * @return the number of bytes
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Returns whether this is the last chunk of the stream.
+     *
+     * @return <code>true</code> if this is the last chunk,
+     *         <code>false</code> otherwise
+     */
+    public boolean isLast() {
+        return last;
+    }
+}
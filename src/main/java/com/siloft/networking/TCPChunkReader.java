@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.siloft.networking;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * This class writes the received chunks of a stream to an output stream, as
+ * they arrive. The chunks should arrive in order, which TCP guarantees for the
+ * chunks sent by a single <code>TCPChunkWriter</code> over one connection.
+ *
+ * @author Sander Veldhuis
+ */
+public class TCPChunkReader {
+
+    /** The stream identifier. */
+    private final int stream;
+
+    /** The stream the chunks are written to. */
+    private final OutputStream output;
+
+    /** The position of the next chunk within the stream. */
+    private long position;
+
+    /** Whether the last chunk has been read. */
+    private boolean complete;
+
+    /**
+     * Constructs a new chunk reader for the specified stream.
+     *
+     * @param stream
+     *            the stream identifier
+     * @param output
+     *            the stream the chunks are written to
+     *
+     * @exception NullPointerException
+     *                if the stream is <code>null</code>
+     */
+    public TCPChunkReader(int stream, OutputStream output) {
+        if (output == null) {
+            throw new NullPointerException("Output stream is null");
+        }
+        this.stream = stream;
+        this.output = output;
+    }
+
+    /**
+     * Returns the number of bytes of the stream read so far.
+     *
+     * @return the position
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Returns whether the last chunk of the stream has been read.
+     *
+     * @return <code>true</code> if the stream is complete,
+     *         <code>false</code> otherwise
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Writes the specified chunk to the output stream, if it belongs to the
+     * stream of this chunk reader. The output stream is flushed, but not
+     * closed, once the last chunk is read.
+     *
+     * @param chunk
+     *            the chunk
+     *
+     * @return <code>true</code> if the chunk belongs to the stream of this
+     *         chunk reader, <code>false</code> otherwise
+     *
+     * @exception IOException
+     *                if the chunk is not the next chunk of the stream, or the
+     *                output stream cannot be written
+     */
+    public boolean read(TCPChunk chunk) throws IOException {
+        if (chunk == null || chunk.getStream() != stream) {
+            return false;
+        }
+        if (complete || chunk.getPosition() != position) {
+            throw new IOException("Chunk out of order");
+        }
+
+        output.write(chunk.getData(), 0, chunk.getLength());
+        position += chunk.getLength();
+        if (chunk.isLast()) {
+            complete = true;
+            output.flush();
+        }
+        return true;
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.siloft.networking;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * This class splits a stream into chunks, which are transmitted as a field of
+ * a sequence of TCP protocol packets. Only a single chunk is held in memory at
+ * any time.
+ * <p>
+ * The data buffer is reused for every chunk, therefore a chunk should be
+ * transmitted before the next chunk is requested. Transmitting a TCP protocol
+ * packet encodes it immediately, so the TCP protocol packet holding the chunk
+ * can be reused as well:
+ *
+ * <pre>
+ * TCPChunkWriter writer = new TCPChunkWriter(id, input, 64 * 1024);
+ * for (TCPChunk chunk = writer.next(); chunk != null; chunk = writer.next()) {
+ *     message.chunk = chunk;
+ *     client.send(message);
+ * }
+ * </pre>
+ *
+ * @author Sander Veldhuis
+ */
+public class TCPChunkWriter {
+
+    /** The stream identifier. */
+    private final int stream;
+
+    /** The stream to be split. */
+    private final InputStream input;
+
+    /** The data buffer reused for every chunk. */
+    private final byte[] buffer;
+
+    /** The position of the next chunk within the stream. */
+    private long position;
+
+    /** Whether the last chunk has been returned. */
+    private boolean finished;
+
+    /**
+     * Constructs a new chunk writer for the specified stream.
+     *
+     * @param stream
+     *            the stream identifier
+     * @param input
+     *            the stream to be split
+     * @param chunkSize
+     *            the maximum number of bytes of a chunk
+     *
+     * @exception NullPointerException
+     *                if the stream is <code>null</code>
+     * @exception IllegalArgumentException
+     *                if the chunk size is invalid
+     */
+    public TCPChunkWriter(int stream, InputStream input, int chunkSize) {
+        if (input == null) {
+            throw new NullPointerException("Input stream is null");
+        }
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Invalid chunk size");
+        }
+        this.stream = stream;
+        this.input = input;
+        this.buffer = new byte[chunkSize];
+    }
+
+    /**
+     * Returns the number of bytes of the stream returned in chunks so far.
+     *
+     * @return the position
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Reads the next chunk of the stream. The last chunk is shorter than the
+     * chunk size, and is empty if the stream length is a multiple of the
+     * chunk size. The stream is not closed.
+     *
+     * @return the next chunk, or <code>null</code> if the last chunk has been
+     *         returned
+     *
+     * @exception IOException
+     *                if the stream cannot be read
+     */
+    public TCPChunk next() throws IOException {
+        if (finished) {
+            return null;
+        }
+
+        int length = 0;
+        while (length < buffer.length) {
+            int read = input.read(buffer, length, buffer.length - length);
+            if (read < 0) {
+                finished = true;
+                break;
+            }
+            length += read;
+        }
+
+        TCPChunk chunk =
+                new TCPChunk(stream, position, buffer, length, finished);
+        position += length;
+        return chunk;
+    }
+}
@@ -24,13 +24,18 @@ package com.siloft.networking;
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadFactory;
 
 /**
  * This class represents a TCP client for transmitting and receiving TCP
@@ -42,9 +47,10 @@ import java.util.concurrent.ThreadFactory;
  * delivery of a stream of octets (bytes) between applications running on hosts
  * communicating by an IP network. Packet delivery is guaranteed.
  * <p>
- * The TCP client requires the JavaFX thread to be initialised. If your
- * application is not running as JavaFX application the JavaFX thread can simply
- * be initialised by calling: <code>new JFXPanel();</code>
+ * The TCP client does not require the JavaFX thread. Listeners are notified on
+ * the background threads of the TCP client. User interfaces can receive all
+ * notifications on the JavaFX Application Thread by setting an
+ * <code>FXThreadExecutor</code> as listener executor.
  *
  * @author Sander Veldhuis
  */
@@ -71,6 +77,27 @@ public class TCPClient {
     /** The service for transmitting data to the server. */
     private TransmitService transmitService;
 
+    /** The framer delimiting the TCP packets, or <code>null</code>. */
+    private volatile TCPFramer framer = new TCPLengthFramer();
+
+    /** The limits of the data queued for transmission. */
+    private volatile TransmitLimits transmitLimits = TransmitLimits.DEFAULT;
+
+    /** Whether the background services run on virtual threads. */
+    private volatile boolean virtualThreads;
+
+    /** The executor used for notifying listeners, or <code>null</code>. */
+    private volatile Executor listenerExecutor;
+
+    /** The executor running the background services, or <code>null</code>. */
+    private volatile Executor ioExecutor;
+
+    /** The executor of the current connection, or <code>null</code>. */
+    private Executor executor;
+
+    /** The executor service created upon connecting, or <code>null</code>. */
+    private ExecutorService ownedExecutor;
+
     /** List containing all listeners triggered upon disconnection. */
     private final List<ClientDisconnectedListener> disconnectedListeners =
             new ArrayList<ClientDisconnectedListener>();
@@ -79,6 +106,15 @@ public class TCPClient {
     private final List<ClientPacketListener> packetListeners =
             new ArrayList<ClientPacketListener>();
 
+    /** The handlers of TCP protocol packets, indexed by op code. */
+    private final PacketHandlerTable<ClientPacketHandler<?>> packetHandlers =
+            new PacketHandlerTable<ClientPacketHandler<?>>(
+                    ClientPacketHandler.class);
+
+    /** List containing all listeners triggered upon writability changes. */
+    private final List<ClientWritabilityListener> writabilityListeners =
+            new CopyOnWriteArrayList<ClientWritabilityListener>();
+
     /**
      * Constructs a new TCP client, that connects to the specified server port
      * on the local machine. The port must be between 0 and 65535, inclusive.
@@ -141,7 +177,10 @@ public class TCPClient {
         if (isConnected()) {
             return;
         }
-        socket = new Socket(serverAddress, serverPort);
+        // Open through a channel, which allows transferring files directly
+        socket = SocketChannel
+                .open(new InetSocketAddress(serverAddress, serverPort))
+                .socket();
         createReceiveService();
         createTransmitService();
     }
@@ -161,23 +200,106 @@ public class TCPClient {
         } catch (Exception e) {
             // Ignore
         }
+        if (transmitService != null) {
+            transmitService.close();
+        }
         socket = null;
         receiveService = null;
         transmitService = null;
+        releaseExecutor();
     }
 
     /**
      * Schedules a TCP packet for transmission over this TCP client connection.
+     * May be invoked by any thread. It does not block, unless a transmit limit
+     * is hit and the limits apply the <code>BLOCK</code> policy. A TCP
+     * protocol packet is encoded in the wire format of the protocol, if set.
      *
      * @param packet
      *            the TCP packet
+     *
+     * @return <code>true</code> if the TCP packet is scheduled, or
+     *         <code>false</code> if it is rejected by the transmit limits,
+     *         exceeds the maximum length of the framer, or this TCP client is
+     *         not connected
      */
-    public void transmit(TCPPacket packet) {
-        if (!isConnected() || packet == null) {
-            return;
+    public boolean transmit(TCPPacket packet) {
+        TransmitService service = transmitService;
+        if (!isConnected() || packet == null || service == null) {
+            return false;
+        }
+        return service.enqueue(TCPPacket.snapshot(packet, protocol));
+    }
+
+    /**
+     * Returns whether this TCP client is writable. A client is unwritable once
+     * more data is queued for transmission than the high watermark of the
+     * transmit limits, and writable again once the queue is drained to the low
+     * watermark.
+     *
+     * @return <code>true</code> if connected and writable, otherwise
+     *         <code>false</code>
+     */
+    public boolean isWritable() {
+        TransmitService service = transmitService;
+        return (service != null && service.isWritable());
+    }
+
+    /**
+     * Schedules a region of a file for transmission over this TCP client
+     * connection. The file is transmitted in order with the TCP packets
+     * scheduled before and after it, and is read while being transmitted
+     * instead of being held in memory. Over a plain TCP connection the
+     * operating system transfers the file directly to the socket; over an SSL
+     * connection the file is memory-mapped in chunks and encrypted like other
+     * data.
+     * <p>
+     * If a framer is set the file is transmitted as consecutive TCP packets of
+     * at most 1 MiB each, or the maximum length of the framer if smaller,
+     * which the receiving side has to join; otherwise the file is transmitted
+     * as plain bytes.
+     *
+     * @param file
+     *            the file
+     * @param offset
+     *            the position in the file to start transmitting from
+     * @param length
+     *            the number of bytes to be transmitted
+     *
+     * @return the future completed with the number of transmitted bytes, or
+     *         completed exceptionally if this TCP client is not connected, the
+     *         file is rejected by the transmit limits, or the transmission
+     *         fails
+     *
+     * @exception NullPointerException
+     *                if the file is <code>null</code>
+     * @exception IllegalArgumentException
+     *                if the offset or length is invalid
+     */
+    public CompletableFuture<Long> transmitFile(Path file, long offset,
+            long length) {
+        FilePacket packet = new FilePacket(file, offset, length);
+        TransmitService service = transmitService;
+        if (!isConnected() || service == null) {
+            return FilePacket.failed("Not connected");
+        }
+        if (!service.enqueue(packet)) {
+            return FilePacket.failed("File rejected");
         }
-        transmitService.enqueue(packet);
-        transmitService.restart();
+        return packet.getFuture();
+    }
+
+    /**
+     * Returns a snapshot of the transmit statistics of this TCP client. The
+     * statistics show how many TCP packets are coalesced into a single write
+     * to the socket.
+     *
+     * @return the transmit statistics, or <code>null</code> if this TCP client
+     *         is not connected
+     */
+    public TransmitStatistics getTransmitStatistics() {
+        TransmitService service = transmitService;
+        return (service == null ? null : service.getStatistics());
     }
 
     /**
@@ -225,6 +347,71 @@ public class TCPClient {
         packetListeners.remove(listener);
     }
 
+    /**
+     * Add a handler of TCP protocol packets of the specified class to this
+     * TCP client. The handler will be triggered upon newly received and
+     * decoded TCP protocol packets of exactly that class, which are found by
+     * their op code without testing any other class.
+     *
+     * @param <T>
+     *            the TCP protocol packet class
+     * @param type
+     *            the TCP protocol packet class
+     * @param handler
+     *            the handler
+     *
+     * @exception NullPointerException
+     *                if the TCP protocol packet class or handler is
+     *                <code>null</code>
+     * @exception IllegalArgumentException
+     *                if the TCP protocol packet class is not valid
+     * @exception UnsupportedOperationException
+     *                if another TCP protocol packet class with the same op
+     *                code has handlers
+     */
+    public <T extends TCPProtocolPacket> void onPacket(Class<T> type,
+            ClientPacketHandler<? super T> handler) {
+        packetHandlers.add(type, handler);
+    }
+
+    /**
+     * Remove a handler of TCP protocol packets of the specified class from
+     * this TCP client.
+     *
+     * @param <T>
+     *            the TCP protocol packet class
+     * @param type
+     *            the TCP protocol packet class
+     * @param handler
+     *            the handler
+     */
+    public <T extends TCPProtocolPacket> void removePacketHandler(
+            Class<T> type, ClientPacketHandler<? super T> handler) {
+        packetHandlers.remove(type, handler);
+    }
+
+    /**
+     * Add a writability listener to this TCP client. The listener will be
+     * triggered upon becoming writable or unwritable.
+     *
+     * @param listener
+     *            the listener
+     */
+    public void addWritabilityListener(ClientWritabilityListener listener) {
+        writabilityListeners.add(listener);
+    }
+
+    /**
+     * Remove a writability listener from this TCP client.
+     *
+     * @param listener
+     *            the listener
+     */
+    public void removeWritabilityListener(
+            ClientWritabilityListener listener) {
+        writabilityListeners.remove(listener);
+    }
+
     /**
      * Returns the name of this TCP client.
      *
@@ -289,6 +476,154 @@ public class TCPClient {
         this.protocol = protocol;
     }
 
+    /**
+     * Returns the framer delimiting the TCP packets of this TCP client.
+     *
+     * @return the framer, or <code>null</code> if TCP packets are not
+     *         delimited
+     */
+    public TCPFramer getFramer() {
+        return framer;
+    }
+
+    /**
+     * Set the framer delimiting the TCP packets of this TCP client. The framer
+     * writes a header in front of every transmitted TCP packet, which allows
+     * the receiving side to restore the TCP packets regardless of how TCP
+     * splits or combines them. Both sides of a connection should use the same
+     * framer. By default a <code>TCPLengthFramer</code> is used.
+     * <p>
+     * The framer applies to connections opened after it is set, therefore it
+     * should be set before connecting. If set to <code>null</code> the TCP
+     * packets are not delimited and every received TCP packet contains the data
+     * of a single read from the socket.
+     *
+     * @param framer
+     *            the framer, or <code>null</code>
+     */
+    public void setFramer(TCPFramer framer) {
+        this.framer = framer;
+    }
+
+    /**
+     * Returns the limits of the data queued for transmission.
+     *
+     * @return the transmit limits
+     */
+    public TransmitLimits getTransmitLimits() {
+        return transmitLimits;
+    }
+
+    /**
+     * Set the limits of the data queued for transmission. By default
+     * <code>TransmitLimits.DEFAULT</code> is used, which only applies
+     * watermarks. The limits apply to the next connection, therefore they
+     * should be set before connecting.
+     *
+     * @param transmitLimits
+     *            the transmit limits
+     *
+     * @exception NullPointerException
+     *                if the transmit limits are <code>null</code>
+     */
+    public void setTransmitLimits(TransmitLimits transmitLimits) {
+        if (transmitLimits == null) {
+            throw new NullPointerException("Transmit limits are null");
+        }
+        this.transmitLimits = transmitLimits;
+    }
+
+    /**
+     * Indicates whether the background services of this TCP client run on
+     * virtual threads.
+     *
+     * @return <code>true</code> if virtual threads are used, or
+     *         <code>false</code> otherwise
+     */
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Set whether the background services of this TCP client run on virtual
+     * threads. Each connection reads and writes on its own virtual thread,
+     * which allows many more concurrent connections than platform threads. The
+     * setting applies to connections opened after it is set, therefore it
+     * should be set before connecting.
+     * <p>
+     * Virtual threads are only supported when running on Java 21 or higher.
+     *
+     * @param virtualThreads
+     *            whether to use virtual threads
+     *
+     * @exception UnsupportedOperationException
+     *                if virtual threads are not supported
+     */
+    public void setVirtualThreads(boolean virtualThreads) {
+        if (virtualThreads && !Threads.isVirtualSupported()) {
+            throw new UnsupportedOperationException(
+                    "Virtual threads not supported");
+        }
+        this.virtualThreads = virtualThreads;
+    }
+
+    /**
+     * Returns the executor used for notifying the listeners of this TCP
+     * client.
+     *
+     * @return the listener executor, or <code>null</code> if listeners are
+     *         notified on the background threads of this TCP client
+     */
+    public Executor getListenerExecutor() {
+        return listenerExecutor;
+    }
+
+    /**
+     * Set the executor used for notifying the listeners of this TCP client. The
+     * executor applies to connections opened after it is set, therefore it
+     * should be set before connecting. If set to <code>null</code> the
+     * listeners are notified on the background threads of this TCP client.
+     * <p>
+     * Use an <code>FXThreadExecutor</code> to notify all listeners on the
+     * JavaFX Application Thread.
+     *
+     * @param listenerExecutor
+     *            the listener executor, or <code>null</code>
+     */
+    public void setListenerExecutor(Executor listenerExecutor) {
+        this.listenerExecutor = listenerExecutor;
+    }
+
+    /**
+     * Returns the executor running the background services of this TCP client.
+     *
+     * @return the I/O executor, or <code>null</code> if an executor is created
+     *         upon connecting
+     */
+    public Executor getIOExecutor() {
+        return ioExecutor;
+    }
+
+    /**
+     * Set the executor running the background services of this TCP client,
+     * which receive and transmit data. The executor applies to connections
+     * opened after it is set, therefore it should be set before connecting.
+     * The same executor may be shared by many TCP clients. Receiving blocks a
+     * thread per connected client, therefore the executor has to run at least
+     * one task more than the number of clients concurrently. The executor is
+     * not shut down by this TCP client.
+     * <p>
+     * If set to <code>null</code> an executor is created upon connecting,
+     * which is shared by the receiving and transmitting services and shut
+     * down upon disconnecting. The executor runs at most two threads.
+     *
+     * @param ioExecutor
+     *            the I/O executor, or <code>null</code>
+     */
+    public void setIOExecutor(Executor ioExecutor) {
+        this.ioExecutor = ioExecutor;
+    }
+
     /**
      * Indicates whether this TCP client is connected.
      *
@@ -303,12 +638,13 @@ public class TCPClient {
      * Create a new receive service for this TCP client.
      */
     protected void createReceiveService() {
-        receiveService = new ReceiveService(socket);
-        receiveService.setExecutor(createExecutorService());
-        receiveService.setOnFailed((value) -> {
+        receiveService = new ReceiveService(socket, framer);
+        receiveService.setExecutor(executor());
+        receiveService.setCallbackExecutor(listenerExecutor);
+        receiveService.setOnFailed(() -> {
             receiveFailed();
         });
-        receiveService.setOnSucceeded((value) -> {
+        receiveService.setOnSucceeded(() -> {
             receiveSucceeded();
         });
         receiveService.start();
@@ -318,33 +654,53 @@ public class TCPClient {
      * Create a new transmit service for this TCP client.
      */
     protected void createTransmitService() {
-        transmitService = new TransmitService(socket);
-        transmitService.setExecutor(createExecutorService());
-        transmitService.setOnFailed((value) -> {
+        transmitService =
+                new TransmitService(socket, framer, transmitLimits);
+        transmitService.setExecutor(executor());
+        transmitService.setCallbackExecutor(listenerExecutor);
+        transmitService.setOnWritabilityChanged(writable -> {
+            for (ClientWritabilityListener listener : writabilityListeners) {
+                listener.writabilityChanged(name, writable);
+            }
+        });
+        transmitService.setOnFailed(() -> {
             transmitFailed();
         });
-        transmitService.setOnSucceeded((value) -> {
+        transmitService.setOnSucceeded(() -> {
             transmitSucceeded();
         });
-        transmitService.start();
     }
 
     /**
-     * Create a new executor service which is running as a daemon to ensure the
-     * thread will not block the closure of the application.
+     * Returns the executor running the background services of the current
+     * connection. The I/O executor is used if set, otherwise an executor
+     * service is created which is shut down upon disconnecting.
      *
-     * @return the executor service
+     * @return the executor
      */
-    private ExecutorService createExecutorService() {
-        ThreadFactory threadFactory = new ThreadFactory() {
-            @Override
-            public Thread newThread(Runnable r) {
-                final Thread thread = new Thread(r);
-                thread.setDaemon(true);
-                return thread;
+    private synchronized Executor executor() {
+        if (executor == null) {
+            if (ioExecutor != null) {
+                executor = ioExecutor;
+            } else {
+                ownedExecutor = Threads.newBoundedExecutor(virtualThreads, 2);
+                executor = ownedExecutor;
             }
-        };
-        return Executors.newSingleThreadExecutor(threadFactory);
+        }
+        return executor;
+    }
+
+    /**
+     * Releases the executor of the current connection. The executor service
+     * created upon connecting is shut down; its tasks still running complete
+     * once the sockets are closed.
+     */
+    private synchronized void releaseExecutor() {
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdown();
+        }
+        executor = null;
+        ownedExecutor = null;
     }
 
     /**
@@ -356,14 +712,56 @@ public class TCPClient {
             return;
         }
         TCPPacket receivedPacket = receiveService.getValue();
+        byte[] data = receivedPacket.getData();
+        int length = receivedPacket.getLength();
+
+        // The data is a pooled buffer, which is reused after release
+        FrameBuffer frameBuffer = receiveService.getFrameBuffer();
+        if (frameBuffer != null && length > 0) {
+            frameBuffer.append(data, length);
+        } else if (length > 0) {
+            receivedPacket =
+                    new TCPPacket(Arrays.copyOf(data, length), length);
+        }
+        BufferPool.getDefault().release(data);
 
         // End-of-stream means disconnected
-        if (receivedPacket.getLength() == -1) {
+        if (length == -1) {
             disconnect();
             return;
         }
 
+        if (frameBuffer == null) {
+            received(receivedPacket);
+        } else {
+            try {
+                TCPPacket framedPacket;
+                while ((framedPacket = frameBuffer.next()) != null) {
+                    received(framedPacket);
+                }
+            } catch (IOException e) {
+                disconnect();
+                return;
+            }
+        }
+
+        if (receiveService != null) {
+            receiveService.restart();
+        }
+    }
+
+    /**
+     * Notifies all listeners with the specified received TCP packet. The TCP
+     * packet is decoded first if a protocol is set. Every decoded TCP protocol
+     * packet is passed to the handlers of its class as well, and is released
+     * to the protocol once all listeners and handlers return.
+     *
+     * @param receivedPacket
+     *            the received TCP packet
+     */
+    private void received(TCPPacket receivedPacket) {
         TCPPacket[] packets = new TCPPacket[] { receivedPacket };
+        TCPProtocol protocol = this.protocol;
         if (protocol != null) {
             packets = protocol.decode(receivedPacket);
         }
@@ -371,10 +769,25 @@ public class TCPClient {
             for (ClientPacketListener listener : packetListeners) {
                 listener.received(name, tcpPacket);
             }
+            if (protocol != null) {
+                dispatch((TCPProtocolPacket) tcpPacket);
+                protocol.release(tcpPacket);
+            }
         }
+    }
 
-        if (receiveService != null) {
-            receiveService.restart();
+    /**
+     * Notifies the handlers of the class of the specified decoded TCP
+     * protocol packet.
+     *
+     * @param packet
+     *            the decoded TCP protocol packet
+     */
+    @SuppressWarnings("unchecked")
+    private void dispatch(TCPProtocolPacket packet) {
+        for (ClientPacketHandler<?> handler : packetHandlers.of(packet)) {
+            ((ClientPacketHandler<TCPProtocolPacket>) handler).received(name,
+                    packet);
         }
     }
 
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.siloft.networking;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Interface defining how TCP packets are delimited on a TCP connection.
+ * <p>
+ * TCP delivers a stream of octets (bytes), it does not preserve the boundaries
+ * of the transmitted TCP packets. Several transmitted TCP packets could be
+ * received at once, and a single transmitted TCP packet could be received in
+ * parts. A framer writes a header in front of every transmitted TCP packet,
+ * which allows the receiving side to restore the original TCP packets.
+ * <p>
+ * A framer does not hold any state, therefore one framer can be shared by all
+ * connections. Both sides of a connection should use the same framer.
+ *
+ * @author Sander Veldhuis
+ */
+public interface TCPFramer {
+
+    /**
+     * Returns the length of the header written in front of a TCP packet of the
+     * specified length.
+     *
+     * @param length
+     *            the TCP packet length
+     *
+     * @return the header length
+     */
+    public int getHeaderLength(int length);
+
+    /**
+     * Writes the header of a TCP packet of the specified length to the target
+     * buffer. The target buffer should have at least
+     * <code>getHeaderLength(length)</code> bytes remaining.
+     *
+     * @param target
+     *            the target buffer
+     * @param length
+     *            the TCP packet length
+     */
+    public void writeHeader(ByteBuffer target, int length);
+
+    /**
+     * Returns the maximum length of a TCP packet delimited by this framer.
+     * Longer TCP packets are rejected upon transmission, since the receiving
+     * side would not accept them. By default the length is not limited.
+     *
+     * @return the maximum TCP packet length
+     */
+    public default int getMaxLength() {
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * Reads the header of the next TCP packet from the source buffer. If the
+     * source buffer contains the complete header and the complete TCP packet,
+     * the position of the source buffer is advanced past the header and the
+     * TCP packet length is returned. Otherwise the position is left unchanged
+     * and <code>-1</code> is returned.
+     *
+     * @param source
+     *            the source buffer
+     *
+     * @return the TCP packet length, or <code>-1</code> if the TCP packet is
+     *         not completely received yet
+     *
+     * @exception IOException
+     *                if the header is not valid
+     */
+    public int readHeader(ByteBuffer source) throws IOException;
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.siloft.networking;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+
+/**
+ * This class represents a framer which writes the length of every TCP packet
+ * as a 32 bit header in front of the TCP packet.
+ * <p>
+ * The maximum length of a received TCP packet is limited to protect the
+ * receiving side against corrupt headers. A header announcing a longer TCP
+ * packet is considered invalid. Longer TCP packets are rejected upon
+ * transmission as well, therefore both sides should use the same maximum.
+ * <p>
+ * Note that this framer changes the wire format. Servers and clients use it
+ * by default, while earlier versions transmitted TCP packets without any
+ * header. Such a peer cannot communicate with a framed connection; set the
+ * framer to <code>null</code> on both sides to keep the unframed format.
+ *
+ * @author Sander Veldhuis
+ */
+public class TCPLengthFramer implements TCPFramer {
+
+    /** The default maximum TCP packet length of 16 MB. */
+    public static final int DEFAULT_MAX_LENGTH = 16 * 1024 * 1024;
+
+    /** The length of the header. */
+    private static final int HEADER_LENGTH = 4;
+
+    /** The maximum TCP packet length. */
+    private final int maxLength;
+
+    /**
+     * Constructs a new length framer, which accepts TCP packets up to 16 MB.
+     */
+    public TCPLengthFramer() {
+        this(DEFAULT_MAX_LENGTH);
+    }
+
+    /**
+     * Constructs a new length framer, which accepts TCP packets up to the
+     * specified maximum length.
+     *
+     * @param maxLength
+     *            the maximum TCP packet length
+     *
+     * @exception IllegalArgumentException
+     *                if the maximum length is invalid
+     */
+    public TCPLengthFramer(int maxLength) {
+        if (maxLength < 0) {
+            throw new IllegalArgumentException("Invalid maximum length");
+        }
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * Returns the maximum TCP packet length of this length framer.
+     *
+     * @return the maximum TCP packet length
+     */
+    @Override
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    /**
+     * Returns the length of the header, which is always 4 bytes.
+     *
+     * @param length
+     *            the TCP packet length
+     *
+     * @return the header length
+     */
+    @Override
+    public int getHeaderLength(int length) {
+        return HEADER_LENGTH;
+    }
+
+    /**
+     * Writes the TCP packet length as 32 bit header to the target buffer.
+     *
+     * @param target
+     *            the target buffer
+     * @param length
+     *            the TCP packet length
+     */
+    @Override
+    public void writeHeader(ByteBuffer target, int length) {
+        target.putInt(length);
+    }
+
+    /**
+     * Reads the 32 bit header of the next TCP packet from the source buffer.
+     *
+     * @param source
+     *            the source buffer
+     *
+     * @return the TCP packet length, or <code>-1</code> if the TCP packet is
+     *         not completely received yet
+     *
+     * @exception IOException
+     *                if the TCP packet length is negative or exceeds the
+     *                maximum length
+     */
+    @Override
+    public int readHeader(ByteBuffer source) throws IOException {
+        if (source.remaining() < HEADER_LENGTH) {
+            return -1;
+        }
+
+        int length = source.getInt(source.position());
+        if (length < 0 || length > maxLength) {
+            throw new StreamCorruptedException("Invalid length");
+        }
+        if (source.remaining() - HEADER_LENGTH < length) {
+            return -1;
+        }
+
+        source.position(source.position() + HEADER_LENGTH);
+        return length;
+    }
+}
@@ -80,4 +80,35 @@ public class TCPPacket {
     public synchronized int getLength() {
         return length;
     }
+
+    /**
+     * Returns a TCP packet holding the current data of the specified TCP
+     * packet. Subclasses may compute their data on every invocation of
+     * <code>getData</code>, like <code>TCPProtocolPacket</code> which encodes
+     * its fields. A TCP protocol packet supported by the specified TCP
+     * protocol is encoded in the wire format of that TCP protocol instead. The
+     * returned TCP packet holds the data computed once, and can be shared
+     * between connections since the data is never modified.
+     *
+     * @param packet
+     *            the TCP packet
+     * @param protocol
+     *            the TCP protocol of the connection, or <code>null</code>
+     *
+     * @return the TCP packet holding the computed data
+     */
+    static TCPPacket snapshot(TCPPacket packet, TCPProtocol protocol) {
+        if (packet.getClass() == TCPPacket.class) {
+            return packet;
+        }
+        if (packet instanceof TCPProtocolPacket) {
+            TCPProtocolPacket protocolPacket = (TCPProtocolPacket) packet;
+            if (protocol != null && protocol.isSupported(protocolPacket)) {
+                return protocol.encode(protocolPacket);
+            }
+            byte[] data = packet.getData();
+            return new TCPPacket(data, data.length);
+        }
+        return new TCPPacket(packet.getData(), packet.getLength());
+    }
 }
@@ -0,0 +1,2165 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.siloft.networking;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class represents the codec encoding and decoding the fields of a single
+ * TCP protocol packet class.
+ * <p>
+ * Codecs are generated at compile time by the
+ * <code>siloft-networking-processor</code> annotation processor and registered
+ * as a service of this class. The codec of a TCP protocol packet class is
+ * looked up by its name in the package of the class once, upon constructing
+ * the first instance, and is kept as long as the class. For TCP protocol
+ * packet classes without a generated codec the fields are accessed through
+ * method handles, which are resolved once per class.
+ * <p>
+ * All values are encoded big-endian. Strings and byte arrays are preceded by
+ * their length as <code>short</code>, and a <code>null</code> string or byte
+ * array is encoded as an empty one. Subclasses implement <code>write</code>
+ * and <code>read</code>, which are always invoked with a big-endian buffer.
+ *
+ * @param <T>
+ *            the TCP protocol packet class
+ *
+ * @author Sander Veldhuis
+ */
+public abstract class TCPPacketCodec<T extends TCPProtocolPacket> {
+
+    /** The codecs per TCP protocol packet class. */
+    private static final ClassValue<TCPPacketCodec<?>> CODECS =
+            new ClassValue<TCPPacketCodec<?>>() {
+                @Override
+                protected TCPPacketCodec<?> computeValue(Class<?> type) {
+                    TCPPacketCodec<?> codec = generated(type);
+                    return (codec != null ? codec
+                            : new TCPProtocolCodec(type));
+                }
+            };
+
+    /**
+     * Returns the TCP protocol packet class of this codec.
+     *
+     * @return the TCP protocol packet class
+     */
+    public abstract Class<T> getPacketClass();
+
+    /**
+     * Returns the op code of the specified TCP protocol packet.
+     *
+     * @param packet
+     *            the TCP protocol packet
+     *
+     * @return the op code
+     */
+    public abstract short getOpCode(T packet);
+
+    /**
+     * Returns the encoded length of the specified TCP protocol packet.
+     *
+     * @param packet
+     *            the TCP protocol packet
+     *
+     * @return the encoded length
+     */
+    public abstract int getLength(T packet);
+
+    /**
+     * Returns a new TCP protocol packet of the class of this codec, or
+     * <code>null</code> if the class cannot be constructed.
+     *
+     * @return the new TCP protocol packet, or <code>null</code>
+     */
+    protected abstract T newPacket();
+
+    /**
+     * Writes the specified TCP protocol packet at the position of the
+     * big-endian target buffer.
+     *
+     * @param packet
+     *            the TCP protocol packet
+     * @param target
+     *            the target buffer
+     *
+     * @exception BufferOverflowException
+     *                if the target buffer has not enough space remaining
+     */
+    protected abstract void write(T packet, ByteBuffer target);
+
+    /**
+     * Reads the fields of the specified TCP protocol packet from the position
+     * of the big-endian source buffer. The fields are only assigned if the
+     * whole TCP protocol packet is read successfully.
+     *
+     * @param source
+     *            the source buffer
+     * @param packet
+     *            the TCP protocol packet
+     *
+     * @return <code>true</code> if the data contains a TCP protocol packet of
+     *         the class of this codec, <code>false</code> otherwise
+     *
+     * @exception BufferUnderflowException
+     *                if the source buffer ends before the TCP protocol packet
+     */
+    protected abstract boolean read(ByteBuffer source, T packet);
+
+    /**
+     * Writes the specified TCP protocol packet in the compact wire format at
+     * the position of the big-endian target buffer.
+     *
+     * @param packet
+     *            the TCP protocol packet
+     * @param target
+     *            the target buffer
+     *
+     * @exception BufferOverflowException
+     *                if the target buffer has not enough space remaining
+     */
+    protected abstract void writeCompact(T packet, ByteBuffer target);
+
+    /**
+     * Reads the fields of the specified TCP protocol packet in the compact
+     * wire format from the position of the big-endian source buffer. The
+     * fields are only assigned if the whole TCP protocol packet is read
+     * successfully.
+     *
+     * @param source
+     *            the source buffer
+     * @param packet
+     *            the TCP protocol packet
+     *
+     * @return <code>true</code> if the data contains a TCP protocol packet of
+     *         the class of this codec, <code>false</code> otherwise
+     *
+     * @exception BufferUnderflowException
+     *                if the source buffer ends before the TCP protocol packet
+     * @exception IllegalArgumentException
+     *                if the source buffer contains an invalid variable length
+     *                integer
+     */
+    protected abstract boolean readCompact(ByteBuffer source, T packet);
+
+    /**
+     * Encodes the specified TCP protocol packet.
+     *
+     * @param packet
+     *            the TCP protocol packet
+     *
+     * @return the encoded data
+     */
+    public final byte[] encode(T packet) {
+        byte[] data = new byte[getLength(packet)];
+        write(packet, ByteBuffer.wrap(data));
+        return data;
+    }
+
+    /**
+     * Encodes the specified TCP protocol packet in the specified wire format.
+     *
+     * @param packet
+     *            the TCP protocol packet
+     * @param format
+     *            the wire format
+     *
+     * @return the encoded data
+     */
+    public final byte[] encode(T packet, TCPWireFormat format) {
+        if (format == TCPWireFormat.FIXED) {
+            return encode(packet);
+        }
+
+        // The compact wire format never takes more than twice the bytes
+        BufferPool pool = BufferPool.getDefault();
+        byte[] buffer = pool.acquire(2 * getLength(packet));
+        try {
+            ByteBuffer target = ByteBuffer.wrap(buffer);
+            writeCompact(packet, target);
+            return Arrays.copyOf(buffer, target.position());
+        } finally {
+            pool.release(buffer);
+        }
+    }
+
+    /**
+     * Encodes the specified TCP protocol packet at the position of the target
+     * buffer, and advances the position. Nothing is written if the target
+     * buffer has not enough space remaining.
+     *
+     * @param packet
+     *            the TCP protocol packet
+     * @param target
+     *            the target buffer, heap or direct, in any byte order
+     *
+     * @exception BufferOverflowException
+     *                if the target buffer has not enough space remaining
+     */
+    public final void encode(T packet, ByteBuffer target) {
+        encode(packet, target, TCPWireFormat.FIXED);
+    }
+
+    /**
+     * Encodes the specified TCP protocol packet in the specified wire format
+     * at the position of the target buffer, and advances the position.
+     * Nothing is written if the target buffer has not enough space remaining.
+     *
+     * @param packet
+     *            the TCP protocol packet
+     * @param target
+     *            the target buffer, heap or direct, in any byte order
+     * @param format
+     *            the wire format
+     *
+     * @exception BufferOverflowException
+     *                if the target buffer has not enough space remaining
+     */
+    public final void encode(T packet, ByteBuffer target,
+            TCPWireFormat format) {
+        ByteOrder order = target.order();
+        int position = target.position();
+        try {
+            target.order(ByteOrder.BIG_ENDIAN);
+            if (format == TCPWireFormat.FIXED) {
+                write(packet, target);
+            } else {
+                writeCompact(packet, target);
+            }
+        } catch (BufferOverflowException e) {
+            target.position(position);
+            throw e;
+        } finally {
+            target.order(order);
+        }
+    }
+
+    /**
+     * Decodes a TCP protocol packet of the class of this codec from the
+     * specified data.
+     *
+     * @param data
+     *            the data
+     * @param offset
+     *            the offset of the TCP protocol packet in the data
+     * @param length
+     *            the number of available bytes from the offset
+     *
+     * @return the TCP protocol packet upon correctly decoding the data, or
+     *         <code>null</code> otherwise
+     */
+    public final T decode(byte[] data, int offset, int length) {
+        if (length < 2) {
+            return null;
+        }
+        T packet = newPacket();
+        if (packet == null) {
+            return null;
+        }
+
+        try {
+            return (read(ByteBuffer.wrap(data, offset, length), packet)
+                    ? packet : null);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException
+                | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Decodes the fields of the specified TCP protocol packet from the
+     * position of the source buffer, and advances the position upon success.
+     * Neither the position nor the TCP protocol packet is modified otherwise.
+     *
+     * @param source
+     *            the source buffer, heap or direct, in any byte order
+     * @param packet
+     *            the TCP protocol packet
+     *
+     * @return <code>true</code> upon correctly decoding the data,
+     *         <code>false</code> otherwise
+     */
+    public final boolean decode(ByteBuffer source, T packet) {
+        return decode(source, packet, TCPWireFormat.FIXED);
+    }
+
+    /**
+     * Decodes the fields of the specified TCP protocol packet in the specified
+     * wire format from the position of the source buffer, and advances the
+     * position upon success. Neither the position nor the TCP protocol packet
+     * is modified otherwise.
+     *
+     * @param source
+     *            the source buffer, heap or direct, in any byte order
+     * @param packet
+     *            the TCP protocol packet
+     * @param format
+     *            the wire format
+     *
+     * @return <code>true</code> upon correctly decoding the data,
+     *         <code>false</code> otherwise
+     */
+    public final boolean decode(ByteBuffer source, T packet,
+            TCPWireFormat format) {
+        if (source.remaining() < 2) {
+            return false;
+        }
+
+        ByteOrder order = source.order();
+        int position = source.position();
+        boolean decoded = false;
+        try {
+            source.order(ByteOrder.BIG_ENDIAN);
+            decoded = (format == TCPWireFormat.FIXED ? read(source, packet)
+                    : readCompact(source, packet));
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            // Not a complete or valid TCP protocol packet
+        } finally {
+            source.order(order);
+            if (!decoded) {
+                source.position(position);
+            }
+        }
+        return decoded;
+    }
+
+    /**
+     * Returns the codec of the specified TCP protocol packet class. The codec
+     * is looked up, or created, upon first use.
+     *
+     * @param type
+     *            the TCP protocol packet class
+     *
+     * @return the codec
+     *
+     * @exception IllegalArgumentException
+     *                if any of the fields is not valid
+     */
+    @SuppressWarnings("unchecked")
+    static TCPPacketCodec<TCPProtocolPacket> of(Class<?> type) {
+        return (TCPPacketCodec<TCPProtocolPacket>) CODECS.get(type);
+    }
+
+    /**
+     * Returns the op code at the specified offset of the data.
+     *
+     * @param data
+     *            the data
+     * @param offset
+     *            the offset of a TCP protocol packet in the data
+     *
+     * @return the op code
+     */
+    static short readOpCode(byte[] data, int offset) {
+        return (short) ((data[offset] << 8) | (data[offset + 1] & 0xFF));
+    }
+
+    /**
+     * Returns the generated codec of the specified TCP protocol packet class,
+     * or <code>null</code> if not available. The codec is loaded by its name
+     * through the class loader of the TCP protocol packet class, therefore
+     * only the codec of this class is instantiated.
+     *
+     * @param type
+     *            the TCP protocol packet class
+     *
+     * @return the generated codec, or <code>null</code>
+     */
+    private static TCPPacketCodec<?> generated(Class<?> type) {
+        // Named like the processor does, the package followed by the
+        // binary name of the class without the package
+        String name = type.getName();
+        int separator = name.lastIndexOf('.') + 1;
+        String codecName = name.substring(0, separator)
+                + name.substring(separator).replace('$', '_') + "Codec";
+        try {
+            Class<?> codecType =
+                    Class.forName(codecName, true, type.getClassLoader());
+            if (TCPPacketCodec.class.isAssignableFrom(codecType)) {
+                TCPPacketCodec<?> codec = (TCPPacketCodec<?>) codecType
+                        .getConstructor().newInstance();
+                if (codec.getPacketClass() == type) {
+                    return codec;
+                }
+            }
+        } catch (ReflectiveOperationException | LinkageError e) {
+            // Use the method handles instead
+        }
+        return null;
+    }
+
+    /**
+     * Returns the number of bytes of the UTF-8 encoding of the specified
+     * string. An unpaired surrogate is encoded as a single <code>'?'</code>.
+     *
+     * @param value
+     *            the string, or <code>null</code>
+     *
+     * @return the number of bytes
+     */
+    protected static int utf8Length(String value) {
+        if (value == null) {
+            return 0;
+        }
+        int length = value.length();
+        int bytes = length;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                continue;
+            } else if (c < 0x800) {
+                bytes += 1;
+            } else if (!Character.isSurrogate(c)) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                bytes += 2;
+                i++;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the number of bytes of the specified byte array.
+     *
+     * @param value
+     *            the byte array, or <code>null</code>
+     *
+     * @return the number of bytes
+     */
+    protected static int length(byte[] value) {
+        return (value == null ? 0 : value.length);
+    }
+
+    /**
+     * Writes a UTF-8 string preceded by its size. The string is encoded in a
+     * single pass directly into the target buffer, after which the size is
+     * filled in. An unpaired surrogate is encoded as a single
+     * <code>'?'</code>, like <code>String.getBytes</code> does.
+     *
+     * @param target
+     *            the target buffer
+     * @param value
+     *            the string, or <code>null</code> to write an empty one
+     *
+     * @exception BufferOverflowException
+     *                if the target buffer has not enough space remaining
+     */
+    protected static void putString(ByteBuffer target, String value) {
+        int length = (value == null ? 0 : value.length());
+        if (length > Short.MAX_VALUE / 3) {
+            // The UTF-8 length may need a larger size, count it first
+            putSize(target, utf8Length(value));
+            putUtf8(target, value);
+            return;
+        }
+
+        int start = target.position();
+        if (target.remaining() < 2) {
+            throw new BufferOverflowException();
+        }
+        target.position(start + 2);
+        putUtf8(target, value);
+        target.putShort(start, (short) (target.position() - start - 2));
+    }
+
+    /**
+     * Writes a UTF-8 string preceded by its length as variable length
+     * integer, for the compact wire format.
+     *
+     * @param target
+     *            the target buffer
+     * @param value
+     *            the string, or <code>null</code> to write an empty one
+     *
+     * @exception BufferOverflowException
+     *                if the target buffer has not enough space remaining
+     */
+    protected static void putCompactString(ByteBuffer target, String value) {
+        putVarint(target, utf8Length(value));
+        putUtf8(target, value);
+    }
+
+    /**
+     * Encodes the specified string as UTF-8 at the position of the target
+     * buffer.
+     *
+     * @param target
+     *            the target buffer
+     * @param value
+     *            the string, or <code>null</code> to write nothing
+     *
+     * @exception BufferOverflowException
+     *                if the target buffer has not enough space remaining
+     */
+    private static void putUtf8(ByteBuffer target, String value) {
+        int length = (value == null ? 0 : value.length());
+        if (target.hasArray() && target.remaining() >= 3 * length) {
+            // Every char takes at most three bytes, no bounds checks needed
+            int offset = target.arrayOffset();
+            target.position(putUtf8(target.array(),
+                    offset + target.position(), value, length) - offset);
+            return;
+        }
+
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                target.put((byte) c);
+            } else if (c < 0x800) {
+                target.put((byte) (0xC0 | (c >> 6)));
+                target.put((byte) (0x80 | (c & 0x3F)));
+            } else if (!Character.isSurrogate(c)) {
+                target.put((byte) (0xE0 | (c >> 12)));
+                target.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                target.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                target.put((byte) (0xF0 | (codePoint >> 18)));
+                target.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                target.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                target.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else {
+                target.put((byte) '?');
+            }
+        }
+    }
+
+    /**
+     * Encodes the specified string as UTF-8 into the array, which should have
+     * at least three bytes per char available. Leading ASCII characters are
+     * copied in a tight loop.
+     *
+     * @param array
+     *            the target array
+     * @param position
+     *            the position in the target array
+     * @param value
+     *            the string
+     * @param length
+     *            the number of chars of the string
+     *
+     * @return the position after the encoded string
+     */
+    private static int putUtf8(byte[] array, int position, String value,
+            int length) {
+        int i = 0;
+        for (; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+                break;
+            }
+            array[position + i] = (byte) c;
+        }
+        position += i;
+
+        for (; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                array[position++] = (byte) c;
+            } else if (c < 0x800) {
+                array[position++] = (byte) (0xC0 | (c >> 6));
+                array[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (!Character.isSurrogate(c)) {
+                array[position++] = (byte) (0xE0 | (c >> 12));
+                array[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                array[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                array[position++] = (byte) (0xF0 | (codePoint >> 18));
+                array[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                array[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                array[position++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else {
+                array[position++] = (byte) '?';
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Writes a length prefixed byte array.
+     *
+     * @param target
+     *            the target buffer
+     * @param value
+     *            the byte array, or <code>null</code> to write an empty one
+     *
+     * @exception BufferOverflowException
+     *                if the target buffer has not enough space remaining
+     */
+    protected static void putBytes(ByteBuffer target, byte[] value) {
+        int length = length(value);
+        if (target.remaining() < sizeLength(length) + length) {
+            throw new BufferOverflowException();
+        }
+        putSize(target, length);
+        if (length > 0) {
+            target.put(value);
+        }
+    }
+
+    /**
+     * Writes a byte array preceded by its length as variable length integer,
+     * for the compact wire format.
+     *
+     * @param target
+     *            the target buffer
+     * @param value
+     *            the byte array, or <code>null</code> to write an empty one
+     *
+     * @exception BufferOverflowException
+     *                if the target buffer has not enough space remaining
+     */
+    protected static void putCompactBytes(ByteBuffer target, byte[] value) {
+        int length = length(value);
+        putVarint(target, length);
+        if (length > 0) {
+            target.put(value);
+        }
+    }
+
+    /**
+     * Writes an unsigned variable length integer, using 7 bits per byte
+     * starting with the least significant bits. The most significant bit of
+     * every byte indicates whether more bytes follow.
+     *
+     * @param target
+     *            the target buffer
+     * @param value
+     *            the value, treated as unsigned
+     *
+     * @exception BufferOverflowException
+     *                if the target buffer has not enough space remaining
+     */
+    protected static void putVarint(ByteBuffer target, long value) {
+        while ((value & ~0x7FL) != 0) {
+            target.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        target.put((byte) value);
+    }
+
+    /**
+     * Writes a signed value as zigzag encoded variable length integer, which
+     * keeps values close to zero small whether positive or negative.
+     *
+     * @param target
+     *            the target buffer
+     * @param value
+     *            the value
+     *
+     * @exception BufferOverflowException
+     *                if the target buffer has not enough space remaining
+     */
+    protected static void putZigZag(ByteBuffer target, long value) {
+        putVarint(target, (value << 1) ^ (value >> 63));
+    }
+
+    /**
+     * Reads an unsigned variable length integer.
+     *
+     * @param source
+     *            the source buffer
+     *
+     * @return the value
+     *
+     * @exception BufferUnderflowException
+     *                if the source buffer ends before the value
+     * @exception IllegalArgumentException
+     *                if the value takes more than ten bytes
+     */
+    protected static long getVarint(ByteBuffer source) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = source.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Invalid variable length integer");
+    }
+
+    /**
+     * Reads a signed zigzag encoded variable length integer.
+     *
+     * @param source
+     *            the source buffer
+     *
+     * @return the value
+     *
+     * @exception BufferUnderflowException
+     *                if the source buffer ends before the value
+     * @exception IllegalArgumentException
+     *                if the value takes more than ten bytes
+     */
+    protected static long getZigZag(ByteBuffer source) {
+        long value = getVarint(source);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Reads a length as unsigned variable length integer.
+     *
+     * @param source
+     *            the source buffer
+     *
+     * @return the length
+     *
+     * @exception BufferUnderflowException
+     *                if the source buffer ends before the length, or has less
+     *                bytes remaining than the length
+     * @exception IllegalArgumentException
+     *                if the length is invalid
+     */
+    protected static int getCompactLength(ByteBuffer source) {
+        long length = getVarint(source);
+        if (length < 0 || length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid length");
+        } else if (length > source.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        return (int) length;
+    }
+
+    /**
+     * Writes a <code>boolean</code> as a single byte.
+     *
+     * @param target
+     *            the target buffer
+     * @param value
+     *            the value
+     *
+     * @exception BufferOverflowException
+     *                if the target buffer has not enough space remaining
+     */
+    protected static void putBoolean(ByteBuffer target, boolean value) {
+        target.put(value ? (byte) 1 : (byte) 0);
+    }
+
+    /**
+     * Reads a <code>boolean</code> from a single byte.
+     *
+     * @param source
+     *            the source buffer
+     *
+     * @return the value
+     *
+     * @exception BufferUnderflowException
+     *                if the source buffer has no bytes remaining
+     */
+    protected static boolean getBoolean(ByteBuffer source) {
+        return source.get() == 1;
+    }
+
+    /**
+     * Reads a UTF-8 string of the specified number of bytes.
+     *
+     * @param source
+     *            the source buffer
+     * @param length
+     *            the number of bytes
+     *
+     * @return the value
+     *
+     * @exception BufferUnderflowException
+     *                if the source buffer has not enough bytes remaining
+     */
+    protected static String getString(ByteBuffer source, int length) {
+        if (source.remaining() < length) {
+            throw new BufferUnderflowException();
+        }
+        if (!source.hasArray()) {
+            return new String(getBytes(source, length),
+                    StandardCharsets.UTF_8);
+        }
+        int position = source.position();
+        source.position(position + length);
+        return new String(source.array(), source.arrayOffset() + position,
+                length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads a byte array of the specified number of bytes.
+     *
+     * @param source
+     *            the source buffer
+     * @param length
+     *            the number of bytes
+     *
+     * @return the value
+     *
+     * @exception BufferUnderflowException
+     *                if the source buffer has not enough bytes remaining
+     */
+    protected static byte[] getBytes(ByteBuffer source, int length) {
+        if (source.remaining() < length) {
+            throw new BufferUnderflowException();
+        }
+        byte[] value = new byte[length];
+        source.get(value);
+        return value;
+    }
+
+    /**
+     * Returns the encoded length of the specified size of a string, array or
+     * list. A size up to <code>Short.MAX_VALUE</code> is encoded as
+     * <code>short</code>, a larger size as <code>int</code> with the most
+     * significant bit set.
+     *
+     * @param size
+     *            the number of bytes or elements
+     *
+     * @return the encoded length of the size, either two or four bytes
+     */
+    protected static int sizeLength(int size) {
+        return (size <= Short.MAX_VALUE ? 2 : 4);
+    }
+
+    /**
+     * Writes the size of a string, array or list. A size up to
+     * <code>Short.MAX_VALUE</code> is written as <code>short</code>, which
+     * keeps the format of smaller values unchanged. A larger size is written
+     * as <code>int</code> with the most significant bit set, which a reader
+     * recognizes as a negative <code>short</code>.
+     *
+     * @param target
+     *            the target buffer
+     * @param size
+     *            the number of bytes or elements
+     *
+     * @exception BufferOverflowException
+     *                if the target buffer has not enough space remaining
+     */
+    protected static void putSize(ByteBuffer target, int size) {
+        if (size <= Short.MAX_VALUE) {
+            target.putShort((short) size);
+        } else {
+            target.putInt(size | Integer.MIN_VALUE);
+        }
+    }
+
+    /**
+     * Reads the size of a string, array or list, as written by
+     * <code>putSize</code>.
+     *
+     * @param source
+     *            the source buffer
+     *
+     * @return the number of bytes or elements
+     *
+     * @exception BufferUnderflowException
+     *                if the source buffer ends before the size
+     */
+    protected static int getSize(ByteBuffer source) {
+        int size = source.getShort();
+        if (size >= 0) {
+            return size;
+        }
+        return ((size & Short.MAX_VALUE) << 16) | (source.getShort() & 0xFFFF);
+    }
+
+    /**
+     * Returns the encoded length of the specified string, including its
+     * size.
+     *
+     * @param value
+     *            the string, or <code>null</code>
+     *
+     * @return the encoded length
+     */
+    protected static int encodedLength(String value) {
+        int length = utf8Length(value);
+        return sizeLength(length) + length;
+    }
+
+    /**
+     * Returns the encoded length of the specified byte array, including its
+     * size.
+     *
+     * @param value
+     *            the array, or <code>null</code>
+     *
+     * @return the encoded length
+     */
+    protected static int encodedLength(byte[] value) {
+        int length = length(value);
+        return sizeLength(length) + length;
+    }
+
+    /**
+     * Returns the encoded length of the specified <code>short</code> array,
+     * including its size.
+     *
+     * @param value
+     *            the array, or <code>null</code>
+     *
+     * @return the encoded length
+     */
+    protected static int encodedLength(short[] value) {
+        int length = (value == null ? 0 : value.length);
+        return sizeLength(length) + 2 * length;
+    }
+
+    /**
+     * Returns the encoded length of the specified <code>int</code> array,
+     * including its size.
+     *
+     * @param value
+     *            the array, or <code>null</code>
+     *
+     * @return the encoded length
+     */
+    protected static int encodedLength(int[] value) {
+        int length = (value == null ? 0 : value.length);
+        return sizeLength(length) + 4 * length;
+    }
+
+    /**
+     * Returns the encoded length of the specified <code>long</code> array,
+     * including its size.
+     *
+     * @param value
+     *            the array, or <code>null</code>
+     *
+     * @return the encoded length
+     */
+    protected static int encodedLength(long[] value) {
+        int length = (value == null ? 0 : value.length);
+        return sizeLength(length) + 8 * length;
+    }
+
+    /**
+     * Returns the encoded length of the specified <code>float</code> array,
+     * including its size.
+     *
+     * @param value
+     *            the array, or <code>null</code>
+     *
+     * @return the encoded length
+     */
+    protected static int encodedLength(float[] value) {
+        int length = (value == null ? 0 : value.length);
+        return sizeLength(length) + 4 * length;
+    }
+
+    /**
+     * Returns the encoded length of the specified <code>double</code> array,
+     * including its size.
+     *
+     * @param value
+     *            the array, or <code>null</code>
+     *
+     * @return the encoded length
+     */
+    protected static int encodedLength(double[] value) {
+        int length = (value == null ? 0 : value.length);
+        return sizeLength(length) + 8 * length;
+    }
+
+    /**
+     * Returns the encoded length of the specified <code>boolean</code> array,
+     * including its size.
+     *
+     * @param value
+     *            the array, or <code>null</code>
+     *
+     * @return the encoded length
+     */
+    protected static int encodedLength(boolean[] value) {
+        int length = (value == null ? 0 : value.length);
+        return sizeLength(length) + length;
+    }
+
+    /**
+     * Returns the encoded length of the specified string array, including its
+     * size.
+     *
+     * @param value
+     *            the string array, or <code>null</code>
+     *
+     * @return the encoded length
+     */
+    protected static int encodedLength(String[] value) {
+        int length = 0;
+        if (value != null) {
+            for (String element : value) {
+                length += encodedLength(element);
+            }
+        }
+        return sizeLength(value == null ? 0 : value.length) + length;
+    }
+
+    /**
+     * Returns the encoded length of the specified nested TCP protocol packet,
+     * including the byte indicating its presence.
+     *
+     * @param value
+     *            the TCP protocol packet, or <code>null</code>
+     *
+     * @return the encoded length
+     */
+    protected static int encodedLength(TCPProtocolPacket value) {
+        return 1 + (value == null ? 0 : of(value.getClass()).getLength(value));
+    }
+
+    /**
+     * Returns the encoded length of the specified list of nested TCP protocol
+     * packets, including its size.
+     *
+     * @param value
+     *            the list, or <code>null</code>
+     *
+     * @return the encoded length
+     */
+    protected static int encodedLength(
+            List<? extends TCPProtocolPacket> value) {
+        int length = 0;
+        if (value != null) {
+            for (TCPProtocolPacket element : value) {
+                length += encodedLength(element);
+            }
+        }
+        return sizeLength(value == null ? 0 : value.size()) + length;
+    }
+
+    /**
+     * Returns the encoded length of the specified chunk, including its
+     * stream, position and size.
+     *
+     * @param value
+     *            the chunk, or <code>null</code>
+     *
+     * @return the encoded length
+     */
+    protected static int encodedLength(TCPChunk value) {
+        int length = (value == null ? 0 : value.getLength());
+        return 13 + sizeLength(length) + length;
+    }
+
+    /**
+     * Writes a chunk as its stream, position, whether it is the last chunk,
+     * and its data preceded by its size.
+     *
+     * @param target
+     *            the target buffer
+     * @param value
+     *            the chunk, or <code>null</code> to write an empty one
+     *
+     * @exception BufferOverflowException
+     *                if the target buffer has not enough space remaining
+     */
+    protected static void putChunk(ByteBuffer target, TCPChunk value) {
+        TCPChunk chunk = (value == null ? TCPChunk.EMPTY : value);
+        if (target.remaining() < encodedLength(chunk)) {
+            throw new BufferOverflowException();
+        }
+        target.putInt(chunk.getStream());
+        target.putLong(chunk.getPosition());
+        putBoolean(target, chunk.isLast());
+        putSize(target, chunk.getLength());
+        target.put(chunk.getData(), 0, chunk.getLength());
+    }
+
+    /**
+     * Reads a chunk, as written by <code>putChunk</code>.
+     *
+     * @param source
+     *            the source buffer
+     *
+     * @return the chunk
+     *
+     * @exception BufferUnderflowException
+     *                if the source buffer ends before the chunk
+     * @exception IllegalArgumentException
+     *                if the position of the chunk is invalid
+     */
+    protected static TCPChunk getChunk(ByteBuffer source) {
+        int stream = source.getInt();
+        long position = source.getLong();
+        boolean last = getBoolean(source);
+        byte[] data = getBytes(source, getSize(source));
+        return new TCPChunk(stream, position, data, data.length, last);
+    }
+
+    /**
+     * Writes a chunk in the compact wire format, as its stream as zigzag
+     * encoded and its position as variable length integer, whether it is the
+     * last chunk, and its data preceded by its size as variable length
+     * integer.
+     *
+     * @param target
+     *            the target buffer
+     * @param value
+     *            the chunk, or <code>null</code> to write an empty one
+     *
+     * @exception BufferOverflowException
+     *                if the target buffer has not enough space remaining
+     */
+    protected static void putCompactChunk(ByteBuffer target, TCPChunk value) {
+        TCPChunk chunk = (value == null ? TCPChunk.EMPTY : value);
+        putZigZag(target, chunk.getStream());
+        putVarint(target, chunk.getPosition());
+        putBoolean(target, chunk.isLast());
+        putVarint(target, chunk.getLength());
+        target.put(chunk.getData(), 0, chunk.getLength());
+    }
+
+    /**
+     * Reads a chunk in the compact wire format, as written by
+     * <code>putCompactChunk</code>.
+     *
+     * @param source
+     *            the source buffer
+     *
+     * @return the chunk
+     *
+     * @exception BufferUnderflowException
+     *                if the source buffer ends before the chunk
+     * @exception IllegalArgumentException
+     *                if the source buffer contains an invalid variable length
+     *                integer, or the position of the chunk is invalid
+     */
+    protected static TCPChunk getCompactChunk(ByteBuffer source) {
+        int stream = (int) getZigZag(source);
+        long position = getVarint(source);
+        boolean last = getBoolean(source);
+        byte[] data = getBytes(source, getCompactLength(source));
+        return new TCPChunk(stream, position, data, data.length, last);
+    }
+
+    /**
+     * Writes a <code>short</code> array preceded by its number of elements.
+     * The elements are copied in bulk.
+     *
+     * @param target
+     *            the target buffer
+     * @param value
+     *            the array, or <code>null</code> to write an empty one
+     *
+     * @exception BufferOverflowException
+     *                if the target buffer has not enough space remaining
+     */
+    protected static void putShorts(ByteBuffer target, short[] value) {
+        int length = length(value);
+        putCount(target, length, 2);
+        if (length > 0) {
+            target.asShortBuffer().put(value);
+            target.position(target.position() + 2 * length);
+        }
+    }
+
+    /**
+     * Writes an <code>int</code> array preceded by its number of elements.
+     * The elements are copied in bulk.
+     *
+     * @param target
+     *            the target buffer
+     * @param value
+     *            the array, or <code>null</code> to write an empty one
+     *
+     * @exception BufferOverflowException
+     *                if the target buffer has not enough space remaining
+     */
+    protected static void putInts(ByteBuffer target, int[] value) {
+        int length = length(value);
+        putCount(target, length, 4);
+        if (length > 0) {
+            target.asIntBuffer().put(value);
+            target.position(target.position() + 4 * length);
+        }
+    }
+
+    /**
+     * Writes a <code>long</code> array preceded by its number of elements.
+     * The elements are copied in bulk.
+     *
+     * @param target
+     *            the target buffer
+     * @param value
+     *            the array, or <code>null</code> to write an empty one
+     *
+     * @exception BufferOverflowException
+     *                if the target buffer has not enough space remaining
+     */
+    protected static void putLongs(ByteBuffer target, long[] value) {
+        int length = length(value);
+        putCount(target, length, 8);
+        if (length > 0) {
+            target.asLongBuffer().put(value);
+            target.position(target.position() + 8 * length);
+        }
+    }
+
+    /**
+     * Writes a <code>float</code> array preceded by its number of elements.
+     * The elements are copied in bulk.
+     *
+     * @param target
+     *            the target buffer
+     * @param value
+     *            the array, or <code>null</code> to write an empty one
+     *
+     * @exception BufferOverflowException
+     *                if the target buffer has not enough space remaining
+     */
+    protected static void putFloats(ByteBuffer target, float[] value) {
+        int length = length(value);
+        putCount(target, length, 4);
+        putFloatElements(target, value);
+    }
+
+    /**
+     * Writes a <code>double</code> array preceded by its number of elements.
+     * The elements are copied in bulk.
+     *
+     * @param target
+     *            the target buffer
+     * @param value
+     *            the array, or <code>null</code> to write an empty one
+     *
+     * @exception BufferOverflowException
+     *                if the target buffer has not enough space remaining
+     */
+    protected static void putDoubles(ByteBuffer target, double[] value) {
+        int length = length(value);
+        putCount(target, length, 8);
+        putDoubleElements(target, value);
+    }
+
+    /**
+     * Writes a <code>boolean</code> array preceded by its number of elements,
+     * using a single byte per element.
+     *
+     * @param target
+     *            the target buffer
+     * @param value
+     *            the array, or <code>null</code> to write an empty one
+     *
+     * @exception BufferOverflowException
+     *                if the target buffer has not enough space remaining
+     */
+    protected static void putBooleans(ByteBuffer target, boolean[] value) {
+        int length = length(value);
+        putCount(target, length, 1);
+        for (int i = 0; i < length; i++) {
+            putBoolean(target, value[i]);
+        }
+    }
+
+    /**
+     * Writes a string array preceded by its number of elements, each element
+     * being a length prefixed UTF-8 string.
+     *
+     * @param target
+     *            the target buffer
+     * @param value
+     *            the string array, or <code>null</code> to write an empty
+     *            one
+     *
+     * @exception BufferOverflowException
+     *                if the target buffer has not enough space remaining
+     */
+    protected static void putStrings(ByteBuffer target, String[] value) {
+        int length = (value == null ? 0 : value.length);
+        putCount(target, length, 2);
+        for (int i = 0; i < length; i++) {
+            putString(target, value[i]);
+        }
+    }
+
+    /**
+     * Writes a nested TCP protocol packet preceded by a byte indicating its
+     * presence. The class of the TCP protocol packet should be the declared
+     * class of the field.
+     *
+     * @param target
+     *            the target buffer
+     * @param value
+     *            the TCP protocol packet, or <code>null</code>
+     *
+     * @exception BufferOverflowException
+     *                if the target buffer has not enough space remaining
+     */
+    protected static void putPacket(ByteBuffer target,
+            TCPProtocolPacket value) {
+        putBoolean(target, value != null);
+        if (value != null) {
+            of(value.getClass()).write(value, target);
+        }
+    }
+
+    /**
+     * Writes a list of nested TCP protocol packets preceded by its number of
+     * elements.
+     *
+     * @param target
+     *            the target buffer
+     * @param value
+     *            the list, or <code>null</code> to write an empty one
+     *
+     * @exception BufferOverflowException
+     *                if the target buffer has not enough space remaining
+     */
+    protected static void putPackets(ByteBuffer target,
+            List<? extends TCPProtocolPacket> value) {
+        int length = (value == null ? 0 : value.size());
+        putCount(target, length, 1);
+        for (int i = 0; i < length; i++) {
+            putPacket(target, value.get(i));
+        }
+    }
+
+    /**
+     * Reads a <code>short</code> array of the specified number of elements.
+     *
+     * @param source
+     *            the source buffer
+     * @param length
+     *            the number of elements
+     *
+     * @return the value
+     *
+     * @exception BufferUnderflowException
+     *                if the source buffer has not enough bytes remaining
+     */
+    protected static short[] getShorts(ByteBuffer source, int length) {
+        checkRemaining(source, length, 2);
+        short[] value = new short[length];
+        source.asShortBuffer().get(value);
+        source.position(source.position() + 2 * length);
+        return value;
+    }
+
+    /**
+     * Reads an <code>int</code> array of the specified number of elements.
+     *
+     * @param source
+     *            the source buffer
+     * @param length
+     *            the number of elements
+     *
+     * @return the value
+     *
+     * @exception BufferUnderflowException
+     *                if the source buffer has not enough bytes remaining
+     */
+    protected static int[] getInts(ByteBuffer source, int length) {
+        checkRemaining(source, length, 4);
+        int[] value = new int[length];
+        source.asIntBuffer().get(value);
+        source.position(source.position() + 4 * length);
+        return value;
+    }
+
+    /**
+     * Reads a <code>long</code> array of the specified number of elements.
+     *
+     * @param source
+     *            the source buffer
+     * @param length
+     *            the number of elements
+     *
+     * @return the value
+     *
+     * @exception BufferUnderflowException
+     *                if the source buffer has not enough bytes remaining
+     */
+    protected static long[] getLongs(ByteBuffer source, int length) {
+        checkRemaining(source, length, 8);
+        long[] value = new long[length];
+        source.asLongBuffer().get(value);
+        source.position(source.position() + 8 * length);
+        return value;
+    }
+
+    /**
+     * Reads a <code>float</code> array of the specified number of elements.
+     *
+     * @param source
+     *            the source buffer
+     * @param length
+     *            the number of elements
+     *
+     * @return the value
+     *
+     * @exception BufferUnderflowException
+     *                if the source buffer has not enough bytes remaining
+     */
+    protected static float[] getFloats(ByteBuffer source, int length) {
+        checkRemaining(source, length, 4);
+        float[] value = new float[length];
+        source.asFloatBuffer().get(value);
+        source.position(source.position() + 4 * length);
+        return value;
+    }
+
+    /**
+     * Reads a <code>double</code> array of the specified number of elements.
+     *
+     * @param source
+     *            the source buffer
+     * @param length
+     *            the number of elements
+     *
+     * @return the value
+     *
+     * @exception BufferUnderflowException
+     *                if the source buffer has not enough bytes remaining
+     */
+    protected static double[] getDoubles(ByteBuffer source, int length) {
+        checkRemaining(source, length, 8);
+        double[] value = new double[length];
+        source.asDoubleBuffer().get(value);
+        source.position(source.position() + 8 * length);
+        return value;
+    }
+
+    /**
+     * Reads a <code>boolean</code> array of the specified number of elements,
+     * using a single byte per element.
+     *
+     * @param source
+     *            the source buffer
+     * @param length
+     *            the number of elements
+     *
+     * @return the value
+     *
+     * @exception BufferUnderflowException
+     *                if the source buffer has not enough bytes remaining
+     */
+    protected static boolean[] getBooleans(ByteBuffer source, int length) {
+        checkRemaining(source, length, 1);
+        boolean[] value = new boolean[length];
+        for (int i = 0; i < length; i++) {
+            value[i] = getBoolean(source);
+        }
+        return value;
+    }
+
+    /**
+     * Reads a string array of the specified number of elements, each element
+     * being a length prefixed UTF-8 string.
+     *
+     * @param source
+     *            the source buffer
+     * @param length
+     *            the number of elements
+     *
+     * @return the value
+     *
+     * @exception BufferUnderflowException
+     *                if the source buffer has not enough bytes remaining
+     */
+    protected static String[] getStrings(ByteBuffer source, int length) {
+        checkRemaining(source, length, 2);
+        String[] value = new String[length];
+        for (int i = 0; i < length; i++) {
+            value[i] = getString(source, getSize(source));
+        }
+        return value;
+    }
+
+    /**
+     * Reads a nested TCP protocol packet of the specified class, preceded by
+     * a byte indicating its presence.
+     *
+     * @param <P>
+     *            the TCP protocol packet type
+     * @param source
+     *            the source buffer
+     * @param type
+     *            the TCP protocol packet class
+     *
+     * @return the TCP protocol packet, or <code>null</code> if absent
+     *
+     * @exception BufferUnderflowException
+     *                if the source buffer ends before the TCP protocol packet
+     * @exception IllegalArgumentException
+     *                if the TCP protocol packet is invalid
+     */
+    protected static <P extends TCPProtocolPacket> P getPacket(
+            ByteBuffer source, Class<P> type) {
+        return getPacket(source, type, TCPWireFormat.FIXED);
+    }
+
+    /**
+     * Reads a list of nested TCP protocol packets of the specified class and
+     * number of elements.
+     *
+     * @param <P>
+     *            the TCP protocol packet type
+     * @param source
+     *            the source buffer
+     * @param length
+     *            the number of elements
+     * @param type
+     *            the TCP protocol packet class
+     *
+     * @return the list
+     *
+     * @exception BufferUnderflowException
+     *                if the source buffer ends before the list
+     * @exception IllegalArgumentException
+     *                if any of the TCP protocol packets is invalid
+     */
+    protected static <P extends TCPProtocolPacket> List<P> getPackets(
+            ByteBuffer source, int length, Class<P> type) {
+        return getPackets(source, length, type, TCPWireFormat.FIXED);
+    }
+
+    /**
+     * Writes a <code>short</code> array preceded by its number of elements
+     * as variable length integer, and the elements as zigzag encoded variable
+     * length integers, for the compact wire format.
+     *
+     * @param target
+     *            the target buffer
+     * @param value
+     *            the array, or <code>null</code> to write an empty one
+     *
+     * @exception BufferOverflowException
+     *                if the target buffer has not enough space remaining
+     */
+    protected static void putCompactShorts(ByteBuffer target, short[] value) {
+        int length = length(value);
+        putVarint(target, length);
+        for (int i = 0; i < length; i++) {
+            putZigZag(target, value[i]);
+        }
+    }
+
+    /**
+     * Writes an <code>int</code> array preceded by its number of elements as
+     * variable length integer, and the elements as zigzag encoded variable
+     * length integers, for the compact wire format.
+     *
+     * @param target
+     *            the target buffer
+     * @param value
+     *            the array, or <code>null</code> to write an empty one
+     *
+     * @exception BufferOverflowException
+     *                if the target buffer has not enough space remaining
+     */
+    protected static void putCompactInts(ByteBuffer target, int[] value) {
+        int length = length(value);
+        putVarint(target, length);
+        for (int i = 0; i < length; i++) {
+            putZigZag(target, value[i]);
+        }
+    }
+
+    /**
+     * Writes a <code>long</code> array preceded by its number of elements as
+     * variable length integer, and the elements as zigzag encoded variable
+     * length integers, for the compact wire format.
+     *
+     * @param target
+     *            the target buffer
+     * @param value
+     *            the array, or <code>null</code> to write an empty one
+     *
+     * @exception BufferOverflowException
+     *                if the target buffer has not enough space remaining
+     */
+    protected static void putCompactLongs(ByteBuffer target, long[] value) {
+        int length = length(value);
+        putVarint(target, length);
+        for (int i = 0; i < length; i++) {
+            putZigZag(target, value[i]);
+        }
+    }
+
+    /**
+     * Writes a <code>float</code> array preceded by its number of elements as
+     * variable length integer, for the compact wire format. The elements are
+     * copied in bulk.
+     *
+     * @param target
+     *            the target buffer
+     * @param value
+     *            the array, or <code>null</code> to write an empty one
+     *
+     * @exception BufferOverflowException
+     *                if the target buffer has not enough space remaining
+     */
+    protected static void putCompactFloats(ByteBuffer target, float[] value) {
+        putVarint(target, length(value));
+        putFloatElements(target, value);
+    }
+
+    /**
+     * Writes a <code>double</code> array preceded by its number of elements
+     * as variable length integer, for the compact wire format. The elements
+     * are copied in bulk.
+     *
+     * @param target
+     *            the target buffer
+     * @param value
+     *            the array, or <code>null</code> to write an empty one
+     *
+     * @exception BufferOverflowException
+     *                if the target buffer has not enough space remaining
+     */
+    protected static void putCompactDoubles(ByteBuffer target,
+            double[] value) {
+        putVarint(target, length(value));
+        putDoubleElements(target, value);
+    }
+
+    /**
+     * Writes a <code>boolean</code> array preceded by its number of elements
+     * as variable length integer, and the elements packed into bits, for the
+     * compact wire format.
+     *
+     * @param target
+     *            the target buffer
+     * @param value
+     *            the array, or <code>null</code> to write an empty one
+     *
+     * @exception BufferOverflowException
+     *                if the target buffer has not enough space remaining
+     */
+    protected static void putCompactBooleans(ByteBuffer target,
+            boolean[] value) {
+        int length = length(value);
+        putVarint(target, length);
+        for (int i = 0; i < length; i += 8) {
+            int bits = 0;
+            for (int j = i; j < Math.min(i + 8, length); j++) {
+                if (value[j]) {
+                    bits |= 1 << (j - i);
+                }
+            }
+            target.put((byte) bits);
+        }
+    }
+
+    /**
+     * Writes a string array preceded by its number of elements as variable
+     * length integer, for the compact wire format.
+     *
+     * @param target
+     *            the target buffer
+     * @param value
+     *            the string array, or <code>null</code> to write an empty
+     *            one
+     *
+     * @exception BufferOverflowException
+     *                if the target buffer has not enough space remaining
+     */
+    protected static void putCompactStrings(ByteBuffer target,
+            String[] value) {
+        int length = (value == null ? 0 : value.length);
+        putVarint(target, length);
+        for (int i = 0; i < length; i++) {
+            putCompactString(target, value[i]);
+        }
+    }
+
+    /**
+     * Writes a nested TCP protocol packet in the compact wire format,
+     * preceded by a byte indicating its presence.
+     *
+     * @param target
+     *            the target buffer
+     * @param value
+     *            the TCP protocol packet, or <code>null</code>
+     *
+     * @exception BufferOverflowException
+     *                if the target buffer has not enough space remaining
+     */
+    protected static void putCompactPacket(ByteBuffer target,
+            TCPProtocolPacket value) {
+        putBoolean(target, value != null);
+        if (value != null) {
+            of(value.getClass()).writeCompact(value, target);
+        }
+    }
+
+    /**
+     * Writes a list of nested TCP protocol packets in the compact wire format,
+     * preceded by its number of elements as variable length integer.
+     *
+     * @param target
+     *            the target buffer
+     * @param value
+     *            the list, or <code>null</code> to write an empty one
+     *
+     * @exception BufferOverflowException
+     *                if the target buffer has not enough space remaining
+     */
+    protected static void putCompactPackets(ByteBuffer target,
+            List<? extends TCPProtocolPacket> value) {
+        int length = (value == null ? 0 : value.size());
+        putVarint(target, length);
+        for (int i = 0; i < length; i++) {
+            putCompactPacket(target, value.get(i));
+        }
+    }
+
+    /**
+     * Reads a <code>short</code> array in the compact wire format.
+     *
+     * @param source
+     *            the source buffer
+     *
+     * @return the value
+     *
+     * @exception BufferUnderflowException
+     *                if the source buffer ends before the array
+     * @exception IllegalArgumentException
+     *                if the source buffer contains an invalid variable length
+     *                integer
+     */
+    protected static short[] getCompactShorts(ByteBuffer source) {
+        short[] value = new short[getCompactLength(source)];
+        for (int i = 0; i < value.length; i++) {
+            value[i] = (short) getZigZag(source);
+        }
+        return value;
+    }
+
+    /**
+     * Reads an <code>int</code> array in the compact wire format.
+     *
+     * @param source
+     *            the source buffer
+     *
+     * @return the value
+     *
+     * @exception BufferUnderflowException
+     *                if the source buffer ends before the array
+     * @exception IllegalArgumentException
+     *                if the source buffer contains an invalid variable length
+     *                integer
+     */
+    protected static int[] getCompactInts(ByteBuffer source) {
+        int[] value = new int[getCompactLength(source)];
+        for (int i = 0; i < value.length; i++) {
+            value[i] = (int) getZigZag(source);
+        }
+        return value;
+    }
+
+    /**
+     * Reads a <code>long</code> array in the compact wire format.
+     *
+     * @param source
+     *            the source buffer
+     *
+     * @return the value
+     *
+     * @exception BufferUnderflowException
+     *                if the source buffer ends before the array
+     * @exception IllegalArgumentException
+     *                if the source buffer contains an invalid variable length
+     *                integer
+     */
+    protected static long[] getCompactLongs(ByteBuffer source) {
+        long[] value = new long[getCompactLength(source)];
+        for (int i = 0; i < value.length; i++) {
+            value[i] = getZigZag(source);
+        }
+        return value;
+    }
+
+    /**
+     * Reads a <code>float</code> array in the compact wire format.
+     *
+     * @param source
+     *            the source buffer
+     *
+     * @return the value
+     *
+     * @exception BufferUnderflowException
+     *                if the source buffer ends before the array
+     * @exception IllegalArgumentException
+     *                if the source buffer contains an invalid variable length
+     *                integer
+     */
+    protected static float[] getCompactFloats(ByteBuffer source) {
+        return getFloats(source, getCompactLength(source));
+    }
+
+    /**
+     * Reads a <code>double</code> array in the compact wire format.
+     *
+     * @param source
+     *            the source buffer
+     *
+     * @return the value
+     *
+     * @exception BufferUnderflowException
+     *                if the source buffer ends before the array
+     * @exception IllegalArgumentException
+     *                if the source buffer contains an invalid variable length
+     *                integer
+     */
+    protected static double[] getCompactDoubles(ByteBuffer source) {
+        return getDoubles(source, getCompactLength(source));
+    }
+
+    /**
+     * Reads a <code>boolean</code> array in the compact wire format.
+     *
+     * @param source
+     *            the source buffer
+     *
+     * @return the value
+     *
+     * @exception BufferUnderflowException
+     *                if the source buffer ends before the array
+     * @exception IllegalArgumentException
+     *                if the source buffer contains an invalid variable length
+     *                integer
+     */
+    protected static boolean[] getCompactBooleans(ByteBuffer source) {
+        long length = getVarint(source);
+        if (length < 0 || length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid length");
+        } else if ((length + 7) / 8 > source.remaining()) {
+            throw new BufferUnderflowException();
+        }
+
+        boolean[] value = new boolean[(int) length];
+        int bits = 0;
+        for (int i = 0; i < value.length; i++) {
+            if (i % 8 == 0) {
+                bits = source.get();
+            }
+            value[i] = (bits & (1 << (i % 8))) != 0;
+        }
+        return value;
+    }
+
+    /**
+     * Reads a string array in the compact wire format.
+     *
+     * @param source
+     *            the source buffer
+     *
+     * @return the value
+     *
+     * @exception BufferUnderflowException
+     *                if the source buffer ends before the array
+     * @exception IllegalArgumentException
+     *                if the source buffer contains an invalid variable length
+     *                integer
+     */
+    protected static String[] getCompactStrings(ByteBuffer source) {
+        String[] value = new String[getCompactLength(source)];
+        for (int i = 0; i < value.length; i++) {
+            value[i] = getString(source, getCompactLength(source));
+        }
+        return value;
+    }
+
+    /**
+     * Reads a nested TCP protocol packet of the specified class in the
+     * compact wire format, preceded by a byte indicating its presence.
+     *
+     * @param <P>
+     *            the TCP protocol packet type
+     * @param source
+     *            the source buffer
+     * @param type
+     *            the TCP protocol packet class
+     *
+     * @return the TCP protocol packet, or <code>null</code> if absent
+     *
+     * @exception BufferUnderflowException
+     *                if the source buffer ends before the TCP protocol packet
+     * @exception IllegalArgumentException
+     *                if the TCP protocol packet is invalid
+     */
+    protected static <P extends TCPProtocolPacket> P getCompactPacket(
+            ByteBuffer source, Class<P> type) {
+        return getPacket(source, type, TCPWireFormat.COMPACT);
+    }
+
+    /**
+     * Reads a list of nested TCP protocol packets of the specified class in
+     * the compact wire format.
+     *
+     * @param <P>
+     *            the TCP protocol packet type
+     * @param source
+     *            the source buffer
+     * @param type
+     *            the TCP protocol packet class
+     *
+     * @return the list
+     *
+     * @exception BufferUnderflowException
+     *                if the source buffer ends before the list
+     * @exception IllegalArgumentException
+     *                if any of the TCP protocol packets is invalid
+     */
+    protected static <P extends TCPProtocolPacket> List<P> getCompactPackets(
+            ByteBuffer source, Class<P> type) {
+        return getPackets(source, getCompactLength(source), type,
+                TCPWireFormat.COMPACT);
+    }
+
+    /**
+     * Reads a nested TCP protocol packet of the specified class in the
+     * specified wire format, preceded by a byte indicating its presence.
+     *
+     * @param <P>
+     *            the TCP protocol packet type
+     * @param source
+     *            the source buffer
+     * @param type
+     *            the TCP protocol packet class
+     * @param format
+     *            the wire format
+     *
+     * @return the TCP protocol packet, or <code>null</code> if absent
+     *
+     * @exception BufferUnderflowException
+     *                if the source buffer ends before the TCP protocol packet
+     * @exception IllegalArgumentException
+     *                if the TCP protocol packet is invalid
+     */
+    private static <P extends TCPProtocolPacket> P getPacket(
+            ByteBuffer source, Class<P> type, TCPWireFormat format) {
+        if (!getBoolean(source)) {
+            return null;
+        }
+
+        TCPPacketCodec<TCPProtocolPacket> codec = of(type);
+        TCPProtocolPacket packet = codec.newPacket();
+        if (packet == null || !(format == TCPWireFormat.FIXED
+                ? codec.read(source, packet)
+                : codec.readCompact(source, packet))) {
+            throw new IllegalArgumentException("Invalid packet");
+        }
+        return type.cast(packet);
+    }
+
+    /**
+     * Reads a list of nested TCP protocol packets of the specified class and
+     * number of elements in the specified wire format.
+     *
+     * @param <P>
+     *            the TCP protocol packet type
+     * @param source
+     *            the source buffer
+     * @param length
+     *            the number of elements
+     * @param type
+     *            the TCP protocol packet class
+     * @param format
+     *            the wire format
+     *
+     * @return the list
+     *
+     * @exception BufferUnderflowException
+     *                if the source buffer ends before the list
+     * @exception IllegalArgumentException
+     *                if any of the TCP protocol packets is invalid
+     */
+    private static <P extends TCPProtocolPacket> List<P> getPackets(
+            ByteBuffer source, int length, Class<P> type,
+            TCPWireFormat format) {
+        checkRemaining(source, length, 1);
+        List<P> value = new ArrayList<P>(length);
+        for (int i = 0; i < length; i++) {
+            value.add(getPacket(source, type, format));
+        }
+        return value;
+    }
+
+    /**
+     * Writes the number of elements of an array, after verifying that the
+     * target buffer has enough space remaining for the whole array.
+     *
+     * @param target
+     *            the target buffer
+     * @param length
+     *            the number of elements
+     * @param size
+     *            the minimum encoded size of an element
+     *
+     * @exception BufferOverflowException
+     *                if the target buffer has not enough space remaining
+     */
+    private static void putCount(ByteBuffer target, int length, int size) {
+        if (target.remaining() < sizeLength(length) + (long) size * length) {
+            throw new BufferOverflowException();
+        }
+        putSize(target, length);
+    }
+
+    /**
+     * Writes the elements of a <code>float</code> array in bulk.
+     *
+     * @param target
+     *            the target buffer
+     * @param value
+     *            the array, or <code>null</code> to write nothing
+     *
+     * @exception BufferOverflowException
+     *                if the target buffer has not enough space remaining
+     */
+    private static void putFloatElements(ByteBuffer target, float[] value) {
+        int length = length(value);
+        if (length > 0) {
+            target.asFloatBuffer().put(value);
+            target.position(target.position() + 4 * length);
+        }
+    }
+
+    /**
+     * Writes the elements of a <code>double</code> array in bulk.
+     *
+     * @param target
+     *            the target buffer
+     * @param value
+     *            the array, or <code>null</code> to write nothing
+     *
+     * @exception BufferOverflowException
+     *                if the target buffer has not enough space remaining
+     */
+    private static void putDoubleElements(ByteBuffer target,
+            double[] value) {
+        int length = length(value);
+        if (length > 0) {
+            target.asDoubleBuffer().put(value);
+            target.position(target.position() + 8 * length);
+        }
+    }
+
+    /**
+     * Verifies that the source buffer has enough bytes remaining for the
+     * specified number of elements.
+     *
+     * @param source
+     *            the source buffer
+     * @param length
+     *            the number of elements
+     * @param size
+     *            the minimum encoded size of an element
+     *
+     * @exception BufferUnderflowException
+     *                if the source buffer has not enough bytes remaining
+     */
+    private static void checkRemaining(ByteBuffer source, int length,
+            int size) {
+        if (source.remaining() < (long) size * length) {
+            throw new BufferUnderflowException();
+        }
+    }
+
+    /**
+     * Returns the number of elements of the specified array.
+     *
+     * @param value
+     *            the array, or <code>null</code>
+     *
+     * @return the number of elements, or zero if the array is
+     *         <code>null</code>
+     */
+    private static int length(short[] value) {
+        return (value == null ? 0 : value.length);
+    }
+
+    /**
+     * Returns the number of elements of the specified array.
+     *
+     * @param value
+     *            the array, or <code>null</code>
+     *
+     * @return the number of elements, or zero if the array is
+     *         <code>null</code>
+     */
+    private static int length(int[] value) {
+        return (value == null ? 0 : value.length);
+    }
+
+    /**
+     * Returns the number of elements of the specified array.
+     *
+     * @param value
+     *            the array, or <code>null</code>
+     *
+     * @return the number of elements, or zero if the array is
+     *         <code>null</code>
+     */
+    private static int length(long[] value) {
+        return (value == null ? 0 : value.length);
+    }
+
+    /**
+     * Returns the number of elements of the specified array.
+     *
+     * @param value
+     *            the array, or <code>null</code>
+     *
+     * @return the number of elements, or zero if the array is
+     *         <code>null</code>
+     */
+    private static int length(float[] value) {
+        return (value == null ? 0 : value.length);
+    }
+
+    /**
+     * Returns the number of elements of the specified array.
+     *
+     * @param value
+     *            the array, or <code>null</code>
+     *
+     * @return the number of elements, or zero if the array is
+     *         <code>null</code>
+     */
+    private static int length(double[] value) {
+        return (value == null ? 0 : value.length);
+    }
+
+    /**
+     * Returns the number of elements of the specified array.
+     *
+     * @param value
+     *            the array, or <code>null</code>
+     *
+     * @return the number of elements, or zero if the array is
+     *         <code>null</code>
+     */
+    private static int length(boolean[] value) {
+        return (value == null ? 0 : value.length);
+    }
+}
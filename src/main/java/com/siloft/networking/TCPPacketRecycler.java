@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.siloft.networking;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A recycler of decoded TCP protocol packets of a single class, to prevent
+ * allocating a new TCP protocol packet for every decoded packet.
+ * <p>
+ * Set a recycler on a TCP protocol to decode the TCP protocol packets of its
+ * class into recycled instances. TCP servers and clients release every
+ * decoded TCP protocol packet once all packet listeners return. A listener
+ * keeping a TCP protocol packet should <code>retain</code> it, which prevents
+ * the TCP protocol packet from being recycled.
+ * <p>
+ * Every thread keeps its own cache of TCP protocol packets, therefore threads
+ * decoding and releasing TCP protocol packets do not contend with each other.
+ *
+ * @param <T>
+ *            the TCP protocol packet class
+ *
+ * @author Sander Veldhuis
+ */
+public final class TCPPacketRecycler<T extends TCPProtocolPacket> {
+
+    /** The TCP protocol packet class. */
+    private final Class<T> type;
+
+    /** The codec of the TCP protocol packet class. */
+    private final TCPPacketCodec<TCPProtocolPacket> codec;
+
+    /** The maximum number of TCP protocol packets cached by a thread. */
+    private final int capacity;
+
+    /** The caches of the threads. */
+    private final ThreadLocal<ThreadCache> threadCaches;
+
+    /** The number of TCP protocol packets allocated by this recycler. */
+    private final AtomicLong allocations = new AtomicLong();
+
+    /**
+     * Constructs a new recycler of TCP protocol packets of the specified
+     * class.
+     *
+     * @param type
+     *            the TCP protocol packet class
+     * @param capacity
+     *            the maximum number of TCP protocol packets cached by a
+     *            thread
+     *
+     * @exception NullPointerException
+     *                if the TCP protocol packet class is <code>null</code>
+     * @exception IllegalArgumentException
+     *                if the capacity is invalid, or any of the fields of the
+     *                TCP protocol packet class is not valid
+     */
+    public TCPPacketRecycler(Class<T> type, int capacity) {
+        if (type == null) {
+            throw new NullPointerException("Packet class is null");
+        } else if (capacity < 1) {
+            throw new IllegalArgumentException("Invalid capacity");
+        }
+
+        this.type = type;
+        this.codec = TCPPacketCodec.of(type);
+        this.capacity = capacity;
+        threadCaches = ThreadLocal.withInitial(() -> new ThreadCache());
+    }
+
+    /**
+     * Returns the TCP protocol packet class of this recycler.
+     *
+     * @return the TCP protocol packet class
+     */
+    public Class<T> getPacketClass() {
+        return type;
+    }
+
+    /**
+     * Returns the number of TCP protocol packets allocated by this recycler.
+     * TCP protocol packets taken from a cache are not counted.
+     *
+     * @return the number of allocations
+     */
+    public long getAllocationCount() {
+        return allocations.get();
+    }
+
+    /**
+     * Acquires a TCP protocol packet, which is either recycled or new. The
+     * fields of a recycled TCP protocol packet still hold their previous
+     * values.
+     *
+     * @return the TCP protocol packet, or <code>null</code> if the class
+     *         cannot be constructed
+     */
+    public T acquire() {
+        TCPProtocolPacket packet = threadCaches.get().poll();
+        if (packet == null) {
+            allocations.incrementAndGet();
+            packet = codec.newPacket();
+        }
+        return type.cast(packet);
+    }
+
+    /**
+     * Releases the specified TCP protocol packet to this recycler. The TCP
+     * protocol packet should not be used after it is released. A retained TCP
+     * protocol packet is ignored, as is a TCP protocol packet of another
+     * class, or any TCP protocol packet once the cache of the current thread
+     * is full.
+     *
+     * @param packet
+     *            the TCP protocol packet, or <code>null</code>
+     */
+    public void release(T packet) {
+        if (packet != null && packet.getClass() == type
+                && !packet.isRetained()) {
+            threadCaches.get().offer(packet);
+        }
+    }
+
+    /**
+     * The TCP protocol packets cached by a single thread.
+     */
+    private final class ThreadCache {
+
+        /** The cached TCP protocol packets. */
+        private final TCPProtocolPacket[] packets =
+                new TCPProtocolPacket[capacity];
+
+        /** The number of cached TCP protocol packets. */
+        private int count;
+
+        /**
+         * Removes a cached TCP protocol packet.
+         *
+         * @return the TCP protocol packet, or <code>null</code> if none is
+         *         cached
+         */
+        TCPProtocolPacket poll() {
+            if (count == 0) {
+                return null;
+            }
+            TCPProtocolPacket packet = packets[--count];
+            packets[count] = null;
+            return packet;
+        }
+
+        /**
+         * Caches the specified TCP protocol packet.
+         *
+         * @param packet
+         *            the TCP protocol packet
+         */
+        void offer(TCPProtocolPacket packet) {
+            if (count < capacity) {
+                packets[count++] = packet;
+            }
+        }
+    }
+}
@@ -0,0 +1,642 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.siloft.networking;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class reads the fields of received TCP protocol packets in place,
+ * without decoding them. A view is reused for every TCP protocol packet of a
+ * TCP packet, and reading the op code or any field does not allocate, which
+ * suits routing and filtering on a few fields.
+ * <p>
+ * Upon moving to a TCP protocol packet the view skips its fields once, which
+ * validates the data the same way as <code>TCPProtocol.decode</code> and
+ * stores the position of every field. Fields are identified by their index in
+ * declaration order, excluding the op code field, as returned by
+ * <code>indexOf</code>. Strings are returned as char sequences over the
+ * received data, which are only decoded when they contain other characters
+ * than ASCII. Use <code>decode</code> to decode the TCP protocol packet after
+ * all.
+ * <p>
+ * The data and the returned char sequences are only valid until the view is
+ * moved to the next TCP protocol packet, and as long as the data is not
+ * modified. A view is not thread-safe.
+ *
+ * @author Sander Veldhuis
+ */
+public final class TCPPacketView {
+
+    /** The TCP protocol of the TCP protocol packets. */
+    private final TCPProtocol protocol;
+
+    /** The buffer over the data, or <code>null</code> if none. */
+    private ByteBuffer source;
+
+    /** The codec of the current TCP protocol packet. */
+    private TCPPacketCodec<TCPProtocolPacket> codec;
+
+    /** The field layout of the current TCP protocol packet, if any. */
+    private TCPProtocolCodec layout;
+
+    /** The position of the current TCP protocol packet. */
+    private int start;
+
+    /** The position following the current TCP protocol packet. */
+    private int end;
+
+    /** The positions of the fields of the current TCP protocol packet. */
+    private int[] offsets = new int[0];
+
+    /** The char sequences of the string fields, indexed by field. */
+    private Utf8Sequence[] strings = new Utf8Sequence[0];
+
+    /**
+     * Constructs a new view of the TCP protocol packets of the specified TCP
+     * protocol.
+     *
+     * @param protocol
+     *            the TCP protocol
+     *
+     * @exception NullPointerException
+     *                if the TCP protocol is <code>null</code>
+     */
+    public TCPPacketView(TCPProtocol protocol) {
+        if (protocol == null) {
+            throw new NullPointerException("Protocol is null");
+        }
+        this.protocol = protocol;
+    }
+
+    /**
+     * Wraps the data of the specified TCP packet. Use <code>next</code> to
+     * move to its first TCP protocol packet.
+     *
+     * @param packet
+     *            the TCP packet, or <code>null</code> for no data
+     */
+    public void wrap(TCPPacket packet) {
+        if (packet == null) {
+            source = null;
+            layout = null;
+        } else {
+            wrap(packet.getData(), 0, packet.getLength());
+        }
+    }
+
+    /**
+     * Wraps the specified data. Use <code>next</code> to move to its first
+     * TCP protocol packet. Wrapping the same array again does not allocate.
+     *
+     * @param data
+     *            the data
+     * @param offset
+     *            the offset of the first TCP protocol packet
+     * @param length
+     *            the number of bytes from the offset
+     *
+     * @exception NullPointerException
+     *                if the data is <code>null</code>
+     * @exception IllegalArgumentException
+     *                if the offset or length is not valid
+     */
+    public void wrap(byte[] data, int offset, int length) {
+        if (data == null) {
+            throw new NullPointerException("Data is null");
+        } else if (offset < 0 || offset > data.length) {
+            throw new IllegalArgumentException("Invalid offset");
+        } else if (length < 0 || length > data.length - offset) {
+            throw new IllegalArgumentException("Invalid length");
+        }
+
+        if (source == null || source.array() != data) {
+            source = ByteBuffer.wrap(data);
+        }
+        source.clear();
+        source.limit(offset + length);
+        start = offset;
+        end = offset;
+        layout = null;
+    }
+
+    /**
+     * Moves to the next TCP protocol packet of the wrapped data. Once the
+     * data ends, or contains a TCP protocol packet which is not supported or
+     * not valid, there is no next TCP protocol packet anymore.
+     *
+     * @return <code>true</code> if the view moved to the next TCP protocol
+     *         packet, <code>false</code> otherwise
+     */
+    public boolean next() {
+        layout = null;
+        if (source == null || source.limit() - end < 2) {
+            return false;
+        }
+
+        codec = protocol.codecOf(source.getShort(end));
+        if (codec == null) {
+            end = source.limit();
+            return false;
+        }
+
+        TCPProtocolCodec next = TCPProtocolCodec.layoutOf(
+                codec.getPacketClass());
+        if (offsets.length < next.getFieldCount()) {
+            offsets = new int[next.getFieldCount()];
+            strings = new Utf8Sequence[offsets.length];
+        }
+        source.position(end);
+        try {
+            if (!next.skip(source, protocol.getWireFormat(), offsets)) {
+                end = source.limit();
+                return false;
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            end = source.limit();
+            return false;
+        }
+
+        start = end;
+        end = source.position();
+        layout = next;
+        return true;
+    }
+
+    /**
+     * Returns the op code of the current TCP protocol packet.
+     *
+     * @return the op code
+     *
+     * @exception IllegalStateException
+     *                if there is no current TCP protocol packet
+     */
+    public short getOpCode() {
+        checkPacket();
+        return source.getShort(start);
+    }
+
+    /**
+     * Returns the class of the current TCP protocol packet.
+     *
+     * @return the TCP protocol packet class
+     *
+     * @exception IllegalStateException
+     *                if there is no current TCP protocol packet
+     */
+    public Class<? extends TCPProtocolPacket> getPacketClass() {
+        checkPacket();
+        return codec.getPacketClass();
+    }
+
+    /**
+     * Returns the encoded length of the current TCP protocol packet.
+     *
+     * @return the encoded length
+     *
+     * @exception IllegalStateException
+     *                if there is no current TCP protocol packet
+     */
+    public int getLength() {
+        checkPacket();
+        return end - start;
+    }
+
+    /**
+     * Returns the index of the field with the specified name of the current
+     * TCP protocol packet, excluding the op code field.
+     *
+     * @param name
+     *            the field name
+     *
+     * @return the index, or <code>-1</code> if there is no such field
+     *
+     * @exception IllegalStateException
+     *                if there is no current TCP protocol packet
+     */
+    public int indexOf(String name) {
+        checkPacket();
+        return layout.indexOf(name);
+    }
+
+    /**
+     * Returns the value of the specified <code>byte</code> field.
+     *
+     * @param field
+     *            the index of the field
+     *
+     * @return the value
+     *
+     * @exception IllegalStateException
+     *                if there is no current TCP protocol packet
+     * @exception IllegalArgumentException
+     *                if the field is not a <code>byte</code> field
+     */
+    public byte getByte(int field) {
+        return source.get(offsetOf(field, TCPProtocolCodec.BYTE_KIND));
+    }
+
+    /**
+     * Returns the value of the specified <code>short</code> field.
+     *
+     * @param field
+     *            the index of the field
+     *
+     * @return the value
+     *
+     * @exception IllegalStateException
+     *                if there is no current TCP protocol packet
+     * @exception IllegalArgumentException
+     *                if the field is not a <code>short</code> field
+     */
+    public short getShort(int field) {
+        int offset = offsetOf(field, TCPProtocolCodec.SHORT_KIND);
+        return (isCompact() ? (short) getZigZag(offset)
+                : source.getShort(offset));
+    }
+
+    /**
+     * Returns the value of the specified <code>int</code> field.
+     *
+     * @param field
+     *            the index of the field
+     *
+     * @return the value
+     *
+     * @exception IllegalStateException
+     *                if there is no current TCP protocol packet
+     * @exception IllegalArgumentException
+     *                if the field is not an <code>int</code> field
+     */
+    public int getInt(int field) {
+        int offset = offsetOf(field, TCPProtocolCodec.INT_KIND);
+        return (isCompact() ? (int) getZigZag(offset)
+                : source.getInt(offset));
+    }
+
+    /**
+     * Returns the value of the specified <code>long</code> field.
+     *
+     * @param field
+     *            the index of the field
+     *
+     * @return the value
+     *
+     * @exception IllegalStateException
+     *                if there is no current TCP protocol packet
+     * @exception IllegalArgumentException
+     *                if the field is not a <code>long</code> field
+     */
+    public long getLong(int field) {
+        int offset = offsetOf(field, TCPProtocolCodec.LONG_KIND);
+        return (isCompact() ? getZigZag(offset) : source.getLong(offset));
+    }
+
+    /**
+     * Returns the value of the specified <code>float</code> field.
+     *
+     * @param field
+     *            the index of the field
+     *
+     * @return the value
+     *
+     * @exception IllegalStateException
+     *                if there is no current TCP protocol packet
+     * @exception IllegalArgumentException
+     *                if the field is not a <code>float</code> field
+     */
+    public float getFloat(int field) {
+        return source.getFloat(offsetOf(field, TCPProtocolCodec.FLOAT_KIND));
+    }
+
+    /**
+     * Returns the value of the specified <code>double</code> field.
+     *
+     * @param field
+     *            the index of the field
+     *
+     * @return the value
+     *
+     * @exception IllegalStateException
+     *                if there is no current TCP protocol packet
+     * @exception IllegalArgumentException
+     *                if the field is not a <code>double</code> field
+     */
+    public double getDouble(int field) {
+        return source.getDouble(
+                offsetOf(field, TCPProtocolCodec.DOUBLE_KIND));
+    }
+
+    /**
+     * Returns the value of the specified <code>boolean</code> field.
+     *
+     * @param field
+     *            the index of the field
+     *
+     * @return the value
+     *
+     * @exception IllegalStateException
+     *                if there is no current TCP protocol packet
+     * @exception IllegalArgumentException
+     *                if the field is not a <code>boolean</code> field
+     */
+    public boolean getBoolean(int field) {
+        int value = source.get(offsetOf(field, TCPProtocolCodec.BOOLEAN_KIND));
+        if (!isCompact()) {
+            return value == 1;
+        }
+
+        int count = 0;
+        for (int j = 0; j < field; j++) {
+            if (layout.getKind(j) == TCPProtocolCodec.BOOLEAN_KIND) {
+                count++;
+            }
+        }
+        return (value & (1 << (count % 8))) != 0;
+    }
+
+    /**
+     * Returns the value of the specified <code>String</code> field as a char
+     * sequence over the data. The char sequence is decoded only if it
+     * contains other characters than ASCII, and is reused for the same field
+     * of the next TCP protocol packets. Compare it to a string using
+     * <code>String.contentEquals</code>, or use <code>toString</code> to
+     * keep it.
+     *
+     * @param field
+     *            the index of the field
+     *
+     * @return the value
+     *
+     * @exception IllegalStateException
+     *                if there is no current TCP protocol packet
+     * @exception IllegalArgumentException
+     *                if the field is not a <code>String</code> field
+     */
+    public CharSequence getString(int field) {
+        source.position(offsetOf(field, TCPProtocolCodec.STRING_KIND));
+        int length = (isCompact() ? TCPPacketCodec.getCompactLength(source)
+                : TCPPacketCodec.getSize(source));
+        if (strings[field] == null) {
+            strings[field] = new Utf8Sequence();
+        }
+        strings[field].wrap(source.array(),
+                source.arrayOffset() + source.position(), length);
+        return strings[field];
+    }
+
+    /**
+     * Returns the number of bytes of the specified <code>String</code> field,
+     * or the number of elements of the specified array or list field.
+     *
+     * @param field
+     *            the index of the field
+     *
+     * @return the number of bytes or elements
+     *
+     * @exception IllegalStateException
+     *                if there is no current TCP protocol packet
+     * @exception IllegalArgumentException
+     *                if the field is not a <code>String</code>, array or list
+     *                field
+     */
+    public int getSize(int field) {
+        checkPacket();
+        int kind = (field >= 0 && field < layout.getFieldCount()
+                ? layout.getKind(field) : -1);
+        if (kind < TCPProtocolCodec.STRING_KIND
+                || kind == TCPProtocolCodec.PACKET_KIND
+                || kind == TCPProtocolCodec.CHUNK_KIND) {
+            throw new IllegalArgumentException("Invalid field");
+        }
+
+        source.position(offsets[field]);
+        if (!isCompact()) {
+            return TCPPacketCodec.getSize(source);
+        }
+        return (int) TCPPacketCodec.getVarint(source);
+    }
+
+    /**
+     * Decodes the current TCP protocol packet.
+     *
+     * @return the TCP protocol packet, or <code>null</code> if it cannot be
+     *         constructed
+     *
+     * @exception IllegalStateException
+     *                if there is no current TCP protocol packet
+     */
+    public TCPProtocolPacket decode() {
+        checkPacket();
+        TCPProtocolPacket packet = codec.newPacket();
+        source.position(start);
+        if (packet == null
+                || !codec.decode(source, packet, protocol.getWireFormat())) {
+            return null;
+        }
+        return packet;
+    }
+
+    /**
+     * Verifies that there is a current TCP protocol packet.
+     *
+     * @exception IllegalStateException
+     *                if there is no current TCP protocol packet
+     */
+    private void checkPacket() {
+        if (layout == null) {
+            throw new IllegalStateException("No packet");
+        }
+    }
+
+    /**
+     * Returns the position of the specified field, which should be of the
+     * specified kind.
+     *
+     * @param field
+     *            the index of the field
+     * @param kind
+     *            the kind
+     *
+     * @return the position
+     *
+     * @exception IllegalStateException
+     *                if there is no current TCP protocol packet
+     * @exception IllegalArgumentException
+     *                if the field is not of the kind
+     */
+    private int offsetOf(int field, int kind) {
+        checkPacket();
+        if (field < 0 || field >= layout.getFieldCount()
+                || layout.getKind(field) != kind) {
+            throw new IllegalArgumentException("Invalid field");
+        }
+        return offsets[field];
+    }
+
+    /**
+     * Returns whether the TCP protocol uses the compact wire format.
+     *
+     * @return <code>true</code> if the wire format is compact,
+     *         <code>false</code> otherwise
+     */
+    private boolean isCompact() {
+        return protocol.getWireFormat() == TCPWireFormat.COMPACT;
+    }
+
+    /**
+     * Reads a zigzag encoded variable length integer at the specified
+     * position.
+     *
+     * @param offset
+     *            the position
+     *
+     * @return the value
+     */
+    private long getZigZag(int offset) {
+        source.position(offset);
+        return TCPPacketCodec.getZigZag(source);
+    }
+
+    /**
+     * A char sequence over UTF-8 encoded data, which is decoded upon first
+     * use unless all characters are ASCII.
+     */
+    private static final class Utf8Sequence implements CharSequence {
+
+        /** The data. */
+        private byte[] data;
+
+        /** The offset of the first byte. */
+        private int offset;
+
+        /** The number of bytes. */
+        private int length;
+
+        /** Whether all bytes are ASCII, or <code>null</code> if unknown. */
+        private Boolean ascii;
+
+        /** The decoded string, or <code>null</code> if not yet decoded. */
+        private String value;
+
+        /**
+         * Wraps the specified UTF-8 encoded data.
+         *
+         * @param data
+         *            the data
+         * @param offset
+         *            the offset of the first byte
+         * @param length
+         *            the number of bytes
+         */
+        void wrap(byte[] data, int offset, int length) {
+            this.data = data;
+            this.offset = offset;
+            this.length = length;
+            ascii = null;
+            value = null;
+        }
+
+        /**
+         * Returns the length of this char sequence.
+         *
+         * @return the number of chars
+         */
+        @Override
+        public int length() {
+            return (isAscii() ? length : toString().length());
+        }
+
+        /**
+         * Returns the char at the specified index.
+         *
+         * @param index
+         *            the index
+         *
+         * @return the char
+         *
+         * @exception IndexOutOfBoundsException
+         *                if the index is not valid
+         */
+        @Override
+        public char charAt(int index) {
+            if (!isAscii()) {
+                return toString().charAt(index);
+            } else if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException();
+            }
+            return (char) data[offset + index];
+        }
+
+        /**
+         * Returns the specified part of this char sequence.
+         *
+         * @param begin
+         *            the index of the first char
+         * @param end
+         *            the index following the last char
+         *
+         * @return the char sequence
+         *
+         * @exception IndexOutOfBoundsException
+         *                if any of the indices is not valid
+         */
+        @Override
+        public CharSequence subSequence(int begin, int end) {
+            return toString().subSequence(begin, end);
+        }
+
+        /**
+         * Returns this char sequence as string, which is decoded only once.
+         *
+         * @return the string
+         */
+        @Override
+        public String toString() {
+            if (value == null) {
+                value = new String(data, offset, length,
+                        StandardCharsets.UTF_8);
+            }
+            return value;
+        }
+
+        /**
+         * Returns whether all bytes are ASCII, which is determined only
+         * once.
+         *
+         * @return <code>true</code> if all bytes are ASCII,
+         *         <code>false</code> otherwise
+         */
+        private boolean isAscii() {
+            if (ascii == null) {
+                boolean all = true;
+                for (int i = 0; i < length && all; i++) {
+                    all = (data[offset + i] >= 0);
+                }
+                ascii = all;
+            }
+            return ascii;
+        }
+    }
+}
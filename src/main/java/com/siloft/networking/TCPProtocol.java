@@ -24,26 +24,46 @@ package com.siloft.networking;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 /**
  * This class represents a TCP protocol. The TCP protocol contains the decoder
  * for all TCP protocol packets which are related to this protocol.
+ * <p>
+ * The decoders are kept in a table indexed by op code, spanning the lowest to
+ * the highest op code of this protocol. Decoding a TCP protocol packet reads
+ * its op code once, and directly uses the decoder of that op code.
+ * <p>
+ * A TCP protocol uses the fixed wire format unless another wire format is
+ * specified when it is constructed. Use <code>encode</code> to encode a TCP
+ * protocol packet in the wire format of the TCP protocol, and a
+ * <code>TCPPacketView</code> to read the fields of received TCP protocol
+ * packets without decoding them.
+ * <p>
+ * Decoded TCP protocol packets are new instances, unless a
+ * <code>TCPPacketRecycler</code> is set for their class. Recycled instances
+ * are released by <code>release</code>, or by the TCP server or client once
+ * all packet listeners return.
  *
  * @author Sander Veldhuis
  */
 public abstract class TCPProtocol {
 
-    /** List of all op codes added to this TCP protocol. */
-    private final List<Short> opCodes;
+    /** The lowest op code of this TCP protocol. */
+    private final int firstOpCode;
 
-    /** List of all TCP protocol packets added to this TCP protocol. */
-    private final List<TCPProtocolPacket> packets;
+    /** The codecs of all TCP protocol packets, indexed by op code. */
+    private final TCPPacketCodec<TCPProtocolPacket>[] codecs;
+
+    /** The recyclers of TCP protocol packets, indexed by op code. */
+    private final TCPPacketRecycler<TCPProtocolPacket>[] recyclers;
+
+    /** The wire format of this TCP protocol. */
+    private final TCPWireFormat format;
 
     /**
      * Constructs a new TCP protocol which supports the specified TCP protocol
-     * packets.
+     * packets in the fixed wire format.
      *
      * @param supportedPackets
      *            the supported TCP protocol packets
@@ -52,21 +72,136 @@ public abstract class TCPProtocol {
      *                same op code
      */
     protected TCPProtocol(TCPProtocolPacket... supportedPackets) {
-        opCodes = new ArrayList<Short>();
-        packets = new ArrayList<TCPProtocolPacket>();
+        this(TCPWireFormat.FIXED, supportedPackets);
+    }
+
+    /**
+     * Constructs a new TCP protocol which supports the specified TCP protocol
+     * packets in the specified wire format.
+     *
+     * @param format
+     *            the wire format
+     * @param supportedPackets
+     *            the supported TCP protocol packets
+     * @exception NullPointerException
+     *                if the wire format is <code>null</code>
+     * @exception UnsupportedOperationException
+     *                if two or more supported TCP protocol packets have the
+     *                same op code
+     */
+    protected TCPProtocol(TCPWireFormat format,
+            TCPProtocolPacket... supportedPackets) {
+        if (format == null) {
+            throw new NullPointerException("Wire format is null");
+        }
+
+        this.format = format;
+        short[] opCodes = new short[supportedPackets.length];
+        int first = Short.MAX_VALUE;
+        int last = Short.MIN_VALUE;
+        for (int i = 0; i < supportedPackets.length; i++) {
+            opCodes[i] = TCPPacketCodec.of(supportedPackets[i].getClass())
+                    .getOpCode(supportedPackets[i]);
+            first = Math.min(first, opCodes[i]);
+            last = Math.max(last, opCodes[i]);
+        }
 
-        for (TCPProtocolPacket supportedPacket : supportedPackets) {
-            short opCode = ByteBuffer.wrap(supportedPacket.getData(), 0,
-                    supportedPacket.getLength()).getShort();
-            if (opCodes.contains(opCode)) {
+        firstOpCode = first;
+        codecs = newCodecs(Math.max(0, last - first + 1));
+        recyclers = newRecyclers(codecs.length);
+        for (int i = 0; i < supportedPackets.length; i++) {
+            if (codecs[opCodes[i] - first] != null) {
                 throw new UnsupportedOperationException("Duplicate op code");
             }
 
-            opCodes.add(opCode);
-            packets.add(supportedPacket);
+            codecs[opCodes[i] - first] =
+                    TCPPacketCodec.of(supportedPackets[i].getClass());
         }
     }
 
+    /**
+     * Returns the wire format of this TCP protocol.
+     *
+     * @return the wire format
+     */
+    public TCPWireFormat getWireFormat() {
+        return format;
+    }
+
+    /**
+     * Sets the recycler of the TCP protocol packets of its class, which is
+     * used by <code>decode</code> and <code>release</code>. The recycler
+     * should be set before any TCP packet is decoded.
+     *
+     * @param recycler
+     *            the recycler
+     *
+     * @exception NullPointerException
+     *                if the recycler is <code>null</code>
+     * @exception IllegalArgumentException
+     *                if the TCP protocol packet class of the recycler is not
+     *                supported
+     */
+    @SuppressWarnings("unchecked")
+    public void setRecycler(TCPPacketRecycler<?> recycler) {
+        if (recycler == null) {
+            throw new NullPointerException("Recycler is null");
+        }
+
+        TCPPacketCodec<TCPProtocolPacket> codec =
+                TCPPacketCodec.of(recycler.getPacketClass());
+        TCPProtocolPacket packet = codec.newPacket();
+        if (packet == null || codecOf(codec.getOpCode(packet)) != codec) {
+            throw new IllegalArgumentException("Packet not supported");
+        }
+        recyclers[codec.getOpCode(packet) - firstOpCode] =
+                (TCPPacketRecycler<TCPProtocolPacket>) recycler;
+    }
+
+    /**
+     * Encodes the specified TCP protocol packet in the wire format of this TCP
+     * protocol.
+     *
+     * @param packet
+     *            the TCP protocol packet to encode
+     *
+     * @return the TCP packet holding the encoded data
+     * @exception NullPointerException
+     *                if the TCP protocol packet is <code>null</code>
+     * @exception IllegalArgumentException
+     *                if the TCP protocol packet is not supported
+     */
+    public TCPPacket encode(TCPProtocolPacket packet) {
+        byte[] data = codecOf(packet).encode(packet, format);
+        return new TCPPacket(data, data.length);
+    }
+
+    /**
+     * Encodes the specified TCP protocol packet in the wire format of this TCP
+     * protocol at the position of the target buffer, and advances the
+     * position. Nothing is written if the target buffer has not enough space
+     * remaining.
+     *
+     * @param packet
+     *            the TCP protocol packet to encode
+     * @param target
+     *            the target buffer
+     *
+     * @exception NullPointerException
+     *                if the TCP protocol packet or buffer is <code>null</code>
+     * @exception IllegalArgumentException
+     *                if the TCP protocol packet is not supported
+     * @exception java.nio.BufferOverflowException
+     *                if the target buffer has not enough space remaining
+     */
+    public void encode(TCPProtocolPacket packet, ByteBuffer target) {
+        if (target == null) {
+            throw new NullPointerException("Buffer is null");
+        }
+
+        codecOf(packet).encode(packet, target, format);
+    }
+
     /**
      * Tries to decode the specified TCP packet to any of the added TCP protocol
      * packets of this TCP protocol.
@@ -86,23 +221,172 @@ public abstract class TCPProtocol {
         List<TCPProtocolPacket> decodedPackets =
                 new ArrayList<TCPProtocolPacket>();
         byte[] data = packet.getData();
-        int length = packet.getLength();
-        int offset = 0;
+        ByteBuffer source = ByteBuffer.wrap(data, 0, packet.getLength());
 
-        for (int i = 0; i < packets.size(); i++) {
-            byte[] dataPart = Arrays.copyOfRange(data, offset, length);
+        while (source.remaining() >= 2) {
+            short opCode = TCPPacketCodec.readOpCode(data, source.position());
+            TCPPacketCodec<TCPProtocolPacket> codec = codecOf(opCode);
+            if (codec == null) {
+                break;
+            }
 
-            TCPProtocolPacket decodedPacket =
-                    packets.get(i).decode(dataPart, length - offset);
-            if (decodedPacket == null) {
-                continue;
+            TCPPacketRecycler<TCPProtocolPacket> recycler =
+                    recyclers[opCode - firstOpCode];
+            TCPProtocolPacket decodedPacket = (recycler != null
+                    ? recycler.acquire() : codec.newPacket());
+            if (decodedPacket == null
+                    || !codec.decode(source, decodedPacket, format)) {
+                if (recycler != null) {
+                    recycler.release(decodedPacket);
+                }
+                break;
             }
 
             decodedPackets.add(decodedPacket);
-            offset += decodedPacket.getLength();
-            i = -1;
         }
 
         return decodedPackets.toArray(new TCPProtocolPacket[0]);
     }
+
+    /**
+     * Decodes the next TCP protocol packet in the wire format of this TCP
+     * protocol from the position of the source buffer into the specified TCP
+     * protocol packet, and advances the position upon success. Neither the
+     * position nor the TCP protocol packet is modified otherwise. Reusing a
+     * TCP protocol packet avoids allocating one for every decoded packet.
+     *
+     * @param source
+     *            the source buffer, heap or direct, in any byte order
+     * @param packet
+     *            the TCP protocol packet to decode into
+     *
+     * @return <code>true</code> upon correctly decoding a TCP protocol packet
+     *         of the class of the specified one, <code>false</code>
+     *         otherwise
+     * @exception NullPointerException
+     *                if the buffer or TCP protocol packet is
+     *                <code>null</code>
+     * @exception IllegalArgumentException
+     *                if the TCP protocol packet is not supported
+     */
+    public boolean decode(ByteBuffer source, TCPProtocolPacket packet) {
+        if (source == null) {
+            throw new NullPointerException("Buffer is null");
+        }
+
+        return codecOf(packet).decode(source, packet, format);
+    }
+
+    /**
+     * Releases the specified decoded TCP protocol packet to the recycler of
+     * its class. Nothing happens if there is no such recycler, or if the TCP
+     * protocol packet is retained. TCP servers and clients release every
+     * decoded TCP protocol packet once all packet listeners return.
+     *
+     * @param packet
+     *            the TCP packet, or <code>null</code>
+     */
+    public void release(TCPPacket packet) {
+        if (!(packet instanceof TCPProtocolPacket)) {
+            return;
+        }
+
+        TCPProtocolPacket protocolPacket = (TCPProtocolPacket) packet;
+        TCPPacketCodec<TCPProtocolPacket> codec =
+                TCPPacketCodec.of(packet.getClass());
+        short opCode = codec.getOpCode(protocolPacket);
+        if (codecOf(opCode) == codec) {
+            TCPPacketRecycler<TCPProtocolPacket> recycler =
+                    recyclers[opCode - firstOpCode];
+            if (recycler != null) {
+                recycler.release(protocolPacket);
+            }
+        }
+    }
+
+    /**
+     * Returns the codec of the TCP protocol packets with the specified op
+     * code, or <code>null</code> if the op code is not supported.
+     *
+     * @param opCode
+     *            the op code
+     *
+     * @return the codec, or <code>null</code>
+     */
+    TCPPacketCodec<TCPProtocolPacket> codecOf(short opCode) {
+        int index = opCode - firstOpCode;
+        return (index < 0 || index >= codecs.length ? null : codecs[index]);
+    }
+
+    /**
+     * Indicates whether the specified TCP protocol packet is supported by this
+     * TCP protocol.
+     *
+     * @param packet
+     *            the TCP protocol packet
+     *
+     * @return <code>true</code> if supported, or <code>false</code> otherwise
+     */
+    boolean isSupported(TCPProtocolPacket packet) {
+        TCPPacketCodec<TCPProtocolPacket> codec =
+                TCPPacketCodec.of(packet.getClass());
+        return codecOf(codec.getOpCode(packet)) == codec;
+    }
+
+    /**
+     * Returns the codec of the specified TCP protocol packet, which should be
+     * supported by this TCP protocol.
+     *
+     * @param packet
+     *            the TCP protocol packet
+     *
+     * @return the codec
+     * @exception NullPointerException
+     *                if the TCP protocol packet is <code>null</code>
+     * @exception IllegalArgumentException
+     *                if the TCP protocol packet is not supported
+     */
+    private TCPPacketCodec<TCPProtocolPacket> codecOf(
+            TCPProtocolPacket packet) {
+        if (packet == null) {
+            throw new NullPointerException("Packet is null");
+        }
+
+        TCPPacketCodec<TCPProtocolPacket> codec =
+                TCPPacketCodec.of(packet.getClass());
+        int index = codec.getOpCode(packet) - firstOpCode;
+        if (index < 0 || index >= codecs.length || codecs[index] != codec) {
+            throw new IllegalArgumentException("Packet not supported");
+        }
+        return codec;
+    }
+
+    /**
+     * Returns a new array of codecs.
+     *
+     * @param length
+     *            the length
+     *
+     * @return the array
+     */
+    @SuppressWarnings("unchecked")
+    private static TCPPacketCodec<TCPProtocolPacket>[] newCodecs(int length) {
+        return (TCPPacketCodec<TCPProtocolPacket>[])
+                new TCPPacketCodec<?>[length];
+    }
+
+    /**
+     * Returns a new array of recyclers.
+     *
+     * @param length
+     *            the length
+     *
+     * @return the array
+     */
+    @SuppressWarnings("unchecked")
+    private static TCPPacketRecycler<TCPProtocolPacket>[] newRecyclers(
+            int length) {
+        return (TCPPacketRecycler<TCPProtocolPacket>[])
+                new TCPPacketRecycler<?>[length];
+    }
 }
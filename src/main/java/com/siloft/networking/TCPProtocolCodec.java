@@ -0,0 +1,1289 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.siloft.networking;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The codec of a TCP protocol packet class without a generated codec.
+ * <p>
+ * The fields of a class are inspected and validated only once, when the codec
+ * is created. Every field is accessed through a method handle, and the no
+ * argument constructor used for decoding is a method handle as well.
+ * <p>
+ * Strings, arrays, nested TCP protocol packets, lists and chunks are decoded
+ * before any field is assigned, while the other fields are only validated
+ * first and read once the whole TCP protocol packet is known to be valid.
+ *
+ * @author Sander Veldhuis
+ */
+final class TCPProtocolCodec extends TCPPacketCodec<TCPProtocolPacket> {
+
+    /** The op code field name. */
+    private static final String OP_CODE_NAME = "opCode";
+
+    /** The kind of the <code>byte</code> type. */
+    static final int BYTE_KIND = 0;
+
+    /** The kind of the <code>short</code> type. */
+    static final int SHORT_KIND = 1;
+
+    /** The kind of the <code>int</code> type. */
+    static final int INT_KIND = 2;
+
+    /** The kind of the <code>long</code> type. */
+    static final int LONG_KIND = 3;
+
+    /** The kind of the <code>float</code> type. */
+    static final int FLOAT_KIND = 4;
+
+    /** The kind of the <code>double</code> type. */
+    static final int DOUBLE_KIND = 5;
+
+    /** The kind of the <code>boolean</code> type. */
+    static final int BOOLEAN_KIND = 6;
+
+    /** The kind of the <code>String</code> type. */
+    static final int STRING_KIND = 7;
+
+    /** The kind of the <code>byte[]</code> type. */
+    static final int BYTE_ARRAY_KIND = 8;
+
+    /** The kind of the <code>short[]</code> type. */
+    static final int SHORT_ARRAY_KIND = 9;
+
+    /** The kind of the <code>int[]</code> type. */
+    static final int INT_ARRAY_KIND = 10;
+
+    /** The kind of the <code>long[]</code> type. */
+    static final int LONG_ARRAY_KIND = 11;
+
+    /** The kind of the <code>float[]</code> type. */
+    static final int FLOAT_ARRAY_KIND = 12;
+
+    /** The kind of the <code>double[]</code> type. */
+    static final int DOUBLE_ARRAY_KIND = 13;
+
+    /** The kind of the <code>boolean[]</code> type. */
+    static final int BOOLEAN_ARRAY_KIND = 14;
+
+    /** The kind of the <code>String[]</code> type. */
+    static final int STRING_ARRAY_KIND = 15;
+
+    /** The kind of a nested TCP protocol packet type. */
+    static final int PACKET_KIND = 16;
+
+    /** The kind of a list of nested TCP protocol packets type. */
+    static final int PACKET_LIST_KIND = 17;
+
+    /** The kind of the <code>TCPChunk</code> type. */
+    static final int CHUNK_KIND = 18;
+
+    /** The supported field types, indexed by kind, except for packets. */
+    private static final Class<?>[] TYPES = { byte.class, short.class,
+            int.class, long.class, float.class, double.class, boolean.class,
+            String.class, byte[].class, short[].class, int[].class,
+            long[].class, float[].class, double[].class, boolean[].class,
+            String[].class };
+
+    /** The encoded lengths, indexed by kind, excluding variable data. */
+    static final int[] LENGTHS = { 1, 2, 4, 8, 4, 8, 1, 0, 0, 0, 0, 0,
+            0, 0, 0, 0, 0, 0, 0 };
+
+    /** The op code of a class which cannot be constructed. */
+    static final int NO_OP_CODE = Integer.MIN_VALUE;
+
+    /** The layouts of TCP protocol packet classes with a generated codec. */
+    private static final ClassValue<TCPProtocolCodec> LAYOUTS =
+            new ClassValue<TCPProtocolCodec>() {
+                @Override
+                protected TCPProtocolCodec computeValue(Class<?> type) {
+                    return new TCPProtocolCodec(type);
+                }
+            };
+
+    /** The TCP protocol packet class. */
+    private final Class<TCPProtocolPacket> type;
+
+    /** The constructor creating a new packet, or null if not available. */
+    private final MethodHandle constructor;
+
+    /** The getter of the op code field. */
+    private final MethodHandle opCodeGetter;
+
+    /** The kinds of the other fields. */
+    private final int[] kinds;
+
+    /** The names of the other fields. */
+    private final String[] names;
+
+    /** The getters of the other fields. */
+    private final MethodHandle[] getters;
+
+    /** The setters of the other fields. */
+    private final MethodHandle[] setters;
+
+    /** The nested TCP protocol packet classes of the other fields. */
+    private final Class<? extends TCPProtocolPacket>[] packetTypes;
+
+    /** The encoded length of all fields, excluding variable data. */
+    private final int fixedLength;
+
+    /** The number of bytes of the packed booleans in the compact format. */
+    private final int booleanBytes;
+
+    /** Whether any field is of a variable length kind. */
+    private final boolean variable;
+
+    /** The op code of the class, or <code>null</code> if not yet known. */
+    private Integer opCode;
+
+    /**
+     * Constructs a new codec for the specified TCP protocol packet class.
+     *
+     * @param type
+     *            the TCP protocol packet class
+     *
+     * @exception IllegalArgumentException
+     *                if any of the fields is not valid
+     */
+    @SuppressWarnings("unchecked")
+    TCPProtocolCodec(Class<?> type) {
+        this.type = (Class<TCPProtocolPacket>) type;
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        List<Field> fields = new ArrayList<Field>();
+        for (Field field : type.getDeclaredFields()) {
+            if (!field.isSynthetic()) {
+                validate(field, fields.isEmpty());
+                fields.add(field);
+            }
+        }
+        if (fields.isEmpty()) {
+            throw new IllegalArgumentException("Field opCode missing");
+        }
+
+        opCodeGetter = getter(lookup, fields.get(0), short.class);
+        kinds = new int[fields.size() - 1];
+        names = new String[kinds.length];
+        getters = new MethodHandle[kinds.length];
+        setters = new MethodHandle[kinds.length];
+        packetTypes = (Class<? extends TCPProtocolPacket>[])
+                new Class<?>[kinds.length];
+        int length = LENGTHS[SHORT_KIND];
+        int booleans = 0;
+        boolean variableKind = false;
+        for (int i = 0; i < kinds.length; i++) {
+            Field field = fields.get(i + 1);
+            kinds[i] = kindOf(field);
+            names[i] = field.getName();
+            Class<?> handleType = (kinds[i] < STRING_KIND ? field.getType()
+                    : Object.class);
+            getters[i] = getter(lookup, field, handleType);
+            setters[i] = setter(lookup, field, handleType);
+            packetTypes[i] = packetTypeOf(field);
+            length += LENGTHS[kinds[i]];
+            if (kinds[i] == BOOLEAN_KIND) {
+                booleans++;
+            }
+            variableKind |= (kinds[i] >= STRING_KIND);
+        }
+        fixedLength = length;
+        booleanBytes = (booleans + 7) / 8;
+        variable = variableKind;
+        constructor = constructor(lookup, type);
+    }
+
+    /**
+     * Returns the codec holding the field layout of the specified TCP
+     * protocol packet class, which is the codec of the class unless it has a
+     * generated codec.
+     *
+     * @param type
+     *            the TCP protocol packet class
+     *
+     * @return the codec holding the field layout
+     *
+     * @exception IllegalArgumentException
+     *                if any of the fields is not valid
+     */
+    static TCPProtocolCodec layoutOf(Class<?> type) {
+        TCPPacketCodec<TCPProtocolPacket> codec = of(type);
+        return (codec instanceof TCPProtocolCodec ? (TCPProtocolCodec) codec
+                : LAYOUTS.get(type));
+    }
+
+    /**
+     * Returns the op code of the TCP protocol packet class of this codec,
+     * which is read from a new TCP protocol packet upon first use.
+     *
+     * @return the op code, or <code>NO_OP_CODE</code> if the class cannot
+     *         be constructed
+     */
+    int getOpCode() {
+        Integer value = opCode;
+        if (value == null) {
+            TCPProtocolPacket packet = newPacket();
+            value = (packet == null ? NO_OP_CODE : getOpCode(packet));
+            opCode = value;
+        }
+        return value;
+    }
+
+    /**
+     * Returns the number of fields, excluding the op code field.
+     *
+     * @return the number of fields
+     */
+    int getFieldCount() {
+        return kinds.length;
+    }
+
+    /**
+     * Returns the index of the field with the specified name, excluding the
+     * op code field.
+     *
+     * @param name
+     *            the field name
+     *
+     * @return the index, or <code>-1</code> if there is no such field
+     */
+    int indexOf(String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the kind of the field at the specified index.
+     *
+     * @param index
+     *            the index of the field, excluding the op code field
+     *
+     * @return the kind
+     */
+    int getKind(int index) {
+        return kinds[index];
+    }
+
+    /**
+     * Returns the nested TCP protocol packet class of the field at the
+     * specified index, or <code>null</code> if it is not of a nested TCP
+     * protocol packet or list kind.
+     *
+     * @param index
+     *            the index of the field, excluding the op code field
+     *
+     * @return the nested TCP protocol packet class, or <code>null</code>
+     */
+    Class<? extends TCPProtocolPacket> getPacketType(int index) {
+        return packetTypes[index];
+    }
+
+    /**
+     * Returns the number of bytes of the packed booleans in the compact wire
+     * format.
+     *
+     * @return the number of bytes
+     */
+    int getBooleanBytes() {
+        return booleanBytes;
+    }
+
+    /**
+     * Returns the TCP protocol packet class of this codec.
+     *
+     * @return the TCP protocol packet class
+     */
+    @Override
+    public Class<TCPProtocolPacket> getPacketClass() {
+        return type;
+    }
+
+    /**
+     * Returns the op code of the specified TCP protocol packet.
+     *
+     * @param packet
+     *            the TCP protocol packet
+     *
+     * @return the op code
+     */
+    @Override
+    public short getOpCode(TCPProtocolPacket packet) {
+        try {
+            return (short) opCodeGetter.invokeExact(packet);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the encoded length of the specified TCP protocol packet.
+     *
+     * @param packet
+     *            the TCP protocol packet
+     *
+     * @return the encoded length
+     */
+    @Override
+    public int getLength(TCPProtocolPacket packet) {
+        int length = fixedLength;
+        try {
+            for (int i = 0; i < kinds.length; i++) {
+                if (kinds[i] >= STRING_KIND) {
+                    Object value = (Object) getters[i].invokeExact(packet);
+                    length += variableLength(kinds[i], value);
+                }
+            }
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+        return length;
+    }
+
+    /**
+     * Returns a new TCP protocol packet of the class of this codec, or
+     * <code>null</code> if the class cannot be constructed.
+     *
+     * @return the new TCP protocol packet, or <code>null</code>
+     */
+    @Override
+    protected TCPProtocolPacket newPacket() {
+        if (constructor == null) {
+            return null;
+        }
+        try {
+            return (TCPProtocolPacket) constructor.invokeExact();
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes the specified TCP protocol packet at the position of the
+     * big-endian target buffer.
+     *
+     * @param packet
+     *            the TCP protocol packet
+     * @param target
+     *            the target buffer
+     */
+    @Override
+    protected void write(TCPProtocolPacket packet, ByteBuffer target) {
+        try {
+            target.putShort((short) opCodeGetter.invokeExact(packet));
+            for (int j = 0; j < kinds.length; j++) {
+                MethodHandle getter = getters[j];
+                switch (kinds[j]) {
+                case BYTE_KIND:
+                    target.put((byte) getter.invokeExact(packet));
+                    break;
+                case SHORT_KIND:
+                    target.putShort((short) getter.invokeExact(packet));
+                    break;
+                case INT_KIND:
+                    target.putInt((int) getter.invokeExact(packet));
+                    break;
+                case LONG_KIND:
+                    target.putLong((long) getter.invokeExact(packet));
+                    break;
+                case FLOAT_KIND:
+                    target.putFloat((float) getter.invokeExact(packet));
+                    break;
+                case DOUBLE_KIND:
+                    target.putDouble((double) getter.invokeExact(packet));
+                    break;
+                case BOOLEAN_KIND:
+                    putBoolean(target, (boolean) getter.invokeExact(packet));
+                    break;
+                default:
+                    putVariable(target, kinds[j],
+                            (Object) getter.invokeExact(packet));
+                    break;
+                }
+            }
+        } catch (BufferOverflowException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Reads the fields of the specified TCP protocol packet from the position
+     * of the big-endian source buffer. The data is validated before any field
+     * is assigned.
+     *
+     * @param source
+     *            the source buffer
+     * @param packet
+     *            the TCP protocol packet
+     *
+     * @return <code>true</code> if the data contains a TCP protocol packet of
+     *         the class of this codec, <code>false</code> otherwise
+     */
+    @Override
+    protected boolean read(ByteBuffer source, TCPProtocolPacket packet) {
+        if (source.getShort() != getOpCode(packet)) {
+            return false;
+        }
+
+        int start = source.position();
+        Object[] values = (variable ? new Object[kinds.length] : null);
+        int[] ends = (variable ? new int[kinds.length] : null);
+        for (int j = 0; j < kinds.length; j++) {
+            if (kinds[j] == PACKET_KIND) {
+                values[j] = getPacket(source, packetTypes[j]);
+                ends[j] = source.position();
+            } else if (kinds[j] == CHUNK_KIND) {
+                values[j] = getChunk(source);
+                ends[j] = source.position();
+            } else if (kinds[j] >= STRING_KIND) {
+                values[j] = getVariable(source, kinds[j], getSize(source),
+                        packetTypes[j]);
+                ends[j] = source.position();
+            } else {
+                skip(source, LENGTHS[kinds[j]]);
+            }
+        }
+        source.position(start);
+
+        try {
+            for (int j = 0; j < kinds.length; j++) {
+                MethodHandle setter = setters[j];
+                switch (kinds[j]) {
+                case BYTE_KIND:
+                    setter.invokeExact(packet, source.get());
+                    break;
+                case SHORT_KIND:
+                    setter.invokeExact(packet, source.getShort());
+                    break;
+                case INT_KIND:
+                    setter.invokeExact(packet, source.getInt());
+                    break;
+                case LONG_KIND:
+                    setter.invokeExact(packet, source.getLong());
+                    break;
+                case FLOAT_KIND:
+                    setter.invokeExact(packet, source.getFloat());
+                    break;
+                case DOUBLE_KIND:
+                    setter.invokeExact(packet, source.getDouble());
+                    break;
+                case BOOLEAN_KIND:
+                    setter.invokeExact(packet, getBoolean(source));
+                    break;
+                default:
+                    setter.invokeExact(packet, values[j]);
+                    source.position(ends[j]);
+                    break;
+                }
+            }
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+        return true;
+    }
+
+    /**
+     * Writes the specified TCP protocol packet in the compact wire format at
+     * the position of the big-endian target buffer.
+     *
+     * @param packet
+     *            the TCP protocol packet
+     * @param target
+     *            the target buffer
+     */
+    @Override
+    protected void writeCompact(TCPProtocolPacket packet, ByteBuffer target) {
+        try {
+            target.putShort((short) opCodeGetter.invokeExact(packet));
+            int bits = 0;
+            int count = 0;
+            for (int j = 0; j < kinds.length; j++) {
+                if (kinds[j] == BOOLEAN_KIND) {
+                    if ((boolean) getters[j].invokeExact(packet)) {
+                        bits |= 1 << count;
+                    }
+                    if (++count == 8) {
+                        target.put((byte) bits);
+                        bits = 0;
+                        count = 0;
+                    }
+                }
+            }
+            if (count > 0) {
+                target.put((byte) bits);
+            }
+
+            for (int j = 0; j < kinds.length; j++) {
+                MethodHandle getter = getters[j];
+                switch (kinds[j]) {
+                case BYTE_KIND:
+                    target.put((byte) getter.invokeExact(packet));
+                    break;
+                case SHORT_KIND:
+                    putZigZag(target, (short) getter.invokeExact(packet));
+                    break;
+                case INT_KIND:
+                    putZigZag(target, (int) getter.invokeExact(packet));
+                    break;
+                case LONG_KIND:
+                    putZigZag(target, (long) getter.invokeExact(packet));
+                    break;
+                case FLOAT_KIND:
+                    target.putFloat((float) getter.invokeExact(packet));
+                    break;
+                case DOUBLE_KIND:
+                    target.putDouble((double) getter.invokeExact(packet));
+                    break;
+                case BOOLEAN_KIND:
+                    break;
+                default:
+                    putCompactVariable(target, kinds[j],
+                            (Object) getter.invokeExact(packet));
+                    break;
+                }
+            }
+        } catch (BufferOverflowException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Reads the fields of the specified TCP protocol packet in the compact
+     * wire format from the position of the big-endian source buffer. The data
+     * is validated before any field is assigned.
+     *
+     * @param source
+     *            the source buffer
+     * @param packet
+     *            the TCP protocol packet
+     *
+     * @return <code>true</code> if the data contains a TCP protocol packet of
+     *         the class of this codec, <code>false</code> otherwise
+     */
+    @Override
+    protected boolean readCompact(ByteBuffer source,
+            TCPProtocolPacket packet) {
+        if (source.getShort() != getOpCode(packet)) {
+            return false;
+        }
+
+        if (source.remaining() < booleanBytes) {
+            throw new BufferUnderflowException();
+        }
+        int booleans = source.position();
+        source.position(booleans + booleanBytes);
+        int start = source.position();
+        Object[] values = (variable ? new Object[kinds.length] : null);
+        int[] ends = (variable ? new int[kinds.length] : null);
+        for (int j = 0; j < kinds.length; j++) {
+            switch (kinds[j]) {
+            case SHORT_KIND:
+            case INT_KIND:
+            case LONG_KIND:
+                getVarint(source);
+                break;
+            case BOOLEAN_KIND:
+                break;
+            case BYTE_KIND:
+            case FLOAT_KIND:
+            case DOUBLE_KIND:
+                skip(source, LENGTHS[kinds[j]]);
+                break;
+            default:
+                values[j] = getCompactVariable(source, kinds[j],
+                        packetTypes[j]);
+                ends[j] = source.position();
+                break;
+            }
+        }
+        source.position(start);
+
+        try {
+            int count = 0;
+            for (int j = 0; j < kinds.length; j++) {
+                MethodHandle setter = setters[j];
+                switch (kinds[j]) {
+                case BYTE_KIND:
+                    setter.invokeExact(packet, source.get());
+                    break;
+                case SHORT_KIND:
+                    setter.invokeExact(packet, (short) getZigZag(source));
+                    break;
+                case INT_KIND:
+                    setter.invokeExact(packet, (int) getZigZag(source));
+                    break;
+                case LONG_KIND:
+                    setter.invokeExact(packet, getZigZag(source));
+                    break;
+                case FLOAT_KIND:
+                    setter.invokeExact(packet, source.getFloat());
+                    break;
+                case DOUBLE_KIND:
+                    setter.invokeExact(packet, source.getDouble());
+                    break;
+                case BOOLEAN_KIND:
+                    int bits = source.get(booleans + count / 8);
+                    setter.invokeExact(packet,
+                            (bits & (1 << (count++ % 8))) != 0);
+                    break;
+                default:
+                    setter.invokeExact(packet, values[j]);
+                    source.position(ends[j]);
+                    break;
+                }
+            }
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+        return true;
+    }
+
+    /**
+     * Skips a TCP protocol packet of the class of this codec in the specified
+     * wire format from the position of the big-endian source buffer, without
+     * decoding any field. The position of every field is stored in the
+     * offsets, where a <code>boolean</code> in the compact wire format is at
+     * the position of the byte holding its bit.
+     *
+     * @param source
+     *            the source buffer
+     * @param format
+     *            the wire format
+     * @param offsets
+     *            the offsets, at least as many as fields, or
+     *            <code>null</code>
+     *
+     * @return <code>true</code> if the data contains a TCP protocol packet of
+     *         the class of this codec, <code>false</code> otherwise
+     *
+     * @exception BufferUnderflowException
+     *                if the source buffer ends before the TCP protocol packet
+     * @exception IllegalArgumentException
+     *                if the TCP protocol packet is invalid
+     */
+    boolean skip(ByteBuffer source, TCPWireFormat format, int[] offsets) {
+        if (source.getShort() != getOpCode()) {
+            return false;
+        }
+
+        boolean compact = (format == TCPWireFormat.COMPACT);
+        int booleans = source.position();
+        int count = 0;
+        if (compact) {
+            skip(source, booleanBytes);
+        }
+        for (int j = 0; j < kinds.length; j++) {
+            if (offsets != null) {
+                offsets[j] = source.position();
+            }
+            if (kinds[j] == BOOLEAN_KIND && compact) {
+                if (offsets != null) {
+                    offsets[j] = booleans + count / 8;
+                }
+                count++;
+            } else if (kinds[j] >= STRING_KIND) {
+                skipVariable(source, kinds[j], packetTypes[j], format);
+            } else if (compact && kinds[j] >= SHORT_KIND
+                    && kinds[j] <= LONG_KIND) {
+                getVarint(source);
+            } else {
+                skip(source, LENGTHS[kinds[j]]);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the encoded length of the specified value of a string, array,
+     * nested TCP protocol packet, list or chunk kind, including its size.
+     *
+     * @param kind
+     *            the kind
+     * @param value
+     *            the value, or <code>null</code>
+     *
+     * @return the encoded length
+     */
+    @SuppressWarnings("unchecked")
+    private static int variableLength(int kind, Object value) {
+        switch (kind) {
+        case STRING_KIND:
+            return encodedLength((String) value);
+        case BYTE_ARRAY_KIND:
+            return encodedLength((byte[]) value);
+        case SHORT_ARRAY_KIND:
+            return encodedLength((short[]) value);
+        case INT_ARRAY_KIND:
+            return encodedLength((int[]) value);
+        case LONG_ARRAY_KIND:
+            return encodedLength((long[]) value);
+        case FLOAT_ARRAY_KIND:
+            return encodedLength((float[]) value);
+        case DOUBLE_ARRAY_KIND:
+            return encodedLength((double[]) value);
+        case BOOLEAN_ARRAY_KIND:
+            return encodedLength((boolean[]) value);
+        case STRING_ARRAY_KIND:
+            return encodedLength((String[]) value);
+        case PACKET_KIND:
+            return encodedLength((TCPProtocolPacket) value);
+        case CHUNK_KIND:
+            return encodedLength((TCPChunk) value);
+        default:
+            return encodedLength((List<? extends TCPProtocolPacket>) value);
+        }
+    }
+
+    /**
+     * Writes the specified value of a string, array, nested TCP protocol
+     * packet, list or chunk kind.
+     *
+     * @param target
+     *            the target buffer
+     * @param kind
+     *            the kind
+     * @param value
+     *            the value, or <code>null</code>
+     */
+    @SuppressWarnings("unchecked")
+    private static void putVariable(ByteBuffer target, int kind,
+            Object value) {
+        switch (kind) {
+        case STRING_KIND:
+            putString(target, (String) value);
+            break;
+        case BYTE_ARRAY_KIND:
+            putBytes(target, (byte[]) value);
+            break;
+        case SHORT_ARRAY_KIND:
+            putShorts(target, (short[]) value);
+            break;
+        case INT_ARRAY_KIND:
+            putInts(target, (int[]) value);
+            break;
+        case LONG_ARRAY_KIND:
+            putLongs(target, (long[]) value);
+            break;
+        case FLOAT_ARRAY_KIND:
+            putFloats(target, (float[]) value);
+            break;
+        case DOUBLE_ARRAY_KIND:
+            putDoubles(target, (double[]) value);
+            break;
+        case BOOLEAN_ARRAY_KIND:
+            putBooleans(target, (boolean[]) value);
+            break;
+        case STRING_ARRAY_KIND:
+            putStrings(target, (String[]) value);
+            break;
+        case PACKET_KIND:
+            putPacket(target, (TCPProtocolPacket) value);
+            break;
+        case CHUNK_KIND:
+            putChunk(target, (TCPChunk) value);
+            break;
+        default:
+            putPackets(target, (List<? extends TCPProtocolPacket>) value);
+            break;
+        }
+    }
+
+    /**
+     * Writes the specified value of a string, array, nested TCP protocol
+     * packet, list or chunk kind in the compact wire format.
+     *
+     * @param target
+     *            the target buffer
+     * @param kind
+     *            the kind
+     * @param value
+     *            the value, or <code>null</code>
+     */
+    @SuppressWarnings("unchecked")
+    private static void putCompactVariable(ByteBuffer target, int kind,
+            Object value) {
+        switch (kind) {
+        case STRING_KIND:
+            putCompactString(target, (String) value);
+            break;
+        case BYTE_ARRAY_KIND:
+            putCompactBytes(target, (byte[]) value);
+            break;
+        case SHORT_ARRAY_KIND:
+            putCompactShorts(target, (short[]) value);
+            break;
+        case INT_ARRAY_KIND:
+            putCompactInts(target, (int[]) value);
+            break;
+        case LONG_ARRAY_KIND:
+            putCompactLongs(target, (long[]) value);
+            break;
+        case FLOAT_ARRAY_KIND:
+            putCompactFloats(target, (float[]) value);
+            break;
+        case DOUBLE_ARRAY_KIND:
+            putCompactDoubles(target, (double[]) value);
+            break;
+        case BOOLEAN_ARRAY_KIND:
+            putCompactBooleans(target, (boolean[]) value);
+            break;
+        case STRING_ARRAY_KIND:
+            putCompactStrings(target, (String[]) value);
+            break;
+        case PACKET_KIND:
+            putCompactPacket(target, (TCPProtocolPacket) value);
+            break;
+        case CHUNK_KIND:
+            putCompactChunk(target, (TCPChunk) value);
+            break;
+        default:
+            putCompactPackets(target,
+                    (List<? extends TCPProtocolPacket>) value);
+            break;
+        }
+    }
+
+    /**
+     * Reads a value of a string, array or list kind, of the specified number
+     * of bytes or elements.
+     *
+     * @param source
+     *            the source buffer
+     * @param kind
+     *            the kind
+     * @param length
+     *            the number of bytes or elements
+     * @param packetType
+     *            the nested TCP protocol packet class of a list
+     *
+     * @return the value
+     */
+    private static Object getVariable(ByteBuffer source, int kind,
+            int length, Class<? extends TCPProtocolPacket> packetType) {
+        switch (kind) {
+        case STRING_KIND:
+            return getString(source, length);
+        case BYTE_ARRAY_KIND:
+            return getBytes(source, length);
+        case SHORT_ARRAY_KIND:
+            return getShorts(source, length);
+        case INT_ARRAY_KIND:
+            return getInts(source, length);
+        case LONG_ARRAY_KIND:
+            return getLongs(source, length);
+        case FLOAT_ARRAY_KIND:
+            return getFloats(source, length);
+        case DOUBLE_ARRAY_KIND:
+            return getDoubles(source, length);
+        case BOOLEAN_ARRAY_KIND:
+            return getBooleans(source, length);
+        case STRING_ARRAY_KIND:
+            return getStrings(source, length);
+        default:
+            return getPackets(source, length, packetType);
+        }
+    }
+
+    /**
+     * Reads a value of a string, array, nested TCP protocol packet, list
+     * or chunk kind in the compact wire format.
+     *
+     * @param source
+     *            the source buffer
+     * @param kind
+     *            the kind
+     * @param packetType
+     *            the nested TCP protocol packet class of a nested TCP
+     *            protocol packet or list
+     *
+     * @return the value
+     */
+    private static Object getCompactVariable(ByteBuffer source, int kind,
+            Class<? extends TCPProtocolPacket> packetType) {
+        switch (kind) {
+        case STRING_KIND:
+            return getString(source, getCompactLength(source));
+        case BYTE_ARRAY_KIND:
+            return getBytes(source, getCompactLength(source));
+        case SHORT_ARRAY_KIND:
+            return getCompactShorts(source);
+        case INT_ARRAY_KIND:
+            return getCompactInts(source);
+        case LONG_ARRAY_KIND:
+            return getCompactLongs(source);
+        case FLOAT_ARRAY_KIND:
+            return getCompactFloats(source);
+        case DOUBLE_ARRAY_KIND:
+            return getCompactDoubles(source);
+        case BOOLEAN_ARRAY_KIND:
+            return getCompactBooleans(source);
+        case STRING_ARRAY_KIND:
+            return getCompactStrings(source);
+        case PACKET_KIND:
+            return getCompactPacket(source, packetType);
+        case CHUNK_KIND:
+            return getCompactChunk(source);
+        default:
+            return getCompactPackets(source, packetType);
+        }
+    }
+
+    /**
+     * Skips a value of a string, array, nested TCP protocol packet, list or
+     * chunk kind in the specified wire format.
+     *
+     * @param source
+     *            the source buffer
+     * @param kind
+     *            the kind
+     * @param packetType
+     *            the nested TCP protocol packet class of a nested TCP
+     *            protocol packet or list
+     * @param format
+     *            the wire format
+     *
+     * @exception BufferUnderflowException
+     *                if the source buffer ends before the value
+     * @exception IllegalArgumentException
+     *                if the value is invalid
+     */
+    private static void skipVariable(ByteBuffer source, int kind,
+            Class<? extends TCPProtocolPacket> packetType,
+            TCPWireFormat format) {
+        boolean compact = (format == TCPWireFormat.COMPACT);
+        if (kind == PACKET_KIND) {
+            skipPacket(source, packetType, format);
+        } else if (kind == CHUNK_KIND) {
+            getVarint(source);
+            long position = (compact ? getVarint(source) : source.getLong());
+            if (position < 0) {
+                throw new IllegalArgumentException("Invalid position");
+            }
+            source.get();
+            skip(source, compact ? getCompactLength(source) : getSize(source));
+        } else if (kind == BOOLEAN_ARRAY_KIND && compact) {
+            long length = getVarint(source);
+            if (length < 0 || length > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Invalid length");
+            }
+            skip(source, (length + 7) / 8);
+        } else {
+            int length = (compact ? getCompactLength(source)
+                    : getSize(source));
+            if (kind == STRING_ARRAY_KIND) {
+                for (int i = 0; i < length; i++) {
+                    skip(source, compact ? getCompactLength(source)
+                            : getSize(source));
+                }
+            } else if (kind == PACKET_LIST_KIND) {
+                for (int i = 0; i < length; i++) {
+                    skipPacket(source, packetType, format);
+                }
+            } else if (compact && kind >= SHORT_ARRAY_KIND
+                    && kind <= LONG_ARRAY_KIND) {
+                for (int i = 0; i < length; i++) {
+                    getVarint(source);
+                }
+            } else {
+                skip(source, (long) length * elementLength(kind));
+            }
+        }
+    }
+
+    /**
+     * Skips a nested TCP protocol packet of the specified class in the
+     * specified wire format, preceded by whether it is present.
+     *
+     * @param source
+     *            the source buffer
+     * @param type
+     *            the nested TCP protocol packet class
+     * @param format
+     *            the wire format
+     *
+     * @exception BufferUnderflowException
+     *                if the source buffer ends before the TCP protocol packet
+     * @exception IllegalArgumentException
+     *                if the TCP protocol packet is invalid
+     */
+    private static void skipPacket(ByteBuffer source,
+            Class<? extends TCPProtocolPacket> type, TCPWireFormat format) {
+        if (getBoolean(source)
+                && !layoutOf(type).skip(source, format, null)) {
+            throw new IllegalArgumentException("Invalid packet");
+        }
+    }
+
+    /**
+     * Returns the encoded length of an element of a string, byte array or
+     * array kind in the fixed wire format, where a string is an array of
+     * bytes.
+     *
+     * @param kind
+     *            the kind
+     *
+     * @return the encoded length of an element
+     */
+    private static int elementLength(int kind) {
+        switch (kind) {
+        case SHORT_ARRAY_KIND:
+            return 2;
+        case INT_ARRAY_KIND:
+        case FLOAT_ARRAY_KIND:
+            return 4;
+        case LONG_ARRAY_KIND:
+        case DOUBLE_ARRAY_KIND:
+            return 8;
+        default:
+            return 1;
+        }
+    }
+
+    /**
+     * Skips the specified number of bytes of the source buffer.
+     *
+     * @param source
+     *            the source buffer
+     * @param length
+     *            the number of bytes
+     *
+     * @exception BufferUnderflowException
+     *                if the source buffer has not enough bytes remaining
+     */
+    private static void skip(ByteBuffer source, long length) {
+        if (source.remaining() < length) {
+            throw new BufferUnderflowException();
+        }
+        source.position(source.position() + (int) length);
+    }
+
+    /**
+     * Returns the kind of the specified field, or <code>-1</code> if the
+     * field type is not supported.
+     *
+     * @param field
+     *            the field
+     *
+     * @return the kind, or <code>-1</code>
+     */
+    private static int kindOf(Field field) {
+        int kind = Arrays.asList(TYPES).indexOf(field.getType());
+        if (kind >= 0) {
+            return kind;
+        } else if (field.getType() == TCPChunk.class) {
+            return CHUNK_KIND;
+        } else if (isPacketType(field.getType())) {
+            return PACKET_KIND;
+        } else if (packetTypeOf(field) != null) {
+            return PACKET_LIST_KIND;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the nested TCP protocol packet class of the specified field of
+     * a nested TCP protocol packet or list kind, or <code>null</code>
+     * otherwise.
+     *
+     * @param field
+     *            the field
+     *
+     * @return the nested TCP protocol packet class, or <code>null</code>
+     */
+    private static Class<? extends TCPProtocolPacket> packetTypeOf(
+            Field field) {
+        Type type = field.getGenericType();
+        if (isPacketType(field.getType())) {
+            return field.getType().asSubclass(TCPProtocolPacket.class);
+        } else if (field.getType() == List.class
+                && type instanceof ParameterizedType) {
+            Type element = ((ParameterizedType) type)
+                    .getActualTypeArguments()[0];
+            if (element instanceof Class && isPacketType((Class<?>) element)) {
+                return ((Class<?>) element)
+                        .asSubclass(TCPProtocolPacket.class);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns whether the specified class is a concrete TCP protocol packet
+     * class, which can be the type of a nested TCP protocol packet.
+     *
+     * @param type
+     *            the class
+     *
+     * @return <code>true</code> if the class is a concrete TCP protocol
+     *         packet class, <code>false</code> otherwise
+     */
+    private static boolean isPacketType(Class<?> type) {
+        return TCPProtocolPacket.class.isAssignableFrom(type)
+                && type != TCPProtocolPacket.class
+                && !Modifier.isAbstract(type.getModifiers());
+    }
+
+    /**
+     * Validates the specified field.
+     *
+     * @param field
+     *            the field
+     * @param opCodeExpected
+     *            whether the field is expected to be the op code field
+     *
+     * @exception IllegalArgumentException
+     *                if the field is not valid
+     */
+    private static void validate(Field field, boolean opCodeExpected) {
+        int modifiers = field.getModifiers();
+
+        if (!Modifier.isPublic(modifiers)) {
+            throw new IllegalArgumentException("Field should be public");
+        } else if (Modifier.isStatic(modifiers)) {
+            throw new IllegalArgumentException("Field should not be static");
+        } else if (Modifier.isStrict(modifiers)) {
+            throw new IllegalArgumentException("Field should not be strict");
+        } else if (Modifier.isTransient(modifiers)) {
+            throw new IllegalArgumentException(
+                    "Field should not be transient");
+        } else if (Modifier.isVolatile(modifiers)) {
+            throw new IllegalArgumentException("Field should not be volatile");
+        }
+
+        if (opCodeExpected) {
+            if (!Modifier.isFinal(modifiers)) {
+                throw new IllegalArgumentException(
+                        "Field opCode should be final");
+            } else if (field.getType() != short.class) {
+                throw new IllegalArgumentException(
+                        "Field opCode should be short");
+            } else if (!field.getName().equals(OP_CODE_NAME)) {
+                throw new IllegalArgumentException("Field opCode invalid name");
+            }
+        } else {
+            if (Modifier.isFinal(modifiers)) {
+                throw new IllegalArgumentException(
+                        "Field should not be final");
+            } else if (kindOf(field) < 0) {
+                throw new IllegalArgumentException("Field type not valid");
+            }
+        }
+    }
+
+    /**
+     * Returns a getter for the specified field, typed to accept any TCP
+     * protocol packet.
+     *
+     * @param lookup
+     *            the lookup
+     * @param field
+     *            the field
+     * @param type
+     *            the field type
+     *
+     * @return the getter
+     *
+     * @exception IllegalArgumentException
+     *                if the field is not accessible
+     */
+    private static MethodHandle getter(MethodHandles.Lookup lookup,
+            Field field, Class<?> type) {
+        try {
+            field.setAccessible(true);
+            return lookup.unreflectGetter(field).asType(
+                    MethodType.methodType(type, TCPProtocolPacket.class));
+        } catch (IllegalAccessException | SecurityException e) {
+            throw new IllegalArgumentException("Field not accessible", e);
+        }
+    }
+
+    /**
+     * Returns a setter for the specified field, typed to accept any TCP
+     * protocol packet.
+     *
+     * @param lookup
+     *            the lookup
+     * @param field
+     *            the field
+     * @param type
+     *            the field type
+     *
+     * @return the setter
+     *
+     * @exception IllegalArgumentException
+     *                if the field is not accessible
+     */
+    private static MethodHandle setter(MethodHandles.Lookup lookup,
+            Field field, Class<?> type) {
+        try {
+            return lookup.unreflectSetter(field)
+                    .asType(MethodType.methodType(void.class,
+                            TCPProtocolPacket.class, type));
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Field not accessible", e);
+        }
+    }
+
+    /**
+     * Returns the public no argument constructor of the specified class, or
+     * <code>null</code> if not available.
+     *
+     * @param lookup
+     *            the lookup
+     * @param type
+     *            the TCP protocol packet class
+     *
+     * @return the constructor, or <code>null</code>
+     */
+    private static MethodHandle constructor(MethodHandles.Lookup lookup,
+            Class<?> type) {
+        try {
+            Constructor<?> constructor = type.getConstructor();
+            constructor.setAccessible(true);
+            return lookup.unreflectConstructor(constructor).asType(
+                    MethodType.methodType(TCPProtocolPacket.class));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -22,11 +22,8 @@
 
 package com.siloft.networking;
 
-import java.lang.reflect.Field;
-import java.lang.reflect.Modifier;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
-import java.nio.charset.StandardCharsets;
-import java.util.Arrays;
 
 /**
  * This class represents a TCP protocol packet. In addition to the standard
@@ -46,75 +43,50 @@ import java.util.Arrays;
  * <li><code>float</code> - uses 32 bits during transmission</li>
  * <li><code>double</code> - uses 64 bits during transmission</li>
  * <li><code>boolean</code> - uses 8 bits during transmission</li>
- * <li><code>String</code> - uses 16*n+8 bits during transmission</li>
- * <li><code>byte[]</code> - uses 16*n+8 bits during transmission</li>
+ * <li><code>String</code> - uses a size plus its UTF-8 encoding during
+ * transmission</li>
+ * <li><code>byte[]</code> - uses a size plus 8 bits per byte during
+ * transmission</li>
+ * <li><code>short[]</code>, <code>int[]</code>, <code>long[]</code>,
+ * <code>float[]</code>, <code>double[]</code> and <code>boolean[]</code> -
+ * use a size plus the bits of every element during transmission</li>
+ * <li><code>String[]</code> - uses a size plus every element as
+ * <code>String</code> during transmission</li>
+ * <li>a nested TCP protocol packet class - uses 8 bits plus the nested TCP
+ * protocol packet during transmission</li>
+ * <li><code>List</code> of a nested TCP protocol packet class - uses a size
+ * plus every element as nested TCP protocol packet during transmission</li>
+ * <li><code>TCPChunk</code> - uses 104 bits plus a size plus 8 bits per byte
+ * during transmission</li>
  * </ul>
  * <p>
+ * A size up to 32767 bytes or elements uses 16 bits, a larger size uses 32
+ * bits. Values too large to be held in memory at once are transmitted in a
+ * sequence of TCP protocol packets with a <code>TCPChunk</code> field, using
+ * <code>TCPChunkWriter</code> and <code>TCPChunkReader</code>.
+ * <p>
  * To define fields in a TCP protocol packet use the following parameter
  * definition: <code>public [TYPE] [NAME];</code> The <code>opCode</code>
  * parameter is always required as first parameter in a TCP protocol packet:
  * <code>public final short opCode = [NUMBER];</code>
+ * <p>
+ * The fields of a TCP protocol packet class are validated once, upon
+ * constructing the first instance. A <code>null</code> string, array, list or
+ * chunk is transmitted as an empty one, while a <code>null</code> nested TCP
+ * protocol packet is transmitted as absent. A nested TCP protocol packet class
+ * should be concrete and have a public constructor without arguments, and its
+ * values should be of exactly that class. A decoded list is an
+ * <code>ArrayList</code>.
  *
  * @author Sander Veldhuis
  */
 public class TCPProtocolPacket extends TCPPacket {
 
-    /** The op code field name. */
-    private static final String OP_CODE_NAME = "opCode";
-
-    /** The name of the <code>byte</code> type. */
-    private static final String BYTE_TYPE = "byte";
-
-    /** The name of the <code>short</code> type. */
-    private static final String SHORT_TYPE = "short";
-
-    /** The name of the <code>int</code> type. */
-    private static final String INT_TYPE = "int";
-
-    /** The name of the <code>long</code> type. */
-    private static final String LONG_TYPE = "long";
-
-    /** The name of the <code>float</code> type. */
-    private static final String FLOAT_TYPE = "float";
-
-    /** The name of the <code>double</code> type. */
-    private static final String DOUBLE_TYPE = "double";
-
-    /** The name of the <code>boolean</code> type. */
-    private static final String BOOLEAN_TYPE = "boolean";
-
-    /** The name of the <code>String</code> type. */
-    private static final String STRING_TYPE = "java.lang.String";
-
-    /** The name of the <code>byte[]</code> type. */
-    private static final String BYTE_ARRAY_TYPE = "byte[]";
-
-    /** The length of the <code>byte</code> type. */
-    private static final int BYTE_LENGTH = 1;
-
-    /** The length of the <code>short</code> type. */
-    private static final int SHORT_LENGTH = 2;
-
-    /** The length of the <code>int</code> type. */
-    private static final int INT_LENGTH = 4;
-
-    /** The length of the <code>long</code> type. */
-    private static final int LONG_LENGTH = 8;
-
-    /** The length of the <code>float</code> type. */
-    private static final int FLOAT_LENGTH = 4;
-
-    /** The length of the <code>double</code> type. */
-    private static final int DOUBLE_LENGTH = 8;
+    /** The codec of this TCP protocol packet class. */
+    private final TCPPacketCodec<TCPProtocolPacket> codec;
 
-    /** The length of the <code>boolean</code> type. */
-    private static final int BOOLEAN_LENGTH = 1;
-
-    /** The length of the <code>String</code> type. */
-    private static final int STRING_LENGTH = 2;
-
-    /** The length of the <code>byte[]</code> type. */
-    private static final int BYTE_ARRAY_LENGTH = 2;
+    /** Whether this TCP protocol packet is retained. */
+    private boolean retained;
 
     /**
      * Constructs a new TCP protocol packet.
@@ -124,7 +96,36 @@ public class TCPProtocolPacket extends TCPPacket {
      */
     protected TCPProtocolPacket() {
         super(new byte[0], 0);
-        validateFields();
+        codec = TCPPacketCodec.of(getClass());
+    }
+
+    /**
+     * Retains this TCP protocol packet, which prevents it from being recycled.
+     * A listener receiving TCP protocol packets of a class with a
+     * <code>TCPPacketRecycler</code> should retain a TCP protocol packet it
+     * keeps after returning, as it is otherwise released to the recycler and
+     * overwritten by a next decoded TCP protocol packet.
+     */
+    public void retain() {
+        retained = true;
+    }
+
+    /**
+     * Returns whether this TCP protocol packet is retained.
+     *
+     * @return <code>true</code> if retained, <code>false</code> otherwise
+     */
+    public boolean isRetained() {
+        return retained;
+    }
+
+    /**
+     * Returns the op code of this TCP protocol packet.
+     *
+     * @return the op code
+     */
+    short getOpCode() {
+        return codec.getOpCode(this);
     }
 
     /**
@@ -145,110 +146,54 @@ public class TCPProtocolPacket extends TCPPacket {
             return null;
         }
 
-        TCPProtocolPacket tcpPacket;
-        try {
-            tcpPacket = this.getClass().getConstructor().newInstance();
-        } catch (Exception e) {
-            return null;
-        }
+        return codec.decode(data, 0, length);
+    }
 
-        int i = 0;
-        for (Field field : getClass().getDeclaredFields()) {
-            if (field.isSynthetic()) {
-                continue;
-            }
+    /**
+     * Decodes the fields of this TCP protocol packet from the position of the
+     * specified buffer. Upon success the position is advanced past this TCP
+     * protocol packet, otherwise neither the position nor any field is
+     * modified. Reusing a TCP protocol packet avoids allocating one for every
+     * decoded packet.
+     *
+     * @param source
+     *            the source buffer, heap or direct, in any byte order
+     *
+     * @return <code>true</code> upon correctly decoding the data,
+     *         <code>false</code> otherwise
+     *
+     * @exception NullPointerException
+     *                if the buffer is <code>null</code>
+     */
+    public synchronized boolean readFrom(ByteBuffer source) {
+        if (source == null) {
+            throw new NullPointerException("Buffer is null");
+        }
 
-            try {
-                String typeName = field.getGenericType().getTypeName();
+        return codec.decode(source, this);
+    }
 
-                if (typeName.equals(BYTE_TYPE)) {
-                    if (length - i < BYTE_LENGTH) {
-                        return null;
-                    }
-                    field.setByte(tcpPacket, data[i]);
-                    i += BYTE_LENGTH;
-                } else if (typeName.equals(SHORT_TYPE)) {
-                    if (length - i < SHORT_LENGTH) {
-                        return null;
-                    }
-                    short value =
-                            ByteBuffer.wrap(data, i, length - i).getShort();
-                    if (field.getName().equals(OP_CODE_NAME)) {
-                        if (field.getShort(tcpPacket) != value) {
-                            return null;
-                        }
-                    } else {
-                        field.setShort(tcpPacket, value);
-                    }
-                    i += SHORT_LENGTH;
-                } else if (typeName.equals(INT_TYPE)) {
-                    if (length - i < INT_LENGTH) {
-                        return null;
-                    }
-                    int value = ByteBuffer.wrap(data, i, INT_LENGTH).getInt();
-                    field.setInt(tcpPacket, value);
-                    i += INT_LENGTH;
-                } else if (typeName.equals(LONG_TYPE)) {
-                    if (length - i < LONG_LENGTH) {
-                        return null;
-                    }
-                    long value = ByteBuffer.wrap(data, i, length - i).getLong();
-                    field.setLong(tcpPacket, value);
-                    i += LONG_LENGTH;
-                } else if (typeName.equals(FLOAT_TYPE)) {
-                    if (length - i < FLOAT_LENGTH) {
-                        return null;
-                    }
-                    float value =
-                            ByteBuffer.wrap(data, i, length - i).getFloat();
-                    field.setFloat(tcpPacket, value);
-                    i += FLOAT_LENGTH;
-                } else if (typeName.equals(DOUBLE_TYPE)) {
-                    if (length - i < DOUBLE_LENGTH) {
-                        return null;
-                    }
-                    double value =
-                            ByteBuffer.wrap(data, i, length - i).getDouble();
-                    field.setDouble(tcpPacket, value);
-                    i += DOUBLE_LENGTH;
-                } else if (typeName.equals(BOOLEAN_TYPE)) {
-                    if (length - i < BOOLEAN_LENGTH) {
-                        return null;
-                    }
-                    field.setBoolean(tcpPacket, (data[i] == 1 ? true : false));
-                    i += BOOLEAN_LENGTH;
-                } else if (typeName.equals(STRING_TYPE)) {
-                    if (length - i < STRING_LENGTH) {
-                        return null;
-                    }
-                    short len = ByteBuffer.wrap(data, i, length - i).getShort();
-                    i += STRING_LENGTH;
-                    if (length - i < len) {
-                        return null;
-                    }
-                    String value =
-                            new String(data, i, len, StandardCharsets.UTF_8);
-                    field.set(tcpPacket, value);
-                    i += len;
-                } else if (typeName.equals(BYTE_ARRAY_TYPE)) {
-                    if (length - i < BYTE_ARRAY_LENGTH) {
-                        return null;
-                    }
-                    short len = ByteBuffer.wrap(data, i, length - i).getShort();
-                    i += BYTE_ARRAY_LENGTH;
-                    if (length - i < len) {
-                        return null;
-                    }
-                    byte[] value = Arrays.copyOfRange(data, i, i + len);
-                    field.set(tcpPacket, value);
-                    i += len;
-                }
-            } catch (Exception e) {
-                return null;
-            }
+    /**
+     * Encodes this TCP protocol packet at the position of the specified
+     * buffer, and advances the position. Nothing is written if the buffer has
+     * less than <code>getLength()</code> bytes remaining. No intermediate
+     * buffers are allocated, which allows many TCP protocol packets to be
+     * encoded into a single buffer.
+     *
+     * @param target
+     *            the target buffer, heap or direct, in any byte order
+     *
+     * @exception NullPointerException
+     *                if the buffer is <code>null</code>
+     * @exception BufferOverflowException
+     *                if the buffer has not enough space remaining
+     */
+    public synchronized void writeTo(ByteBuffer target) {
+        if (target == null) {
+            throw new NullPointerException("Buffer is null");
         }
 
-        return tcpPacket;
+        codec.encode(this, target);
     }
 
     /**
@@ -258,71 +203,7 @@ public class TCPProtocolPacket extends TCPPacket {
      */
     @Override
     public synchronized byte[] getData() {
-        ByteBuffer buffer = ByteBuffer.allocate(getLength());
-
-        for (Field field : getClass().getDeclaredFields()) {
-            if (field.isSynthetic()) {
-                continue;
-            }
-
-            try {
-                String typeName = field.getGenericType().getTypeName();
-                byte[] bytes = new byte[0];
-
-                if (typeName.equals(BYTE_TYPE)) {
-                    byte value = field.getByte(this);
-                    bytes = ByteBuffer.allocate(BYTE_LENGTH).put(value).array();
-                } else if (typeName.equals(SHORT_TYPE)) {
-                    short value = field.getShort(this);
-                    bytes = ByteBuffer.allocate(SHORT_LENGTH).putShort(value)
-                            .array();
-                } else if (typeName.equals(INT_TYPE)) {
-                    int value = field.getInt(this);
-                    bytes = ByteBuffer.allocate(INT_LENGTH).putInt(value)
-                            .array();
-                } else if (typeName.equals(LONG_TYPE)) {
-                    long value = field.getLong(this);
-                    bytes = ByteBuffer.allocate(LONG_LENGTH).putLong(value)
-                            .array();
-                } else if (typeName.equals(FLOAT_TYPE)) {
-                    float value = field.getFloat(this);
-                    bytes = ByteBuffer.allocate(FLOAT_LENGTH).putFloat(value)
-                            .array();
-                } else if (typeName.equals(DOUBLE_TYPE)) {
-                    double value = field.getDouble(this);
-                    bytes = ByteBuffer.allocate(DOUBLE_LENGTH).putDouble(value)
-                            .array();
-                } else if (typeName.equals(BOOLEAN_TYPE)) {
-                    boolean value = field.getBoolean(this);
-                    bytes = ByteBuffer.allocate(BOOLEAN_LENGTH)
-                            .put((value ? (byte) 1 : (byte) 0)).array();
-                } else if (typeName.equals(STRING_TYPE)) {
-                    String value = (String) field.get(this);
-                    if (value == null) {
-                        buffer.put((byte) 0);
-                    } else {
-                        bytes = value.getBytes(StandardCharsets.UTF_8);
-                        buffer.put(ByteBuffer.allocate(STRING_LENGTH)
-                                .putShort((short) bytes.length).array());
-                    }
-                } else if (typeName.equals(BYTE_ARRAY_TYPE)) {
-                    byte[] value = (byte[]) field.get(this);
-                    if (value == null) {
-                        buffer.put((byte) 0);
-                    } else {
-                        bytes = value;
-                        buffer.put(ByteBuffer.allocate(BYTE_ARRAY_LENGTH)
-                                .putShort((short) bytes.length).array());
-                    }
-                }
-
-                buffer.put(bytes);
-            } catch (Exception e) {
-                // Ignore
-            }
-        }
-
-        return buffer.array();
+        return codec.encode(this);
     }
 
     /**
@@ -332,105 +213,6 @@ public class TCPProtocolPacket extends TCPPacket {
      */
     @Override
     public synchronized int getLength() {
-        int length = 0;
-
-        for (Field field : getClass().getDeclaredFields()) {
-            if (field.isSynthetic()) {
-                continue;
-            }
-
-            try {
-                String typeName = field.getGenericType().getTypeName();
-
-                if (typeName.equals(BYTE_TYPE)) {
-                    length += BYTE_LENGTH;
-                } else if (typeName.equals(SHORT_TYPE)) {
-                    length += SHORT_LENGTH;
-                } else if (typeName.equals(INT_TYPE)) {
-                    length += INT_LENGTH;
-                } else if (typeName.equals(LONG_TYPE)) {
-                    length += LONG_LENGTH;
-                } else if (typeName.equals(FLOAT_TYPE)) {
-                    length += FLOAT_LENGTH;
-                } else if (typeName.equals(DOUBLE_TYPE)) {
-                    length += DOUBLE_LENGTH;
-                } else if (typeName.equals(BOOLEAN_TYPE)) {
-                    length += BOOLEAN_LENGTH;
-                } else if (typeName.equals(STRING_TYPE)) {
-                    length += STRING_LENGTH;
-                    length += ((String) field.get(this)).length();
-                } else if (typeName.equals(BYTE_ARRAY_TYPE)) {
-                    length += BYTE_ARRAY_LENGTH;
-                    length += ((byte[]) field.get(this)).length;
-                }
-            } catch (Exception e) {
-                // Ignore
-            }
-        }
-
-        return length;
-    }
-
-    /**
-     * Validate all fields of this TCP protocol packet. The first field is
-     * expected to be the <code>opCode</code> field.
-     */
-    private void validateFields() {
-        boolean opCodeExpected = true;
-
-        for (Field field : getClass().getDeclaredFields()) {
-            boolean isSynthetic = field.isSynthetic();
-            int modifiers = field.getModifiers();
-            String typeName = field.getGenericType().getTypeName();
-
-            if (isSynthetic) {
-                continue;
-            }
-
-            if (!Modifier.isPublic(modifiers)) {
-                throw new IllegalArgumentException("Field should be public");
-            } else if (Modifier.isStatic(modifiers)) {
-                throw new IllegalArgumentException(
-                        "Field should not be static");
-            } else if (Modifier.isStrict(modifiers)) {
-                throw new IllegalArgumentException(
-                        "Field should not be strict");
-            } else if (Modifier.isTransient(modifiers)) {
-                throw new IllegalArgumentException(
-                        "Field should not be transient");
-            } else if (Modifier.isVolatile(modifiers)) {
-                throw new IllegalArgumentException(
-                        "Field should not be volatile");
-            }
-
-            if (opCodeExpected) {
-                if (!Modifier.isFinal(modifiers)) {
-                    throw new IllegalArgumentException(
-                            "Field opCode should be final");
-                } else if (!typeName.equals(SHORT_TYPE)) {
-                    throw new IllegalArgumentException(
-                            "Field opCode should be short");
-                } else if (!field.getName().equals(OP_CODE_NAME)) {
-                    throw new IllegalArgumentException(
-                            "Field opCode invalid name");
-                }
-                opCodeExpected = false;
-            } else {
-                if (Modifier.isFinal(modifiers)) {
-                    throw new IllegalArgumentException(
-                            "Field should not be final");
-                } else if (!typeName.equals(BYTE_TYPE)
-                        && !typeName.equals(SHORT_TYPE)
-                        && !typeName.equals(INT_TYPE)
-                        && !typeName.equals(LONG_TYPE)
-                        && !typeName.equals(FLOAT_TYPE)
-                        && !typeName.equals(DOUBLE_TYPE)
-                        && !typeName.equals(BOOLEAN_TYPE)
-                        && !typeName.equals(STRING_TYPE)
-                        && !typeName.equals(BYTE_ARRAY_TYPE)) {
-                    throw new IllegalArgumentException("Field type not valid");
-                }
-            }
-        }
+        return codec.getLength(this);
     }
 }
@@ -22,20 +22,22 @@
 
 package com.siloft.networking;
 
-import javafx.concurrent.Worker.State;
-
 import java.io.IOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadFactory;
 
 /**
  * This class represents a TCP server for transmitting and receiving TCP
@@ -47,9 +49,13 @@ import java.util.concurrent.ThreadFactory;
  * delivery of a stream of octets (bytes) between applications running on hosts
  * communicating by an IP network. Packet delivery is guaranteed.
  * <p>
- * The TCP server requires the JavaFX thread to be initialised. If your
- * application is not running as JavaFX application the JavaFX thread can simply
- * be initialised by calling: <code>new JFXPanel();</code>
+ * The TCP server does not require the JavaFX thread. Listeners are notified on
+ * the background threads of the TCP server, one notification at a time. User
+ * interfaces can receive all notifications on the JavaFX Application Thread by
+ * setting an <code>FXThreadExecutor</code> as listener executor. Handlers
+ * of many clients can run in parallel by setting a
+ * <code>StripedDispatcher</code>, which keeps the notifications of each
+ * client in order.
  *
  * @author Sander Veldhuis
  */
@@ -70,9 +76,9 @@ public class TCPServer {
     /** The server bind address. */
     private final InetAddress bindAddress;
 
-    /** List containing all accepted clients. */
-    private final Map<Integer, Socket> clientSockets =
-            new HashMap<Integer, Socket>();
+    /** The connections of all accepted clients. */
+    private final ConnectionMap<Connection> connections =
+            new ConnectionMap<Connection>();
 
     /** The protocol used for decoding packets. */
     private TCPProtocol protocol;
@@ -80,13 +86,41 @@ public class TCPServer {
     /** The service for accepting new clients. */
     private AcceptService acceptService;
 
-    /** The services for receiving data from clients. */
-    private final Map<Integer, ReceiveService> receiveServices =
-            new HashMap<Integer, ReceiveService>();
+    /** The framer delimiting the TCP packets, or <code>null</code>. */
+    private volatile TCPFramer framer = new TCPLengthFramer();
+
+    /** The limits of the data queued for transmission per client. */
+    private volatile TransmitLimits transmitLimits = TransmitLimits.DEFAULT;
+
+    /** Whether the background services run on virtual threads. */
+    private volatile boolean virtualThreads;
+
+    /** The executor used for notifying listeners, or <code>null</code>. */
+    private volatile Executor listenerExecutor;
+
+    /** The executor running the background services, or <code>null</code>. */
+    private volatile Executor ioExecutor;
+
+    /** The dispatcher notifying received packets, or <code>null</code>. */
+    private volatile StripedDispatcher dispatcher;
+
+    /** The maximum number of connected clients, or zero if unlimited. */
+    private volatile int maximumClients;
+
+    /** The executor accepting and receiving, or <code>null</code>. */
+    private Executor receiveExecutor;
+
+    /** The executor transmitting, or <code>null</code>. */
+    private Executor transmitExecutor;
+
+    /** Whether the executors are created upon connecting. */
+    private boolean ownedExecutors;
+
+    /** The maximum number of clients of the current connection. */
+    private volatile int clientLimit;
 
-    /** The services for transmitting data to clients. */
-    private final Map<Integer, TransmitService> transmitServices =
-            new HashMap<Integer, TransmitService>();
+    /** The lock serialising the notification of listeners. */
+    private final Object listenerLock = new Object();
 
     /** List containing all listeners triggered upon newly connected clients. */
     private final List<ServerConnectedListener> connectedListeners =
@@ -94,11 +128,24 @@ public class TCPServer {
 
     /** List containing all listeners triggered upon disconnected clients. */
     private final List<ServerDisconnectedListener> disconnectedListeners =
-            new ArrayList<ServerDisconnectedListener>();
+            new CopyOnWriteArrayList<ServerDisconnectedListener>();
+
+    /** List containing all listeners triggered upon refused clients. */
+    private final List<ServerRefusedListener> refusedListeners =
+            new CopyOnWriteArrayList<ServerRefusedListener>();
 
     /** List containing all listeners triggered upon newly received packets. */
     private final List<ServerPacketListener> packetListeners =
-            new ArrayList<ServerPacketListener>();
+            new CopyOnWriteArrayList<ServerPacketListener>();
+
+    /** The handlers of TCP protocol packets, indexed by op code. */
+    private final PacketHandlerTable<ServerPacketHandler<?>> packetHandlers =
+            new PacketHandlerTable<ServerPacketHandler<?>>(
+                    ServerPacketHandler.class);
+
+    /** List containing all listeners triggered upon writability changes. */
+    private final List<ServerWritabilityListener> writabilityListeners =
+            new CopyOnWriteArrayList<ServerWritabilityListener>();
 
     /**
      * Constructs a new TCP server, on any free port. The maximum queue length
@@ -232,7 +279,16 @@ public class TCPServer {
         if (isConnected()) {
             return;
         }
-        serverSocket = new ServerSocket(port, queueLength, bindAddress);
+        // Open through a channel, which allows transferring files directly
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        try {
+            channel.socket().bind(new InetSocketAddress(bindAddress, port),
+                    queueLength);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        serverSocket = channel.socket();
         createAcceptService();
     }
 
@@ -240,23 +296,25 @@ public class TCPServer {
      * Tries to stop this TCP server connection.
      */
     public void disconnect() {
-        clientSockets.forEach((id, clientSocket) -> {
+        synchronized (listenerLock) {
+            connections.forEach(connection -> {
+                try {
+                    connection.socket.close();
+                } catch (Exception e) {
+                    // Ignore
+                }
+                connection.transmitService.close();
+            });
             try {
-                clientSocket.close();
+                serverSocket.close();
             } catch (Exception e) {
                 // Ignore
             }
-        });
-        try {
-            serverSocket.close();
-        } catch (Exception e) {
-            // Ignore
+            serverSocket = null;
+            connections.clear();
+            acceptService = null;
+            releaseExecutors();
         }
-        serverSocket = null;
-        clientSockets.clear();
-        acceptService = null;
-        receiveServices.clear();
-        transmitServices.clear();
     }
 
     /**
@@ -266,40 +324,183 @@ public class TCPServer {
      *            the client identifier
      */
     public void disconnect(int id) {
-        if (!clientSockets.containsKey(id)) {
-            return;
-        }
-        for (ServerDisconnectedListener listener : disconnectedListeners) {
-            listener.disconnected(name, id);
-        }
+        synchronized (listenerLock) {
+            Connection connection = connections.get(id);
+            if (connection == null) {
+                return;
+            }
+            StripedDispatcher dispatcher = this.dispatcher;
+            if (dispatcher == null) {
+                disconnected(id);
+            } else {
+                dispatcher.execute(id, () -> disconnected(id));
+            }
 
-        try {
-            clientSockets.remove(id).close();
-        } catch (Exception ex) {
-            // Ignore
+            try {
+                connection.socket.close();
+            } catch (Exception ex) {
+                // Ignore
+            }
+            connections.remove(id);
+            connection.transmitService.close();
         }
-        receiveServices.remove(id);
-        transmitServices.remove(id);
     }
 
     /**
-     * Schedules a TCP packet for transmission to the specified client.
+     * Schedules a TCP packet for transmission to the specified client. May be
+     * invoked by any thread. It does not block, unless a transmit limit is hit
+     * and the limits apply the <code>BLOCK</code> policy. A TCP protocol
+     * packet is encoded in the wire format of the protocol, if set.
      *
      * @param id
      *            the client identifier
      * @param packet
      *            the TCP packet
+     *
+     * @return <code>true</code> if the TCP packet is scheduled, or
+     *         <code>false</code> if it is rejected by the transmit limits,
+     *         exceeds the maximum length of the framer, or the client is not
+     *         connected
      */
-    public void transmit(int id, TCPPacket packet) {
+    public boolean transmit(int id, TCPPacket packet) {
         if (!isConnected() || packet == null) {
-            return;
+            return false;
         }
 
-        TransmitService service = transmitServices.get(id);
-        if (service != null) {
-            service.enqueue(packet);
-            service.restart();
+        Connection connection = connections.get(id);
+        if (connection == null) {
+            return false;
+        }
+        return connection.transmitService
+                .enqueue(TCPPacket.snapshot(packet, protocol));
+    }
+
+    /**
+     * Schedules a TCP packet for transmission to all connected clients. The
+     * TCP packet is encoded once and the same data is shared by all clients.
+     *
+     * @param packet
+     *            the TCP packet
+     *
+     * @return the number of clients the TCP packet is scheduled for
+     */
+    public int broadcast(TCPPacket packet) {
+        if (!isConnected() || packet == null) {
+            return 0;
         }
+
+        final List<TransmitService> services =
+                new ArrayList<TransmitService>();
+        connections.forEach(connection -> {
+            services.add(connection.transmitService);
+        });
+        return broadcast(services, TCPPacket.snapshot(packet, protocol));
+    }
+
+    /**
+     * Schedules a TCP packet for transmission to the specified clients. The
+     * TCP packet is encoded once and the same data is shared by all clients.
+     * Identifiers of clients which are not connected are ignored.
+     *
+     * @param ids
+     *            the client identifiers
+     * @param packet
+     *            the TCP packet
+     *
+     * @return the number of clients the TCP packet is scheduled for
+     */
+    public int broadcast(Collection<Integer> ids, TCPPacket packet) {
+        if (!isConnected() || ids == null || packet == null) {
+            return 0;
+        }
+
+        final List<TransmitService> services =
+                new ArrayList<TransmitService>(ids.size());
+        for (Integer id : ids) {
+            Connection connection = connections.get(id);
+            if (connection != null) {
+                services.add(connection.transmitService);
+            }
+        }
+        return broadcast(services, TCPPacket.snapshot(packet, protocol));
+    }
+
+    /**
+     * Returns whether the specified client is writable. A client is unwritable
+     * once more data is queued for transmission than the high watermark of the
+     * transmit limits, and writable again once the queue is drained to the low
+     * watermark.
+     *
+     * @param id
+     *            the client identifier
+     *
+     * @return <code>true</code> if the client is connected and writable,
+     *         otherwise <code>false</code>
+     */
+    public boolean isWritable(int id) {
+        Connection connection = connections.get(id);
+        return (connection != null && connection.transmitService.isWritable());
+    }
+
+    /**
+     * Schedules a region of a file for transmission to the specified client.
+     * The file is transmitted in order with the TCP packets scheduled before
+     * and after it, and is read while being transmitted instead of being held
+     * in memory. Over a plain TCP connection the operating system transfers
+     * the file directly to the socket; over an SSL connection the file is
+     * memory-mapped in chunks and encrypted like other data.
+     * <p>
+     * If a framer is set the file is transmitted as consecutive TCP packets of
+     * at most 1 MiB each, or the maximum length of the framer if smaller,
+     * which the receiving side has to join; otherwise the file is transmitted
+     * as plain bytes.
+     *
+     * @param id
+     *            the client identifier
+     * @param file
+     *            the file
+     * @param offset
+     *            the position in the file to start transmitting from
+     * @param length
+     *            the number of bytes to be transmitted
+     *
+     * @return the future completed with the number of transmitted bytes, or
+     *         completed exceptionally if the client is not connected, the file
+     *         is rejected by the transmit limits, or the transmission fails
+     *
+     * @exception NullPointerException
+     *                if the file is <code>null</code>
+     * @exception IllegalArgumentException
+     *                if the offset or length is invalid
+     */
+    public CompletableFuture<Long> transmitFile(int id, Path file,
+            long offset, long length) {
+        FilePacket packet = new FilePacket(file, offset, length);
+        Connection connection = connections.get(id);
+        if (!isConnected() || connection == null) {
+            return FilePacket.failed("Not connected");
+        }
+        if (!connection.transmitService.enqueue(packet)) {
+            return FilePacket.failed("File rejected");
+        }
+        return packet.getFuture();
+    }
+
+    /**
+     * Returns a snapshot of the transmit statistics of the specified client.
+     * The statistics show how many TCP packets are coalesced into a single
+     * write to the socket.
+     *
+     * @param id
+     *            the client identifier
+     *
+     * @return the transmit statistics, or <code>null</code> if the client is
+     *         not connected
+     */
+    public TransmitStatistics getTransmitStatistics(int id) {
+        Connection connection = connections.get(id);
+        return (connection == null ? null
+                : connection.transmitService.getStatistics());
     }
 
     /**
@@ -325,6 +526,30 @@ public class TCPServer {
         connectedListeners.remove(listener);
     }
 
+    /**
+     * Add a refused listener to this TCP server. The listener will be
+     * triggered upon clients refused, since the maximum number of clients is
+     * connected.
+     *
+     * @param listener
+     *            the listener
+     */
+    public synchronized void addRefusedListener(
+            ServerRefusedListener listener) {
+        refusedListeners.add(listener);
+    }
+
+    /**
+     * Remove a refused listener from this TCP server.
+     *
+     * @param listener
+     *            the listener
+     */
+    public synchronized void removeRefusedListener(
+            ServerRefusedListener listener) {
+        refusedListeners.remove(listener);
+    }
+
     /**
      * Add a disconnected listener to this TCP server. The listener will be
      * triggered upon disconnected clients.
@@ -370,6 +595,71 @@ public class TCPServer {
         packetListeners.remove(listener);
     }
 
+    /**
+     * Add a handler of TCP protocol packets of the specified class to this
+     * TCP server. The handler will be triggered upon newly received and
+     * decoded TCP protocol packets of exactly that class, which are found by
+     * their op code without testing any other class.
+     *
+     * @param <T>
+     *            the TCP protocol packet class
+     * @param type
+     *            the TCP protocol packet class
+     * @param handler
+     *            the handler
+     *
+     * @exception NullPointerException
+     *                if the TCP protocol packet class or handler is
+     *                <code>null</code>
+     * @exception IllegalArgumentException
+     *                if the TCP protocol packet class is not valid
+     * @exception UnsupportedOperationException
+     *                if another TCP protocol packet class with the same op
+     *                code has handlers
+     */
+    public <T extends TCPProtocolPacket> void onPacket(Class<T> type,
+            ServerPacketHandler<? super T> handler) {
+        packetHandlers.add(type, handler);
+    }
+
+    /**
+     * Remove a handler of TCP protocol packets of the specified class from
+     * this TCP server.
+     *
+     * @param <T>
+     *            the TCP protocol packet class
+     * @param type
+     *            the TCP protocol packet class
+     * @param handler
+     *            the handler
+     */
+    public <T extends TCPProtocolPacket> void removePacketHandler(
+            Class<T> type, ServerPacketHandler<? super T> handler) {
+        packetHandlers.remove(type, handler);
+    }
+
+    /**
+     * Add a writability listener to this TCP server. The listener will be
+     * triggered upon clients becoming writable or unwritable.
+     *
+     * @param listener
+     *            the listener
+     */
+    public void addWritabilityListener(ServerWritabilityListener listener) {
+        writabilityListeners.add(listener);
+    }
+
+    /**
+     * Remove a writability listener from this TCP server.
+     *
+     * @param listener
+     *            the listener
+     */
+    public void removeWritabilityListener(
+            ServerWritabilityListener listener) {
+        writabilityListeners.remove(listener);
+    }
+
     /**
      * Returns the name of this TCP server.
      *
@@ -425,6 +715,218 @@ public class TCPServer {
         this.protocol = protocol;
     }
 
+    /**
+     * Returns the framer delimiting the TCP packets of this TCP server.
+     *
+     * @return the framer, or <code>null</code> if TCP packets are not
+     *         delimited
+     */
+    public TCPFramer getFramer() {
+        return framer;
+    }
+
+    /**
+     * Set the framer delimiting the TCP packets of this TCP server. The framer
+     * writes a header in front of every transmitted TCP packet, which allows
+     * the receiving side to restore the TCP packets regardless of how TCP
+     * splits or combines them. Both sides of a connection should use the same
+     * framer. By default a <code>TCPLengthFramer</code> is used.
+     * <p>
+     * The framer applies to clients connecting after it is set, therefore it
+     * should be set before connecting. If set to <code>null</code> the TCP
+     * packets are not delimited and every received TCP packet contains the data
+     * of a single read from the socket.
+     *
+     * @param framer
+     *            the framer, or <code>null</code>
+     */
+    public void setFramer(TCPFramer framer) {
+        this.framer = framer;
+    }
+
+    /**
+     * Returns the limits of the data queued for transmission per client.
+     *
+     * @return the transmit limits
+     */
+    public TransmitLimits getTransmitLimits() {
+        return transmitLimits;
+    }
+
+    /**
+     * Set the limits of the data queued for transmission per client. By
+     * default <code>TransmitLimits.DEFAULT</code> is used, which only applies
+     * watermarks. The limits apply to clients connecting after they are set,
+     * therefore they should be set before connecting.
+     *
+     * @param transmitLimits
+     *            the transmit limits
+     *
+     * @exception NullPointerException
+     *                if the transmit limits are <code>null</code>
+     */
+    public void setTransmitLimits(TransmitLimits transmitLimits) {
+        if (transmitLimits == null) {
+            throw new NullPointerException("Transmit limits are null");
+        }
+        this.transmitLimits = transmitLimits;
+    }
+
+    /**
+     * Indicates whether the background services of this TCP server run on
+     * virtual threads.
+     *
+     * @return <code>true</code> if virtual threads are used, or
+     *         <code>false</code> otherwise
+     */
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Set whether the background services of this TCP server run on virtual
+     * threads. Each connection reads and writes on its own virtual thread,
+     * which allows many more concurrent connections than platform threads. The
+     * setting applies to clients connecting after it is set, therefore it
+     * should be set before connecting.
+     * <p>
+     * Virtual threads are only supported when running on Java 21 or higher.
+     *
+     * @param virtualThreads
+     *            whether to use virtual threads
+     *
+     * @exception UnsupportedOperationException
+     *                if virtual threads are not supported
+     */
+    public void setVirtualThreads(boolean virtualThreads) {
+        if (virtualThreads && !Threads.isVirtualSupported()) {
+            throw new UnsupportedOperationException(
+                    "Virtual threads not supported");
+        }
+        this.virtualThreads = virtualThreads;
+    }
+
+    /**
+     * Returns the executor used for notifying the listeners of this TCP
+     * server.
+     *
+     * @return the listener executor, or <code>null</code> if listeners are
+     *         notified on the background threads of this TCP server
+     */
+    public Executor getListenerExecutor() {
+        return listenerExecutor;
+    }
+
+    /**
+     * Set the executor used for notifying the listeners of this TCP server. The
+     * executor applies to clients connecting after it is set, therefore it
+     * should be set before connecting. If set to <code>null</code> the
+     * listeners are notified on the background threads of this TCP server.
+     * <p>
+     * Use an <code>FXThreadExecutor</code> to notify all listeners on the
+     * JavaFX Application Thread.
+     *
+     * @param listenerExecutor
+     *            the listener executor, or <code>null</code>
+     */
+    public void setListenerExecutor(Executor listenerExecutor) {
+        this.listenerExecutor = listenerExecutor;
+    }
+
+    /**
+     * Returns the executor running the background services of this TCP server.
+     *
+     * @return the I/O executor, or <code>null</code> if an executor is created
+     *         upon connecting
+     */
+    public Executor getIOExecutor() {
+        return ioExecutor;
+    }
+
+    /**
+     * Set the executor running the background services of this TCP server,
+     * which accept clients, and receive and transmit data. The executor
+     * applies upon connecting, therefore it should be set before connecting.
+     * Accepting and receiving block a thread each, and transmitting may block
+     * a thread per client, therefore the executor has to run at least twice
+     * the maximum number of clients plus one tasks concurrently. The executor
+     * is not shut down by this TCP server.
+     * <p>
+     * If set to <code>null</code> two executors are created upon connecting,
+     * which are shared by all clients and shut down upon disconnecting: one
+     * accepting and receiving, and one transmitting. They reuse idle threads
+     * and are sized by the maximum number of clients, therefore a blocked
+     * receiving thread never delays transmitting.
+     *
+     * @param ioExecutor
+     *            the I/O executor, or <code>null</code>
+     */
+    public void setIOExecutor(Executor ioExecutor) {
+        this.ioExecutor = ioExecutor;
+    }
+
+    /**
+     * Returns the dispatcher notifying the packet and disconnected listeners
+     * of this TCP server.
+     *
+     * @return the dispatcher, or <code>null</code> if listeners are notified
+     *         one notification at a time
+     */
+    public StripedDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * Set the dispatcher notifying the packet and disconnected listeners of
+     * this TCP server. The packets of a client are decoded and notified in
+     * order on the stripe of the client identifier, followed by its
+     * disconnection, while different clients are notified in parallel. The
+     * listeners and handlers therefore have to be thread-safe. Connected and
+     * writability listeners are notified as before, and the listener
+     * executor does not apply to notifications on a stripe.
+     * <p>
+     * The dispatcher may be shared by several TCP servers, and is not shut
+     * down by this TCP server. If set to <code>null</code> all listeners are
+     * notified one notification at a time.
+     *
+     * @param dispatcher
+     *            the dispatcher, or <code>null</code>
+     */
+    public void setDispatcher(StripedDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Returns the maximum number of clients connected to this TCP server at
+     * once.
+     *
+     * @return the maximum number of clients, or zero if unlimited
+     */
+    public int getMaximumClients() {
+        return maximumClients;
+    }
+
+    /**
+     * Set the maximum number of clients connected to this TCP server at once.
+     * A client accepted while the maximum number of clients is connected is
+     * disconnected right away, and the refused listeners are notified. The
+     * maximum also bounds the threads of the executors created upon
+     * connecting. It applies upon connecting, therefore it should be set
+     * before connecting. By default the number of clients is unlimited.
+     *
+     * @param maximumClients
+     *            the maximum number of clients, or zero if unlimited
+     *
+     * @exception IllegalArgumentException
+     *                if the maximum number of clients is negative
+     */
+    public void setMaximumClients(int maximumClients) {
+        if (maximumClients < 0) {
+            throw new IllegalArgumentException("Invalid maximum clients");
+        }
+        this.maximumClients = maximumClients;
+    }
+
     /**
      * Indicates whether this TCP server is connected.
      *
@@ -440,70 +942,146 @@ public class TCPServer {
      */
     protected void createAcceptService() {
         acceptService = new AcceptService(serverSocket);
-        acceptService.setExecutor(createExecutorService());
-        acceptService.setOnFailed((value) -> {
+        createExecutors();
+        acceptService.setExecutor(receiveExecutor());
+        acceptService.setCallbackExecutor(listenerExecutor);
+        acceptService.setOnFailed(() -> {
             acceptFailed();
         });
-        acceptService.setOnSucceeded((value) -> {
+        acceptService.setOnSucceeded(() -> {
             acceptSucceeded();
         });
         acceptService.start();
     }
 
     /**
-     * Create a new receive service for the specified socket.
+     * Create a new receive service for the specified client.
      *
+     * @param id
+     *            the client identifier
      * @param socket
      *            the socket
+     *
+     * @return the receive service
      */
-    protected void createReceiveService(Socket socket) {
-        ReceiveService receiveService = new ReceiveService(socket);
-        receiveService.setExecutor(createExecutorService());
-        receiveService.setOnFailed((value) -> {
-            receiveFailed();
+    private ReceiveService createReceiveService(int id, Socket socket) {
+        ReceiveService receiveService = new ReceiveService(socket, framer);
+        receiveService.setExecutor(receiveExecutor());
+        receiveService.setCallbackExecutor(listenerExecutor);
+        receiveService.setOnFailed(() -> {
+            receiveFailed(id, receiveService);
         });
-        receiveService.setOnSucceeded((value) -> {
-            receiveSucceeded();
+        receiveService.setOnSucceeded(() -> {
+            receiveSucceeded(id, receiveService);
         });
         receiveService.start();
-        receiveServices.put(socket.hashCode(), receiveService);
+        return receiveService;
     }
 
     /**
-     * Create a new transmit service for the specified socket.
+     * Enqueues the encoded TCP packet at the specified transmit services.
+     *
+     * @param services
+     *            the transmit services
+     * @param packet
+     *            the encoded TCP packet
      *
+     * @return the number of services the TCP packet is enqueued at
+     */
+    private int broadcast(List<TransmitService> services, TCPPacket packet) {
+        int count = 0;
+        for (TransmitService service : services) {
+            if (service.enqueue(packet)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Create a new transmit service for the specified client.
+     *
+     * @param id
+     *            the client identifier
      * @param socket
      *            the socket
+     *
+     * @return the transmit service
      */
-    protected void createTransmitService(Socket socket) {
-        TransmitService transmitService = new TransmitService(socket);
-        transmitService.setExecutor(createExecutorService());
-        transmitService.setOnFailed((value) -> {
-            transmitFailed();
+    private TransmitService createTransmitService(int id, Socket socket) {
+        TransmitService transmitService =
+                new TransmitService(socket, framer, transmitLimits);
+        transmitService.setExecutor(transmitExecutor());
+        transmitService.setCallbackExecutor(listenerExecutor);
+        transmitService.setOnWritabilityChanged(writable -> {
+            for (ServerWritabilityListener listener : writabilityListeners) {
+                listener.writabilityChanged(name, id, writable);
+            }
+        });
+        transmitService.setOnFailed(() -> {
+            transmitFailed(id, transmitService);
         });
-        transmitService.setOnSucceeded((value) -> {
+        transmitService.setOnSucceeded(() -> {
             transmitSucceeded();
         });
-        transmitService.start();
-        transmitServices.put(socket.hashCode(), transmitService);
+        return transmitService;
     }
 
     /**
-     * Create a new executor service which is running as a daemon to ensure the
-     * thread will not block the closure of the application.
+     * Creates the executors running the background services of the current
+     * connection. The I/O executor is used if set, otherwise an executor
+     * service accepting and receiving, and one transmitting are created,
+     * which are shut down upon disconnecting.
+     */
+    private synchronized void createExecutors() {
+        Executor ioExecutor = this.ioExecutor;
+        int maximumClients = this.maximumClients;
+        clientLimit = (maximumClients > 0 ? maximumClients : Integer.MAX_VALUE);
+        if (ioExecutor != null) {
+            receiveExecutor = ioExecutor;
+            transmitExecutor = ioExecutor;
+            ownedExecutors = false;
+        } else {
+            int clients = clientLimit;
+            receiveExecutor = Threads.newBoundedExecutor(virtualThreads,
+                    (clients == Integer.MAX_VALUE ? clients : clients + 1));
+            transmitExecutor =
+                    Threads.newBoundedExecutor(virtualThreads, clients);
+            ownedExecutors = true;
+        }
+    }
+
+    /**
+     * Returns the executor accepting and receiving of the current connection.
      *
-     * @return the executor service
+     * @return the executor
      */
-    private ExecutorService createExecutorService() {
-        ThreadFactory threadFactory = new ThreadFactory() {
-            @Override
-            public Thread newThread(Runnable r) {
-                final Thread thread = new Thread(r);
-                thread.setDaemon(true);
-                return thread;
-            }
-        };
-        return Executors.newSingleThreadExecutor(threadFactory);
+    private synchronized Executor receiveExecutor() {
+        return receiveExecutor;
+    }
+
+    /**
+     * Returns the executor transmitting of the current connection.
+     *
+     * @return the executor
+     */
+    private synchronized Executor transmitExecutor() {
+        return transmitExecutor;
+    }
+
+    /**
+     * Releases the executors of the current connection. The executor services
+     * created upon connecting are shut down; their tasks still running
+     * complete once the sockets are closed.
+     */
+    private synchronized void releaseExecutors() {
+        if (ownedExecutors) {
+            ((ExecutorService) receiveExecutor).shutdown();
+            ((ExecutorService) transmitExecutor).shutdown();
+        }
+        receiveExecutor = null;
+        transmitExecutor = null;
+        ownedExecutors = false;
     }
 
     /**
@@ -511,58 +1089,172 @@ public class TCPServer {
      * listeners with the newly connected client.
      */
     private void acceptSucceeded() {
-        if (!isConnected()) {
-            return;
-        }
+        synchronized (listenerLock) {
+            if (!isConnected()) {
+                return;
+            }
 
-        Socket socket = acceptService.getValue();
-        acceptService.restart();
+            Socket socket = acceptService.getValue();
+            acceptService.restart();
+
+            // Refused, as its receiving thread would exceed the executor
+            if (connections.size() >= clientLimit) {
+                SocketAddress address = socket.getRemoteSocketAddress();
+                try {
+                    socket.close();
+                } catch (Exception e) {
+                    // Ignore
+                }
+                for (ServerRefusedListener listener : refusedListeners) {
+                    listener.refused(name, address);
+                }
+                return;
+            }
 
-        clientSockets.put(socket.hashCode(), socket);
-        createReceiveService(socket);
-        createTransmitService(socket);
+            int id = connections.nextId();
+            connections.put(id, new Connection(socket,
+                    createReceiveService(id, socket),
+                    createTransmitService(id, socket)));
 
-        for (ServerConnectedListener listener : connectedListeners) {
-            listener.connected(name, socket.hashCode());
+            for (ServerConnectedListener listener : connectedListeners) {
+                listener.connected(name, id);
+            }
         }
     }
 
     /**
-     * Invoked upon successfully finishing a receive task. Notifies all
-     * listeners with the newly received TCP packet.
+     * Invoked upon successfully finishing a receive task of the specified
+     * client. Notifies all listeners with the newly received TCP packet. Only
+     * the receive service of the client is handled, regardless of the number
+     * of connected clients.
+     *
+     * @param id
+     *            the client identifier
+     * @param service
+     *            the receive service of the client
      */
-    private void receiveSucceeded() {
-        if (!isConnected()) {
-            return;
-        }
-
-        final Map<Integer, ReceiveService> services = Collections
-                .synchronizedMap(new HashMap<Integer, ReceiveService>());
-        services.putAll(receiveServices);
-        services.forEach((id, service) -> {
-            if (service.getState() != State.SUCCEEDED) {
+    private void receiveSucceeded(int id, ReceiveService service) {
+        synchronized (listenerLock) {
+            Connection connection = connections.get(id);
+            if (!isConnected() || connection == null
+                    || connection.receiveService != service
+                    || service.getState() != IOService.State.SUCCEEDED) {
                 return;
             }
+
             TCPPacket receivedPacket = service.getValue();
+            byte[] data = receivedPacket.getData();
+            int length = receivedPacket.getLength();
+
+            // The data is a pooled buffer, which is reused after release
+            FrameBuffer frameBuffer = service.getFrameBuffer();
+            if (frameBuffer != null && length > 0) {
+                frameBuffer.append(data, length);
+            } else if (length > 0) {
+                receivedPacket = new TCPPacket(Arrays.copyOf(data, length),
+                        length);
+            }
+            BufferPool.getDefault().release(data);
 
             // End-of-stream means disconnected
-            if (receivedPacket.getLength() == -1) {
+            if (length == -1) {
                 disconnect(id);
                 return;
             }
 
-            TCPPacket[] packets = new TCPPacket[] { receivedPacket };
-            if (protocol != null) {
-                packets = protocol.decode(receivedPacket);
-            }
-            for (TCPPacket tcpPacket : packets) {
-                for (ServerPacketListener listener : packetListeners) {
-                    listener.received(name, id, tcpPacket);
+            if (frameBuffer == null) {
+                deliver(id, receivedPacket);
+            } else {
+                try {
+                    TCPPacket framedPacket;
+                    while ((framedPacket = frameBuffer.next()) != null) {
+                        deliver(id, framedPacket);
+                    }
+                } catch (IOException e) {
+                    disconnect(id);
+                    return;
                 }
             }
 
             service.restart();
-        });
+        }
+    }
+
+    /**
+     * Delivers the specified received TCP packet to the listeners, on the
+     * stripe of the client if a dispatcher is set. The TCP packet is decoded
+     * on that stripe as well, which recycles decoded TCP protocol packets on
+     * the thread that released them.
+     *
+     * @param id
+     *            the client identifier
+     * @param receivedPacket
+     *            the received TCP packet
+     */
+    private void deliver(int id, TCPPacket receivedPacket) {
+        StripedDispatcher dispatcher = this.dispatcher;
+        if (dispatcher == null) {
+            received(id, receivedPacket);
+        } else {
+            dispatcher.execute(id, () -> received(id, receivedPacket));
+        }
+    }
+
+    /**
+     * Notifies all listeners with the specified disconnected client.
+     *
+     * @param id
+     *            the client identifier
+     */
+    private void disconnected(int id) {
+        for (ServerDisconnectedListener listener : disconnectedListeners) {
+            listener.disconnected(name, id);
+        }
+    }
+
+    /**
+     * Notifies all listeners with the specified received TCP packet. The TCP
+     * packet is decoded first if a protocol is set. Every decoded TCP protocol
+     * packet is passed to the handlers of its class as well, and is released
+     * to the protocol once all listeners and handlers return.
+     *
+     * @param id
+     *            the client identifier
+     * @param receivedPacket
+     *            the received TCP packet
+     */
+    private void received(int id, TCPPacket receivedPacket) {
+        TCPPacket[] packets = new TCPPacket[] { receivedPacket };
+        TCPProtocol protocol = this.protocol;
+        if (protocol != null) {
+            packets = protocol.decode(receivedPacket);
+        }
+        for (TCPPacket tcpPacket : packets) {
+            for (ServerPacketListener listener : packetListeners) {
+                listener.received(name, id, tcpPacket);
+            }
+            if (protocol != null) {
+                dispatch(id, (TCPProtocolPacket) tcpPacket);
+                protocol.release(tcpPacket);
+            }
+        }
+    }
+
+    /**
+     * Notifies the handlers of the class of the specified decoded TCP
+     * protocol packet.
+     *
+     * @param id
+     *            the client identifier
+     * @param packet
+     *            the decoded TCP protocol packet
+     */
+    @SuppressWarnings("unchecked")
+    private void dispatch(int id, TCPProtocolPacket packet) {
+        for (ServerPacketHandler<?> handler : packetHandlers.of(packet)) {
+            ((ServerPacketHandler<TCPProtocolPacket>) handler).received(name,
+                    id, packet);
+        }
     }
 
     /**
@@ -583,40 +1275,72 @@ public class TCPServer {
     }
 
     /**
-     * Invoked upon failed finishing a receive task. Disconnects the failed
-     * client socket.
+     * Invoked upon failed finishing a receive task of the specified client.
+     * Disconnects the client.
+     *
+     * @param id
+     *            the client identifier
+     * @param service
+     *            the receive service of the client
      */
-    private void receiveFailed() {
-        if (!isConnected()) {
-            return;
+    private void receiveFailed(int id, ReceiveService service) {
+        synchronized (listenerLock) {
+            Connection connection = connections.get(id);
+            if (isConnected() && connection != null
+                    && connection.receiveService == service) {
+                disconnect(id);
+            }
         }
+    }
 
-        final Map<Integer, ReceiveService> services = Collections
-                .synchronizedMap(new HashMap<Integer, ReceiveService>());
-        services.putAll(receiveServices);
-        services.forEach((id, service) -> {
-            if (service.getState() == State.FAILED) {
+    /**
+     * Invoked upon failed finishing a transmit task of the specified client.
+     * Disconnects the client.
+     *
+     * @param id
+     *            the client identifier
+     * @param service
+     *            the transmit service of the client
+     */
+    private void transmitFailed(int id, TransmitService service) {
+        synchronized (listenerLock) {
+            Connection connection = connections.get(id);
+            if (isConnected() && connection != null
+                    && connection.transmitService == service) {
                 disconnect(id);
             }
-        });
+        }
     }
 
     /**
-     * Invoked upon failed finishing a transmit task. Disconnects the failed
-     * client socket.
+     * The connection of a client accepted by a TCP server.
      */
-    private void transmitFailed() {
-        if (!isConnected()) {
-            return;
-        }
+    private static final class Connection {
 
-        final Map<Integer, TransmitService> services = Collections
-                .synchronizedMap(new HashMap<Integer, TransmitService>());
-        services.putAll(transmitServices);
-        services.forEach((id, service) -> {
-            if (service.getState() == State.FAILED) {
-                disconnect(id);
-            }
-        });
+        /** The socket holding the connection. */
+        private final Socket socket;
+
+        /** The service for receiving data from the client. */
+        private final ReceiveService receiveService;
+
+        /** The service for transmitting data to the client. */
+        private final TransmitService transmitService;
+
+        /**
+         * Constructs a new connection.
+         *
+         * @param socket
+         *            the socket
+         * @param receiveService
+         *            the receive service
+         * @param transmitService
+         *            the transmit service
+         */
+        Connection(Socket socket, ReceiveService receiveService,
+                TransmitService transmitService) {
+            this.socket = socket;
+            this.receiveService = receiveService;
+            this.transmitService = transmitService;
+        }
     }
 }
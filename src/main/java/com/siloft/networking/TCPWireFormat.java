@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.siloft.networking;
+
+/**
+ * This enumeration represents the wire formats of the TCP protocol packets of
+ * a TCP protocol. Both ends of a connection should use the same wire format.
+ * In every wire format a TCP protocol packet starts with its op code as a
+ * big-endian <code>short</code>.
+ *
+ * @author Sander Veldhuis
+ */
+public enum TCPWireFormat {
+
+    /**
+     * Every field uses a fixed number of bytes, and strings and byte arrays
+     * are preceded by their length as <code>short</code>. This is the format
+     * of <code>TCPProtocolPacket.getData</code>.
+     */
+    FIXED,
+
+    /**
+     * The <code>short</code>, <code>int</code> and <code>long</code> fields
+     * are zigzag encoded variable length integers, using 7 bits per byte.
+     * Strings and byte arrays are preceded by their length as variable length
+     * integer. All <code>boolean</code> fields are packed into bits, directly
+     * after the op code. The <code>byte</code>, <code>float</code> and
+     * <code>double</code> fields use a fixed number of bytes.
+     */
+    COMPACT
+}
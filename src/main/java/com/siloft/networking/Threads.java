@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.siloft.networking;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedTransferQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Utility class for creating the threads running the background services.
+ * <p>
+ * Virtual threads are created through method handles, because this library is
+ * compiled for Java 8. Virtual threads are only supported when running on Java
+ * 21 or higher.
+ *
+ * @author Sander Veldhuis
+ */
+final class Threads {
+
+    /** The number of seconds an idle thread of a bounded pool is kept. */
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    /** The thread factory creating virtual threads, or <code>null</code>. */
+    private static final ThreadFactory VIRTUAL_THREAD_FACTORY =
+            lookupVirtualThreadFactory();
+
+    /**
+     * Constructs nothing, utility class.
+     */
+    private Threads() {
+    }
+
+    /**
+     * Indicates whether virtual threads are supported by the running Java
+     * virtual machine.
+     *
+     * @return <code>true</code> if supported, or <code>false</code> otherwise
+     */
+    public static boolean isVirtualSupported() {
+        return VIRTUAL_THREAD_FACTORY != null;
+    }
+
+    /**
+     * Create a new single threaded executor service. Platform threads are
+     * running as a daemon to ensure the thread will not block the closure of
+     * the application. Virtual threads are always daemon threads.
+     *
+     * @param virtual
+     *            whether to use a virtual thread
+     *
+     * @return the executor service
+     *
+     * @exception UnsupportedOperationException
+     *                if virtual threads are not supported
+     */
+    public static ExecutorService newSingleThreadExecutor(boolean virtual) {
+        return Executors.newSingleThreadExecutor(newThreadFactory(virtual));
+    }
+
+    /**
+     * Create a new executor service shared by the background services of a
+     * server or client. An idle thread is reused if available, otherwise a new
+     * thread is created up to the specified maximum; tasks are queued once
+     * the maximum is reached. Threads which are idle for a minute terminate.
+     * Tasks executed after the executor service is shut down are discarded.
+     *
+     * @param virtual
+     *            whether to use virtual threads
+     * @param maximumThreads
+     *            the maximum number of threads
+     *
+     * @return the executor service
+     *
+     * @exception IllegalArgumentException
+     *                if the maximum number of threads is less than one
+     * @exception UnsupportedOperationException
+     *                if virtual threads are not supported
+     */
+    public static ExecutorService newBoundedExecutor(boolean virtual,
+            int maximumThreads) {
+        if (maximumThreads < 1) {
+            throw new IllegalArgumentException("Invalid maximum threads");
+        }
+        HandOffQueue queue = new HandOffQueue();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1,
+                maximumThreads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, queue,
+                newThreadFactory(virtual), (task, pool) -> {
+                    if (!pool.isShutdown()) {
+                        queue.enqueue(task);
+                        // The last thread may have timed out meanwhile
+                        pool.prestartCoreThread();
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Create a new thread factory. Platform threads are running as a daemon
+     * to ensure the threads will not block the closure of the application.
+     *
+     * @param virtual
+     *            whether to create virtual threads
+     *
+     * @return the thread factory
+     *
+     * @exception UnsupportedOperationException
+     *                if virtual threads are not supported
+     */
+    private static ThreadFactory newThreadFactory(boolean virtual) {
+        if (virtual) {
+            if (VIRTUAL_THREAD_FACTORY == null) {
+                throw new UnsupportedOperationException(
+                        "Virtual threads not supported");
+            }
+            return VIRTUAL_THREAD_FACTORY;
+        }
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread thread = new Thread(r);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * Looks up the factory creating virtual threads:
+     * <code>Thread.ofVirtual().factory()</code>.
+     *
+     * @return the thread factory, or <code>null</code> if not supported
+     */
+    private static ThreadFactory lookupVirtualThreadFactory() {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            MethodHandle ofVirtual = lookup.findStatic(Thread.class,
+                    "ofVirtual", MethodType.methodType(Class.forName(
+                            "java.lang.Thread$Builder$OfVirtual")));
+            MethodHandle factory = lookup.findVirtual(builderClass, "factory",
+                    MethodType.methodType(ThreadFactory.class));
+            return (ThreadFactory) factory.invoke(ofVirtual.invoke());
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+
+    /**
+     * The work queue of a bounded executor service. Offering a task only
+     * succeeds if an idle thread takes it over, which makes the executor
+     * service create a new thread instead of queueing the task. Tasks
+     * rejected at the maximum number of threads are queued by
+     * <code>enqueue</code>.
+     */
+    @SuppressWarnings("serial")
+    private static final class HandOffQueue
+            extends LinkedTransferQueue<Runnable> {
+
+        @Override
+        public boolean offer(Runnable task) {
+            return tryTransfer(task);
+        }
+
+        /**
+         * Queues the specified task for the next idle thread.
+         *
+         * @param task
+         *            the task
+         */
+        void enqueue(Runnable task) {
+            super.offer(task);
+        }
+    }
+}
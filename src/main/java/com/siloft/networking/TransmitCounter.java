@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.siloft.networking;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the TCP packets, flushes and bytes transmitted over a connection,
+ * and the TCP packets dropped due to the transmit limits.
+ * Flushes are recorded by the single thread writing to the connection, while
+ * snapshots can be taken by any thread.
+ *
+ * @author Sander Veldhuis
+ */
+final class TransmitCounter {
+
+    /** The number of transmitted TCP packets. */
+    private final AtomicLong packetCount = new AtomicLong();
+
+    /** The number of flushes. */
+    private final AtomicLong flushCount = new AtomicLong();
+
+    /** The number of transmitted bytes. */
+    private final AtomicLong byteCount = new AtomicLong();
+
+    /** The maximum number of TCP packets written by a single flush. */
+    private final AtomicLong maxPacketsPerFlush = new AtomicLong();
+
+    /** The number of dropped or rejected TCP packets. */
+    private final AtomicLong dropCount = new AtomicLong();
+
+    /**
+     * Records a single flush to the socket.
+     *
+     * @param packets
+     *            the number of TCP packets completed by the flush
+     * @param bytes
+     *            the number of bytes written by the flush
+     */
+    public void recordFlush(long packets, long bytes) {
+        packetCount.addAndGet(packets);
+        flushCount.incrementAndGet();
+        byteCount.addAndGet(bytes);
+        long max;
+        while (packets > (max = maxPacketsPerFlush.get())) {
+            if (maxPacketsPerFlush.compareAndSet(max, packets)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Records a TCP packet dropped or rejected due to the transmit limits.
+     */
+    public void recordDrop() {
+        dropCount.incrementAndGet();
+    }
+
+    /**
+     * Returns a snapshot of the counted statistics.
+     *
+     * @return the transmit statistics
+     */
+    public TransmitStatistics getStatistics() {
+        return new TransmitStatistics(packetCount.get(), flushCount.get(),
+                byteCount.get(), maxPacketsPerFlush.get(), dropCount.get());
+    }
+}
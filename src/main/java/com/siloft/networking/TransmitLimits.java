@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.siloft.networking;
+
+/**
+ * This class represents the limits of the data queued for transmission over a
+ * single connection.
+ * <p>
+ * The number of queued bytes is compared with two watermarks. A connection
+ * becomes unwritable once more bytes than the high watermark are queued, and
+ * writable again once the queue is drained to the low watermark or below.
+ * Producers can listen to writability changes to throttle themselves.
+ * <p>
+ * The maximum number of bytes and TCP packets are hard limits. Once a limit is
+ * hit the policy decides what happens to a newly transmitted TCP packet. A TCP
+ * packet is always accepted by an empty queue, even if it exceeds the maximum
+ * number of bytes on its own.
+ *
+ * @author Sander Veldhuis
+ */
+public final class TransmitLimits {
+
+    /**
+     * The policy applied when a limit is hit.
+     */
+    public enum Policy {
+
+        /** The transmitting thread blocks till the queue has room. */
+        BLOCK,
+
+        /** The newly transmitted TCP packet is rejected. */
+        FAIL,
+
+        /** The oldest queued TCP packets are dropped till there is room. */
+        DROP_OLDEST
+    }
+
+    /**
+     * The default limits: a low watermark of 32 KiB and high watermark of 64
+     * KiB, without hard limits.
+     */
+    public static final TransmitLimits DEFAULT = new TransmitLimits(32 * 1024,
+            64 * 1024, Long.MAX_VALUE, Integer.MAX_VALUE, Policy.FAIL);
+
+    /** The number of bytes at which a connection becomes writable again. */
+    private final long lowWatermark;
+
+    /** The number of bytes above which a connection becomes unwritable. */
+    private final long highWatermark;
+
+    /** The maximum number of queued bytes. */
+    private final long maxBytes;
+
+    /** The maximum number of queued TCP packets. */
+    private final int maxPackets;
+
+    /** The policy applied when a limit is hit. */
+    private final Policy policy;
+
+    /**
+     * Constructs new transmit limits.
+     * <p>
+     * The watermarks must satisfy
+     * <code>0 &lt;= lowWatermark &lt;= highWatermark &lt;= maxBytes</code>.
+     * The maximum number of TCP packets must be at least <code>1</code>.
+     *
+     * @param lowWatermark
+     *            the number of bytes at which a connection becomes writable
+     *            again
+     * @param highWatermark
+     *            the number of bytes above which a connection becomes
+     *            unwritable
+     * @param maxBytes
+     *            the maximum number of queued bytes
+     * @param maxPackets
+     *            the maximum number of queued TCP packets
+     * @param policy
+     *            the policy applied when a limit is hit
+     *
+     * @exception IllegalArgumentException
+     *                if a watermark or limit is invalid
+     * @exception NullPointerException
+     *                if the policy is <code>null</code>
+     */
+    public TransmitLimits(long lowWatermark, long highWatermark, long maxBytes,
+            int maxPackets, Policy policy) {
+        if (lowWatermark < 0) {
+            throw new IllegalArgumentException("Invalid low watermark");
+        }
+        if (highWatermark < lowWatermark) {
+            throw new IllegalArgumentException("Invalid high watermark");
+        }
+        if (maxBytes < highWatermark) {
+            throw new IllegalArgumentException("Invalid maximum bytes");
+        }
+        if (maxPackets < 1) {
+            throw new IllegalArgumentException("Invalid maximum packets");
+        }
+        if (policy == null) {
+            throw new NullPointerException("Policy is null");
+        }
+        this.lowWatermark = lowWatermark;
+        this.highWatermark = highWatermark;
+        this.maxBytes = maxBytes;
+        this.maxPackets = maxPackets;
+        this.policy = policy;
+    }
+
+    /**
+     * Returns the number of bytes at which a connection becomes writable
+     * again.
+     *
+     * @return the low watermark
+     */
+    public long getLowWatermark() {
+        return lowWatermark;
+    }
+
+    /**
+     * Returns the number of bytes above which a connection becomes
+     * unwritable.
+     *
+     * @return the high watermark
+     */
+    public long getHighWatermark() {
+        return highWatermark;
+    }
+
+    /**
+     * Returns the maximum number of queued bytes.
+     *
+     * @return the maximum number of bytes
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Returns the maximum number of queued TCP packets.
+     *
+     * @return the maximum number of TCP packets
+     */
+    public int getMaxPackets() {
+        return maxPackets;
+    }
+
+    /**
+     * Returns the policy applied when a limit is hit.
+     *
+     * @return the policy
+     */
+    public Policy getPolicy() {
+        return policy;
+    }
+}
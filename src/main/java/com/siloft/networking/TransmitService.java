@@ -22,30 +22,85 @@
 
 package com.siloft.networking;
 
-import javafx.concurrent.Service;
-import javafx.concurrent.Task;
-
+import java.io.IOException;
 import java.net.Socket;
-import java.util.Collections;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 /**
  * A background thread which handles transmitting data asynchronously over the
  * specified socket.
+ * <p>
+ * Any thread can enqueue TCP packets without locking. The first enqueue onto
+ * an idle service schedules a single task, which keeps transmitting until no
+ * enqueued TCP packets are left. Enqueueing while the task is running only
+ * signals the task, instead of scheduling another one. At most one task
+ * drains the queue at any time, even on a multi-threaded executor.
+ * <p>
+ * The queued bytes and TCP packets are bounded by the transmit limits. Space
+ * is reserved before a TCP packet is queued and released once the task takes
+ * it from the queue for writing.
  *
  * @author Sander Veldhuis
  */
-final class TransmitService extends Service<TCPPacket> {
+final class TransmitService extends IOService<TCPPacket> {
 
     /** The socket holding the connection. */
     private final Socket socket;
 
+    /** The framer writing the header of every TCP packet, or null. */
+    private final TCPFramer framer;
+
+    /** The limits of the queued data. */
+    private final TransmitLimits limits;
+
     /** The queue holding the TCP packets to be transmitted. */
-    private final List<TCPPacket> queue = new LinkedList<TCPPacket>();
+    private final MPSCQueue<TCPPacket> queue = new MPSCQueue<TCPPacket>();
+
+    /** The number of enqueues not yet observed by the transmitting task. */
+    private final AtomicInteger pending = new AtomicInteger();
+
+    /** Whether a task is due but not yet scheduled on the executor. */
+    private final AtomicBoolean unscheduled = new AtomicBoolean();
+
+    /** The number of queued bytes. */
+    private final AtomicLong queuedBytes = new AtomicLong();
+
+    /** The number of queued TCP packets. */
+    private final AtomicInteger queuedPackets = new AtomicInteger();
+
+    /** Whether the queued bytes are below the high watermark. */
+    private final AtomicBoolean writable = new AtomicBoolean(true);
+
+    /** The writability last notified, guarded by the notify lock. */
+    private boolean notifiedWritable = true;
+
+    /** The lock serializing writability notifications. */
+    private final Object notifyLock = new Object();
+
+    /** The lock blocked producers wait on till the queue has room. */
+    private final Object spaceLock = new Object();
+
+    /** The number of blocked producers. */
+    private volatile int waiters;
+
+    /** Whether this service is closed and rejects TCP packets. */
+    private volatile boolean closed;
+
+    /** The callback triggered upon writability changes, or null. */
+    private volatile Consumer<Boolean> onWritabilityChanged;
+
+    /** The counter recording every flush to the socket. */
+    private final TransmitCounter counter = new TransmitCounter();
 
     /**
-     * Constructs a new transmit service for the specified socket.
+     * Constructs a new transmit service for the specified socket, which
+     * transmits the TCP packets without header.
      *
      * @param socket
      *            the socket
@@ -54,42 +109,359 @@ final class TransmitService extends Service<TCPPacket> {
      *                if the socket is <code>null</code>
      */
     public TransmitService(Socket socket) {
+        this(socket, null, TransmitLimits.DEFAULT);
+    }
+
+    /**
+     * Constructs a new transmit service for the specified socket, framer, and
+     * limits.
+     *
+     * @param socket
+     *            the socket
+     * @param framer
+     *            the framer, or <code>null</code> to transmit the TCP packets
+     *            without header
+     * @param limits
+     *            the limits of the queued data
+     *
+     * @exception NullPointerException
+     *                if the socket or limits are <code>null</code>
+     */
+    public TransmitService(Socket socket, TCPFramer framer,
+            TransmitLimits limits) {
         if (socket == null) {
             throw new NullPointerException("Socket is null");
         }
+        if (limits == null) {
+            throw new NullPointerException("Limits are null");
+        }
         this.socket = socket;
+        this.framer = framer;
+        this.limits = limits;
+    }
+
+    /**
+     * Set the callback triggered upon writability changes. The callback is
+     * executed by the callback executor and must not block.
+     *
+     * @param onWritabilityChanged
+     *            the callback, accepting whether the connection is writable
+     */
+    public void setOnWritabilityChanged(
+            Consumer<Boolean> onWritabilityChanged) {
+        this.onWritabilityChanged = onWritabilityChanged;
     }
 
     /**
-     * Enqueue a TCP packet that need to be transmitted over the socket.
+     * Returns whether fewer bytes than the high watermark are queued, or the
+     * queue has been drained to the low watermark since.
+     *
+     * @return <code>true</code> if writable, otherwise <code>false</code>
+     */
+    public boolean isWritable() {
+        return writable.get();
+    }
+
+    /**
+     * Enqueue a TCP packet that need to be transmitted over the socket. If no
+     * task is running, a task is scheduled. TCP packets enqueued before the
+     * executor is set are transmitted once this service is started.
+     * <p>
+     * If a limit is hit the policy is applied: the calling thread blocks till
+     * the queue has room, the TCP packet is rejected, or the oldest queued TCP
+     * packets are dropped.
      *
      * @param packet
      *            the TCP packet
+     *
+     * @return <code>true</code> if the TCP packet is queued, or
+     *         <code>false</code> if it is rejected, exceeds the maximum length
+     *         of the framer, or this service is closed
+     *
+     * @exception NullPointerException
+     *                if the TCP packet is <code>null</code>
+     */
+    public boolean enqueue(TCPPacket packet) {
+        if (packet == null) {
+            throw new NullPointerException("Packet is null");
+        }
+        if (closed) {
+            return false;
+        }
+
+        int length = packet.getLength();
+        if (framer != null && length > framer.getMaxLength()) {
+            return false;
+        }
+        if (!reserve(length)) {
+            switch (limits.getPolicy()) {
+            case BLOCK:
+                if (!awaitReserve(length)) {
+                    return false;
+                }
+                break;
+            case DROP_OLDEST:
+                dropOldest(length);
+                break;
+            default:
+                counter.recordDrop();
+                return false;
+            }
+        }
+        if (queuedBytes.get() > limits.getHighWatermark()
+                && writable.compareAndSet(true, false)) {
+            notifyWritability();
+        }
+
+        queue.offer(packet);
+        if (pending.getAndIncrement() == 0) {
+            schedule();
+        }
+        return true;
+    }
+
+    /**
+     * Closes this service. Newly enqueued TCP packets are rejected and blocked
+     * producers are released. TCP packets still queued are discarded by the
+     * task, which fails queued file transmissions.
      */
-    public void enqueue(TCPPacket packet) {
-        queue.add(packet);
+    public void close() {
+        closed = true;
+        synchronized (spaceLock) {
+            spaceLock.notifyAll();
+        }
+        if (pending.getAndIncrement() == 0) {
+            schedule();
+        }
     }
 
     /**
-     * Invoked after this transmit service is started. Creates a new
-     * <code>TransmitTask</code> to handle data to be transmitted.
+     * Starts this service if a task is due, which is the case if TCP packets
+     * were enqueued before the executor was set. Does nothing otherwise,
+     * since a task is scheduled by the enqueue onto an idle service.
      *
-     * @return the created <code>TransmitTask</code>
+     * @exception IllegalStateException
+     *                if no executor is set
      */
     @Override
-    protected Task<TCPPacket> createTask() {
-        final List<TCPPacket> packets =
-                Collections.synchronizedList(new LinkedList<TCPPacket>());
+    public void start() {
+        if (getExecutor() == null) {
+            throw new IllegalStateException("Executor is null");
+        }
+        if (unscheduled.compareAndSet(true, false)) {
+            super.start();
+        }
+    }
 
-        packets.addAll(queue);
+    /**
+     * Returns a snapshot of the transmit statistics of this service.
+     *
+     * @return the transmit statistics
+     */
+    public TransmitStatistics getStatistics() {
+        return counter.getStatistics();
+    }
 
-        TransmitTask task = new TransmitTask(socket, packets);
-        task.valueProperty().addListener((listener) -> {
-            if (task.getValue() != null) {
-                queue.remove(task.getValue());
+    /**
+     * Invoked after this transmit service is started. Creates a task which
+     * drains all enqueued TCP packets and hands them over to a
+     * <code>TransmitTask</code>, which coalesces them into as few writes as
+     * possible. The task repeats until no enqueues are left unobserved. A
+     * failure closes this service; the task then keeps discarding enqueued TCP
+     * packets till none are left, and fails with the original exception.
+     *
+     * @return the created task
+     */
+    @Override
+    protected Callable<TCPPacket> createTask() {
+        return () -> {
+            Exception failure = null;
+            int missed = pending.get();
+            do {
+                List<TCPPacket> packets = drain();
+                if (closed) {
+                    discard(packets, failure);
+                    continue;
+                }
+                try {
+                    new TransmitTask(socket, packets, framer, counter).call();
+                } catch (Exception e) {
+                    failure = e;
+                    close();
+                    for (TCPPacket packet : packets) {
+                        FilePacket.fail(packet, failure);
+                    }
+                }
+            } while (missed != 0 && (missed = pending.addAndGet(-missed)) != 0);
+            if (failure != null) {
+                throw failure;
             }
-        });
+            return null;
+        };
+    }
+
+    /**
+     * Schedules a task draining the queue. Invoked by the thread which
+     * observed an idle service, therefore no task is running. If no executor
+     * is set yet, the task is scheduled once this service is started.
+     */
+    private void schedule() {
+        unscheduled.set(true);
+        if (getExecutor() != null) {
+            start();
+        }
+    }
+
+    /**
+     * Discards the specified TCP packets after this service is closed. Queued
+     * file transmissions are failed.
+     *
+     * @param packets
+     *            the TCP packets
+     * @param failure
+     *            the failure which closed this service, or <code>null</code>
+     */
+    private void discard(List<TCPPacket> packets, Exception failure) {
+        for (TCPPacket packet : packets) {
+            counter.recordDrop();
+            FilePacket.fail(packet, (failure != null ? failure
+                    : new IOException("Connection closed")));
+        }
+    }
 
-        return task;
+    /**
+     * Takes all visible TCP packets from the queue and releases their space.
+     *
+     * @return the TCP packets
+     */
+    private List<TCPPacket> drain() {
+        List<TCPPacket> packets = new ArrayList<TCPPacket>();
+        long bytes = 0;
+        // Dropping producers poll the queue as well
+        synchronized (queue) {
+            TCPPacket packet;
+            while ((packet = queue.poll()) != null) {
+                packets.add(packet);
+                bytes += packet.getLength();
+            }
+        }
+        if (!packets.isEmpty()) {
+            release(packets.size(), bytes);
+        }
+        return packets;
+    }
+
+    /**
+     * Tries to reserve space for a TCP packet of the specified length. Space
+     * is always reserved if the queue is empty.
+     *
+     * @param length
+     *            the TCP packet length
+     *
+     * @return <code>true</code> if reserved, otherwise <code>false</code>
+     */
+    private boolean reserve(int length) {
+        int packets = queuedPackets.incrementAndGet();
+        long bytes = queuedBytes.addAndGet(length);
+        if (packets > 1 && (packets > limits.getMaxPackets()
+                || bytes > limits.getMaxBytes())) {
+            queuedPackets.decrementAndGet();
+            queuedBytes.addAndGet(-length);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Releases the space of the specified TCP packets. Updates the
+     * writability and wakes blocked producers.
+     *
+     * @param packets
+     *            the number of TCP packets
+     * @param bytes
+     *            the number of bytes
+     */
+    private void release(int packets, long bytes) {
+        queuedPackets.addAndGet(-packets);
+        long remaining = queuedBytes.addAndGet(-bytes);
+        if (remaining <= limits.getLowWatermark()
+                && writable.compareAndSet(false, true)) {
+            notifyWritability();
+        }
+        if (waiters > 0) {
+            synchronized (spaceLock) {
+                spaceLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Blocks till space for a TCP packet of the specified length is reserved.
+     *
+     * @param length
+     *            the TCP packet length
+     *
+     * @return <code>true</code> if reserved, or <code>false</code> if this
+     *         service is closed or the thread is interrupted
+     */
+    private boolean awaitReserve(int length) {
+        synchronized (spaceLock) {
+            waiters++;
+            try {
+                while (!reserve(length)) {
+                    if (closed) {
+                        return false;
+                    }
+                    spaceLock.wait();
+                }
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                waiters--;
+            }
+        }
+    }
+
+    /**
+     * Drops the oldest queued TCP packets till space for a TCP packet of the
+     * specified length is reserved.
+     *
+     * @param length
+     *            the TCP packet length
+     */
+    private void dropOldest(int length) {
+        synchronized (queue) {
+            while (!reserve(length)) {
+                TCPPacket oldest = queue.poll();
+                if (oldest == null) {
+                    // Remaining space is reserved by concurrent producers
+                    queuedPackets.incrementAndGet();
+                    queuedBytes.addAndGet(length);
+                    return;
+                }
+                counter.recordDrop();
+                FilePacket.fail(oldest, new IOException("File dropped"));
+                release(1, oldest.getLength());
+            }
+        }
+    }
+
+    /**
+     * Notifies the callback of the current writability, if it changed since
+     * the last notification.
+     */
+    private void notifyWritability() {
+        getCallbackExecutor().execute(() -> {
+            synchronized (notifyLock) {
+                boolean current = writable.get();
+                Consumer<Boolean> callback = onWritabilityChanged;
+                if (current != notifiedWritable && callback != null) {
+                    notifiedWritable = current;
+                    callback.accept(current);
+                }
+            }
+        });
     }
 }
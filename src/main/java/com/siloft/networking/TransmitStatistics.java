@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.siloft.networking;
+
+/**
+ * This class represents a snapshot of the transmit statistics of a
+ * connection.
+ * <p>
+ * TCP packets enqueued for transmission are coalesced: everything queued at
+ * the moment the connection writes is written to the socket at once. A flush
+ * is a single write to the socket, therefore the average number of TCP packets
+ * per flush shows how well transmissions are coalesced.
+ *
+ * @author Sander Veldhuis
+ */
+public final class TransmitStatistics {
+
+    /** The number of transmitted TCP packets. */
+    private final long packetCount;
+
+    /** The number of flushes. */
+    private final long flushCount;
+
+    /** The number of transmitted bytes, including headers. */
+    private final long byteCount;
+
+    /** The maximum number of TCP packets written by a single flush. */
+    private final long maxPacketsPerFlush;
+
+    /** The number of dropped or rejected TCP packets. */
+    private final long dropCount;
+
+    /**
+     * Constructs a new transmit statistics snapshot.
+     *
+     * @param packetCount
+     *            the number of transmitted TCP packets
+     * @param flushCount
+     *            the number of flushes
+     * @param byteCount
+     *            the number of transmitted bytes, including headers
+     * @param maxPacketsPerFlush
+     *            the maximum number of TCP packets written by a single flush
+     * @param dropCount
+     *            the number of dropped or rejected TCP packets
+     */
+    TransmitStatistics(long packetCount, long flushCount, long byteCount,
+            long maxPacketsPerFlush, long dropCount) {
+        this.packetCount = packetCount;
+        this.flushCount = flushCount;
+        this.byteCount = byteCount;
+        this.maxPacketsPerFlush = maxPacketsPerFlush;
+        this.dropCount = dropCount;
+    }
+
+    /**
+     * Returns the number of transmitted TCP packets.
+     *
+     * @return the number of TCP packets
+     */
+    public long getPacketCount() {
+        return packetCount;
+    }
+
+    /**
+     * Returns the number of flushes, which is the number of writes to the
+     * socket.
+     *
+     * @return the number of flushes
+     */
+    public long getFlushCount() {
+        return flushCount;
+    }
+
+    /**
+     * Returns the number of transmitted bytes, including headers.
+     *
+     * @return the number of bytes
+     */
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    /**
+     * Returns the average number of TCP packets written by a single flush, or
+     * <code>0</code> if nothing is flushed yet.
+     *
+     * @return the average number of TCP packets per flush
+     */
+    public double getPacketsPerFlush() {
+        return (flushCount == 0 ? 0 : (double) packetCount / flushCount);
+    }
+
+    /**
+     * Returns the maximum number of TCP packets written by a single flush.
+     *
+     * @return the maximum number of TCP packets per flush
+     */
+    public long getMaxPacketsPerFlush() {
+        return maxPacketsPerFlush;
+    }
+
+    /**
+     * Returns the number of TCP packets dropped or rejected due to the
+     * transmit limits.
+     *
+     * @return the number of dropped TCP packets
+     */
+    public long getDropCount() {
+        return dropCount;
+    }
+
+    @Override
+    public String toString() {
+        return "TransmitStatistics[packets=" + packetCount + ", flushes="
+                + flushCount + ", bytes=" + byteCount + ", maxPacketsPerFlush="
+                + maxPacketsPerFlush + ", drops=" + dropCount + "]";
+    }
+}
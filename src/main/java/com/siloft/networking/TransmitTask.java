@@ -22,18 +22,42 @@
 
 package com.siloft.networking;
 
-import javafx.concurrent.Task;
-
-import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 /**
- * A cancellable asynchronous computation which will transmit the listed TCP
- * packets over the dedicated socket.
+ * An asynchronous computation which will transmit the listed TCP packets over
+ * the dedicated socket.
+ * <p>
+ * The TCP packets are coalesced: headers and data are copied into a single
+ * pooled buffer which is written to the socket at once, instead of writing
+ * every TCP packet separately. Only if the buffer is full it is flushed
+ * before continuing. TCP packets which do not fit into an empty buffer are
+ * written directly.
+ * <p>
+ * Queued files are transmitted in order with the TCP packets. If the socket has
+ * a channel the file is transferred to it directly by the operating system,
+ * otherwise, like for SSL sockets, the file is memory-mapped in chunks and
+ * written to the socket. Framed files are transmitted as consecutive TCP
+ * packets of at most <code>FILE_CHUNK_SIZE</code> bytes, or the maximum
+ * length of the framer if smaller.
  */
-final class TransmitTask extends Task<TCPPacket> {
+final class TransmitTask implements Callable<TCPPacket> {
+
+    /** The maximum number of file bytes per TCP packet if framed. */
+    static final int FILE_CHUNK_SIZE = 1024 * 1024;
+
+    /** The maximum number of file bytes memory-mapped at once. */
+    private static final int FILE_MAP_SIZE = 8 * 1024 * 1024;
 
     /** The socket holding the connection. */
     private final Socket socket;
@@ -41,6 +65,15 @@ final class TransmitTask extends Task<TCPPacket> {
     /** The list holding the TCP packets to be transmitted. */
     private final List<TCPPacket> packets;
 
+    /** The framer writing the header of every TCP packet, or null. */
+    private final TCPFramer framer;
+
+    /** The counter recording every flush, or null. */
+    private final TransmitCounter counter;
+
+    /** The pool providing the buffer to coalesce the TCP packets into. */
+    private final BufferPool bufferPool;
+
     /**
      * Constructs a new transmit task for the specified socket and to be
      * transmitted TCP packets.
@@ -54,7 +87,28 @@ final class TransmitTask extends Task<TCPPacket> {
      *                if the socket or packet list is <code>null</code>
      */
     public TransmitTask(Socket socket, List<TCPPacket> packets) {
-        super();
+        this(socket, packets, null, null);
+    }
+
+    /**
+     * Constructs a new transmit task for the specified socket, to be
+     * transmitted TCP packets, framer, and counter.
+     *
+     * @param socket
+     *            the socket
+     * @param packets
+     *            the TCP packet list
+     * @param framer
+     *            the framer, or <code>null</code> to transmit the TCP packets
+     *            without header
+     * @param counter
+     *            the counter recording every flush, or <code>null</code>
+     *
+     * @exception NullPointerException
+     *                if the socket or packet list is <code>null</code>
+     */
+    public TransmitTask(Socket socket, List<TCPPacket> packets,
+            TCPFramer framer, TransmitCounter counter) {
         if (socket == null) {
             throw new NullPointerException("Socket is null");
         }
@@ -63,6 +117,9 @@ final class TransmitTask extends Task<TCPPacket> {
         }
         this.socket = socket;
         this.packets = packets;
+        this.framer = framer;
+        this.counter = counter;
+        this.bufferPool = BufferPool.getDefault();
     }
 
     /**
@@ -71,17 +128,268 @@ final class TransmitTask extends Task<TCPPacket> {
      * cancellation of this task.
      */
     @Override
-    protected TCPPacket call() throws IOException {
-        while (!packets.isEmpty()) {
-            final TCPPacket packet = packets.remove(0);
+    public TCPPacket call() throws IOException {
+        if (packets.isEmpty()) {
+            return null;
+        }
+
+        // Do not close output because causes close of socket
+        Output output = new Output(socket);
+        byte[] buffer = bufferPool.acquire(
+                (int) Math.min(getTotalLength(), bufferPool.getMaxSize()));
+        try {
+            int position = 0;
+            int pending = 0;
+            for (TCPPacket packet : packets) {
+                if (packet instanceof FilePacket) {
+                    if (position > 0) {
+                        flush(output, buffer, position, pending);
+                        position = 0;
+                        pending = 0;
+                    }
+                    transmitFile(output, (FilePacket) packet, buffer);
+                    continue;
+                }
 
-            DataOutputStream writer =
-                    new DataOutputStream(socket.getOutputStream());
-            writer.write(packet.getData(), 0, packet.getLength());
-            // Do not close writer because causes close of socket
+                byte[] data = packet.getData();
+                int length = packet.getLength();
+                int headerLength =
+                        (framer == null ? 0 : framer.getHeaderLength(length));
 
-            updateValue(packet);
+                if (position + headerLength + length > buffer.length
+                        && position > 0) {
+                    flush(output, buffer, position, pending);
+                    position = 0;
+                    pending = 0;
+                }
+                if (framer != null) {
+                    framer.writeHeader(
+                            ByteBuffer.wrap(buffer, position, headerLength),
+                            length);
+                    position += headerLength;
+                }
+                if (position + length > buffer.length) {
+                    // TCP packet too large to coalesce
+                    output.write(buffer, 0, position);
+                    output.write(data, 0, length);
+                    record(1, position + length);
+                    position = 0;
+                    continue;
+                }
+                System.arraycopy(data, 0, buffer, position, length);
+                position += length;
+                pending++;
+            }
+            if (position > 0) {
+                flush(output, buffer, position, pending);
+            }
+        } finally {
+            bufferPool.release(buffer);
         }
+        packets.clear();
         return null;
     }
+
+    /**
+     * Returns the total number of bytes of the TCP packets, including headers
+     * and files.
+     *
+     * @return the total number of bytes
+     */
+    private long getTotalLength() {
+        long total = 0;
+        for (TCPPacket packet : packets) {
+            if (packet instanceof FilePacket) {
+                total += ((FilePacket) packet).getFileLength();
+                continue;
+            }
+            int length = packet.getLength();
+            total += length;
+            if (framer != null) {
+                total += framer.getHeaderLength(length);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Transmits the file region of the specified file packet and completes its
+     * future. A failure completes the future exceptionally as well.
+     *
+     * @param output
+     *            the output of the socket
+     * @param file
+     *            the file packet
+     * @param buffer
+     *            the buffer used for headers and mapped chunks
+     *
+     * @throws IOException
+     *             if reading the file or writing to the socket fails
+     */
+    private void transmitFile(Output output, FilePacket file, byte[] buffer)
+            throws IOException {
+        int chunkSize = (framer == null ? FILE_MAP_SIZE
+                : Math.min(FILE_CHUNK_SIZE, framer.getMaxLength()));
+        if (chunkSize <= 0 && file.getFileLength() > 0) {
+            // Nothing is written, the connection is left intact
+            file.fail(new IOException("Invalid length"));
+            return;
+        }
+
+        try (FileChannel channel =
+                FileChannel.open(file.getPath(), StandardOpenOption.READ)) {
+            long remaining = file.getFileLength();
+            long position = file.getOffset();
+            if (position + remaining > channel.size()) {
+                throw new EOFException("File region exceeds file");
+            }
+
+            while (remaining > 0) {
+                int chunk = (int) Math.min(remaining, chunkSize);
+                int headerLength = 0;
+                if (framer != null) {
+                    headerLength = framer.getHeaderLength(chunk);
+                    framer.writeHeader(
+                            ByteBuffer.wrap(buffer, 0, headerLength), chunk);
+                    output.write(buffer, 0, headerLength);
+                }
+                output.transfer(channel, position, chunk, buffer);
+                record(1, headerLength + chunk);
+                position += chunk;
+                remaining -= chunk;
+            }
+        } catch (IOException | RuntimeException e) {
+            file.fail(e);
+            throw e;
+        }
+        file.getFuture().complete(file.getFileLength());
+    }
+
+    /**
+     * Writes the coalesced TCP packets to the socket.
+     *
+     * @param output
+     *            the output of the socket
+     * @param buffer
+     *            the buffer holding the coalesced TCP packets
+     * @param length
+     *            the number of bytes in the buffer
+     * @param count
+     *            the number of TCP packets in the buffer
+     *
+     * @throws IOException
+     *             if writing fails
+     */
+    private void flush(Output output, byte[] buffer, int length, int count)
+            throws IOException {
+        output.write(buffer, 0, length);
+        record(count, length);
+    }
+
+    /**
+     * Records a flush, if a counter is present.
+     *
+     * @param count
+     *            the number of TCP packets flushed
+     * @param length
+     *            the number of bytes flushed
+     */
+    private void record(int count, long length) {
+        if (counter != null) {
+            counter.recordFlush(count, length);
+        }
+    }
+
+    /**
+     * The output of a socket. Sockets opened through a channel are written
+     * through the channel, which allows transferring files without copying
+     * them through the heap. Other sockets are written through their output
+     * stream.
+     */
+    private static final class Output {
+
+        /** The channel of the socket, or null. */
+        private final SocketChannel channel;
+
+        /** The output stream of the socket, or null if it has a channel. */
+        private final OutputStream stream;
+
+        /**
+         * Constructs a new output for the specified socket.
+         *
+         * @param socket
+         *            the socket
+         *
+         * @throws IOException
+         *             if the output stream cannot be created
+         */
+        Output(Socket socket) throws IOException {
+            this.channel = socket.getChannel();
+            this.stream = (channel == null ? socket.getOutputStream() : null);
+        }
+
+        /**
+         * Writes the specified bytes.
+         *
+         * @param data
+         *            the data
+         * @param offset
+         *            the offset in the data
+         * @param length
+         *            the number of bytes
+         *
+         * @throws IOException
+         *             if writing fails
+         */
+        void write(byte[] data, int offset, int length) throws IOException {
+            if (channel == null) {
+                stream.write(data, offset, length);
+                return;
+            }
+            ByteBuffer source = ByteBuffer.wrap(data, offset, length);
+            while (source.hasRemaining()) {
+                channel.write(source);
+            }
+        }
+
+        /**
+         * Transfers the specified file region. Without a channel the region is
+         * memory-mapped and copied through the buffer.
+         *
+         * @param file
+         *            the file channel
+         * @param position
+         *            the position in the file
+         * @param length
+         *            the number of bytes
+         * @param buffer
+         *            the buffer used for copying
+         *
+         * @throws IOException
+         *             if reading the file or writing fails
+         */
+        void transfer(FileChannel file, long position, int length,
+                byte[] buffer) throws IOException {
+            if (channel != null) {
+                long transferred = 0;
+                while (transferred < length) {
+                    long count = file.transferTo(position + transferred,
+                            length - transferred, channel);
+                    if (count <= 0 && position + transferred >= file.size()) {
+                        throw new EOFException("File truncated");
+                    }
+                    transferred += count;
+                }
+                return;
+            }
+
+            MappedByteBuffer mapped =
+                    file.map(FileChannel.MapMode.READ_ONLY, position, length);
+            while (mapped.hasRemaining()) {
+                int count = Math.min(mapped.remaining(), buffer.length);
+                mapped.get(buffer, 0, count);
+                stream.write(buffer, 0, count);
+            }
+        }
+    }
 }
@@ -22,11 +22,11 @@
 
 package com.siloft.networking;
 
-import javafx.concurrent.Task;
 import org.junit.Test;
 
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.concurrent.Callable;
 
 /**
  * Verifies whether the <code>AcceptService</code> class is working properly.
@@ -68,7 +68,7 @@ public class AcceptServiceTest {
     public void testCreateTask() {
         try {
             AcceptService service = new AcceptService(new ServerSocket());
-            Task<Socket> task = service.createTask();
+            Callable<Socket> task = service.createTask();
 
             assert task != null;
         } catch (Exception e) {
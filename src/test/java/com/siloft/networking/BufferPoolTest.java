@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.siloft.networking;
+
+import org.junit.Test;
+
+/**
+ * Verifies whether the <code>BufferPool</code> class is working properly.
+ *
+ * @author Sander Veldhuis
+ */
+public class BufferPoolTest {
+
+    /**
+     * Test whether invalid sizes are not accepted.
+     */
+    @Test
+    public void testInvalidSizes() {
+        try {
+            new BufferPool(1000, 2048, 1, 0);
+            assert false;
+        } catch (Exception e) {
+            assert e.getClass() == IllegalArgumentException.class;
+            assert e.getMessage() == "Invalid minimum size";
+        }
+        try {
+            new BufferPool(1024, 512, 1, 0);
+            assert false;
+        } catch (Exception e) {
+            assert e.getClass() == IllegalArgumentException.class;
+            assert e.getMessage() == "Invalid maximum size";
+        }
+    }
+
+    /**
+     * Test rounding sizes up to the size classes.
+     */
+    @Test
+    public void testSizeClasses() {
+        BufferPool pool = new BufferPool(1024, 65536, 1, 0);
+        byte[] buffer = pool.acquire(1);
+        assert buffer.length == 1024;
+        buffer = pool.acquire(1024);
+        assert buffer.length == 1024;
+        buffer = pool.acquire(1025);
+        assert buffer.length == 2048;
+        buffer = pool.acquire(65536);
+        assert buffer.length == 65536;
+        buffer = pool.acquire(65537);
+        assert buffer.length == 65537;
+        assert pool.getMaxSize() == 65536;
+    }
+
+    /**
+     * Test reusing buffers from the thread cache.
+     */
+    @Test
+    public void testThreadCache() {
+        BufferPool pool = new BufferPool(1024, 65536, 2, 0);
+        byte[] buffer1 = pool.acquire(4096);
+        byte[] buffer2 = pool.acquire(4096);
+        byte[] buffer3 = pool.acquire(4096);
+        assert pool.getAllocationCount() == 3;
+
+        pool.release(buffer1);
+        pool.release(buffer2);
+        pool.release(buffer3);
+        byte[] buffer = pool.acquire(4096);
+        assert buffer == buffer2;
+        buffer = pool.acquire(4096);
+        assert buffer == buffer1;
+        buffer = pool.acquire(4096);
+        assert buffer != buffer3;
+        assert pool.getAllocationCount() == 4;
+    }
+
+    /**
+     * Test reusing buffers released by another thread.
+     */
+    @Test
+    public void testSharedPool() throws InterruptedException {
+        BufferPool pool = new BufferPool(1024, 65536, 0, 8192);
+        byte[][] buffers = new byte[3][];
+        Thread thread = new Thread(() -> {
+            for (int i = 0; i < buffers.length; i++) {
+                buffers[i] = pool.acquire(4096);
+            }
+            for (byte[] buffer : buffers) {
+                pool.release(buffer);
+            }
+        });
+        thread.start();
+        thread.join();
+
+        // Only two buffers of 4096 bytes fit in the shared pool
+        byte[] buffer = pool.acquire(4096);
+        assert buffer == buffers[0];
+        buffer = pool.acquire(4096);
+        assert buffer == buffers[1];
+        buffer = pool.acquire(4096);
+        assert buffer != buffers[2];
+    }
+
+    /**
+     * Test ignoring buffers which are not part of a size class.
+     */
+    @Test
+    public void testForeignBuffers() {
+        BufferPool pool = new BufferPool(1024, 65536, 2, 0);
+        pool.release(null);
+        pool.release(new byte[100]);
+        pool.release(new byte[512]);
+        pool.release(new byte[131072]);
+        byte[] buffer = pool.acquire(100);
+        assert buffer.length == 1024;
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.siloft.networking;
+
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.util.List;
+
+/**
+ * Verifies whether the <code>ConnectionMap</code> class is working properly.
+ *
+ * @author Sander Veldhuis
+ */
+public class ConnectionMapTest {
+
+    /**
+     * Test whether <code>null</code> and invalid identifiers are not
+     * accepted.
+     */
+    @Test
+    public void testInvalidArguments() {
+        ConnectionMap<String> map = new ConnectionMap<String>();
+        try {
+            map.put(1, null);
+            assert false;
+        } catch (Exception e) {
+            assert e.getClass() == NullPointerException.class;
+            assert e.getMessage() == "Connection is null";
+        }
+        try {
+            map.put(0, "A");
+            assert false;
+        } catch (Exception e) {
+            assert e.getClass() == IllegalArgumentException.class;
+            assert e.getMessage() == "Invalid identifier";
+        }
+        assert map.get(0) == null;
+        assert map.get(-1) == null;
+        String removed = map.remove(-1);
+        assert removed == null;
+    }
+
+    /**
+     * Test putting, replacing and removing connections across rebuilds of
+     * the table.
+     */
+    @Test
+    public void testPutRemove() {
+        ConnectionMap<String> map = new ConnectionMap<String>();
+        for (int id = 1; id <= 1000; id++) {
+            String previous = map.put(id, "C" + id);
+            assert previous == null;
+        }
+        assert map.size() == 1000;
+        String previous = map.put(500, "X");
+        assert previous.equals("C500");
+        assert map.get(500).equals("X");
+
+        for (int id = 1; id <= 1000; id += 2) {
+            String removed = map.remove(id);
+            assert removed != null;
+            removed = map.remove(id);
+            assert removed == null;
+        }
+        assert map.size() == 500;
+        for (int id = 1; id <= 1000; id++) {
+            assert (map.get(id) == null) == (id % 2 == 1);
+        }
+
+        List<String> values = map.values();
+        assert values.size() == 500;
+        assert values.contains("X");
+        map.clear();
+        assert map.size() == 0;
+        assert map.get(2) == null;
+    }
+
+    /**
+     * Test whether identifiers increase and skip connections still present
+     * once they wrap around.
+     */
+    @Test
+    public void testNextId() throws Exception {
+        ConnectionMap<String> map = new ConnectionMap<String>();
+        int id = map.nextId();
+        assert id == 1;
+        id = map.nextId();
+        assert id == 2;
+        map.put(1, "A");
+
+        Field lastId =
+                ConnectionMap.class.getDeclaredField("lastId");
+        lastId.setAccessible(true);
+        lastId.setInt(map, Integer.MAX_VALUE - 1);
+        id = map.nextId();
+        assert id == Integer.MAX_VALUE;
+        id = map.nextId();
+        assert id == 2;
+    }
+
+    /**
+     * Test whether lookups see every connection while connections are added
+     * and removed concurrently.
+     */
+    @Test
+    public void testConcurrentLookup() throws Exception {
+        ConnectionMap<Integer> map = new ConnectionMap<Integer>();
+        map.put(1, 1);
+        Thread writer = new Thread(() -> {
+            for (int id = 2; id < 100000; id++) {
+                map.put(id, id);
+                map.remove(id - 1 == 1 ? 0 : id - 1);
+            }
+        });
+        writer.start();
+        while (writer.isAlive()) {
+            assert map.get(1) == 1;
+        }
+        writer.join();
+        assert map.get(1) == 1;
+        assert map.get(99999) == 99999;
+        assert map.size() == 2;
+    }
+}
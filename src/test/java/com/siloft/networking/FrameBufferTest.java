@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.siloft.networking;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+
+/**
+ * Verifies whether the <code>FrameBuffer</code> class is working properly.
+ *
+ * @author Sander Veldhuis
+ */
+public class FrameBufferTest {
+
+    /**
+     * Test whether <code>null</code> is not accepted as framer.
+     */
+    @Test
+    public void testNullPointerException() {
+        try {
+            new FrameBuffer(null);
+            assert false;
+        } catch (Exception e) {
+            assert e.getClass() == NullPointerException.class;
+            assert e.getMessage() == "Framer is null";
+        }
+    }
+
+    /**
+     * Test restoring several TCP packets received at once.
+     */
+    @Test
+    public void testCombined() throws IOException {
+        FrameBuffer buffer = new FrameBuffer(new TCPLengthFramer());
+        byte[] data =
+                new byte[] { 0, 0, 0, 1, 7, 0, 0, 0, 0, 0, 0, 0, 2, 8, 9 };
+        buffer.append(data, data.length);
+
+        TCPPacket packet = buffer.next();
+        assert packet.getLength() == 1;
+        assert packet.getData()[0] == 7;
+
+        packet = buffer.next();
+        assert packet.getLength() == 0;
+
+        packet = buffer.next();
+        assert packet.getLength() == 2;
+        assert packet.getData()[0] == 8;
+        assert packet.getData()[1] == 9;
+
+        packet = buffer.next();
+        assert packet == null;
+    }
+
+    /**
+     * Test restoring a TCP packet received in parts.
+     */
+    @Test
+    public void testSplit() throws IOException {
+        FrameBuffer buffer = new FrameBuffer(new TCPLengthFramer());
+        int length = 10000;
+
+        buffer.append(new byte[] { 0, 0 }, 2);
+        TCPPacket packet = buffer.next();
+        assert packet == null;
+        buffer.append(new byte[] { (byte) (length >> 8), (byte) length }, 2);
+        packet = buffer.next();
+        assert packet == null;
+
+        byte[] part = new byte[1000];
+        for (int i = 0; i < length / part.length; i++) {
+            packet = buffer.next();
+            assert packet == null;
+            part[0] = (byte) i;
+            buffer.append(part, part.length);
+        }
+
+        packet = buffer.next();
+        assert packet.getLength() == length;
+        assert packet.getData()[9000] == 9;
+        packet = buffer.next();
+        assert packet == null;
+    }
+
+    /**
+     * Test whether an invalid length is not accepted.
+     */
+    @Test
+    public void testInvalidLength() {
+        FrameBuffer buffer = new FrameBuffer(new TCPLengthFramer(100));
+        buffer.append(new byte[] { 0, 0, 0, 101 }, 4);
+        try {
+            buffer.next();
+            assert false;
+        } catch (IOException e) {
+            assert e.getClass() == StreamCorruptedException.class;
+            assert e.getMessage() == "Invalid length";
+        }
+    }
+}
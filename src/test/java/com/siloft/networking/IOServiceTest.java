@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.siloft.networking;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+/**
+ * Verifies whether the <code>IOService</code> class is working properly.
+ *
+ * @author Sander Veldhuis
+ */
+public class IOServiceTest {
+
+    /** Executor running commands on the calling thread. */
+    private static final Executor DIRECT = Runnable::run;
+
+    /**
+     * Test whether starting without executor is not accepted.
+     */
+    @Test
+    public void testIllegalStateException() {
+        IOService<String> service = createService(() -> "Test");
+        try {
+            service.start();
+            assert false;
+        } catch (Exception e) {
+            assert e.getClass() == IllegalStateException.class;
+            assert e.getMessage() == "Executor is null";
+        }
+        assert service.getState() == IOService.State.READY;
+    }
+
+    /**
+     * Test succeeding a task.
+     */
+    @Test
+    public void testSucceeded() {
+        IOService<String> service = createService(() -> "Test");
+        final boolean[] succeeded = new boolean[1];
+        service.setExecutor(DIRECT);
+        service.setOnSucceeded(() -> succeeded[0] = true);
+        service.setOnFailed(() -> {
+            assert false;
+        });
+        service.start();
+        assert succeeded[0] == true;
+        assert service.getState() == IOService.State.SUCCEEDED;
+        assert service.getValue() == "Test";
+    }
+
+    /**
+     * Test failing a task.
+     */
+    @Test
+    public void testFailed() {
+        IOService<String> service = createService(() -> {
+            throw new IOException("Test");
+        });
+        final boolean[] failed = new boolean[1];
+        service.setExecutor(DIRECT);
+        service.setOnSucceeded(() -> {
+            assert false;
+        });
+        service.setOnFailed(() -> failed[0] = true);
+        service.start();
+        assert failed[0] == true;
+        assert service.getState() == IOService.State.FAILED;
+        assert service.getException().getMessage() == "Test";
+    }
+
+    /**
+     * Test running callbacks on the callback executor.
+     */
+    @Test
+    public void testCallbackExecutor() {
+        IOService<String> service = createService(() -> "Test");
+        final int[] executed = new int[1];
+        service.setExecutor(DIRECT);
+        service.setCallbackExecutor((command) -> {
+            executed[0]++;
+            command.run();
+        });
+        service.setOnSucceeded(() -> {
+            // Nothing to do
+        });
+        service.start();
+        service.restart();
+        assert executed[0] == 2;
+    }
+
+    /**
+     * Test whether a restart from within a callback runs the new task on the
+     * same thread after the callback returns, instead of on the executor.
+     */
+    @Test
+    public void testRestartFromCallback() {
+        final int[] count = new int[2];
+        IOService<String> service = createService(() -> {
+            count[0]++;
+            return "Test";
+        });
+        service.setExecutor((command) -> {
+            count[1]++;
+            command.run();
+        });
+        service.setOnSucceeded(() -> {
+            if (count[0] < 3) {
+                service.restart();
+                assert service.getState() == IOService.State.SCHEDULED;
+            }
+        });
+        service.start();
+        assert count[0] == 3;
+        assert count[1] == 1;
+        assert service.getState() == IOService.State.SUCCEEDED;
+    }
+
+    /**
+     * Creates a new service executing the specified task.
+     *
+     * @param task
+     *            the task
+     *
+     * @return the service
+     */
+    private static IOService<String> createService(Callable<String> task) {
+        return new IOService<String>() {
+            @Override
+            protected Callable<String> createTask() {
+                return task;
+            }
+        };
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.siloft.networking;
+
+import org.junit.Test;
+
+/**
+ * Verifies whether the <code>MPSCQueue</code> class is working properly.
+ *
+ * @author Sander Veldhuis
+ */
+public class MPSCQueueTest {
+
+    /**
+     * Test whether <code>null</code> is not accepted.
+     */
+    @Test
+    public void testNullPointerException() {
+        try {
+            new MPSCQueue<Integer>().offer(null);
+            assert false;
+        } catch (Exception e) {
+            assert e.getClass() == NullPointerException.class;
+            assert e.getMessage() == "Element is null";
+        }
+    }
+
+    /**
+     * Test whether elements are polled in order of offering.
+     */
+    @Test
+    public void testOrder() {
+        MPSCQueue<Integer> queue = new MPSCQueue<Integer>();
+        assert queue.isEmpty();
+        Integer element = queue.poll();
+        assert element == null;
+
+        for (int i = 0; i < 10; i++) {
+            queue.offer(i);
+        }
+        assert !queue.isEmpty();
+        for (int i = 0; i < 10; i++) {
+            element = queue.poll();
+            assert element == i;
+        }
+        assert queue.isEmpty();
+        element = queue.poll();
+        assert element == null;
+    }
+
+    /**
+     * Test whether elements offered by multiple producers are all polled, in
+     * order per producer.
+     */
+    @Test
+    public void testProducers() throws InterruptedException {
+        MPSCQueue<int[]> queue = new MPSCQueue<int[]>();
+        int producers = 4;
+        int count = 100000;
+
+        Thread[] threads = new Thread[producers];
+        for (int i = 0; i < producers; i++) {
+            final int producer = i;
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < count; j++) {
+                    queue.offer(new int[] { producer, j });
+                }
+            });
+            threads[i].start();
+        }
+
+        int[] next = new int[producers];
+        int polled = 0;
+        while (polled < producers * count) {
+            int[] element = queue.poll();
+            if (element == null) {
+                Thread.yield();
+                continue;
+            }
+            assert element[1] == next[element[0]]++;
+            polled++;
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assert queue.isEmpty();
+    }
+}
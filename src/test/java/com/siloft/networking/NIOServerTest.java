@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.siloft.networking;
+
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Verifies whether the <code>NIOServer</code> class is working properly.
+ *
+ * @author Sander Veldhuis
+ */
+public class NIOServerTest {
+
+    /**
+     * Test whether invalid name is not accepted.
+     */
+    @Test
+    public void testInvalidName() {
+        try {
+            new NIOServer(null, 0);
+            assert false;
+        } catch (Exception e) {
+            assert e.getClass() == IllegalArgumentException.class;
+            assert e.getMessage() == "Invalid name";
+        }
+    }
+
+    /**
+     * Test whether invalid port is not accepted.
+     */
+    @Test
+    public void testInvalidPort() {
+        try {
+            new NIOServer("", 65536);
+            assert false;
+        } catch (Exception e) {
+            assert e.getClass() == IllegalArgumentException.class;
+            assert e.getMessage() == "Invalid port";
+        }
+    }
+
+    /**
+     * Test constructors and getters.
+     */
+    @Test
+    public void testGetters() {
+        NIOServer server1 = new NIOServer("Test");
+        assert server1.getName() == "Test";
+        assert server1.getPort() == 0;
+        assert server1.getQueueLength() == 50;
+        assert server1.getBindAddress() == null;
+        assert server1.getEventLoopCount() == Runtime.getRuntime()
+                .availableProcessors();
+        assert server1.isConnected() == false;
+
+        try {
+            InetAddress inetAddress = InetAddress.getLocalHost();
+            NIOServer server2 = new NIOServer("Test", 65535, 1, inetAddress, 2);
+            assert server2.getName() == "Test";
+            assert server2.getPort() == 65535;
+            assert server2.getQueueLength() == 1;
+            assert server2.getBindAddress() == inetAddress;
+            assert server2.getEventLoopCount() == 2;
+            assert server2.isConnected() == false;
+        } catch (UnknownHostException e) {
+            assert false;
+        }
+    }
+
+    /**
+     * Test connecting and disconnecting the server.
+     */
+    @Test
+    public void testConnectingDisconnecting() {
+        NIOServer server = new NIOServer("Test");
+        try {
+            server.connect();
+            assert server.isConnected() == true;
+            assert server.getPort() != 0;
+
+            server.connect();
+            assert server.isConnected() == true;
+        } catch (Exception e) {
+            assert false;
+        }
+
+        server.disconnect();
+        assert server.isConnected() == false;
+        assert server.getPort() == 0;
+    }
+
+    /**
+     * Test receiving data from clients and bouncing it back.
+     */
+    @Test
+    public void testBounce() throws Exception {
+        NIOServer server = new NIOServer("Test", 0, 0, null, 2);
+        server.setFramer(null);
+        CountDownLatch connected = new CountDownLatch(3);
+        CountDownLatch disconnected = new CountDownLatch(3);
+        server.addConnectedListener((name, id) -> connected.countDown());
+        server.addDisconnectedListener((name, id) -> disconnected.countDown());
+        server.addPacketListener((name, id, packet) -> {
+            server.transmit(id, packet);
+        });
+        server.connect();
+
+        Socket[] clients = new Socket[3];
+        for (int i = 0; i < clients.length; i++) {
+            clients[i] = new Socket("localhost", server.getPort());
+        }
+        boolean signalled = connected.await(5, TimeUnit.SECONDS);
+        assert signalled;
+
+        for (int i = 0; i < clients.length; i++) {
+            OutputStream output = clients[i].getOutputStream();
+            output.write(new byte[] { 1, 2, (byte) i });
+
+            InputStream input = clients[i].getInputStream();
+            byte[] data = new byte[3];
+            int length = 0;
+            while (length < data.length) {
+                length += input.read(data, length, data.length - length);
+            }
+            assert data[0] == 1 && data[1] == 2 && data[2] == i;
+        }
+
+        for (Socket client : clients) {
+            client.close();
+        }
+        signalled = disconnected.await(5, TimeUnit.SECONDS);
+        assert signalled;
+
+        server.disconnect();
+    }
+
+    /**
+     * Test whether data transmitted before a connection is registered on its
+     * event loop is written once the registration completes.
+     */
+    @Test
+    public void testTransmitBeforeRegister() throws Exception {
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(
+                InetAddress.getLoopbackAddress(), 0));
+        Socket client = new Socket(InetAddress.getLoopbackAddress(),
+                serverChannel.socket().getLocalPort());
+        SocketChannel channel = serverChannel.accept();
+        channel.configureBlocking(false);
+
+        EventLoop loop = new EventLoop("Test", 1024);
+        CountDownLatch connected = new CountDownLatch(1);
+        NIOServer server = new NIOServer("Test");
+        server.addConnectedListener((name, id) -> connected.countDown());
+        NIOConnection connection =
+                new NIOConnection(1, channel, loop, server, null);
+        connection.transmit(new TCPPacket(new byte[] { 1, 2, 3 }, 3));
+        connection.register();
+        boolean registered = connected.await(5, TimeUnit.SECONDS);
+        assert registered;
+
+        client.setSoTimeout(5000);
+        InputStream input = client.getInputStream();
+        byte[] data = new byte[3];
+        int length = 0;
+        while (length < data.length) {
+            length += input.read(data, length, data.length - length);
+        }
+        assert data[0] == 1 && data[1] == 2 && data[2] == 3;
+
+        client.close();
+        connection.close();
+        loop.shutdown();
+        serverChannel.close();
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.siloft.networking;
+
+import org.junit.Test;
+
+/**
+ * Verifies whether the <code>PacketHandlerTable</code> class is working
+ * properly.
+ *
+ * @author Sander Veldhuis
+ */
+public class PacketHandlerTableTest {
+
+    /**
+     * TCP protocol packet with a low op code.
+     */
+    public static final class LowMsg extends TCPProtocolPacket {
+        public final short opCode = -20;
+    }
+
+    /**
+     * TCP protocol packet with a high op code.
+     */
+    public static final class HighMsg extends TCPProtocolPacket {
+        public final short opCode = 300;
+    }
+
+    /**
+     * TCP protocol packet with the same op code as the high one.
+     */
+    public static final class OtherHighMsg extends TCPProtocolPacket {
+        public final short opCode = 300;
+    }
+
+    /**
+     * Test whether invalid arguments are not accepted.
+     */
+    @Test
+    public void testIllegalArguments() {
+        PacketHandlerTable<Runnable> table =
+                new PacketHandlerTable<Runnable>(Runnable.class);
+        try {
+            table.add(null, () -> {});
+            assert false;
+        } catch (Exception e) {
+            assert e.getClass() == NullPointerException.class;
+            assert e.getMessage() == "Packet class is null";
+        }
+        try {
+            table.add(LowMsg.class, null);
+            assert false;
+        } catch (Exception e) {
+            assert e.getClass() == NullPointerException.class;
+            assert e.getMessage() == "Handler is null";
+        }
+
+        table.add(HighMsg.class, () -> {});
+        try {
+            table.add(OtherHighMsg.class, () -> {});
+            assert false;
+        } catch (Exception e) {
+            assert e.getClass() == UnsupportedOperationException.class;
+            assert e.getMessage() == "Duplicate op code";
+        }
+    }
+
+    /**
+     * Test adding, looking up and removing handlers.
+     */
+    @Test
+    public void testHandlers() {
+        PacketHandlerTable<Runnable> table =
+                new PacketHandlerTable<Runnable>(Runnable.class);
+        Runnable first = () -> {};
+        Runnable second = () -> {};
+        Runnable low = () -> {};
+        assert table.of(new HighMsg()).length == 0;
+
+        table.add(HighMsg.class, first);
+        table.add(HighMsg.class, second);
+        table.add(LowMsg.class, low);
+        Runnable[] handlers = table.of(new HighMsg());
+        assert handlers.length == 2;
+        assert handlers[0] == first && handlers[1] == second;
+        assert table.of(new LowMsg())[0] == low;
+        assert table.of(new OtherHighMsg()).length == 0;
+
+        table.remove(HighMsg.class, first);
+        assert table.of(new HighMsg()).length == 1;
+        assert table.of(new HighMsg())[0] == second;
+        table.remove(HighMsg.class, second);
+        assert table.of(new HighMsg()).length == 0;
+
+        table.add(OtherHighMsg.class, first);
+        assert table.of(new OtherHighMsg())[0] == first;
+        assert table.of(new LowMsg())[0] == low;
+    }
+}
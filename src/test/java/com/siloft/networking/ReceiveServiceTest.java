@@ -22,10 +22,10 @@
 
 package com.siloft.networking;
 
-import javafx.concurrent.Task;
 import org.junit.Test;
 
 import java.net.Socket;
+import java.util.concurrent.Callable;
 
 /**
  * Verifies whether the <code>ReceiveService</code> class is working properly.
@@ -62,7 +62,7 @@ public class ReceiveServiceTest {
     @Test
     public void testCreateTask() {
         ReceiveService service = new ReceiveService(new Socket());
-        Task<TCPPacket> task = service.createTask();
+        Callable<TCPPacket> task = service.createTask();
 
         assert task != null;
     }
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.siloft.networking;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Verifies whether the <code>StripedDispatcher</code> class is working
+ * properly.
+ *
+ * @author Sander Veldhuis
+ */
+public class StripedDispatcherTest {
+
+    /**
+     * Test whether invalid arguments are not accepted.
+     */
+    @Test
+    public void testInvalidArguments() {
+        try {
+            new StripedDispatcher(0);
+            assert false;
+        } catch (Exception e) {
+            assert e.getClass() == IllegalArgumentException.class;
+            assert e.getMessage() == "Invalid stripe count";
+        }
+
+        StripedDispatcher dispatcher = new StripedDispatcher(2);
+        try {
+            dispatcher.execute(1, null);
+            assert false;
+        } catch (Exception e) {
+            assert e.getClass() == NullPointerException.class;
+            assert e.getMessage() == "Task is null";
+        }
+        try {
+            dispatcher.getQueueDepth(2);
+            assert false;
+        } catch (Exception e) {
+            assert e.getClass() == IllegalArgumentException.class;
+            assert e.getMessage() == "Invalid stripe";
+        }
+        assert dispatcher.getStripe(-1) == 1;
+        dispatcher.shutdown();
+    }
+
+    /**
+     * Test whether tasks of a key run in order, while a blocked stripe does
+     * not delay the other stripes, and whether the queue depth is recorded.
+     */
+    @Test
+    public void testOrderAndParallelism() throws Exception {
+        StripedDispatcher dispatcher = new StripedDispatcher(2);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch other = new CountDownLatch(1);
+        List<Integer> order = new CopyOnWriteArrayList<Integer>();
+
+        dispatcher.execute(0, () -> {
+            started.countDown();
+            try {
+                blocked.await();
+            } catch (InterruptedException e) {
+                // Ignore
+            }
+        });
+        boolean signalled = started.await(5, TimeUnit.SECONDS);
+        assert signalled;
+        for (int i = 0; i < 10; i++) {
+            final int value = i;
+            dispatcher.execute(2, () -> order.add(value));
+        }
+        dispatcher.execute(1, () -> other.countDown());
+        signalled = other.await(5, TimeUnit.SECONDS);
+        assert signalled;
+        assert order.isEmpty();
+        assert dispatcher.getQueueDepth(0) == 10;
+        assert dispatcher.getMaxQueueDepth(0) == 10;
+
+        blocked.countDown();
+        dispatcher.shutdown();
+        for (int i = 0; i < 100 && order.size() < 10; i++) {
+            Thread.sleep(10);
+        }
+        for (int i = 0; i < 10; i++) {
+            assert order.get(i) == i;
+        }
+        assert dispatcher.getQueueDepth(0) == 0;
+        assert dispatcher.getExecutedCount(0) == 11;
+        assert dispatcher.getExecutedCount(1) == 1;
+
+        dispatcher.execute(1, () -> {
+            assert false;
+        });
+        assert dispatcher.getQueueDepth(1) == 0;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.siloft.networking;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Verifies whether the <code>TCPChunkWriter</code> and
+ * <code>TCPChunkReader</code> classes are working properly.
+ *
+ * @author Sander Veldhuis
+ */
+public class TCPChunkTest {
+
+    /**
+     * TCP protocol packet carrying a chunk.
+     */
+    public static final class UploadMsg extends TCPProtocolPacket {
+        public final short opCode = 11;
+        public String name;
+        public TCPChunk chunk;
+    }
+
+    /**
+     * Test whether invalid arguments are not accepted.
+     */
+    @Test
+    public void testIllegalArguments() {
+        try {
+            new TCPChunkWriter(1, new ByteArrayInputStream(new byte[0]), 0);
+            assert false;
+        } catch (Exception e) {
+            assert e.getClass() == IllegalArgumentException.class;
+            assert e.getMessage() == "Invalid chunk size";
+        }
+        try {
+            new TCPChunkReader(1, null);
+            assert false;
+        } catch (Exception e) {
+            assert e.getClass() == NullPointerException.class;
+            assert e.getMessage() == "Output stream is null";
+        }
+        try {
+            new TCPChunk(1, 0, new byte[2], 3, false);
+            assert false;
+        } catch (Exception e) {
+            assert e.getClass() == IllegalArgumentException.class;
+            assert e.getMessage() == "Invalid length";
+        }
+    }
+
+    /**
+     * Test transmitting a stream in chunks, each encoded and decoded as a TCP
+     * protocol packet.
+     */
+    @Test
+    public void testTransmit() throws IOException {
+        byte[] value = new byte[100000];
+        for (int i = 0; i < value.length; i++) {
+            value[i] = (byte) (i * 31);
+        }
+
+        TCPChunkWriter writer =
+                new TCPChunkWriter(7, new ByteArrayInputStream(value), 4096);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        TCPChunkReader reader = new TCPChunkReader(7, output);
+        UploadMsg message = new UploadMsg();
+        message.name = "value.bin";
+        int packets = 0;
+        for (TCPChunk chunk = writer.next(); chunk != null;
+                chunk = writer.next()) {
+            message.chunk = chunk;
+            byte[] data = message.getData();
+            assert data.length <= 4096 + 30;
+
+            UploadMsg decoded = (UploadMsg) message.decode(data, data.length);
+            assert decoded.name.equals("value.bin");
+            assert !reader.isComplete();
+            boolean read = reader.read(decoded.chunk);
+            assert read;
+            packets++;
+        }
+
+        assert packets == 25;
+        assert reader.isComplete();
+        assert reader.getPosition() == value.length;
+        assert writer.getPosition() == value.length;
+        assert Arrays.equals(output.toByteArray(), value);
+    }
+
+    /**
+     * Test whether a stream of a multiple of the chunk size ends with an
+     * empty chunk, and whether chunks are validated.
+     */
+    @Test
+    public void testOrder() throws IOException {
+        TCPChunkWriter writer =
+                new TCPChunkWriter(1, new ByteArrayInputStream(new byte[8]), 4);
+        TCPChunk first = writer.next();
+        TCPChunk second = writer.next();
+        TCPChunk last = writer.next();
+        assert !first.isLast() && !second.isLast();
+        assert last.isLast() && last.getLength() == 0;
+        assert last.getPosition() == 8;
+        TCPChunk chunk = writer.next();
+        assert chunk == null;
+
+        TCPChunkReader reader =
+                new TCPChunkReader(1, new ByteArrayOutputStream());
+        boolean read = reader.read(new TCPChunk(2, 0, new byte[4], 4, false));
+        assert !read;
+        read = reader.read(null);
+        assert !read;
+        try {
+            reader.read(new TCPChunk(1, 4, new byte[4], 4, false));
+            assert false;
+        } catch (IOException e) {
+            assert e.getMessage() == "Chunk out of order";
+        }
+
+        UploadMsg message = new UploadMsg();
+        byte[] data = message.getData();
+        UploadMsg decoded = (UploadMsg) message.decode(data, data.length);
+        assert decoded.chunk.getLength() == 0;
+        assert !decoded.chunk.isLast();
+    }
+}
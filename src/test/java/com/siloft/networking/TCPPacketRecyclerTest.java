@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.siloft.networking;
+
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Verifies whether the <code>TCPPacketRecycler</code> class is working
+ * properly.
+ *
+ * @author Sander Veldhuis
+ */
+public class TCPPacketRecyclerTest {
+
+    /**
+     * TCP protocol packet which is recycled.
+     */
+    public static final class QuoteMsg extends TCPProtocolPacket {
+        public final short opCode = 14;
+        public int instrument;
+        public long price;
+        public String venue;
+    }
+
+    /**
+     * TCP protocol packet which is not supported by the TCP protocol.
+     */
+    public static final class OtherMsg extends TCPProtocolPacket {
+        public final short opCode = 15;
+    }
+
+    /**
+     * TCP protocol supporting the quote TCP protocol packet.
+     */
+    private static final class QuoteProtocol extends TCPProtocol {
+        QuoteProtocol() {
+            super(new QuoteMsg());
+        }
+    }
+
+    /**
+     * Test whether invalid arguments are not accepted.
+     */
+    @Test
+    public void testIllegalArguments() {
+        try {
+            new TCPPacketRecycler<QuoteMsg>(null, 1);
+            assert false;
+        } catch (Exception e) {
+            assert e.getClass() == NullPointerException.class;
+            assert e.getMessage() == "Packet class is null";
+        }
+        try {
+            new TCPPacketRecycler<QuoteMsg>(QuoteMsg.class, 0);
+            assert false;
+        } catch (Exception e) {
+            assert e.getClass() == IllegalArgumentException.class;
+            assert e.getMessage() == "Invalid capacity";
+        }
+        try {
+            new QuoteProtocol().setRecycler(
+                    new TCPPacketRecycler<OtherMsg>(OtherMsg.class, 1));
+            assert false;
+        } catch (Exception e) {
+            assert e.getClass() == IllegalArgumentException.class;
+            assert e.getMessage() == "Packet not supported";
+        }
+    }
+
+    /**
+     * Test decoding into recycled TCP protocol packets, unless retained.
+     */
+    @Test
+    public void testRecycle() {
+        TCPProtocol protocol = new QuoteProtocol();
+        TCPPacketRecycler<QuoteMsg> recycler =
+                new TCPPacketRecycler<QuoteMsg>(QuoteMsg.class, 4);
+        protocol.setRecycler(recycler);
+        TCPPacket packet = encode(protocol, 1, 2);
+
+        TCPPacket[] first = protocol.decode(packet);
+        assert first.length == 2;
+        assert ((QuoteMsg) first[1]).instrument == 2;
+        assert recycler.getAllocationCount() == 2;
+        ((QuoteMsg) first[1]).retain();
+        for (TCPPacket decoded : first) {
+            protocol.release(decoded);
+        }
+
+        TCPPacket[] second = protocol.decode(encode(protocol, 3, 4));
+        assert second[0] == first[0];
+        assert second[1] != first[1];
+        assert ((QuoteMsg) second[0]).instrument == 3;
+        assert ((QuoteMsg) first[1]).instrument == 2;
+        assert recycler.getAllocationCount() == 3;
+
+        QuoteMsg target = new QuoteMsg();
+        ByteBuffer source = ByteBuffer.wrap(packet.getData(), 0,
+                packet.getLength());
+        boolean decoded = protocol.decode(source, target);
+        assert decoded;
+        assert target.instrument == 1 && target.venue.equals("XAMS");
+        decoded = protocol.decode(source, target);
+        assert decoded;
+        assert target.instrument == 2;
+        decoded = protocol.decode(source, target);
+        assert !decoded;
+        assert target.instrument == 2;
+        try {
+            protocol.decode(source, new OtherMsg());
+            assert false;
+        } catch (Exception e) {
+            assert e.getClass() == IllegalArgumentException.class;
+            assert e.getMessage() == "Packet not supported";
+        }
+    }
+
+    /**
+     * Test whether a TCP server recycles the decoded TCP protocol packets
+     * once all listeners return.
+     */
+    @Test
+    public void testServer() throws Exception {
+        TCPProtocol protocol = new QuoteProtocol();
+        TCPPacketRecycler<QuoteMsg> recycler =
+                new TCPPacketRecycler<QuoteMsg>(QuoteMsg.class, 4);
+        protocol.setRecycler(recycler);
+        TCPServer server = new TCPServer("Test");
+        server.setProtocol(protocol);
+        List<TCPPacket> packets = new CopyOnWriteArrayList<TCPPacket>();
+        CountDownLatch received = new CountDownLatch(3);
+        server.addPacketListener((name, id, packet) -> {
+            packets.add(packet);
+            if (((QuoteMsg) packet).instrument == 2) {
+                ((QuoteMsg) packet).retain();
+            }
+            received.countDown();
+        });
+        server.connect();
+
+        Socket client = new Socket("localhost", server.getPort());
+        OutputStream output = client.getOutputStream();
+        for (int i = 1; i <= 3; i++) {
+            TCPPacket packet = encode(protocol, i);
+            output.write(ByteBuffer.allocate(4).putInt(packet.getLength())
+                    .array());
+            output.write(packet.getData(), 0, packet.getLength());
+            output.flush();
+            Thread.sleep(100);
+        }
+        boolean signalled = received.await(5, TimeUnit.SECONDS);
+        assert signalled;
+
+        assert packets.get(1) == packets.get(0);
+        assert packets.get(2) != packets.get(1);
+        assert ((QuoteMsg) packets.get(1)).instrument == 2;
+        assert recycler.getAllocationCount() == 2;
+
+        client.close();
+        server.disconnect();
+    }
+
+    /**
+     * Encodes quote TCP protocol packets of the specified instruments into a
+     * single TCP packet.
+     *
+     * @param protocol
+     *            the TCP protocol
+     * @param instruments
+     *            the instruments
+     *
+     * @return the TCP packet
+     */
+    private static TCPPacket encode(TCPProtocol protocol,
+            int... instruments) {
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        for (int instrument : instruments) {
+            QuoteMsg message = new QuoteMsg();
+            message.instrument = instrument;
+            message.price = 1000 + instrument;
+            message.venue = "XAMS";
+            protocol.encode(message, buffer);
+        }
+        return new TCPPacket(buffer.array(), buffer.position());
+    }
+}
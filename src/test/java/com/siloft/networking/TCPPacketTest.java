@@ -73,4 +73,33 @@ public class TCPPacketTest {
         assert packet.getData()[2] == 2;
         assert packet.getData()[3] == 3;
     }
+
+    /**
+     * Test whether a snapshot holds the data computed by a subclass once.
+     */
+    @Test
+    public void testSnapshot() {
+        TCPPacket packet = new TCPPacket(new byte[] { 0, 1, 2, 3 }, 3);
+        assert TCPPacket.snapshot(packet, null) == packet;
+
+        int[] calls = new int[1];
+        TCPPacket computed = new TCPPacket(new byte[0], 0) {
+            @Override
+            public synchronized byte[] getData() {
+                calls[0]++;
+                return new byte[] { 4, 5, 6 };
+            }
+
+            @Override
+            public synchronized int getLength() {
+                return 2;
+            }
+        };
+        TCPPacket snapshot = TCPPacket.snapshot(computed, null);
+        assert snapshot.getClass() == TCPPacket.class;
+        assert snapshot.getLength() == 2;
+        assert snapshot.getData()[1] == 5;
+        assert snapshot.getData() == snapshot.getData();
+        assert calls[0] == 1;
+    }
 }
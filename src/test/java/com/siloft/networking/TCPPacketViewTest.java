@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.siloft.networking;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Verifies whether the <code>TCPPacketView</code> class is working properly.
+ *
+ * @author Sander Veldhuis
+ */
+public class TCPPacketViewTest {
+
+    /**
+     * TCP protocol packet routed on its destination and topic.
+     */
+    public static final class RouteMsg extends TCPProtocolPacket {
+        public final short opCode = 12;
+        public int destination;
+        public String topic;
+        public boolean urgent;
+        public byte[] payload;
+        public TagMsg tag;
+        public long time;
+        public boolean retained;
+        public short[] hops;
+    }
+
+    /**
+     * TCP protocol packet nested in a route TCP protocol packet.
+     */
+    public static final class TagMsg extends TCPProtocolPacket {
+        public final short opCode = 13;
+        public String name;
+    }
+
+    /**
+     * TCP protocol supporting the route TCP protocol packet.
+     */
+    private static final class RouteProtocol extends TCPProtocol {
+        RouteProtocol(TCPWireFormat format) {
+            super(format, new RouteMsg());
+        }
+    }
+
+    /**
+     * Test whether invalid arguments and states are not accepted.
+     */
+    @Test
+    public void testIllegalArguments() {
+        try {
+            new TCPPacketView(null);
+            assert false;
+        } catch (Exception e) {
+            assert e.getClass() == NullPointerException.class;
+            assert e.getMessage() == "Protocol is null";
+        }
+
+        TCPPacketView view =
+                new TCPPacketView(new RouteProtocol(TCPWireFormat.FIXED));
+        try {
+            view.wrap(new byte[4], 2, 3);
+            assert false;
+        } catch (Exception e) {
+            assert e.getClass() == IllegalArgumentException.class;
+            assert e.getMessage() == "Invalid length";
+        }
+        try {
+            view.getOpCode();
+            assert false;
+        } catch (Exception e) {
+            assert e.getClass() == IllegalStateException.class;
+            assert e.getMessage() == "No packet";
+        }
+
+        view.wrap(encode(TCPWireFormat.FIXED, route(1, "a")));
+        boolean next = view.next();
+        assert next;
+        try {
+            view.getLong(0);
+            assert false;
+        } catch (Exception e) {
+            assert e.getClass() == IllegalArgumentException.class;
+            assert e.getMessage() == "Invalid field";
+        }
+        try {
+            view.getSize(8);
+            assert false;
+        } catch (Exception e) {
+            assert e.getClass() == IllegalArgumentException.class;
+            assert e.getMessage() == "Invalid field";
+        }
+    }
+
+    /**
+     * Test reading fields in place in both wire formats.
+     */
+    @Test
+    public void testRead() {
+        for (TCPWireFormat format : TCPWireFormat.values()) {
+            RouteMsg first = route(-5, "sensors/1");
+            RouteMsg second = route(70000, "\u00e9t\u00e9");
+            second.urgent = false;
+            second.tag = null;
+            TCPPacketView view = new TCPPacketView(new RouteProtocol(format));
+            view.wrap(encode(format, first, second));
+
+            boolean next = view.next();
+            assert next;
+            assert view.getOpCode() == 12;
+            assert view.getPacketClass() == RouteMsg.class;
+            assert view.indexOf("topic") == 1;
+            assert view.indexOf("opCode") == -1;
+            assert view.getInt(0) == -5;
+            assert "sensors/1".contentEquals(view.getString(1));
+            assert view.getBoolean(2);
+            assert view.getSize(3) == 300;
+            assert view.getLong(5) == 1234567890123L;
+            assert view.getBoolean(6);
+            assert view.getSize(7) == 3;
+
+            RouteMsg decoded = (RouteMsg) view.decode();
+            assert decoded.tag.name.equals("tag");
+            assert Arrays.equals(decoded.payload, first.payload);
+
+            next = view.next();
+            assert next;
+            assert view.getInt(0) == 70000;
+            CharSequence topic = view.getString(1);
+            assert topic.length() == 3 && topic.charAt(0) == '\u00e9';
+            assert topic.toString().equals("\u00e9t\u00e9");
+            assert !view.getBoolean(2);
+            assert view.getBoolean(6);
+            TCPPacket encoded = encode(format, second);
+            assert view.getLength() == encoded.getLength();
+
+            next = view.next();
+            assert !next;
+        }
+    }
+
+    /**
+     * Test whether invalid data ends the TCP protocol packets, the same way
+     * as decoding.
+     */
+    @Test
+    public void testInvalid() {
+        TCPProtocol protocol = new RouteProtocol(TCPWireFormat.FIXED);
+        TCPPacket packet = encode(TCPWireFormat.FIXED, route(1, "a"),
+                route(2, "b"));
+        int length = packet.getLength() / 2;
+
+        TCPPacketView view = new TCPPacketView(protocol);
+        view.wrap(packet.getData(), 0, packet.getLength() - 1);
+        boolean next = view.next();
+        assert next;
+        next = view.next();
+        assert !next;
+        next = view.next();
+        assert !next;
+
+        byte[] data = packet.getData().clone();
+        int tag = length + 2 + 4 + 3 + 1 + 2 + 300;
+        assert data[tag] == 1 && data[tag + 2] == 13;
+        data[tag + 2] = 0;
+        view.wrap(data, length, length);
+        next = view.next();
+        assert !next;
+        TCPPacket[] decoded = protocol.decode(new TCPPacket(
+                Arrays.copyOfRange(data, length, data.length), length));
+        assert decoded.length == 0;
+
+        view.wrap(null);
+        next = view.next();
+        assert !next;
+    }
+
+    /**
+     * Returns a new route TCP protocol packet.
+     *
+     * @param destination
+     *            the destination
+     * @param topic
+     *            the topic
+     *
+     * @return the route TCP protocol packet
+     */
+    private static RouteMsg route(int destination, String topic) {
+        RouteMsg message = new RouteMsg();
+        message.destination = destination;
+        message.topic = topic;
+        message.urgent = true;
+        message.payload = new byte[300];
+        message.tag = new TagMsg();
+        message.tag.name = "tag";
+        message.time = 1234567890123L;
+        message.retained = true;
+        message.hops = new short[] { 1, 2, 3 };
+        return message;
+    }
+
+    /**
+     * Encodes the specified TCP protocol packets into a single TCP packet.
+     *
+     * @param format
+     *            the wire format
+     * @param messages
+     *            the TCP protocol packets
+     *
+     * @return the TCP packet
+     */
+    private static TCPPacket encode(TCPWireFormat format,
+            RouteMsg... messages) {
+        TCPProtocol protocol = new RouteProtocol(format);
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        for (RouteMsg message : messages) {
+            protocol.encode(message, buffer);
+        }
+        return new TCPPacket(buffer.array(), buffer.position());
+    }
+}
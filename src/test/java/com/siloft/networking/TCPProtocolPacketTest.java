@@ -0,0 +1,408 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.siloft.networking;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Verifies whether the <code>TCPProtocolPacket</code> class is working
+ * properly.
+ *
+ * @author Sander Veldhuis
+ */
+public class TCPProtocolPacketTest {
+
+    /**
+     * TCP protocol packet containing all supported field types.
+     */
+    public static final class AllTypesMsg extends TCPProtocolPacket {
+        public final short opCode = 7;
+        public byte b;
+        public short s;
+        public int i;
+        public long l;
+        public float f;
+        public double d;
+        public boolean z;
+        public String text;
+        public byte[] bytes;
+    }
+
+    /**
+     * TCP protocol packet nested in other TCP protocol packets.
+     */
+    public static final class PointMsg extends TCPProtocolPacket {
+        public final short opCode = 10;
+        public int x;
+        public int y;
+    }
+
+    /**
+     * TCP protocol packet containing all supported array and nested types.
+     */
+    public static final class ArraysMsg extends TCPProtocolPacket {
+        public final short opCode = 9;
+        public short[] shorts;
+        public int[] ints;
+        public long[] longs;
+        public float[] floats;
+        public double[] doubles;
+        public boolean[] booleans;
+        public String[] strings;
+        public PointMsg point;
+        public List<PointMsg> points;
+    }
+
+    /**
+     * TCP protocol packet containing a non public field.
+     */
+    public static final class PrivateMsg extends TCPProtocolPacket {
+        public final short opCode = 8;
+        int value;
+    }
+
+    /**
+     * TCP protocol packet without op code.
+     */
+    public static final class NoOpCodeMsg extends TCPProtocolPacket {
+        public int value;
+    }
+
+    /**
+     * TCP protocol supporting the all types packet.
+     */
+    private static final class AllTypesProtocol extends TCPProtocol {
+        AllTypesProtocol() {
+            super(new AllTypesMsg());
+        }
+    }
+
+    /**
+     * Test whether invalid fields are not accepted.
+     */
+    @Test
+    public void testIllegalArgumentException() {
+        try {
+            new PrivateMsg();
+            assert false;
+        } catch (Exception e) {
+            assert e.getClass() == IllegalArgumentException.class;
+            assert e.getMessage() == "Field should be public";
+        }
+
+        try {
+            new NoOpCodeMsg();
+            assert false;
+        } catch (Exception e) {
+            assert e.getClass() == IllegalArgumentException.class;
+            assert e.getMessage() == "Field opCode should be final";
+        }
+    }
+
+    /**
+     * Test whether all field types survive encoding and decoding.
+     */
+    @Test
+    public void testEncodeDecode() {
+        AllTypesMsg msg = new AllTypesMsg();
+        msg.b = -3;
+        msg.s = -1234;
+        msg.i = 0x12345678;
+        msg.l = -0x123456789ABCDEFL;
+        msg.f = 1.5f;
+        msg.d = -2.25;
+        msg.z = true;
+        msg.text = "caf\u00E9 \u20AC \uD83D\uDE00";
+        msg.bytes = new byte[] { 1, 2, 3 };
+
+        byte[] data = msg.getData();
+        assert msg.getLength() == 2 + 1 + 2 + 4 + 8 + 4 + 8 + 1 + 2 + 14 + 2
+                + 3;
+        assert data.length == msg.getLength();
+        assert data[0] == 0 && data[1] == 7;
+
+        AllTypesMsg decoded = (AllTypesMsg) msg.decode(data, data.length);
+        assert decoded != null;
+        assert decoded.b == msg.b;
+        assert decoded.s == msg.s;
+        assert decoded.i == msg.i;
+        assert decoded.l == msg.l;
+        assert decoded.f == msg.f;
+        assert decoded.d == msg.d;
+        assert decoded.z == msg.z;
+        assert decoded.text.equals(msg.text);
+        assert decoded.bytes.length == 3 && decoded.bytes[2] == 3;
+
+        data[1] = 8;
+        decoded = (AllTypesMsg) msg.decode(data, data.length);
+        assert decoded == null;
+        decoded = (AllTypesMsg) msg.decode(new byte[] { 0, 7, 1 }, 3);
+        assert decoded == null;
+    }
+
+    /**
+     * Test whether strings are encoded as UTF-8 into heap and direct buffers,
+     * matching the encoded length.
+     */
+    @Test
+    public void testUtf8() {
+        String[] values = { "", "ascii only", "caf\u00E9", "\u20AC100",
+                "\uD83D\uDE00 smile", "unpaired \uD83D", "\uDE00 low",
+                "\u00FF\u0100\u07FF\u0800\uFFFF" };
+
+        for (String value : values) {
+            byte[] expected = value.getBytes(StandardCharsets.UTF_8);
+            AllTypesMsg msg = new AllTypesMsg();
+            msg.text = value;
+            assert msg.getLength() == 34 + expected.length;
+
+            for (ByteBuffer buffer : new ByteBuffer[] {
+                    ByteBuffer.allocate(msg.getLength()),
+                    ByteBuffer.allocateDirect(msg.getLength()) }) {
+                msg.writeTo(buffer);
+                assert !buffer.hasRemaining();
+                buffer.position(30);
+                assert buffer.getShort() == expected.length;
+                byte[] actual = new byte[expected.length];
+                buffer.get(actual);
+                assert Arrays.equals(actual, expected);
+            }
+        }
+    }
+
+    /**
+     * Test whether <code>null</code> strings and byte arrays are transmitted
+     * as empty ones.
+     */
+    @Test
+    public void testNullFields() {
+        AllTypesMsg msg = new AllTypesMsg();
+        byte[] data = msg.getData();
+
+        assert msg.getLength() == 34;
+        assert data.length == 34;
+
+        AllTypesMsg decoded = (AllTypesMsg) msg.decode(data, data.length);
+        assert decoded != null;
+        assert decoded.text.isEmpty();
+        assert decoded.bytes.length == 0;
+    }
+
+    /**
+     * Test encoding several packets into a single buffer, and decoding them
+     * into a reused packet.
+     */
+    @Test
+    public void testWriteToReadFrom() {
+        AllTypesMsg first = new AllTypesMsg();
+        first.i = 1;
+        first.text = "first";
+        AllTypesMsg second = new AllTypesMsg();
+        second.l = 2;
+        second.bytes = new byte[] { 9 };
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(
+                first.getLength() + second.getLength() + 1);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        first.writeTo(buffer);
+        second.writeTo(buffer);
+        assert buffer.position() == buffer.capacity() - 1;
+        assert buffer.order() == ByteOrder.LITTLE_ENDIAN;
+
+        try {
+            first.writeTo(buffer);
+            assert false;
+        } catch (Exception e) {
+            assert e.getClass() == BufferOverflowException.class;
+            assert buffer.position() == buffer.capacity() - 1;
+        }
+
+        buffer.flip();
+        AllTypesMsg packet = new AllTypesMsg();
+        boolean read = packet.readFrom(buffer);
+        assert read;
+        assert packet.i == 1 && packet.text.equals("first");
+        read = packet.readFrom(buffer);
+        assert read;
+        assert packet.i == 0 && packet.l == 2 && packet.text.isEmpty();
+        assert packet.bytes.length == 1 && packet.bytes[0] == 9;
+        assert !buffer.hasRemaining();
+
+        ByteBuffer truncated = ByteBuffer.wrap(first.getData(), 0, 10);
+        read = packet.readFrom(truncated);
+        assert !read;
+        assert truncated.position() == 0;
+        assert packet.l == 2;
+
+        try {
+            packet.writeTo(null);
+            assert false;
+        } catch (Exception e) {
+            assert e.getClass() == NullPointerException.class;
+            assert e.getMessage() == "Buffer is null";
+        }
+    }
+
+    /**
+     * Test whether a TCP protocol decodes consecutive packets.
+     */
+    @Test
+    public void testProtocolDecode() {
+        AllTypesMsg first = new AllTypesMsg();
+        first.i = 1;
+        first.text = "first";
+        AllTypesMsg second = new AllTypesMsg();
+        second.i = 2;
+
+        byte[] a = first.getData();
+        byte[] b = second.getData();
+        byte[] data = new byte[a.length + b.length];
+        System.arraycopy(a, 0, data, 0, a.length);
+        System.arraycopy(b, 0, data, a.length, b.length);
+
+        TCPPacket[] packets = new AllTypesProtocol()
+                .decode(new TCPPacket(data, data.length));
+        assert packets.length == 2;
+        assert ((AllTypesMsg) packets[0]).i == 1;
+        assert ((AllTypesMsg) packets[0]).text.equals("first");
+        assert ((AllTypesMsg) packets[1]).i == 2;
+    }
+
+    /**
+     * Test encoding and decoding array, nested and list fields in both wire
+     * formats.
+     */
+    @Test
+    public void testArraysAndNested() {
+        ArraysMsg msg = new ArraysMsg();
+        msg.shorts = new short[] { 1, -2 };
+        msg.ints = new int[] { 3 };
+        msg.longs = new long[] { Long.MIN_VALUE };
+        msg.floats = new float[] { 0.5f };
+        msg.booleans = new boolean[] { true, false, true };
+        msg.strings = new String[] { "a", null };
+        msg.point = new PointMsg();
+        msg.point.x = 4;
+        msg.points = Arrays.asList(new PointMsg(), msg.point);
+
+        byte[] data = msg.getData();
+        assert msg.getLength() == 79;
+        assert data.length == 79;
+        assertArrays((ArraysMsg) msg.decode(data, data.length));
+
+        ByteBuffer buffer =
+                ByteBuffer.allocateDirect(100).order(ByteOrder.LITTLE_ENDIAN);
+        msg.writeTo(buffer);
+        buffer.flip();
+        ArraysMsg decoded = new ArraysMsg();
+        boolean read = decoded.readFrom(buffer);
+        assert read;
+        assertArrays(decoded);
+
+        byte[] compact = TCPPacketCodec.of(ArraysMsg.class).encode(msg,
+                TCPWireFormat.COMPACT);
+        assert compact.length < data.length;
+        decoded = new ArraysMsg();
+        read = TCPPacketCodec.of(ArraysMsg.class).decode(
+                ByteBuffer.wrap(compact), decoded, TCPWireFormat.COMPACT);
+        assert read;
+        assertArrays(decoded);
+
+        byte[] empty = new ArraysMsg().getData();
+        assert empty.length == 19;
+        decoded = (ArraysMsg) msg.decode(empty, empty.length);
+        assert decoded.shorts.length == 0;
+        assert decoded.strings.length == 0;
+        assert decoded.point == null;
+        assert decoded.points.isEmpty();
+
+        // A nested packet with another op code is not decoded
+        data[46] = 11;
+        decoded = (ArraysMsg) msg.decode(data, data.length);
+        assert decoded == null;
+    }
+
+    /**
+     * Asserts whether the specified packet holds the values of
+     * <code>testArraysAndNested</code>.
+     *
+     * @param msg
+     *            the decoded packet
+     */
+    private static void assertArrays(ArraysMsg msg) {
+        assert msg != null;
+        assert Arrays.equals(msg.shorts, new short[] { 1, -2 });
+        assert Arrays.equals(msg.ints, new int[] { 3 });
+        assert Arrays.equals(msg.longs, new long[] { Long.MIN_VALUE });
+        assert Arrays.equals(msg.floats, new float[] { 0.5f });
+        assert msg.doubles.length == 0;
+        assert Arrays.equals(msg.booleans, new boolean[] { true, false, true });
+        assert Arrays.equals(msg.strings, new String[] { "a", "" });
+        assert msg.point.x == 4;
+        assert msg.points.size() == 2;
+        assert msg.points.get(0).x == 0;
+        assert msg.points.get(1).x == 4;
+    }
+
+    /**
+     * Test encoding and decoding strings and byte arrays beyond the range of
+     * a <code>short</code> length.
+     */
+    @Test
+    public void testLargeFields() {
+        char[] chars = new char[40000];
+        Arrays.fill(chars, '\u00E9');
+        AllTypesMsg msg = new AllTypesMsg();
+        msg.text = new String(chars);
+        msg.bytes = new byte[Short.MAX_VALUE];
+        msg.bytes[Short.MAX_VALUE - 1] = 5;
+
+        byte[] data = msg.getData();
+        assert msg.getLength() == 34 + 2 + 80000 + Short.MAX_VALUE;
+        assert data.length == msg.getLength();
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        assert buffer.getInt(30) == (80000 | Integer.MIN_VALUE);
+        assert buffer.getShort(34 + 80000) == Short.MAX_VALUE;
+
+        AllTypesMsg decoded = (AllTypesMsg) msg.decode(data, data.length);
+        assert decoded.text.equals(msg.text);
+        assert Arrays.equals(decoded.bytes, msg.bytes);
+
+        msg.bytes = new byte[100000];
+        data = TCPPacketCodec.of(AllTypesMsg.class).encode(msg,
+                TCPWireFormat.COMPACT);
+        decoded = new AllTypesMsg();
+        boolean read = TCPPacketCodec.of(AllTypesMsg.class).decode(
+                ByteBuffer.wrap(data), decoded, TCPWireFormat.COMPACT);
+        assert read;
+        assert decoded.text.equals(msg.text);
+        assert decoded.bytes.length == 100000;
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.siloft.networking;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Verifies whether the <code>TCPProtocol</code> class is working properly.
+ *
+ * @author Sander Veldhuis
+ */
+public class TCPProtocolTest {
+
+    /**
+     * TCP protocol packet with a low op code.
+     */
+    public static final class LowMsg extends TCPProtocolPacket {
+        public final short opCode = -5;
+        public int value;
+    }
+
+    /**
+     * TCP protocol packet with a high op code.
+     */
+    public static final class HighMsg extends TCPProtocolPacket {
+        public final short opCode = 300;
+        public String text;
+    }
+
+    /**
+     * Other TCP protocol packet with a high op code.
+     */
+    public static final class OtherHighMsg extends TCPProtocolPacket {
+        public final short opCode = 300;
+    }
+
+    /**
+     * TCP protocol packet with small values.
+     */
+    public static final class TelemetryMsg extends TCPProtocolPacket {
+        public final short opCode = 12;
+        public short sensor;
+        public boolean active;
+        public int delta;
+        public long timestamp;
+        public double reading;
+        public boolean alarm;
+        public String unit;
+        public byte[] raw;
+    }
+
+    /**
+     * TCP protocol supporting the specified TCP protocol packets.
+     */
+    private static final class TestProtocol extends TCPProtocol {
+        TestProtocol(TCPProtocolPacket... packets) {
+            super(packets);
+        }
+
+        TestProtocol(TCPWireFormat format, TCPProtocolPacket... packets) {
+            super(format, packets);
+        }
+    }
+
+    /**
+     * Test whether duplicate op codes are not accepted.
+     */
+    @Test
+    public void testUnsupportedOperationException() {
+        try {
+            new TestProtocol(new LowMsg(), new HighMsg(), new OtherHighMsg());
+            assert false;
+        } catch (Exception e) {
+            assert e.getClass() == UnsupportedOperationException.class;
+            assert e.getMessage() == "Duplicate op code";
+        }
+    }
+
+    /**
+     * Test decoding consecutive packets of different types, stopping at an
+     * unknown op code.
+     */
+    @Test
+    public void testDecode() {
+        LowMsg low = new LowMsg();
+        low.value = 7;
+        HighMsg high = new HighMsg();
+        high.text = "high";
+
+        byte[] a = high.getData();
+        byte[] b = low.getData();
+        byte[] data = new byte[a.length + b.length + 2];
+        System.arraycopy(a, 0, data, 0, a.length);
+        System.arraycopy(b, 0, data, a.length, b.length);
+        data[data.length - 1] = 1;
+
+        TCPProtocol protocol = new TestProtocol(new LowMsg(), new HighMsg());
+        TCPPacket[] packets =
+                protocol.decode(new TCPPacket(data, data.length));
+        assert packets.length == 2;
+        assert ((HighMsg) packets[0]).text.equals("high");
+        assert ((LowMsg) packets[1]).value == 7;
+
+        packets = new TestProtocol().decode(new TCPPacket(data, data.length));
+        assert packets.length == 0;
+        packets = protocol.decode(null);
+        assert packets.length == 0;
+    }
+
+    /**
+     * Test whether only supported packets are encoded.
+     */
+    @Test
+    public void testEncodeIllegalArgumentException() {
+        TCPProtocol protocol = new TestProtocol(new LowMsg(), new HighMsg());
+        try {
+            protocol.encode(new OtherHighMsg());
+            assert false;
+        } catch (Exception e) {
+            assert e.getClass() == IllegalArgumentException.class;
+            assert e.getMessage() == "Packet not supported";
+        }
+        try {
+            protocol.encode(null);
+            assert false;
+        } catch (Exception e) {
+            assert e.getClass() == NullPointerException.class;
+            assert e.getMessage() == "Packet is null";
+        }
+        try {
+            new TestProtocol((TCPWireFormat) null, new LowMsg());
+            assert false;
+        } catch (Exception e) {
+            assert e.getClass() == NullPointerException.class;
+            assert e.getMessage() == "Wire format is null";
+        }
+    }
+
+    /**
+     * Test encoding and decoding consecutive packets in the compact wire
+     * format.
+     */
+    @Test
+    public void testCompact() {
+        TelemetryMsg telemetry = new TelemetryMsg();
+        telemetry.sensor = -3;
+        telemetry.delta = 100;
+        telemetry.timestamp = -1L;
+        telemetry.reading = 0.5;
+        telemetry.alarm = true;
+        telemetry.unit = "kPa";
+        telemetry.raw = new byte[] { 1, 2 };
+        LowMsg low = new LowMsg();
+        low.value = Integer.MIN_VALUE;
+
+        TCPProtocol protocol = new TestProtocol(TCPWireFormat.COMPACT,
+                new LowMsg(), new TelemetryMsg());
+        assert protocol.getWireFormat() == TCPWireFormat.COMPACT;
+        assert new TestProtocol().getWireFormat() == TCPWireFormat.FIXED;
+        TCPPacket a = protocol.encode(telemetry);
+        TCPPacket b = protocol.encode(low);
+        assert a.getLength() == 22;
+        assert a.getLength() < telemetry.getLength();
+        assert b.getLength() == 7;
+
+        byte[] data = new byte[a.getLength() + b.getLength()];
+        System.arraycopy(a.getData(), 0, data, 0, a.getLength());
+        System.arraycopy(b.getData(), 0, data, a.getLength(), b.getLength());
+        TCPPacket[] packets =
+                protocol.decode(new TCPPacket(data, data.length));
+        assert packets.length == 2;
+        TelemetryMsg decoded = (TelemetryMsg) packets[0];
+        assert decoded.sensor == -3;
+        assert !decoded.active;
+        assert decoded.delta == 100;
+        assert decoded.timestamp == -1L;
+        assert decoded.reading == 0.5;
+        assert decoded.alarm;
+        assert decoded.unit.equals("kPa");
+        assert Arrays.equals(decoded.raw, new byte[] { 1, 2 });
+        assert ((LowMsg) packets[1]).value == Integer.MIN_VALUE;
+
+        // A truncated packet is not decoded
+        packets = protocol.decode(new TCPPacket(data, a.getLength() - 1));
+        assert packets.length == 0;
+        ByteBuffer buffer = ByteBuffer.allocate(a.getLength() - 1);
+        try {
+            protocol.encode(telemetry, buffer);
+            assert false;
+        } catch (BufferOverflowException e) {
+            assert buffer.position() == 0;
+        }
+    }
+}
@@ -25,9 +25,26 @@ package com.siloft.networking;
 import javafx.embed.swing.JFXPanel;
 import org.junit.Test;
 
+import java.io.DataInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.net.InetAddress;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Verifies whether the <code>TCPServer</code> class is working properly.
@@ -257,4 +274,430 @@ public class TCPServerTest {
             assert false;
         }
     }
+
+    /**
+     * Test receiving data without initialising the JavaFX thread.
+     */
+    @Test
+    public void testReceivingHeadless() throws Exception {
+        TCPServer server = new TCPServer("Test");
+        server.setFramer(null);
+        CountDownLatch received = new CountDownLatch(1);
+        server.addPacketListener((name, id, packet) -> {
+            assert packet.getLength() == 3;
+            assert packet.getData()[2] == 3;
+            received.countDown();
+        });
+        server.connect();
+
+        Socket client = new Socket("localhost", server.getPort());
+        client.getOutputStream().write(new byte[] { 1, 2, 3 });
+        boolean signalled = received.await(5, TimeUnit.SECONDS);
+        assert signalled;
+
+        client.close();
+        server.disconnect();
+    }
+
+    /**
+     * Test restoring TCP packets which are combined or split by TCP.
+     */
+    @Test
+    public void testReceivingFramed() throws Exception {
+        TCPServer server = new TCPServer("Test");
+        CountDownLatch received = new CountDownLatch(3);
+        server.addPacketListener((name, id, packet) -> {
+            assert packet.getLength() == 3;
+            assert packet.getData()[2] == 3;
+            received.countDown();
+        });
+        server.connect();
+
+        Socket client = new Socket("localhost", server.getPort());
+        OutputStream output = client.getOutputStream();
+        output.write(new byte[] { 0, 0, 0, 3, 1, 2, 3, 0, 0, 0, 3, 1, 2, 3 });
+        output.write(new byte[] { 0, 0, 0, 3, 1 });
+        output.flush();
+        Thread.sleep(100);
+        output.write(new byte[] { 2, 3 });
+        boolean signalled = received.await(5, TimeUnit.SECONDS);
+        assert signalled;
+
+        client.close();
+        server.disconnect();
+    }
+
+    /**
+     * Test dispatching decoded TCP protocol packets to the handlers of their
+     * class.
+     */
+    @Test
+    public void testPacketHandlers() throws Exception {
+        TCPProtocol protocol = new TCPProtocol(
+                new TCPProtocolPacketTest.PointMsg(),
+                new TCPChunkTest.UploadMsg()) {};
+        TCPServer server = new TCPServer("Test");
+        server.setProtocol(protocol);
+        List<Integer> ids = new CopyOnWriteArrayList<Integer>();
+        CountDownLatch received = new CountDownLatch(2);
+        ServerPacketHandler<TCPProtocolPacketTest.PointMsg> handler =
+                (name, id, packet) -> {
+                    ids.add(packet.x);
+                    received.countDown();
+                };
+        server.onPacket(TCPProtocolPacketTest.PointMsg.class, handler);
+        server.onPacket(TCPChunkTest.UploadMsg.class, (name, id, packet) -> {
+            ids.add(-1);
+        });
+        server.addPacketListener((name, id, packet) -> received.countDown());
+        server.connect();
+
+        TCPProtocolPacketTest.PointMsg point =
+                new TCPProtocolPacketTest.PointMsg();
+        point.x = 42;
+        TCPPacket packet = protocol.encode(point);
+        Socket client = new Socket("localhost", server.getPort());
+        OutputStream output = client.getOutputStream();
+        output.write(new byte[] { 0, 0, 0, (byte) packet.getLength() });
+        output.write(packet.getData(), 0, packet.getLength());
+        boolean signalled = received.await(5, TimeUnit.SECONDS);
+        assert signalled;
+        assert ids.equals(Arrays.asList(42));
+
+        server.removePacketHandler(TCPProtocolPacketTest.PointMsg.class,
+                handler);
+        client.close();
+        server.disconnect();
+    }
+
+    /**
+     * Test whether TCP protocol packets transmitted by a TCP client and a TCP
+     * server are encoded in the compact wire format of their protocol.
+     */
+    @Test
+    public void testCompactWireFormat() throws Exception {
+        TCPServer server = new TCPServer("Test");
+        server.setProtocol(new TCPProtocol(TCPWireFormat.COMPACT,
+                new TCPProtocolPacketTest.PointMsg(),
+                new TCPProtocolTest.HighMsg()) {});
+        server.addPacketListener((name, id, packet) -> {
+            server.transmit(id, packet);
+        });
+        server.connect();
+
+        TCPClient client = new TCPClient("Test", server.getPort());
+        client.setProtocol(new TCPProtocol(TCPWireFormat.COMPACT,
+                new TCPProtocolPacketTest.PointMsg(),
+                new TCPProtocolTest.HighMsg()) {});
+        List<TCPPacket> packets = new CopyOnWriteArrayList<TCPPacket>();
+        CountDownLatch received = new CountDownLatch(2);
+        client.addPacketListener((name, packet) -> {
+            packets.add(packet);
+            received.countDown();
+        });
+        client.connect();
+
+        TCPProtocolPacketTest.PointMsg point =
+                new TCPProtocolPacketTest.PointMsg();
+        point.x = 300;
+        point.y = 7;
+        TCPProtocolTest.HighMsg high = new TCPProtocolTest.HighMsg();
+        high.text = "hello";
+        boolean transmitted = client.transmit(point);
+        assert transmitted;
+        transmitted = client.transmit(high);
+        assert transmitted;
+        boolean signalled = received.await(5, TimeUnit.SECONDS);
+        assert signalled;
+
+        TCPProtocolPacketTest.PointMsg echoedPoint =
+                (TCPProtocolPacketTest.PointMsg) packets.get(0);
+        assert echoedPoint.x == 300;
+        assert echoedPoint.y == 7;
+        assert ((TCPProtocolTest.HighMsg) packets.get(1)).text
+                .equals("hello");
+
+        client.disconnect();
+        server.disconnect();
+    }
+
+    /**
+     * Test broadcasting a TCP packet to all and to selected clients.
+     */
+    @Test
+    public void testBroadcast() throws Exception {
+        TCPServer server = new TCPServer("Test");
+        server.setFramer(null);
+        List<Integer> ids = new CopyOnWriteArrayList<Integer>();
+        CountDownLatch connected = new CountDownLatch(3);
+        server.addConnectedListener((name, id) -> {
+            ids.add(id);
+            connected.countDown();
+        });
+        server.connect();
+
+        Socket[] clients = new Socket[3];
+        for (int i = 0; i < clients.length; i++) {
+            clients[i] = new Socket("localhost", server.getPort());
+        }
+        boolean signalled = connected.await(5, TimeUnit.SECONDS);
+        assert signalled;
+
+        int count = server.broadcast(new TCPPacket(new byte[] { 1, 2 }, 2));
+        assert count == 3;
+        count = server.broadcast(Arrays.asList(ids.get(0), -1),
+                new TCPPacket(new byte[] { 3 }, 1));
+        assert count == 1;
+        for (Socket client : clients) {
+            InputStream input = client.getInputStream();
+            int value = input.read();
+            assert value == 1;
+            value = input.read();
+            assert value == 2;
+        }
+
+        for (Socket client : clients) {
+            client.close();
+        }
+        server.disconnect();
+    }
+
+    /**
+     * Test whether client identifiers increase and are not reused once a
+     * client is disconnected.
+     */
+    @Test
+    public void testConnectionIds() throws Exception {
+        TCPServer server = new TCPServer("Test");
+        List<Integer> ids = new CopyOnWriteArrayList<Integer>();
+        CountDownLatch connected = new CountDownLatch(3);
+        server.addConnectedListener((name, id) -> {
+            ids.add(id);
+            connected.countDown();
+        });
+        server.connect();
+
+        Socket first = new Socket("localhost", server.getPort());
+        Socket second = new Socket("localhost", server.getPort());
+        Thread.sleep(500);
+        server.disconnect(ids.get(0));
+        boolean transmitted = server.transmit(ids.get(0),
+                new TCPPacket(new byte[1], 1));
+        assert !transmitted;
+        transmitted = server.transmit(ids.get(1),
+                new TCPPacket(new byte[1], 1));
+        assert transmitted;
+
+        Socket third = new Socket("localhost", server.getPort());
+        boolean signalled = connected.await(5, TimeUnit.SECONDS);
+        assert signalled;
+        assert ids.get(0) < ids.get(1) && ids.get(1) < ids.get(2);
+
+        first.close();
+        second.close();
+        third.close();
+        server.disconnect();
+    }
+
+    /**
+     * Test whether clients beyond the maximum are refused, while the
+     * connected clients keep transmitting.
+     */
+    @Test
+    public void testMaximumClients() throws Exception {
+        TCPServer server = new TCPServer("Test");
+        assert server.getMaximumClients() == 0;
+        try {
+            server.setMaximumClients(-1);
+            assert false;
+        } catch (Exception e) {
+            assert e.getClass() == IllegalArgumentException.class;
+            assert e.getMessage() == "Invalid maximum clients";
+        }
+        server.setMaximumClients(1);
+        server.setFramer(null);
+        List<Integer> ids = new CopyOnWriteArrayList<Integer>();
+        CountDownLatch refusals = new CountDownLatch(1);
+        server.addConnectedListener((name, id) -> ids.add(id));
+        server.addRefusedListener((name, address) -> {
+            assert name == "Test" && address != null;
+            refusals.countDown();
+        });
+        server.connect();
+
+        Socket first = new Socket("localhost", server.getPort());
+        Thread.sleep(200);
+        Socket refused = new Socket("localhost", server.getPort());
+        refused.setSoTimeout(5000);
+        int value = refused.getInputStream().read();
+        assert value == -1;
+        boolean signalled = refusals.await(5, TimeUnit.SECONDS);
+        assert signalled;
+        assert ids.size() == 1;
+
+        boolean transmitted =
+                server.transmit(ids.get(0), new TCPPacket(new byte[] { 7 }, 1));
+        assert transmitted;
+        first.setSoTimeout(5000);
+        value = first.getInputStream().read();
+        assert value == 7;
+
+        refused.close();
+        first.close();
+        server.disconnect();
+    }
+
+    /**
+     * Test whether the background services run on the I/O executor, which is
+     * not shut down upon disconnecting.
+     */
+    @Test
+    public void testIOExecutor() throws Exception {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        AtomicInteger tasks = new AtomicInteger();
+        TCPServer server = new TCPServer("Test");
+        server.setIOExecutor(task -> {
+            tasks.incrementAndGet();
+            executor.execute(task);
+        });
+        CountDownLatch connected = new CountDownLatch(1);
+        server.addConnectedListener((name, id) -> connected.countDown());
+        server.connect();
+
+        Socket client = new Socket("localhost", server.getPort());
+        boolean signalled = connected.await(5, TimeUnit.SECONDS);
+        assert signalled;
+        int count = server.broadcast(new TCPPacket(new byte[] { 1 }, 1));
+        assert count == 1;
+        int length = new DataInputStream(client.getInputStream()).readInt();
+        assert length == 1;
+        assert tasks.get() >= 3;
+        client.close();
+        server.disconnect();
+        assert !executor.isShutdown();
+        executor.shutdown();
+    }
+
+    /**
+     * Test whether the number of live threads stays flat while clients
+     * connect and disconnect over and over.
+     */
+    @Test
+    public void testConnectDisconnectSoak() throws Exception {
+        TCPServer server = new TCPServer("Test");
+        Semaphore received = new Semaphore(0);
+        server.addPacketListener((name, id, packet) -> received.release());
+        server.connect();
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        int initial = threads.getThreadCount();
+        for (int i = 0; i < 100000; i++) {
+            TCPClient client = new TCPClient("Test", server.getPort());
+            client.connect();
+            boolean transmitted =
+                    client.transmit(new TCPPacket(new byte[] { 1 }, 1));
+            assert transmitted;
+            boolean acquired = received.tryAcquire(5, TimeUnit.SECONDS);
+            assert acquired;
+            client.disconnect();
+            assert threads.getThreadCount() < initial + 100;
+        }
+        server.disconnect();
+    }
+
+    /**
+     * Test whether a striped dispatcher notifies different clients in
+     * parallel, and the packets of a client before its disconnection.
+     */
+    @Test
+    public void testDispatcher() throws Exception {
+        StripedDispatcher dispatcher = new StripedDispatcher(2);
+        TCPServer server = new TCPServer("Test");
+        server.setFramer(null);
+        server.setDispatcher(dispatcher);
+        CountDownLatch second = new CountDownLatch(1);
+        List<Integer> events = new CopyOnWriteArrayList<Integer>();
+        server.addPacketListener((name, id, packet) -> {
+            if (packet.getData()[0] == 1) {
+                // Only returns if the second client is notified meanwhile
+                boolean signalled = false;
+                try {
+                    signalled = second.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                assert signalled;
+                events.add(1);
+            } else {
+                second.countDown();
+            }
+        });
+        CountDownLatch disconnected = new CountDownLatch(1);
+        server.addDisconnectedListener((name, id) -> {
+            events.add(-1);
+            disconnected.countDown();
+        });
+        server.connect();
+
+        Socket first = new Socket("localhost", server.getPort());
+        Socket other = new Socket("localhost", server.getPort());
+        first.getOutputStream().write(1);
+        Thread.sleep(100);
+        other.getOutputStream().write(2);
+        Thread.sleep(100);
+        first.close();
+
+        boolean signalled = disconnected.await(5, TimeUnit.SECONDS);
+        assert signalled;
+        assert events.get(0) == 1 && events.get(1) == -1;
+        other.close();
+        server.disconnect();
+        dispatcher.shutdown();
+    }
+
+    /**
+     * Test transmitting a file in order with TCP packets.
+     */
+    @Test
+    public void testTransmitFile() throws Exception {
+        TCPServer server = new TCPServer("Test");
+        server.setFramer(null);
+        List<Integer> ids = new CopyOnWriteArrayList<Integer>();
+        CountDownLatch connected = new CountDownLatch(1);
+        server.addConnectedListener((name, id) -> {
+            ids.add(id);
+            connected.countDown();
+        });
+        server.connect();
+
+        Path path = Files.createTempFile("TCPServerTest", ".bin");
+        Files.write(path, new byte[] { 1, 2, 3, 4, 5 });
+        try (Socket client = new Socket("localhost", server.getPort())) {
+            boolean signalled = connected.await(5, TimeUnit.SECONDS);
+            assert signalled;
+            int id = ids.get(0);
+
+            boolean transmitted = server.transmit(id,
+                    new TCPPacket(new byte[] { 9 }, 1));
+            assert transmitted;
+            CompletableFuture<Long> future =
+                    server.transmitFile(id, path, 1, 3);
+            transmitted = server.transmit(id,
+                    new TCPPacket(new byte[] { 8 }, 1));
+            assert transmitted;
+            long length = future.get(5, TimeUnit.SECONDS);
+            assert length == 3;
+
+            InputStream input = client.getInputStream();
+            for (int expected : new int[] { 9, 2, 3, 4, 8 }) {
+                int value = input.read();
+                assert value == expected;
+            }
+            future = server.transmitFile(-1, path, 0, 1);
+            assert future.isCompletedExceptionally();
+        } finally {
+            server.disconnect();
+            Files.delete(path);
+        }
+    }
 }
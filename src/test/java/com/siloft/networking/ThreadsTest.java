@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.siloft.networking;
+
+import org.junit.Test;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Verifies whether the <code>Threads</code> class is working properly.
+ *
+ * @author Sander Veldhuis
+ */
+public class ThreadsTest {
+
+    /**
+     * Test whether platform threads are running as a daemon.
+     */
+    @Test
+    public void testPlatformThread() throws Exception {
+        ExecutorService executor = Threads.newSingleThreadExecutor(false);
+        final Thread[] thread = new Thread[1];
+        executor.submit(() -> thread[0] = Thread.currentThread()).get();
+        assert thread[0].isDaemon() == true;
+        executor.shutdown();
+        boolean terminated = executor.awaitTermination(5, TimeUnit.SECONDS);
+        assert terminated;
+    }
+
+    /**
+     * Test whether virtual threads are used if supported, or rejected
+     * otherwise.
+     */
+    @Test
+    public void testVirtualThread() throws Exception {
+        if (!Threads.isVirtualSupported()) {
+            try {
+                Threads.newSingleThreadExecutor(true);
+                assert false;
+            } catch (Exception e) {
+                assert e.getClass() == UnsupportedOperationException.class;
+                assert e.getMessage() == "Virtual threads not supported";
+            }
+            try {
+                new TCPServer("Test").setVirtualThreads(true);
+                assert false;
+            } catch (Exception e) {
+                assert e.getClass() == UnsupportedOperationException.class;
+            }
+            return;
+        }
+
+        ExecutorService executor = Threads.newSingleThreadExecutor(true);
+        final Thread[] thread = new Thread[1];
+        executor.submit(() -> thread[0] = Thread.currentThread()).get();
+        assert thread[0].isDaemon() == true;
+        assert thread[0].getClass().getName()
+                .equals("java.lang.VirtualThread");
+        executor.shutdown();
+    }
+
+    /**
+     * Test whether a bounded executor reuses idle threads, runs at most the
+     * maximum number of threads, queues further tasks, and discards tasks
+     * once shut down.
+     */
+    @Test
+    public void testBoundedExecutor() throws Exception {
+        try {
+            Threads.newBoundedExecutor(false, 0);
+            assert false;
+        } catch (Exception e) {
+            assert e.getClass() == IllegalArgumentException.class;
+            assert e.getMessage() == "Invalid maximum threads";
+        }
+
+        ExecutorService executor = Threads.newBoundedExecutor(false, 2);
+        Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        for (int i = 0; i < 10; i++) {
+            executor.submit(() -> threads.add(Thread.currentThread())).get();
+            Thread.sleep(20); // Ensure the thread is idle again
+        }
+        assert threads.size() == 1;
+        assert threads.iterator().next().isDaemon() == true;
+
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(4);
+        for (int i = 0; i < 4; i++) {
+            executor.execute(() -> {
+                threads.add(Thread.currentThread());
+                try {
+                    blocked.await();
+                } catch (InterruptedException e) {
+                    // Ignore
+                }
+                done.countDown();
+            });
+        }
+        Thread.sleep(100);
+        assert done.getCount() == 4;
+        blocked.countDown();
+        boolean signalled = done.await(5, TimeUnit.SECONDS);
+        assert signalled;
+        assert threads.size() == 2;
+
+        executor.shutdown();
+        executor.execute(() -> {
+            assert false;
+        });
+        boolean terminated = executor.awaitTermination(5, TimeUnit.SECONDS);
+        assert terminated;
+    }
+}
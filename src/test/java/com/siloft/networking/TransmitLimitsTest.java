@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2018 Siloft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.siloft.networking;
+
+import org.junit.Test;
+
+/**
+ * Verifies whether the <code>TransmitLimits</code> class is working properly.
+ *
+ * @author Sander Veldhuis
+ */
+public class TransmitLimitsTest {
+
+    /**
+     * Test whether invalid limits are not accepted.
+     */
+    @Test
+    public void testIllegalArgumentException() {
+        try {
+            new TransmitLimits(-1, 10, 10, 1, TransmitLimits.Policy.FAIL);
+            assert false;
+        } catch (Exception e) {
+            assert e.getClass() == IllegalArgumentException.class;
+            assert e.getMessage() == "Invalid low watermark";
+        }
+        try {
+            new TransmitLimits(10, 5, 10, 1, TransmitLimits.Policy.FAIL);
+            assert false;
+        } catch (Exception e) {
+            assert e.getClass() == IllegalArgumentException.class;
+            assert e.getMessage() == "Invalid high watermark";
+        }
+        try {
+            new TransmitLimits(5, 10, 5, 1, TransmitLimits.Policy.FAIL);
+            assert false;
+        } catch (Exception e) {
+            assert e.getClass() == IllegalArgumentException.class;
+            assert e.getMessage() == "Invalid maximum bytes";
+        }
+        try {
+            new TransmitLimits(5, 10, 10, 0, TransmitLimits.Policy.FAIL);
+            assert false;
+        } catch (Exception e) {
+            assert e.getClass() == IllegalArgumentException.class;
+            assert e.getMessage() == "Invalid maximum packets";
+        }
+    }
+
+    /**
+     * Test whether <code>null</code> is not accepted as policy.
+     */
+    @Test
+    public void testNullPointerException() {
+        try {
+            new TransmitLimits(5, 10, 10, 1, null);
+            assert false;
+        } catch (Exception e) {
+            assert e.getClass() == NullPointerException.class;
+            assert e.getMessage() == "Policy is null";
+        }
+    }
+
+    /**
+     * Test getters.
+     */
+    @Test
+    public void testGetters() {
+        TransmitLimits limits =
+                new TransmitLimits(5, 10, 20, 3, TransmitLimits.Policy.BLOCK);
+        assert limits.getLowWatermark() == 5;
+        assert limits.getHighWatermark() == 10;
+        assert limits.getMaxBytes() == 20;
+        assert limits.getMaxPackets() == 3;
+        assert limits.getPolicy() == TransmitLimits.Policy.BLOCK;
+    }
+}
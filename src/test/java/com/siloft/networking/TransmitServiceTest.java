@@ -22,10 +22,16 @@
 
 package com.siloft.networking;
 
-import javafx.concurrent.Task;
 import org.junit.Test;
 
+import java.io.DataInputStream;
+import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Verifies whether the <code>TransmitService</code> class is working properly.
@@ -72,7 +78,201 @@ public class TransmitServiceTest {
     public void testCreateTask() {
         TransmitService service = new TransmitService(new Socket());
 
-        Task<TCPPacket> task = service.createTask();
+        Callable<TCPPacket> task = service.createTask();
         assert task != null;
     }
+
+    /**
+     * Test whether TCP packets enqueued by multiple threads are all
+     * transmitted, in order per thread.
+     */
+    @Test
+    public void testConcurrentEnqueue() throws Exception {
+        try (ServerSocket server = new ServerSocket(0);
+                Socket client = new Socket("localhost", server.getLocalPort());
+                Socket socket = server.accept()) {
+            TransmitService service = new TransmitService(socket);
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            service.setExecutor(executor);
+            int producers = 4;
+            int count = 1000;
+
+            Thread[] threads = new Thread[producers];
+            for (int i = 0; i < producers; i++) {
+                final int producer = i;
+                threads[i] = new Thread(() -> {
+                    for (int j = 0; j < count; j++) {
+                        byte[] data = new byte[] { (byte) producer,
+                                (byte) (j >> 8), (byte) j };
+                        service.enqueue(new TCPPacket(data, data.length));
+                    }
+                });
+                threads[i].start();
+            }
+
+            DataInputStream input =
+                    new DataInputStream(client.getInputStream());
+            int[] next = new int[producers];
+            for (int i = 0; i < producers * count; i++) {
+                int producer = input.readUnsignedByte();
+                int sequence = input.readUnsignedShort();
+                assert sequence == next[producer]++;
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Test whether the fail policy rejects TCP packets exceeding the limits.
+     */
+    @Test
+    public void testFailPolicy() {
+        TransmitService service = new TransmitService(new Socket(), null,
+                new TransmitLimits(0, 10, 10, 100, TransmitLimits.Policy.FAIL));
+        boolean queued = service.enqueue(new TCPPacket(new byte[5], 5));
+        assert queued;
+        queued = service.enqueue(new TCPPacket(new byte[5], 5));
+        assert queued;
+        queued = service.enqueue(new TCPPacket(new byte[1], 1));
+        assert !queued;
+        assert service.getStatistics().getDropCount() == 1;
+
+        service.close();
+        queued = service.enqueue(new TCPPacket(new byte[0], 0));
+        assert !queued;
+    }
+
+    /**
+     * Test whether TCP packets exceeding the maximum length of the framer are
+     * rejected.
+     */
+    @Test
+    public void testMaxLength() {
+        TransmitService service = new TransmitService(new Socket(),
+                new TCPLengthFramer(4), TransmitLimits.DEFAULT);
+        boolean queued = service.enqueue(new TCPPacket(new byte[4], 4));
+        assert queued;
+        queued = service.enqueue(new TCPPacket(new byte[5], 5));
+        assert !queued;
+        assert service.getStatistics().getDropCount() == 0;
+    }
+
+    /**
+     * Test whether the writability changes at the high watermark.
+     */
+    @Test
+    public void testWritability() {
+        TransmitService service = new TransmitService(new Socket(), null,
+                new TransmitLimits(4, 8, 100, 100, TransmitLimits.Policy.FAIL));
+        AtomicBoolean notified = new AtomicBoolean(true);
+        service.setOnWritabilityChanged(writable -> notified.set(writable));
+
+        boolean queued = service.enqueue(new TCPPacket(new byte[8], 8));
+        assert queued;
+        assert service.isWritable();
+        assert notified.get();
+        queued = service.enqueue(new TCPPacket(new byte[1], 1));
+        assert queued;
+        assert !service.isWritable();
+        assert !notified.get();
+    }
+
+    /**
+     * Test whether the drop oldest policy drops the oldest TCP packets.
+     */
+    @Test
+    public void testDropOldestPolicy() throws Exception {
+        try (ServerSocket server = new ServerSocket(0);
+                Socket client = new Socket("localhost", server.getLocalPort());
+                Socket socket = server.accept()) {
+            TransmitService service = new TransmitService(socket, null,
+                    new TransmitLimits(0, 100, 100, 2,
+                            TransmitLimits.Policy.DROP_OLDEST));
+            for (int i = 0; i < 5; i++) {
+                boolean queued = service.enqueue(
+                        new TCPPacket(new byte[] { (byte) i }, 1));
+                assert queued;
+            }
+            assert service.getStatistics().getDropCount() == 3;
+
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            service.setExecutor(executor);
+            service.start();
+
+            DataInputStream input =
+                    new DataInputStream(client.getInputStream());
+            byte value = input.readByte();
+            assert value == 3;
+            value = input.readByte();
+            assert value == 4;
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Test whether the block policy blocks till the service is closed.
+     */
+    @Test
+    public void testBlockPolicy() throws Exception {
+        TransmitService service = new TransmitService(new Socket(), null,
+                new TransmitLimits(0, 10, 10, 1, TransmitLimits.Policy.BLOCK));
+        boolean queued = service.enqueue(new TCPPacket(new byte[1], 1));
+        assert queued;
+
+        AtomicBoolean result = new AtomicBoolean(true);
+        Thread producer = new Thread(() -> {
+            result.set(service.enqueue(new TCPPacket(new byte[1], 1)));
+        });
+        producer.start();
+        producer.join(200);
+        assert producer.isAlive();
+
+        service.close();
+        producer.join();
+        assert !result.get();
+    }
+
+    /**
+     * Test whether at most one task transmits at a time on a multi-threaded
+     * executor, also if the service is started while idle.
+     */
+    @Test
+    public void testSingleTask() throws Exception {
+        ExecutorService executor = Threads.newBoundedExecutor(false, 4);
+        try (ServerSocket server = new ServerSocket(0);
+                Socket client = new Socket("localhost", server.getLocalPort());
+                Socket socket = server.accept()) {
+            TransmitService service = new TransmitService(socket,
+                    new TCPLengthFramer(), TransmitLimits.DEFAULT);
+            service.setExecutor(executor);
+            service.start();
+            assert service.getState() == IOService.State.READY;
+
+            int count = 200;
+            Thread producer = new Thread(() -> {
+                for (int i = 0; i < count; i++) {
+                    byte[] data = new byte[i % 2 == 0 ? 300 * 1024 : 10];
+                    Arrays.fill(data, (byte) i);
+                    service.enqueue(new TCPPacket(data, data.length));
+                }
+            });
+            producer.start();
+
+            DataInputStream input =
+                    new DataInputStream(client.getInputStream());
+            byte[] data = new byte[300 * 1024];
+            for (int i = 0; i < count; i++) {
+                int length = input.readInt();
+                assert length == (i % 2 == 0 ? data.length : 10);
+                input.readFully(data, 0, length);
+                assert data[0] == (byte) i && data[length - 1] == (byte) i;
+            }
+            producer.join();
+        } finally {
+            executor.shutdown();
+        }
+    }
 }
@@ -24,9 +24,17 @@ package com.siloft.networking;
 
 import org.junit.Test;
 
+import java.io.DataInputStream;
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
 
 /**
  * Verifies whether the <code>TransmitTask</code> class is working properly.
@@ -85,4 +93,232 @@ public class TransmitTaskTest {
             assert false;
         }
     }
+
+    /**
+     * Test whether all TCP packets are coalesced into a single flush.
+     */
+    @Test
+    public void testCoalescing() throws IOException {
+        try (ServerSocket server = new ServerSocket(0);
+                Socket client = new Socket("localhost", server.getLocalPort());
+                Socket socket = server.accept()) {
+            List<TCPPacket> packets = new ArrayList<TCPPacket>();
+            for (int i = 0; i < 100; i++) {
+                packets.add(new TCPPacket(new byte[] { (byte) i }, 1));
+            }
+            TransmitCounter counter = new TransmitCounter();
+            TransmitTask task = new TransmitTask(socket, packets,
+                    new TCPLengthFramer(), counter);
+            task.call();
+            assert packets.isEmpty();
+
+            TransmitStatistics statistics = counter.getStatistics();
+            assert statistics.getPacketCount() == 100;
+            assert statistics.getFlushCount() == 1;
+            assert statistics.getByteCount() == 500;
+            assert statistics.getMaxPacketsPerFlush() == 100;
+            assert statistics.getPacketsPerFlush() == 100;
+
+            DataInputStream input =
+                    new DataInputStream(client.getInputStream());
+            for (int i = 0; i < 100; i++) {
+                int length = input.readInt();
+                assert length == 1;
+                byte value = input.readByte();
+                assert value == (byte) i;
+            }
+        }
+    }
+
+    /**
+     * Test whether TCP packets larger than the buffer are written directly.
+     */
+    @Test
+    public void testLargePacket() throws IOException, InterruptedException {
+        try (ServerSocket server = new ServerSocket(0);
+                Socket client = new Socket("localhost", server.getLocalPort());
+                Socket socket = server.accept()) {
+            int size = BufferPool.getDefault().getMaxSize() * 2;
+            List<TCPPacket> packets = new ArrayList<TCPPacket>();
+            packets.add(new TCPPacket(new byte[] { 1 }, 1));
+            packets.add(new TCPPacket(new byte[size], size));
+            packets.add(new TCPPacket(new byte[] { 2 }, 1));
+            TransmitCounter counter = new TransmitCounter();
+            TransmitTask task =
+                    new TransmitTask(socket, packets, null, counter);
+
+            Thread reader = new Thread(() -> {
+                try {
+                    DataInputStream input =
+                            new DataInputStream(client.getInputStream());
+                    byte[] data = new byte[size + 2];
+                    input.readFully(data);
+                    assert data[0] == 1 && data[size + 1] == 2;
+                } catch (IOException e) {
+                    assert false;
+                }
+            });
+            reader.start();
+            task.call();
+            reader.join();
+
+            TransmitStatistics statistics = counter.getStatistics();
+            assert statistics.getPacketCount() == 3;
+            assert statistics.getByteCount() == size + 2;
+            assert statistics.getFlushCount() == 3;
+        }
+    }
+
+    /**
+     * Test transmitting a file through the socket channel.
+     */
+    @Test
+    public void testFileChannel() throws Exception {
+        try (ServerSocket server = new ServerSocket(0);
+                Socket socket = SocketChannel.open(new InetSocketAddress(
+                        "localhost", server.getLocalPort())).socket();
+                Socket client = server.accept()) {
+            assert socket.getChannel() != null;
+            transmitFile(socket, client);
+        }
+    }
+
+    /**
+     * Test transmitting a file through memory-mapped chunks, as used by
+     * sockets without channel.
+     */
+    @Test
+    public void testFileMapped() throws Exception {
+        try (ServerSocket server = new ServerSocket(0);
+                Socket socket = new Socket("localhost", server.getLocalPort());
+                Socket client = server.accept()) {
+            assert socket.getChannel() == null;
+            transmitFile(socket, client);
+        }
+    }
+
+    /**
+     * Test whether a file exceeding the file region fails.
+     */
+    @Test
+    public void testFileTooShort() throws Exception {
+        Path path = Files.createTempFile("TransmitTaskTest", ".bin");
+        try (ServerSocket server = new ServerSocket(0);
+                Socket socket = new Socket("localhost",
+                        server.getLocalPort())) {
+            Files.write(path, new byte[10]);
+            FilePacket file = new FilePacket(path, 5, 10);
+            List<TCPPacket> packets = new ArrayList<TCPPacket>();
+            packets.add(file);
+            try {
+                new TransmitTask(socket, packets, null, null).call();
+                assert false;
+            } catch (IOException e) {
+                assert file.getFuture().isCompletedExceptionally();
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    /**
+     * Test whether a framed file is split into TCP packets not exceeding the
+     * maximum length of the framer.
+     */
+    @Test
+    public void testFileMaxLength() throws Exception {
+        Path path = Files.createTempFile("TransmitTaskTest", ".bin");
+        try (ServerSocket server = new ServerSocket(0);
+                Socket socket = new Socket("localhost", server.getLocalPort());
+                Socket client = server.accept()) {
+            Files.write(path, new byte[] { 1, 2, 3, 4, 5 });
+            FilePacket file = new FilePacket(path, 0, 5);
+            List<TCPPacket> packets = new ArrayList<TCPPacket>();
+            packets.add(file);
+            new TransmitTask(socket, packets, new TCPLengthFramer(2), null)
+                    .call();
+            long transmitted = file.getFuture().get();
+            assert transmitted == 5;
+
+            DataInputStream input =
+                    new DataInputStream(client.getInputStream());
+            byte[] chunk = new byte[2];
+            for (int i = 1; i <= 5; i += 2) {
+                int length = input.readInt();
+                assert length == Math.min(2, 6 - i);
+                input.readFully(chunk, 0, length);
+                assert chunk[0] == i && (length == 1 || chunk[1] == i + 1);
+            }
+
+            file = new FilePacket(path, 0, 5);
+            packets.add(file);
+            new TransmitTask(socket, packets, new TCPLengthFramer(0), null)
+                    .call();
+            assert file.getFuture().isCompletedExceptionally();
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    /**
+     * Transmits a file between two TCP packets, framed, and verifies the
+     * received data.
+     *
+     * @param socket
+     *            the transmitting socket
+     * @param client
+     *            the receiving socket
+     */
+    private void transmitFile(Socket socket, Socket client) throws Exception {
+        int size = TransmitTask.FILE_CHUNK_SIZE + 1000;
+        byte[] content = new byte[size + 20];
+        new Random(1).nextBytes(content);
+        Path path = Files.createTempFile("TransmitTaskTest", ".bin");
+        try {
+            Files.write(path, content);
+            FilePacket file = new FilePacket(path, 10, size);
+            List<TCPPacket> packets = new ArrayList<TCPPacket>();
+            packets.add(new TCPPacket(new byte[] { 1 }, 1));
+            packets.add(file);
+            packets.add(new TCPPacket(new byte[] { 2 }, 1));
+            TransmitCounter counter = new TransmitCounter();
+            TransmitTask task = new TransmitTask(socket, packets,
+                    new TCPLengthFramer(), counter);
+
+            Thread writer = new Thread(() -> {
+                try {
+                    task.call();
+                } catch (IOException e) {
+                    assert false;
+                }
+            });
+            writer.start();
+
+            DataInputStream input =
+                    new DataInputStream(client.getInputStream());
+            int length = input.readInt();
+            byte value = input.readByte();
+            assert length == 1 && value == 1;
+            length = input.readInt();
+            assert length == TransmitTask.FILE_CHUNK_SIZE;
+            byte[] received = new byte[size];
+            input.readFully(received, 0, TransmitTask.FILE_CHUNK_SIZE);
+            length = input.readInt();
+            assert length == 1000;
+            input.readFully(received, TransmitTask.FILE_CHUNK_SIZE, 1000);
+            length = input.readInt();
+            value = input.readByte();
+            assert length == 1 && value == 2;
+            writer.join();
+
+            for (int i = 0; i < size; i++) {
+                assert received[i] == content[i + 10];
+            }
+            long transmitted = file.getFuture().get();
+            assert transmitted == size;
+            assert counter.getStatistics().getPacketCount() == 4;
+        } finally {
+            Files.delete(path);
+        }
+    }
 }